@@ -201,6 +201,12 @@ public class Connector
      */
     protected int maxParameterCount = 10000;
 
+    /**
+     * Index the parameters when they are parsed, and decode each of them only
+     * when it is looked up.
+     */
+    protected boolean lazyParameterParsing = false;
+
     /**
      * Maximum size of a POST which will be automatically parsed by the
      * container. 2MB by default.
@@ -531,6 +537,25 @@ public class Connector
     }
 
 
+    /**
+     * Return <code>true</code> if the mapper uses compiled tries.
+     */
+    public boolean getCompiledMapper() {
+        return mapper.isCompiled();
+    }
+
+
+    /**
+     * Set to <code>true</code> to have the mapper map requests through tries
+     * over the host names, context paths and servlet mappings.
+     *
+     * @param compiledMapper The new flag value
+     */
+    public void setCompiledMapper(boolean compiledMapper) {
+        mapper.setCompiled(compiledMapper);
+    }
+
+
     /**
      * Return the maximum number of headers that are allowed by the container. A
      * value of less than 0 means no limit.
@@ -582,6 +607,27 @@ public class Connector
     }
 
 
+    /**
+     * Return <code>true</code> if the request parameters are decoded only
+     * when they are looked up.
+     */
+    public boolean getLazyParameterParsing() {
+        return lazyParameterParsing;
+    }
+
+
+    /**
+     * Set whether the request parameters are only indexed when they are
+     * parsed, each of them being URL decoded and converted to a String when
+     * it is first looked up.
+     *
+     * @param lazyParameterParsing The new flag value
+     */
+    public void setLazyParameterParsing(boolean lazyParameterParsing) {
+        this.lazyParameterParsing = lazyParameterParsing;
+    }
+
+
     /**
      * Return the maximum size of a POST which will be automatically
      * parsed by the container.
@@ -2573,6 +2573,7 @@ public class Request
         Parameters parameters = coyoteRequest.getParameters();
         // Set this every time in case limit has been changed via JMX
         parameters.setLimit(getConnector().getMaxParameterCount());
+        parameters.setLazy(getConnector().getLazyParameterParsing());
 
         // getCharacterEncoding() may have been overridden to search for
         // hidden form field containing request encoding
@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.util.StringManager;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Thread pool that sizes itself from the time tasks wait in the queue.
+ * <p>
+ * The executor measures, for every task, the time spent in the queue and the
+ * time spent running. Every <code>adjustInterval</code> milliseconds the
+ * averages of the last interval are folded into exponentially weighted moving
+ * averages, and the number of threads the pool may use (the thread limit) is
+ * moved between <code>minSpareThreads</code> and <code>maxThreads</code>:
+ * it doubles while the average queue time is above
+ * <code>targetQueueTime</code> and shrinks slowly once it is well below it.
+ * The core size follows the number of threads the measured throughput and
+ * service time call for, so those threads are kept warm.
+ * <p>
+ * The adjustment runs on the thread submitting a task or on a pool thread
+ * after it completes one, so no additional thread is needed. As the tasks
+ * still in the queue count through the age of the oldest one, the pool also
+ * grows when all its threads are blocked and no task completes.
+ */
+public class AdaptiveThreadExecutor extends StandardThreadExecutor {
+
+    private static final Log log = LogFactory.getLog(AdaptiveThreadExecutor.class);
+
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    /**
+     * Number of histogram buckets. Bucket <code>i</code> counts the tasks
+     * that took at most <code>2^i</code> ms, the last one the slower tasks.
+     */
+    protected static final int HISTOGRAM_BUCKETS = 15;
+
+    /**
+     * Weight of the last interval in the moving averages.
+     */
+    protected static final double EWMA_WEIGHT = 0.3;
+
+    // ---------------------------------------------- Properties
+    /**
+     * Target average time in milliseconds a task waits in the queue
+     */
+    protected int targetQueueTime = 10;
+
+    /**
+     * Time in milliseconds between two adjustments of the pool size
+     */
+    protected int adjustInterval = 1000;
+
+    /**
+     * Current maximum number of threads of the pool
+     */
+    protected volatile int threadLimit;
+
+    // ---------------------------------------------- Statistics
+    protected volatile double queueTimeEwma = 0;
+
+    protected volatile double serviceTimeEwma = 0;
+
+    protected AtomicLongArray queueTimeHistogram =
+        new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    protected AtomicLongArray serviceTimeHistogram =
+        new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    /**
+     * Totals for the current interval, in nanoseconds
+     */
+    protected AtomicLong intervalTasks = new AtomicLong();
+    protected AtomicLong intervalQueueTime = new AtomicLong();
+    protected AtomicLong intervalServiceTime = new AtomicLong();
+
+    /**
+     * Time of the last adjustment, from System.nanoTime()
+     */
+    protected AtomicLong lastAdjust = new AtomicLong();
+
+    // ---------------------------------------------- Public Methods
+    public void start() throws LifecycleException {
+        threadLimit = Math.min(getMinSpareThreads(), getMaxThreads());
+        if (threadLimit < 1) {
+            threadLimit = 1;
+        }
+        super.start();
+        ThreadPoolExecutor executor = this.executor;
+        executor.setCorePoolSize(Math.min(getMinSpareThreads(), threadLimit));
+        executor.setMaximumPoolSize(threadLimit);
+        lastAdjust.set(System.nanoTime());
+    }
+
+    public void execute(Runnable command) {
+        try {
+            super.execute(new TimedTask(command));
+        } finally {
+            checkAdjust();
+        }
+    }
+
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        try {
+            super.execute(new TimedTask(command), timeout, unit);
+        } finally {
+            checkAdjust();
+        }
+    }
+
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof TimedTask) {
+            TimedTask task = (TimedTask) r;
+            task.started = System.nanoTime();
+            long wait = task.started - task.queued;
+            intervalQueueTime.addAndGet(wait);
+            queueTimeHistogram.incrementAndGet(bucket(wait));
+        }
+    }
+
+    protected void afterExecute(Runnable r, Throwable t) {
+        if (r instanceof TimedTask) {
+            TimedTask task = (TimedTask) r;
+            long service = System.nanoTime() - task.started;
+            intervalServiceTime.addAndGet(service);
+            serviceTimeHistogram.incrementAndGet(bucket(service));
+            intervalTasks.incrementAndGet();
+        }
+        checkAdjust();
+    }
+
+    /**
+     * Adjust the pool size if the adjustment interval has elapsed.
+     */
+    protected void checkAdjust() {
+        long last = lastAdjust.get();
+        long now = System.nanoTime();
+        if (now - last >= TimeUnit.MILLISECONDS.toNanos(adjustInterval)
+                && lastAdjust.compareAndSet(last, now)) {
+            adjust(now - last);
+        }
+    }
+
+    /**
+     * Fold the statistics of the elapsed interval into the moving averages
+     * and resize the pool.
+     *
+     * @param elapsed Length of the interval in nanoseconds
+     */
+    protected void adjust(long elapsed) {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            return;
+        }
+        long tasks = intervalTasks.getAndSet(0);
+        long queueTime = intervalQueueTime.getAndSet(0);
+        long serviceTime = intervalServiceTime.getAndSet(0);
+        // The tasks still queued have waited at least as long as the oldest
+        Runnable oldest = executor.getQueue().peek();
+        double queued = 0;
+        if (oldest instanceof TimedTask) {
+            queued = (System.nanoTime() - ((TimedTask) oldest).queued) / 1000000.0;
+        }
+        if (tasks == 0 && queued == 0) {
+            return;
+        }
+        double queueSample = (tasks > 0) ? queueTime / 1000000.0 / tasks : 0;
+        queueTimeEwma = ewma(queueTimeEwma, Math.max(queueSample, queued));
+        if (tasks > 0) {
+            serviceTimeEwma = ewma(serviceTimeEwma, serviceTime / 1000000.0 / tasks);
+        }
+
+        // Threads needed to sustain the observed throughput (Little's law)
+        double throughput = tasks * 1000.0 / TimeUnit.NANOSECONDS.toMillis(Math.max(elapsed, 1000000));
+        int needed = (int) Math.ceil(throughput * serviceTimeEwma / 1000.0);
+
+        int limit = threadLimit;
+        int newLimit = limit;
+        if (queueTimeEwma > targetQueueTime) {
+            newLimit = Math.max(limit * 2, needed);
+        } else if (queueTimeEwma < targetQueueTime / 4.0) {
+            newLimit = Math.max(limit - Math.max(1, limit / 8), needed);
+        }
+        newLimit = Math.max(Math.min(newLimit, getMaxThreads()), Math.max(getMinSpareThreads(), 1));
+        int newCore = Math.max(Math.min(needed, newLimit), Math.min(getMinSpareThreads(), newLimit));
+
+        synchronized (this) {
+            // Keep core <= max at every step
+            if (newLimit >= executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(newLimit);
+                executor.setCorePoolSize(newCore);
+            } else {
+                executor.setCorePoolSize(newCore);
+                executor.setMaximumPoolSize(newLimit);
+            }
+            threadLimit = newLimit;
+        }
+        if (log.isDebugEnabled() && newLimit != limit) {
+            log.debug(sm.getString("adaptiveThreadExecutor.adjust", new Object[] {
+                    getName(), Integer.valueOf(limit), Integer.valueOf(newLimit),
+                    Double.valueOf(queueTimeEwma), Double.valueOf(serviceTimeEwma)}));
+        }
+    }
+
+    /**
+     * Clear the histograms and the moving averages.
+     */
+    public void resetStatistics() {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            queueTimeHistogram.set(i, 0);
+            serviceTimeHistogram.set(i, 0);
+        }
+        queueTimeEwma = 0;
+        serviceTimeEwma = 0;
+    }
+
+    public synchronized void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        if (executor != null && threadLimit > maxThreads) {
+            threadLimit = Math.max(maxThreads, 1);
+            if (executor.getCorePoolSize() > threadLimit) {
+                executor.setCorePoolSize(threadLimit);
+            }
+            executor.setMaximumPoolSize(threadLimit);
+        }
+    }
+
+    public synchronized void setMinSpareThreads(int minSpareThreads) {
+        this.minSpareThreads = minSpareThreads;
+        if (executor != null) {
+            if (threadLimit < minSpareThreads) {
+                threadLimit = Math.min(minSpareThreads, getMaxThreads());
+                executor.setMaximumPoolSize(threadLimit);
+            }
+            executor.setCorePoolSize(Math.min(minSpareThreads, threadLimit));
+        }
+    }
+
+    public int getTargetQueueTime() {
+        return targetQueueTime;
+    }
+
+    public void setTargetQueueTime(int targetQueueTime) {
+        this.targetQueueTime = targetQueueTime;
+    }
+
+    public int getAdjustInterval() {
+        return adjustInterval;
+    }
+
+    public void setAdjustInterval(int adjustInterval) {
+        this.adjustInterval = adjustInterval;
+    }
+
+    public int getThreadLimit() {
+        return threadLimit;
+    }
+
+    public double getQueueTimeEwma() {
+        return queueTimeEwma;
+    }
+
+    public double getServiceTimeEwma() {
+        return serviceTimeEwma;
+    }
+
+    public String getQueueTimeHistogram() {
+        return toString(queueTimeHistogram);
+    }
+
+    public String getServiceTimeHistogram() {
+        return toString(serviceTimeHistogram);
+    }
+
+    // ---------------------------------------------- Private Methods
+    private static double ewma(double average, double sample) {
+        if (average == 0) {
+            return sample;
+        }
+        return average + EWMA_WEIGHT * (sample - average);
+    }
+
+    private static int bucket(long nanos) {
+        long millis = (nanos + 999999) / 1000000;
+        if (millis <= 1) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(millis - 1), HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * Render a histogram as <code>upper bound in ms=count</code> pairs.
+     */
+    private static String toString(AtomicLongArray histogram) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            if (i < HISTOGRAM_BUCKETS - 1) {
+                sb.append(1L << i);
+            } else {
+                sb.append('>').append(1L << (i - 1));
+            }
+            sb.append("ms=").append(histogram.get(i));
+        }
+        return sb.toString();
+    }
+
+    // ---------------------------------------------- TimedTask Inner Class
+    /**
+     * Wraps a submitted task to record when it was queued and started.
+     */
+    static class TimedTask implements Runnable {
+        final Runnable task;
+        final long queued = System.nanoTime();
+        long started;
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            task.run();
+        }
+    }
+}
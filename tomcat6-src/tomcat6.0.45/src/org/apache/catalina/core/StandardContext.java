@@ -661,6 +661,13 @@ public class StandardContext
     protected int cacheObjectMaxSize = 512; // 512K
 
 
+    /**
+     * Class name of the static resources cache, <code>null</code> for the
+     * default.
+     */
+    protected String cacheClassName = null;
+
+
     /**
      * Cache TTL in ms.
      */
@@ -934,6 +941,23 @@ public class StandardContext
     }
 
 
+    /**
+     * Return the class name of the static resources cache.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the class name of the static resources cache, a subclass of
+     * <code>org.apache.naming.resources.ResourceCache</code>.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     /**
      * Return the "follow standard delegation model" flag used to configure
      * our ClassLoader.
@@ -2099,6 +2123,7 @@ public class StandardContext
             ((BaseDirContext) resources).setCacheMaxSize(getCacheMaxSize());
             ((BaseDirContext) resources).setCacheObjectMaxSize(
                     getCacheObjectMaxSize());
+            ((BaseDirContext) resources).setCacheClassName(getCacheClassName());
         }
         if (resources instanceof FileDirContext) {
             filesystemBased = true;
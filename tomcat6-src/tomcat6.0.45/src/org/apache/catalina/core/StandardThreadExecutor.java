@@ -98,12 +98,17 @@ public class StandardThreadExecutor implements Executor {
         TaskThreadFactory tf = new TaskThreadFactory(namePrefix);
         lifecycle.fireLifecycleEvent(START_EVENT, null);
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), maxIdleTime, TimeUnit.MILLISECONDS,taskqueue, tf) {
+			@Override
+			protected void beforeExecute(Thread t, Runnable r) {
+				StandardThreadExecutor.this.beforeExecute(t, r);
+			}
 			@Override
 			protected void afterExecute(Runnable r, Throwable t) {
 				AtomicInteger atomic = submittedTasksCount;
 				if(atomic!=null) {
 					atomic.decrementAndGet();
 				}
+				StandardThreadExecutor.this.afterExecute(r, t);
 			}
         };
         taskqueue.setParent( (ThreadPoolExecutor) executor);
@@ -155,6 +160,20 @@ public class StandardThreadExecutor implements Executor {
         } else throw new IllegalStateException("StandardThreadPool not started.");
     }
 
+    /**
+     * Invoked by the pool thread before it runs a task. The default
+     * implementation does nothing.
+     */
+    protected void beforeExecute(Thread t, Runnable r) {
+    }
+
+    /**
+     * Invoked by the pool thread once a task has completed, normally or
+     * not. The default implementation does nothing.
+     */
+    protected void afterExecute(Runnable r, Throwable t) {
+    }
+
     public int getThreadPriority() {
         return threadPriority;
     }
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.util.LifecycleSupport;
+import org.apache.catalina.util.StringManager;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Executor that runs every task on a new virtual thread, so the number of
+ * requests in progress is not bound by a thread pool size. Virtual threads
+ * are looked up by reflection; when the JVM does not provide them the
+ * executor falls back to a pool of <code>maxThreads</code> platform threads.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    private static final Log log = LogFactory.getLog(VirtualThreadExecutor.class);
+
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    // ---------------------------------------------- Properties
+    /**
+     * Default name prefix for the thread name
+     */
+    protected String namePrefix = "tomcat-virt-";
+
+    /**
+     * max number of platform threads, when virtual threads are unavailable
+     */
+    protected int maxThreads = 200;
+
+    /**
+     * idle time in milliseconds of the platform threads
+     */
+    protected int maxIdleTime = 60000;
+
+    /**
+     * the name of this executor
+     */
+    protected String name;
+
+    /**
+     * Factory creating the virtual threads, <code>null</code> when the
+     * platform threads are used.
+     */
+    protected ThreadFactory virtualThreadFactory = null;
+
+    /**
+     * Platform thread pool used when virtual threads are unavailable.
+     */
+    protected ThreadPoolExecutor executor = null;
+
+    protected volatile boolean started = false;
+
+    /**
+     * Number of tasks currently running.
+     */
+    protected AtomicInteger activeCount = new AtomicInteger();
+
+    /**
+     * Highest number of tasks that ran at the same time.
+     */
+    protected AtomicInteger largestActiveCount = new AtomicInteger();
+
+    /**
+     * Number of tasks completed.
+     */
+    protected AtomicLong completedTaskCount = new AtomicLong();
+
+    private LifecycleSupport lifecycle = new LifecycleSupport(this);
+
+    // ---------------------------------------------- Constructors
+    public VirtualThreadExecutor() {
+        //empty constructor for the digester
+    }
+
+    // ---------------------------------------------- Public Methods
+    public void start() throws LifecycleException {
+        lifecycle.fireLifecycleEvent(BEFORE_START_EVENT, null);
+        lifecycle.fireLifecycleEvent(START_EVENT, null);
+        virtualThreadFactory = createVirtualThreadFactory(namePrefix);
+        if (virtualThreadFactory == null) {
+            log.info(sm.getString("virtualThreadExecutor.fallback", name));
+            executor = new ThreadPoolExecutor(maxThreads, maxThreads, maxIdleTime,
+                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new PlatformThreadFactory(namePrefix));
+            allowCoreThreadTimeOut(executor);
+        }
+        started = true;
+        lifecycle.fireLifecycleEvent(AFTER_START_EVENT, null);
+    }
+
+    public void stop() throws LifecycleException {
+        lifecycle.fireLifecycleEvent(BEFORE_STOP_EVENT, null);
+        lifecycle.fireLifecycleEvent(STOP_EVENT, null);
+        started = false;
+        if ( executor != null ) executor.shutdown();
+        executor = null;
+        virtualThreadFactory = null;
+        lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
+    }
+
+    public void execute(Runnable command) {
+        if (!started) {
+            throw new IllegalStateException("VirtualThreadExecutor not started.");
+        }
+        Runnable task = new CountingTask(command);
+        ThreadFactory factory = virtualThreadFactory;
+        if (factory != null) {
+            factory.newThread(task).start();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtualThreadFactory != null;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        if (executor != null) {
+            if (maxThreads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(maxThreads);
+                executor.setCorePoolSize(maxThreads);
+            } else {
+                executor.setCorePoolSize(maxThreads);
+                executor.setMaximumPoolSize(maxThreads);
+            }
+        }
+    }
+
+    public int getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(int maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+        if (executor != null) {
+            executor.setKeepAliveTime(maxIdleTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Add a LifecycleEvent listener to this component.
+     *
+     * @param listener The listener to add
+     */
+    public void addLifecycleListener(LifecycleListener listener) {
+        lifecycle.addLifecycleListener(listener);
+    }
+
+
+    /**
+     * Get the lifecycle listeners associated with this lifecycle. If this
+     * Lifecycle has no listeners registered, a zero-length array is returned.
+     */
+    public LifecycleListener[] findLifecycleListeners() {
+        return lifecycle.findLifecycleListeners();
+    }
+
+
+    /**
+     * Remove a LifecycleEvent listener from this component.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeLifecycleListener(LifecycleListener listener) {
+        lifecycle.removeLifecycleListener(listener);
+    }
+
+    // Statistics, named as the ones of StandardThreadExecutor
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+    public int getLargestPoolSize() {
+        return largestActiveCount.get();
+    }
+
+    public int getPoolSize() {
+        ThreadPoolExecutor executor = this.executor;
+        return (executor != null) ? executor.getPoolSize() : activeCount.get();
+    }
+
+    public int getQueueSize() {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor != null) {
+            return executor.getQueue().size();
+        }
+        return started ? 0 : -1;
+    }
+
+    // ---------------------------------------------- Private Methods
+    /**
+     * Obtain a factory of virtual threads named <code>prefix</code>
+     * followed by a counter, through <code>Thread.ofVirtual()</code>.
+     *
+     * @return the factory, or <code>null</code> if the JVM has no virtual
+     *         threads or they are not enabled
+     */
+    protected ThreadFactory createVirtualThreadFactory(String prefix) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                .invoke(builder, prefix, Long.valueOf(1));
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Throwable t) {
+            // NoSuchMethodException before Java 19, and
+            // UnsupportedOperationException when preview features are off
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("virtualThreadExecutor.unavailable"), t);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Let the idle platform threads time out, through
+     * <code>ThreadPoolExecutor.allowCoreThreadTimeOut</code> which is only
+     * available from Java 6. On Java 5 the threads are kept.
+     */
+    protected static void allowCoreThreadTimeOut(ThreadPoolExecutor executor) {
+        try {
+            Method allow = ThreadPoolExecutor.class.getMethod(
+                    "allowCoreThreadTimeOut", boolean.class);
+            allow.invoke(executor, Boolean.TRUE);
+        } catch (Throwable t) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("virtualThreadExecutor.noCoreTimeOut"), t);
+            }
+        }
+    }
+
+    // ---------------------------------------------- CountingTask Inner Class
+    class CountingTask implements Runnable {
+        final Runnable task;
+
+        CountingTask(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            int active = activeCount.incrementAndGet();
+            int largest = largestActiveCount.get();
+            while (active > largest
+                    && !largestActiveCount.compareAndSet(largest, active)) {
+                largest = largestActiveCount.get();
+            }
+            try {
+                task.run();
+            } finally {
+                activeCount.decrementAndGet();
+                completedTaskCount.incrementAndGet();
+            }
+        }
+    }
+
+    // ---------------------------------------------- ThreadFactory Inner Class
+    static class PlatformThreadFactory implements ThreadFactory {
+        final ThreadGroup group;
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        final String namePrefix;
+
+        PlatformThreadFactory(String namePrefix) {
+            SecurityManager s = System.getSecurityManager();
+            group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
+            this.namePrefix = namePrefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
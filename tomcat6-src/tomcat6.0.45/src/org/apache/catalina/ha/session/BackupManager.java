@@ -69,6 +69,17 @@ public class BackupManager extends StandardManager implements ClusterManager, Ma
      */
     private long rpcTimeout = DEFAULT_REPL_TIMEOUT;
 
+    /**
+     * Number of nodes holding a backup of each session.
+     */
+    private int backupCount = 1;
+
+    /**
+     * Number of sessions which backups are moved at each heartbeat after a
+     * node has joined.
+     */
+    private int rebalanceBatchSize = 100;
+
     /**
      * Constructor, just calls super()
      *
@@ -206,6 +217,8 @@ public class BackupManager extends StandardManager implements ClusterManager, Ma
                                                           getMapName(),
                                                           getClassLoaders());
             map.setChannelSendOptions(mapSendOptions);
+            map.setBackupCount(backupCount);
+            map.setRebalanceBatchSize(rebalanceBatchSize);
             this.sessions = map;
             super.start();
             this.started = true;
@@ -282,6 +295,22 @@ public class BackupManager extends StandardManager implements ClusterManager, Ma
         return rpcTimeout;
     }
 
+    public int getBackupCount() {
+        return backupCount;
+    }
+
+    public void setBackupCount(int backupCount) {
+        this.backupCount = backupCount;
+    }
+
+    public int getRebalanceBatchSize() {
+        return rebalanceBatchSize;
+    }
+
+    public void setRebalanceBatchSize(int rebalanceBatchSize) {
+        this.rebalanceBatchSize = rebalanceBatchSize;
+    }
+
     public String[] getInvalidatedSessions() {
         return new String[0];
     }
@@ -295,6 +324,8 @@ public class BackupManager extends StandardManager implements ClusterManager, Ma
         result.mapSendOptions = mapSendOptions;
         result.maxActiveSessions = maxActiveSessions;
         result.rpcTimeout = rpcTimeout;
+        result.backupCount = backupCount;
+        result.rebalanceBatchSize = rebalanceBatchSize;
         return result;
     }
 
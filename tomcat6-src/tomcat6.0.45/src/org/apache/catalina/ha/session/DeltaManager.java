@@ -130,6 +130,7 @@ public class DeltaManager extends ClusterManagerBase{
     private boolean receiverQueue = false ;
     private boolean stateTimestampDrop = true ;
     private long stateTransferCreateSendTime; 
+    private boolean replicateAttributeDeltas = false;
     
     // ------------------------------------------------------------------ stats attributes
     
@@ -154,6 +155,10 @@ public class DeltaManager extends ClusterManagerBase{
     private int counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0 ;
     private long counterSend_EVT_CHANGE_SESSION_ID = 0;
     private int counterNoStateTransfered = 0 ;
+    private long bytesReceive_EVT_SESSION_DELTA = 0;
+    private long bytesReceive_EVT_ALL_SESSION_DATA = 0;
+    private long bytesSend_EVT_SESSION_DELTA = 0;
+    private long bytesSend_EVT_ALL_SESSION_DATA = 0;
 
     // ------------------------------------------------------------- Constructor
     public DeltaManager() {
@@ -266,6 +271,34 @@ public class DeltaManager extends ClusterManagerBase{
         return counterReceive_EVT_SESSION_CREATED;
     }
     
+    /**
+     * @return Returns the bytes sent in EVT_SESSION_DELTA messages.
+     */
+    public long getBytesSend_EVT_SESSION_DELTA() {
+        return bytesSend_EVT_SESSION_DELTA;
+    }
+
+    /**
+     * @return Returns the bytes sent in EVT_ALL_SESSION_DATA messages.
+     */
+    public long getBytesSend_EVT_ALL_SESSION_DATA() {
+        return bytesSend_EVT_ALL_SESSION_DATA;
+    }
+
+    /**
+     * @return Returns the bytes received in EVT_SESSION_DELTA messages.
+     */
+    public long getBytesReceive_EVT_SESSION_DELTA() {
+        return bytesReceive_EVT_SESSION_DELTA;
+    }
+
+    /**
+     * @return Returns the bytes received in EVT_ALL_SESSION_DATA messages.
+     */
+    public long getBytesReceive_EVT_ALL_SESSION_DATA() {
+        return bytesReceive_EVT_ALL_SESSION_DATA;
+    }
+
     /**
      * @return Returns the counterReceive_EVT_SESSION_DELTA.
      */
@@ -498,6 +531,22 @@ public class DeltaManager extends ClusterManagerBase{
         this.notifyListenersOnReplication = notifyListenersOnReplication;
     }
 
+    public boolean isReplicateAttributeDeltas() {
+        return replicateAttributeDeltas;
+    }
+
+    /**
+     * Replicate the changes of the session attributes implementing
+     * {@link ReplicationDelta} rather than their whole value, and don't
+     * replicate the attributes set again without any change. All the nodes
+     * of the cluster must support it.
+     *
+     * @param replicateAttributeDeltas
+     */
+    public void setReplicateAttributeDeltas(boolean replicateAttributeDeltas) {
+        this.replicateAttributeDeltas = replicateAttributeDeltas;
+    }
+
     public boolean isNotifyContainerListenersOnReplication() {
         return notifyContainerListenersOnReplication;
     }
@@ -1250,13 +1299,19 @@ public class DeltaManager extends ClusterManagerBase{
             synchronized(deltaRequest) {
                 isDeltaRequest = deltaRequest.getSize() > 0 ;
                 if (isDeltaRequest) {    
-                    counterSend_EVT_SESSION_DELTA++;
                     byte[] data = serializeDeltaRequest(session,deltaRequest);
-                    msg = new SessionMessageImpl(getName(),
-                                                 SessionMessage.EVT_SESSION_DELTA, 
-                                                 data, 
-                                                 sessionId,
-                                                 sessionId + "-" + System.currentTimeMillis());
+                    // Attributes set again without any change are dropped
+                    // when serializing
+                    isDeltaRequest = deltaRequest.getSize() > 0 ;
+                    if (isDeltaRequest) {
+                        counterSend_EVT_SESSION_DELTA++;
+                        bytesSend_EVT_SESSION_DELTA += data.length;
+                        msg = new SessionMessageImpl(getName(),
+                                                     SessionMessage.EVT_SESSION_DELTA, 
+                                                     data, 
+                                                     sessionId,
+                                                     sessionId + "-" + System.currentTimeMillis());
+                    }
                     session.resetDeltaRequest();
                 }  
             }
@@ -1352,6 +1407,10 @@ public class DeltaManager extends ClusterManagerBase{
         counterSend_EVT_SESSION_EXPIRED = 0 ;
         counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0;
         counterSend_EVT_CHANGE_SESSION_ID = 0;
+        bytesReceive_EVT_SESSION_DELTA = 0;
+        bytesReceive_EVT_ALL_SESSION_DATA = 0;
+        bytesSend_EVT_SESSION_DELTA = 0;
+        bytesSend_EVT_ALL_SESSION_DATA = 0;
         
     }
    
@@ -1535,6 +1594,7 @@ public class DeltaManager extends ClusterManagerBase{
     protected void handleSESSION_DELTA(SessionMessage msg, Member sender) throws IOException, ClassNotFoundException {
         counterReceive_EVT_SESSION_DELTA++;
         byte[] delta = msg.getSession();
+        bytesReceive_EVT_SESSION_DELTA += delta.length;
         DeltaSession session = (DeltaSession) findSession(msg.getSessionID());
         if (session != null) {
             if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.delta",getName(), msg.getSessionID()));
@@ -1614,6 +1674,7 @@ public class DeltaManager extends ClusterManagerBase{
         counterReceive_EVT_ALL_SESSION_DATA++;
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataBegin",getName()));
         byte[] data = msg.getSession();
+        bytesReceive_EVT_ALL_SESSION_DATA += data.length;
         deserializeSessions(data);
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataAfter",getName()));
         //stateTransferred = true;
@@ -1711,6 +1772,7 @@ public class DeltaManager extends ClusterManagerBase{
         newmsg.setTimestamp(sendTimestamp);
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.createMessage.allSessionData",getName()));
         counterSend_EVT_ALL_SESSION_DATA++;
+        bytesSend_EVT_ALL_SESSION_DATA += data.length;
         cluster.send(newmsg, sender);
     }
 
@@ -1732,6 +1794,7 @@ public class DeltaManager extends ClusterManagerBase{
         result.receiverQueue = receiverQueue ;
         result.stateTimestampDrop = stateTimestampDrop ;
         result.stateTransferCreateSendTime = stateTransferCreateSendTime; 
+        result.replicateAttributeDeltas = replicateAttributeDeltas;
         result.setSessionAttributeFilter(getSessionAttributeFilter());
         return result;
     }
@@ -28,10 +28,18 @@ package org.apache.catalina.ha.session;
  */
 
 import java.io.Externalizable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 
+import org.apache.catalina.ha.ClusterManager;
 import org.apache.catalina.realm.GenericPrincipal;
+import org.apache.catalina.session.SessionSerializer;
+import org.apache.catalina.tribes.io.ReplicationStream;
 import org.apache.catalina.util.StringManager;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -57,6 +65,13 @@ public class DeltaRequest implements Externalizable {
 
     public static final int ACTION_SET = 0;
     public static final int ACTION_REMOVE = 1;
+    /**
+     * Attribute actions only sent when replicating attribute deltas: the
+     * value is replaced by the delta of a {@link ReplicationDelta}, or by its
+     * serialized form.
+     */
+    public static final int ACTION_DELTA = 2;
+    public static final int ACTION_SET_SERIALIZED = 3;
 
     public static final String NAME_PRINCIPAL = "__SET__PRINCIPAL__";
     public static final String NAME_MAXINTERVAL = "__SET__MAXINTERVAL__";
@@ -69,6 +84,26 @@ public class DeltaRequest implements Externalizable {
     
     private boolean recordAllActions = false;
 
+    /**
+     * Serializer of the attribute values, Java serialization if
+     * <code>null</code>.
+     */
+    private SessionSerializer sessionSerializer = null;
+
+    /**
+     * Replicate the changes of the attribute values rather than the values?
+     */
+    private boolean replicateDeltas = false;
+
+    /**
+     * The attribute values last replicated from this node, by name, as long
+     * as no other node replicated the attribute since.
+     */
+    private HashMap<String, ReplicatedValue> replicated =
+        new HashMap<String, ReplicatedValue>();
+
+    private MessageDigest messageDigest = null;
+
     public DeltaRequest() {
         
     }
@@ -169,7 +204,9 @@ public class DeltaRequest implements Externalizable {
                     if ( info.getAction() == ACTION_SET ) {
                         if ( log.isTraceEnabled() ) log.trace("Session.setAttribute('"+info.getName()+"', '"+info.getValue()+"')");
                         session.setAttribute(info.getName(), info.getValue(),notifyListeners,false);
-                    }  else {
+                    } else if ( info.getAction() == ACTION_SET_SERIALIZED || info.getAction() == ACTION_DELTA ) {
+                        executeData(session, info, notifyListeners);
+                    } else {
                         if ( log.isTraceEnabled() ) log.trace("Session.removeAttribute('"+info.getName()+"')");
                         session.removeAttribute(info.getName(),notifyListeners,false);
                     }
@@ -210,6 +247,37 @@ public class DeltaRequest implements Externalizable {
         reset();
     }
 
+    /**
+     * Set an attribute replicated as serialized data, or apply the delta of
+     * a {@link ReplicationDelta} value.
+     */
+    protected void executeData(DeltaSession session, AttributeInfo info, boolean notifyListeners) {
+        byte[] data = info.getData();
+        try {
+            Object value;
+            if (info.getAction() == ACTION_SET_SERIALIZED) {
+                ReplicationStream stream = ((ClusterManager) session.getManager()).getReplicationStream(data);
+                try {
+                    if (sessionSerializer != null) value = sessionSerializer.readValue(stream);
+                    else value = stream.readObject();
+                } finally {
+                    stream.close();
+                }
+            } else {
+                value = session.getAttribute(info.getName());
+                if (!(value instanceof ReplicationDelta)) {
+                    log.warn(sm.getString("deltaRequest.noDeltaBase", info.getName(), getSessionId()));
+                    return;
+                }
+                ((ReplicationDelta) value).applyDelta(data, 0, data.length);
+            }
+            if ( log.isTraceEnabled() ) log.trace("Session.setAttribute('"+info.getName()+"', '"+value+"')");
+            session.setAttribute(info.getName(), value, notifyListeners, false);
+        } catch (Exception x) {
+            log.error(sm.getString("deltaRequest.attributeError", info.getName(), getSessionId()), x);
+        }
+    }
+
     public void reset() {
         while ( actions.size() > 0 ) {
             try {
@@ -232,6 +300,23 @@ public class DeltaRequest implements Externalizable {
             new Exception("Session Id is null for setSessionId").fillInStackTrace().printStackTrace();
         }
     }
+    public SessionSerializer getSessionSerializer() {
+        return sessionSerializer;
+    }
+
+    public void setSessionSerializer(SessionSerializer sessionSerializer) {
+        this.sessionSerializer = sessionSerializer;
+    }
+
+    public boolean isReplicateDeltas() {
+        return replicateDeltas;
+    }
+
+    public void setReplicateDeltas(boolean replicateDeltas) {
+        this.replicateDeltas = replicateDeltas;
+        if (!replicateDeltas) replicated.clear();
+    }
+
     public int getSize() {
         return actions.size();
     }
@@ -239,6 +324,7 @@ public class DeltaRequest implements Externalizable {
     public void clear() {
         actions.clear();
         actionPool.clear();
+        replicated.clear();
     }
     
     public void readExternal(java.io.ObjectInput in) throws IOException,ClassNotFoundException {
@@ -267,8 +353,10 @@ public class DeltaRequest implements Externalizable {
             else {
                 info = new AttributeInfo(-1,-1,null,null);
             }
-            info.readExternal(in);
+            info.readExternal(in, sessionSerializer);
             actions.addLast(info);
+            // Another node replicated the attribute
+            if (info.getType() == TYPE_ATTRIBUTE) replicated.remove(info.getName());
         }//for
     }
         
@@ -279,12 +367,13 @@ public class DeltaRequest implements Externalizable {
         //recordAll - boolean
         //size - int
         //AttributeInfo - in an array
+        prepareDeltas();
         out.writeUTF(getSessionId());
         out.writeBoolean(recordAllActions);
         out.writeInt(getSize());
         for ( int i=0; i<getSize(); i++ ) {
             AttributeInfo info = (AttributeInfo)actions.get(i);
-            info.writeExternal(out);
+            info.writeExternal(out, sessionSerializer);
         }
     }
     
@@ -304,9 +393,99 @@ public class DeltaRequest implements Externalizable {
         return bos.toByteArray();
     }
     
+    /**
+     * When replicating attribute deltas, replace the values set again since
+     * they were last replicated from this node by their delta, and drop the
+     * ones which haven't changed.
+     *
+     * @throws IOException
+     */
+    protected void prepareDeltas() throws IOException {
+        if (!replicateDeltas) return;
+        Iterator iter = actions.iterator();
+        while (iter.hasNext()) {
+            AttributeInfo info = (AttributeInfo) iter.next();
+            if (info.getType() != TYPE_ATTRIBUTE) continue;
+            if (info.getAction() == ACTION_REMOVE) {
+                replicated.remove(info.getName());
+                continue;
+            }
+            if (info.getAction() != ACTION_SET) continue;
+            Object value = info.getValue();
+            ReplicatedValue last = replicated.get(info.getName());
+            if (value instanceof ReplicationDelta && last != null && last.value == value) {
+                ReplicationDelta deltaValue = (ReplicationDelta) value;
+                byte[] delta = deltaValue.getDelta();
+                if (delta != null) {
+                    deltaValue.resetDelta();
+                    last.digest = null;
+                    if (delta.length > 0) {
+                        info.setData(ACTION_DELTA, delta);
+                    } else {
+                        iter.remove();
+                        info.recycle();
+                        actionPool.addLast(info);
+                    }
+                    continue;
+                }
+            }
+            byte[] data = serializeValue(value);
+            byte[] valueDigest = digest(data);
+            if (value instanceof ReplicationDelta) ((ReplicationDelta) value).resetDelta();
+            if (last != null && last.digest != null && Arrays.equals(last.digest, valueDigest)) {
+                // Set again without any change
+                last.value = value;
+                iter.remove();
+                info.recycle();
+                actionPool.addLast(info);
+            } else {
+                replicated.put(info.getName(), new ReplicatedValue(value, valueDigest));
+                info.setData(ACTION_SET_SERIALIZED, data);
+            }
+        }
+    }
+
+    protected byte[] serializeValue(Object value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        if (sessionSerializer != null) sessionSerializer.writeValue(value, oos);
+        else oos.writeObject(value);
+        oos.flush();
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    protected byte[] digest(byte[] data) throws IOException {
+        if (messageDigest == null) {
+            try {
+                messageDigest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException x) {
+                IOException iox = new IOException(x.getMessage());
+                iox.initCause(x);
+                throw iox;
+            }
+        }
+        return messageDigest.digest(data);
+    }
+
+    /**
+     * An attribute value replicated from this node, with the digest of its
+     * serialized form.
+     */
+    private static class ReplicatedValue {
+        private Object value;
+        private byte[] digest;
+
+        public ReplicatedValue(Object value, byte[] digest) {
+            this.value = value;
+            this.digest = digest;
+        }
+    }
+
     private static class AttributeInfo implements java.io.Externalizable {
         private String name = null;
         private Object value = null;
+        private byte[] data = null;
         private int action;
         private int type;
 
@@ -326,10 +505,23 @@ public class DeltaRequest implements Externalizable {
                          Object value) {
             this.name = name;
             this.value = value;
+            this.data = null;
             this.action = action;
             this.type = type;
         }
 
+        /**
+         * Replace the value by its serialized form, or its delta.
+         */
+        public void setData(int action, byte[] data) {
+            this.action = action;
+            this.data = data;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
         public int getType() {
             return type;
         }
@@ -352,6 +544,7 @@ public class DeltaRequest implements Externalizable {
         public void recycle() {
             name = null;
             value = null;
+            data = null;
             type=-1;
             action=-1;
         }
@@ -363,6 +556,10 @@ public class DeltaRequest implements Externalizable {
         }
         
         public void readExternal(java.io.ObjectInput in ) throws IOException,ClassNotFoundException {
+            readExternal(in, null);
+        }
+
+        public void readExternal(java.io.ObjectInput in, SessionSerializer serializer) throws IOException,ClassNotFoundException {
             //type - int
             //action - int
             //name - String
@@ -372,10 +569,22 @@ public class DeltaRequest implements Externalizable {
             action = in.readInt();
             name = in.readUTF();
             boolean hasValue = in.readBoolean();
-            if ( hasValue ) value = in.readObject();
+            value = null;
+            data = null;
+            if ( hasValue ) {
+                if (action == ACTION_SET_SERIALIZED || action == ACTION_DELTA) {
+                    data = new byte[in.readInt()];
+                    in.readFully(data);
+                } else if (serializer != null) value = serializer.readValue(in);
+                else value = in.readObject();
+            }
         }
 
         public void writeExternal(java.io.ObjectOutput out) throws IOException {
+            writeExternal(out, null);
+        }
+
+        public void writeExternal(java.io.ObjectOutput out, SessionSerializer serializer) throws IOException {
             //type - int
             //action - int
             //name - String
@@ -385,7 +594,13 @@ public class DeltaRequest implements Externalizable {
             out.writeInt(getAction());
             out.writeUTF(getName());
             out.writeBoolean(getValue()!=null);
-            if (getValue()!=null) out.writeObject(getValue());
+            if (data != null) {
+                out.writeInt(data.length);
+                out.write(data);
+            } else if (getValue()!=null) {
+                if (serializer != null) serializer.writeValue(getValue(), out);
+                else out.writeObject(getValue());
+            }
         }
         
         public String toString() {
@@ -48,6 +48,7 @@ import org.apache.catalina.util.Enumerator;
 import org.apache.catalina.util.StringManager;
 import org.apache.catalina.session.StandardManager;
 import org.apache.catalina.session.ManagerBase;
+import org.apache.catalina.session.SessionSerializer;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -533,6 +534,9 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
                 deltaRequest.reset();
                 deltaRequest.setSessionId(getIdInternal());
             }
+            deltaRequest.setSessionSerializer(getSessionSerializer());
+            deltaRequest.setReplicateDeltas(manager instanceof DeltaManager
+                    && ((DeltaManager) manager).isReplicateAttributeDeltas());
         }finally{
             unlock();
         }
@@ -671,9 +675,10 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
         int n = ( (Integer) stream.readObject()).intValue();
         boolean isValidSave = isValid;
         isValid = true;
+        SessionSerializer serializer = getSessionSerializer();
         for (int i = 0; i < n; i++) {
             String name = (String) stream.readObject();
-            Object value = (Object) stream.readObject();
+            Object value = serializer.readValue(stream);
             if ( (value instanceof String) && (value.equals(NOT_SERIALIZED)))
                 continue;
             // Handle the case where the filter configuration was changed while
@@ -764,13 +769,14 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
         // Serialize the attribute count and the Serializable attributes
         int n = saveNames.size();
         stream.writeObject(new Integer(n));
+        SessionSerializer serializer = getSessionSerializer();
         for (int i = 0; i < n; i++) {
             stream.writeObject( (String) saveNames.get(i));
             try {
-                stream.writeObject(saveValues.get(i));
+                serializer.writeValue(saveValues.get(i), stream);
             } catch (NotSerializableException e) {
                 log.error(sm.getString("standardSession.notSerializable",saveNames.get(i), id), e);
-                stream.writeObject(NOT_SERIALIZED);
+                serializer.writeValue(NOT_SERIALIZED, stream);
                 log.error("  storing attribute '" + saveNames.get(i)+ "' with value NOT_SERIALIZED");
             }
         }
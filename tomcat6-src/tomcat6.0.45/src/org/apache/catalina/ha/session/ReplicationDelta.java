@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.ha.session;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Contract for session attribute values which can replicate their changes,
+ * rather than being serialized whole, when the <code>DeltaManager</code>
+ * replicates attribute deltas.<br>
+ * Once the value has been replicated whole, the replication logic calls, at
+ * the end of each request which set the attribute again:<br>
+ * <code>
+ * 1. byte[] delta = value.getDelta();<br>
+ * 2. value.resetDelta();<br>
+ * </code>
+ * and the nodes holding a backup of the session call
+ * <code>applyDelta(delta, 0, delta.length)</code> on their copy of the value.
+ *
+ * @see DeltaManager#setReplicateAttributeDeltas(boolean)
+ */
+public interface ReplicationDelta extends Serializable {
+
+    /**
+     * Returns the changes of the value since the last call to
+     * {@link #resetDelta()}.
+     *
+     * @return the changes, an empty array if the value has not changed, or
+     *  <code>null</code> to replicate the whole value
+     * @throws IOException
+     */
+    public byte[] getDelta() throws IOException;
+
+    /**
+     * Applies the changes of another copy of the value.
+     *
+     * @param delta byte[]
+     * @param offset int
+     * @param length int
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public void applyDelta(byte[] delta, int offset, int length)
+        throws IOException, ClassNotFoundException;
+
+    /**
+     * Forget the changes of the value, which have been replicated.
+     */
+    public void resetDelta();
+
+}
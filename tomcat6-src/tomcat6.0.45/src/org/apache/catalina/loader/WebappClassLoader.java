@@ -42,6 +42,7 @@ import java.security.Policy;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -51,6 +52,7 @@ import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
@@ -74,6 +76,7 @@ import org.apache.naming.resources.ProxyDirContext;
 import org.apache.naming.resources.Resource;
 import org.apache.naming.resources.ResourceAttributes;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.scan.JarScanCache;
 
 /**
  * Specialized web application class loader.
@@ -157,6 +160,26 @@ public class WebappClassLoader
         JVM_THREAD_GROUP_NAMES.add("RMI Runtime");
     }
 
+    /**
+     * Has this class been registered as parallel capable?
+     */
+    private static final boolean parallelCapableRegistered;
+
+    static {
+        // On Java 7 and later, register as parallel capable so that the JVM
+        // locks on getClassLoadingLock(name) rather than on the loader
+        boolean registered = false;
+        try {
+            Method registerParallel = ClassLoader.class.getDeclaredMethod(
+                    "registerAsParallelCapable", new Class[0]);
+            registered = ((Boolean) registerParallel.invoke(
+                    null, new Object[0])).booleanValue();
+        } catch (Exception e) {
+            // Java 5 or 6: the JVM locks on the loader
+        }
+        parallelCapableRegistered = registered;
+    }
+
     protected class PrivilegedFindResourceByName
         implements PrivilegedAction<ResourceEntry> {
 
@@ -286,7 +309,40 @@ public class WebappClassLoader
      * The cache of ResourceEntry for classes and resources we have loaded,
      * keyed by resource name.
      */
-    protected HashMap resourceEntries = new HashMap();
+    protected ConcurrentHashMap<String, ResourceEntry> resourceEntries =
+        new ConcurrentHashMap<String, ResourceEntry>();
+
+
+    /**
+     * Is this loader parallel capable? If not, the JVM locks on the loader
+     * when it loads classes implicitly, and so must loadClass, or two
+     * threads could take the loader and a class name lock in opposite order.
+     */
+    protected final boolean parallelCapable = isParallelCapable();
+
+
+    /**
+     * The locks used to load classes, keyed by class name, when the loader
+     * is parallel capable.
+     */
+    protected ConcurrentHashMap<String, Object> classLoadingLocks =
+        new ConcurrentHashMap<String, Object>();
+
+
+    /**
+     * Index of the paths found in the local repositories, built on start.
+     * Each path is mapped to the repositories containing it, in search order:
+     * the index of a repository in <code>repositories</code>, or the index of
+     * a JAR in <code>jarFiles</code> offset by the number of repositories.
+     * A <code>null</code> index means the repositories are searched in turn.
+     */
+    protected volatile Map<String, int[]> entryIndex = null;
+
+
+    /**
+     * Cache of the JAR entry names, kept in the work directory.
+     */
+    protected JarScanCache entryCache = null;
 
 
     /**
@@ -671,6 +727,7 @@ public class WebappClassLoader
      */
     public void setWorkDir(File workDir) {
         this.loaderDir = new File(workDir, "loader");
+        this.entryCache = new JarScanCache(new File(workDir, "jar-index.cache"));
         if (loaderDir == null) {
             canonicalLoaderDir = null;
         } else { 
@@ -847,6 +904,9 @@ public class WebappClassLoader
         if (repository == null)
             return;
 
+        // The index doesn't cover repositories added once started
+        entryIndex = null;
+
         if (log.isDebugEnabled())
             log.debug("addRepository(" + repository + ")");
 
@@ -878,6 +938,8 @@ public class WebappClassLoader
             return;
         if (jarFile == null)
             return;
+
+        entryIndex = null;
         if (file == null)
             return;
 
@@ -1232,7 +1294,7 @@ public class WebappClassLoader
             url = super.findResource(name);
 
         if (url == null) {
-            ResourceEntry entry = (ResourceEntry) resourceEntries.get(name);
+            ResourceEntry entry = resourceEntries.get(name);
             if (entry == null) {
                 if (securityManager != null) {
                     PrivilegedAction<ResourceEntry> dp =
@@ -1292,8 +1354,21 @@ public class WebappClassLoader
             }
 
         }
+        // Looking up the repositories containing the resource
+        int[] owners = null;
+        Map<String, int[]> index = entryIndex;
+        if ((index != null) && isIndexable(name)) {
+            owners = index.get(name);
+            if (owners == null) {
+                repositoriesLength = 0;
+                jarFilesLength = 0;
+            }
+        }
+
         // Looking at the repositories
         for (i = 0; i < repositoriesLength; i++) {
+            if (!contains(owners, i))
+                continue;
             try {
                 String fullPath = repositories[i] + name;
                 resources.lookup(fullPath);
@@ -1312,6 +1387,8 @@ public class WebappClassLoader
         synchronized (jarFiles) {
             if (openJARs()) {
                 for (i = 0; i < jarFilesLength; i++) {
+                    if (!contains(owners, repositoriesLength + i))
+                        continue;
                     JarEntry jarEntry = jarFiles[i].getJarEntry(name);
                     if (jarEntry != null) {
                         try {
@@ -1391,7 +1468,7 @@ public class WebappClassLoader
             // Locating the repository for special handling in the case 
             // of a JAR
             if (antiJARLocking) {
-                ResourceEntry entry = (ResourceEntry) resourceEntries.get(name);
+                ResourceEntry entry = resourceEntries.get(name);
                 try {
                     String repository = entry.codeBase.toString();
                     if ((repository.endsWith(".jar")) 
@@ -1553,121 +1630,102 @@ public class WebappClassLoader
      *
      * @exception ClassNotFoundException if the class was not found
      */
-    public synchronized Class loadClass(String name, boolean resolve)
+    public Class loadClass(String name, boolean resolve)
         throws ClassNotFoundException {
 
-        if (log.isDebugEnabled())
-            log.debug("loadClass(" + name + ", " + resolve + ")");
-        Class clazz = null;
-
-        // Log access to stopped classloader
-        if (!started) {
-            try {
-                throw new IllegalStateException();
-            } catch (IllegalStateException e) {
-                log.info(sm.getString("webappClassLoader.stopped", name), e);
-            }
-        }
-
-        // (0) Check our previously loaded local class cache
-        clazz = findLoadedClass0(name);
-        if (clazz != null) {
+        synchronized (getClassLoadingLock(name)) {
             if (log.isDebugEnabled())
-                log.debug("  Returning class from cache");
-            if (resolve)
-                resolveClass(clazz);
-            return (clazz);
-        }
+                log.debug("loadClass(" + name + ", " + resolve + ")");
+            Class clazz = null;
 
-        // (0.1) Check our previously loaded class cache
-        clazz = findLoadedClass(name);
-        if (clazz != null) {
-            if (log.isDebugEnabled())
-                log.debug("  Returning class from cache");
-            if (resolve)
-                resolveClass(clazz);
-            return (clazz);
-        }
+            // Log access to stopped classloader
+            if (!started) {
+                try {
+                    throw new IllegalStateException();
+                } catch (IllegalStateException e) {
+                    log.info(sm.getString("webappClassLoader.stopped", name), e);
+                }
+            }
 
-        // (0.2) Try loading the class with the system class loader, to prevent
-        //       the webapp from overriding J2SE classes
-        try {
-            clazz = system.loadClass(name);
+            // (0) Check our previously loaded local class cache
+            clazz = findLoadedClass0(name);
             if (clazz != null) {
+                if (log.isDebugEnabled())
+                    log.debug("  Returning class from cache");
                 if (resolve)
                     resolveClass(clazz);
                 return (clazz);
             }
-        } catch (ClassNotFoundException e) {
-            // Ignore
-        }
 
-        // (0.5) Permission to access this class when using a SecurityManager
-        if (securityManager != null) {
-            int i = name.lastIndexOf('.');
-            if (i >= 0) {
-                try {
-                    securityManager.checkPackageAccess(name.substring(0,i));
-                } catch (SecurityException se) {
-                    String error = "Security Violation, attempt to use " +
-                        "Restricted Class: " + name;
-                    log.info(error, se);
-                    throw new ClassNotFoundException(error, se);
-                }
+            // (0.1) Check our previously loaded class cache
+            clazz = findLoadedClass(name);
+            if (clazz != null) {
+                if (log.isDebugEnabled())
+                    log.debug("  Returning class from cache");
+                if (resolve)
+                    resolveClass(clazz);
+                return (clazz);
             }
-        }
-
-        boolean delegateLoad = delegate || filter(name);
 
-        // (1) Delegate to our parent if requested
-        if (delegateLoad) {
-            if (log.isDebugEnabled())
-                log.debug("  Delegating to parent classloader1 " + parent);
-            ClassLoader loader = parent;
-            if (loader == null)
-                loader = system;
+            // (0.2) Try loading the class with the system class loader, to prevent
+            //       the webapp from overriding J2SE classes
             try {
-                clazz = loader.loadClass(name);
+                clazz = system.loadClass(name);
                 if (clazz != null) {
-                    if (log.isDebugEnabled())
-                        log.debug("  Loading class from parent");
                     if (resolve)
                         resolveClass(clazz);
                     return (clazz);
                 }
             } catch (ClassNotFoundException e) {
-                ;
+                // Ignore
             }
-        }
 
-        // (2) Search local repositories
-        if (log.isDebugEnabled())
-            log.debug("  Searching local repositories");
-        try {
-            clazz = findClass(name);
-            if (clazz != null) {
+            // (0.5) Permission to access this class when using a SecurityManager
+            if (securityManager != null) {
+                int i = name.lastIndexOf('.');
+                if (i >= 0) {
+                    try {
+                        securityManager.checkPackageAccess(name.substring(0,i));
+                    } catch (SecurityException se) {
+                        String error = "Security Violation, attempt to use " +
+                            "Restricted Class: " + name;
+                        log.info(error, se);
+                        throw new ClassNotFoundException(error, se);
+                    }
+                }
+            }
+
+            boolean delegateLoad = delegate || filter(name);
+
+            // (1) Delegate to our parent if requested
+            if (delegateLoad) {
                 if (log.isDebugEnabled())
-                    log.debug("  Loading class from local repository");
-                if (resolve)
-                    resolveClass(clazz);
-                return (clazz);
+                    log.debug("  Delegating to parent classloader1 " + parent);
+                ClassLoader loader = parent;
+                if (loader == null)
+                    loader = system;
+                try {
+                    clazz = loader.loadClass(name);
+                    if (clazz != null) {
+                        if (log.isDebugEnabled())
+                            log.debug("  Loading class from parent");
+                        if (resolve)
+                            resolveClass(clazz);
+                        return (clazz);
+                    }
+                } catch (ClassNotFoundException e) {
+                    ;
+                }
             }
-        } catch (ClassNotFoundException e) {
-            ;
-        }
 
-        // (3) Delegate to parent unconditionally
-        if (!delegateLoad) {
+            // (2) Search local repositories
             if (log.isDebugEnabled())
-                log.debug("  Delegating to parent classloader at end: " + parent);
-            ClassLoader loader = parent;
-            if (loader == null)
-                loader = system;
+                log.debug("  Searching local repositories");
             try {
-                clazz = loader.loadClass(name);
+                clazz = findClass(name);
                 if (clazz != null) {
                     if (log.isDebugEnabled())
-                        log.debug("  Loading class from parent");
+                        log.debug("  Loading class from local repository");
                     if (resolve)
                         resolveClass(clazz);
                     return (clazz);
@@ -1675,9 +1733,30 @@ public class WebappClassLoader
             } catch (ClassNotFoundException e) {
                 ;
             }
-        }
 
-        throw new ClassNotFoundException(name);
+            // (3) Delegate to parent unconditionally
+            if (!delegateLoad) {
+                if (log.isDebugEnabled())
+                    log.debug("  Delegating to parent classloader at end: " + parent);
+                ClassLoader loader = parent;
+                if (loader == null)
+                    loader = system;
+                try {
+                    clazz = loader.loadClass(name);
+                    if (clazz != null) {
+                        if (log.isDebugEnabled())
+                            log.debug("  Loading class from parent");
+                        if (resolve)
+                            resolveClass(clazz);
+                        return (clazz);
+                    }
+                } catch (ClassNotFoundException e) {
+                    ;
+                }
+            }
+
+            throw new ClassNotFoundException(name);
+        }
 
     }
 
@@ -1804,6 +1883,7 @@ public class WebappClassLoader
     public void start() throws LifecycleException {
 
         started = true;
+        entryIndex = buildEntryIndex();
         String encoding = null;
         try {
             encoding = System.getProperty("file.encoding");
@@ -1853,6 +1933,8 @@ public class WebappClassLoader
 
         notFoundResources.clear();
         resourceEntries.clear();
+        classLoadingLocks.clear();
+        entryIndex = null;
         resources = null;
         repositories = null;
         repositoryURLs = null;
@@ -2018,9 +2100,7 @@ public class WebappClassLoader
 
     private final void clearReferencesStaticFinal() {
         
-        @SuppressWarnings("unchecked")
-        Collection<ResourceEntry> values =
-            ((HashMap<String,ResourceEntry>) resourceEntries.clone()).values();
+        Collection<ResourceEntry> values = resourceEntries.values();
         Iterator<ResourceEntry> loadedClasses = values.iterator();
         //
         // walk through all loaded class to trigger initialization for
@@ -2765,6 +2845,171 @@ public class WebappClassLoader
     }
 
 
+    /**
+     * Return the lock used to load the class with the given name: a lock per
+     * class name when the loader is parallel capable, the loader otherwise.
+     */
+    protected Object getClassLoadingLock(String className) {
+        if (!parallelCapable) {
+            return this;
+        }
+        Object lock = new Object();
+        Object existing = classLoadingLocks.putIfAbsent(className, lock);
+        return (existing == null) ? lock : existing;
+    }
+
+
+    /**
+     * Is this loader registered as parallel capable? Subclasses which do not
+     * register themselves are not.
+     */
+    private boolean isParallelCapable() {
+        if (!parallelCapableRegistered) {
+            return false;
+        }
+        try {
+            // Java 9 and later
+            Method isRegistered = ClassLoader.class.getMethod(
+                    "isRegisteredAsParallelCapable", new Class[0]);
+            return ((Boolean) isRegistered.invoke(
+                    this, new Object[0])).booleanValue();
+        } catch (Exception e) {
+            // Java 7 or 8: only this class is known to be registered
+            return getClass() == WebappClassLoader.class;
+        }
+    }
+
+
+    /**
+     * Index the paths found in the local repositories and JARs.
+     *
+     * @return the index, or <code>null</code> if a repository could not be
+     *  listed
+     */
+    protected Map<String, int[]> buildEntryIndex() {
+
+        HashMap<String, int[]> index = new HashMap<String, int[]>();
+        int repositoriesLength = repositories.length;
+
+        for (int i = 0; i < repositoriesLength; i++) {
+            if ((files[i] == null) || !files[i].isDirectory())
+                return null;
+            if (!indexDirectory(index, files[i], "", new int[] {i}, 0))
+                return null;
+        }
+
+        synchronized (jarFiles) {
+            if (!openJARs())
+                return null;
+            for (int i = 0; i < jarFiles.length; i++) {
+                int[] owner = new int[] {repositoriesLength + i};
+                String[] paths = null;
+                if (entryCache != null)
+                    paths = entryCache.get(jarRealFiles[i]);
+                if (paths == null) {
+                    ArrayList<String> names = new ArrayList<String>();
+                    Enumeration<JarEntry> entries = jarFiles[i].entries();
+                    while (entries.hasMoreElements()) {
+                        names.add(entries.nextElement().getName());
+                    }
+                    paths = names.toArray(new String[names.size()]);
+                    if (entryCache != null)
+                        entryCache.put(jarRealFiles[i], paths);
+                }
+                for (int j = 0; j < paths.length; j++) {
+                    String path = paths[j];
+                    addEntry(index, path, owner);
+                    // JarFile.getJarEntry also finds directories without
+                    // their trailing slash
+                    if (path.endsWith("/") && (path.length() > 1))
+                        addEntry(index, path.substring(0, path.length() - 1),
+                                owner);
+                }
+            }
+        }
+        if (entryCache != null)
+            entryCache.save();
+
+        if (log.isDebugEnabled())
+            log.debug("Indexed " + index.size() + " paths in "
+                    + repositoriesLength + " repositories and "
+                    + jarFiles.length + " JARs");
+        return Collections.unmodifiableMap(index);
+
+    }
+
+
+    /**
+     * Add the paths found under a directory to the index.
+     *
+     * @return <code>false</code> if the directory could not be listed, or is
+     *  nested too deep, which is most likely a symbolic link loop
+     */
+    private boolean indexDirectory(Map<String, int[]> index, File dir,
+            String prefix, int[] owner, int depth) {
+        String[] names = dir.list();
+        if ((names == null) || (depth > 64))
+            return false;
+        for (int i = 0; i < names.length; i++) {
+            String path = prefix + names[i];
+            File file = new File(dir, names[i]);
+            addEntry(index, path, owner);
+            if (file.isDirectory()) {
+                addEntry(index, path + "/", owner);
+                if (!indexDirectory(index, file, path + "/", owner, depth + 1))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Record that a path is found in a repository, after the repositories
+     * already recorded for it.
+     */
+    private static void addEntry(Map<String, int[]> index, String path,
+            int[] owner) {
+        int[] owners = index.get(path);
+        if (owners == null) {
+            index.put(path, owner);
+        } else if (owners[owners.length - 1] != owner[0]) {
+            int[] result = new int[owners.length + 1];
+            System.arraycopy(owners, 0, result, 0, owners.length);
+            result[owners.length] = owner[0];
+            index.put(path, result);
+        }
+    }
+
+
+    /**
+     * Return <code>true</code> if the path is in the form used by the index,
+     * so that a lookup which misses the index can't find anything in the
+     * repositories. Other paths, which the repositories may normalize, are
+     * looked up in each repository.
+     */
+    protected static boolean isIndexable(String path) {
+        return (path.length() > 0) && (path.charAt(0) != '/')
+            && (path.indexOf("//") == -1) && (path.indexOf("./") == -1)
+            && !path.endsWith(".") && (path.indexOf('\\') == -1);
+    }
+
+
+    /**
+     * Return <code>true</code> if the repository is among the owners found in
+     * the index, or if there is no index to consult.
+     */
+    private static boolean contains(int[] owners, int repository) {
+        if (owners == null)
+            return true;
+        for (int i = 0; i < owners.length; i++) {
+            if (owners[i] == repository)
+                return true;
+        }
+        return false;
+    }
+
+
     /**
      * Find specified class in local repositories.
      *
@@ -2796,7 +3041,7 @@ public class WebappClassLoader
         if (clazz != null)
             return clazz;
 
-        synchronized (this) {
+        synchronized (getClassLoadingLock(name)) {
             clazz = entry.loadedClass;
             if (clazz != null)
                 return clazz;
@@ -2904,10 +3149,19 @@ public class WebappClassLoader
         if ((name == null) || (path == null))
             return null;
 
-        ResourceEntry entry = (ResourceEntry) resourceEntries.get(name);
+        ResourceEntry entry = resourceEntries.get(name);
         if (entry != null)
             return entry;
 
+        // Looking up the repositories containing the resource
+        int[] owners = null;
+        Map<String, int[]> index = entryIndex;
+        if ((index != null) && isIndexable(path)) {
+            owners = index.get(path);
+            if (owners == null)
+                return null;
+        }
+
         int contentLength = -1;
         InputStream binaryStream = null;
 
@@ -2921,6 +3175,8 @@ public class WebappClassLoader
         boolean fileNeedConvert = false;
 
         for (i = 0; (entry == null) && (i < repositoriesLength); i++) {
+            if (!contains(owners, i))
+                continue;
             try {
 
                 String fullPath = repositories[i] + path;
@@ -2996,6 +3252,9 @@ public class WebappClassLoader
                 }
                 for (i = 0; (entry == null) && (i < jarFilesLength); i++) {
     
+                    if (!contains(owners, repositoriesLength + i))
+                        continue;
+
                     jarEntry = jarFiles[i].getJarEntry(path);
     
                     if (jarEntry != null) {
@@ -3140,17 +3399,12 @@ public class WebappClassLoader
             }
         }
 
-        // Add the entry in the local resource repository
-        synchronized (resourceEntries) {
-            // Ensures that all the threads which may be in a race to load
-            // a particular class all end up with the same ResourceEntry
-            // instance
-            ResourceEntry entry2 = (ResourceEntry) resourceEntries.get(name);
-            if (entry2 == null) {
-                resourceEntries.put(name, entry);
-            } else {
-                entry = entry2;
-            }
+        // Add the entry in the local resource repository, ensuring that all
+        // the threads which may be in a race to load a particular class all
+        // end up with the same ResourceEntry instance
+        ResourceEntry entry2 = resourceEntries.putIfAbsent(name, entry);
+        if (entry2 != null) {
+            entry = entry2;
         }
 
         return entry;
@@ -3190,7 +3444,7 @@ public class WebappClassLoader
      */
     protected InputStream findLoadedResource(String name) {
 
-        ResourceEntry entry = (ResourceEntry) resourceEntries.get(name);
+        ResourceEntry entry = resourceEntries.get(name);
         if (entry != null) {
             if (entry.binaryContent != null)
                 return new ByteArrayInputStream(entry.binaryContent);
@@ -3209,7 +3463,7 @@ public class WebappClassLoader
      */
     protected Class findLoadedClass0(String name) {
 
-        ResourceEntry entry = (ResourceEntry) resourceEntries.get(name);
+        ResourceEntry entry = resourceEntries.get(name);
         if (entry != null) {
             return entry.loadedClass;
         }
@@ -0,0 +1,513 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.session;
+
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.catalina.util.StringManager;
+
+
+/**
+ * Compact {@link SessionSerializer}, writing a one byte type tag followed by
+ * the raw data for the common attribute types, without the class
+ * descriptors and handles of Java serialization:
+ * <ul>
+ * <li>boxed primitives, <code>String</code> and <code>byte[]</code></li>
+ * <li><code>Date</code></li>
+ * <li><code>ArrayList</code>, <code>HashMap</code> and <code>HashSet</code>,
+ *     which elements are written with this codec</li>
+ * <li>registered classes, which must be <code>Externalizable</code> and
+ *     are written as their index in the registered list followed by their
+ *     external form</li>
+ * </ul>
+ * Other values, including subclasses of the collections above, are written
+ * with Java serialization.
+ * <p>
+ * The values written with this codec are copies: a value which holds the
+ * same collection, array, date or registered object more than once,
+ * including a collection which contains itself, is written with Java
+ * serialization as a whole, so that it is read back with the same
+ * references. The values of different attributes are written separately,
+ * so attributes which share such an object get their own copy of it when
+ * read back, unlike with Java serialization.
+ * <p>
+ * The registered classes are part of the format: classes may be appended
+ * to the list, but not removed or reordered, as long as sessions written
+ * with the list need to be read. They are loaded with the context class
+ * loader of the thread which reads the sessions.
+ */
+public class BinarySessionSerializer implements SessionSerializer {
+
+
+    // ----------------------------------------------------- Manifest Constants
+
+
+    protected static final int TAG_NULL = 0;
+    protected static final int TAG_TRUE = 1;
+    protected static final int TAG_FALSE = 2;
+    protected static final int TAG_BYTE = 3;
+    protected static final int TAG_SHORT = 4;
+    protected static final int TAG_INT = 5;
+    protected static final int TAG_LONG = 6;
+    protected static final int TAG_FLOAT = 7;
+    protected static final int TAG_DOUBLE = 8;
+    protected static final int TAG_CHAR = 9;
+    protected static final int TAG_STRING = 10;
+    protected static final int TAG_LONG_STRING = 11;
+    protected static final int TAG_BYTES = 12;
+    protected static final int TAG_DATE = 13;
+    protected static final int TAG_LIST = 14;
+    protected static final int TAG_MAP = 15;
+    protected static final int TAG_SET = 16;
+    protected static final int TAG_REGISTERED = 17;
+    protected static final int TAG_OBJECT = 18;
+
+
+    /**
+     * Longest string which is sure to fit in the modified UTF-8 encoding of
+     * <code>writeUTF</code>, limited to 65535 bytes.
+     */
+    protected static final int MAX_UTF_LENGTH = 65535 / 3;
+
+
+    /**
+     * The string manager for this package.
+     */
+    protected static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Names of the registered classes, in registration order.
+     */
+    protected volatile String[] registeredNames = new String[0];
+
+
+    /**
+     * Index of the registered classes, by name.
+     */
+    protected volatile Map<String, Integer> registeredIds =
+        new HashMap<String, Integer>();
+
+
+    /**
+     * Registered classes, as loaded by the last class loader used to read.
+     */
+    protected volatile ResolvedClasses resolved = null;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the comma separated names of the registered classes.
+     */
+    public String getRegisteredClasses() {
+        StringBuffer buf = new StringBuffer();
+        String[] names = registeredNames;
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append(names[i]);
+        }
+        return buf.toString();
+    }
+
+
+    /**
+     * Set the comma separated names of the registered classes, which must
+     * implement <code>Externalizable</code>.
+     *
+     * @param registeredClasses The class names
+     */
+    public void setRegisteredClasses(String registeredClasses) {
+        ArrayList<String> names = new ArrayList<String>();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        if (registeredClasses != null) {
+            StringTokenizer tokenizer =
+                new StringTokenizer(registeredClasses, ", \t\r\n");
+            while (tokenizer.hasMoreTokens()) {
+                String name = tokenizer.nextToken();
+                if (!ids.containsKey(name)) {
+                    ids.put(name, new Integer(names.size()));
+                    names.add(name);
+                }
+            }
+        }
+        this.registeredIds = ids;
+        this.registeredNames = names.toArray(new String[names.size()]);
+        this.resolved = null;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    public void writeValue(Object value, ObjectOutput out)
+        throws IOException {
+
+        // Nothing is written for a value which can't be written
+        if (checkValue(value, new IdentityHashMap<Object, Object>())) {
+            write(value, out);
+        } else {
+            out.writeByte(TAG_OBJECT);
+            out.writeObject(value);
+        }
+
+    }
+
+
+    public Object readValue(ObjectInput in)
+        throws IOException, ClassNotFoundException {
+
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+        case TAG_NULL:
+            return null;
+        case TAG_TRUE:
+            return Boolean.TRUE;
+        case TAG_FALSE:
+            return Boolean.FALSE;
+        case TAG_BYTE:
+            return new Byte(in.readByte());
+        case TAG_SHORT:
+            return new Short(in.readShort());
+        case TAG_INT:
+            return new Integer(in.readInt());
+        case TAG_LONG:
+            return new Long(in.readLong());
+        case TAG_FLOAT:
+            return new Float(in.readFloat());
+        case TAG_DOUBLE:
+            return new Double(in.readDouble());
+        case TAG_CHAR:
+            return new Character(in.readChar());
+        case TAG_STRING:
+            return in.readUTF();
+        case TAG_LONG_STRING: {
+            char[] c = new char[readLength(in)];
+            for (int i = 0; i < c.length; i++) {
+                c[i] = in.readChar();
+            }
+            return new String(c);
+        }
+        case TAG_BYTES: {
+            byte[] b = new byte[readLength(in)];
+            in.readFully(b);
+            return b;
+        }
+        case TAG_DATE:
+            return new Date(in.readLong());
+        case TAG_LIST: {
+            int n = readLength(in);
+            ArrayList<Object> list = new ArrayList<Object>(n);
+            for (int i = 0; i < n; i++) {
+                list.add(readValue(in));
+            }
+            return list;
+        }
+        case TAG_MAP: {
+            int n = readLength(in);
+            HashMap<Object, Object> map = new HashMap<Object, Object>();
+            for (int i = 0; i < n; i++) {
+                Object key = readValue(in);
+                map.put(key, readValue(in));
+            }
+            return map;
+        }
+        case TAG_SET: {
+            int n = readLength(in);
+            HashSet<Object> set = new HashSet<Object>();
+            for (int i = 0; i < n; i++) {
+                set.add(readValue(in));
+            }
+            return set;
+        }
+        case TAG_REGISTERED: {
+            Externalizable value = newRegisteredInstance(in.readUnsignedShort());
+            value.readExternal(in);
+            return value;
+        }
+        case TAG_OBJECT:
+            return in.readObject();
+        default:
+            throw new StreamCorruptedException
+                (sm.getString("binarySessionSerializer.badTag",
+                              new Integer(tag)));
+        }
+
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Check that a value, including the elements of the collections written
+     * with this codec, can be written, so that nothing is written when it
+     * can't be.
+     *
+     * @param value The value to check
+     * @param seen The values this codec would copy which were checked
+     *  already
+     * @return <code>false</code> if the value holds a value this codec would
+     *  copy more than once, so that it must be written with Java
+     *  serialization to keep its references
+     * @exception NotSerializableException if the value can't be written
+     */
+    protected boolean checkValue(Object value, IdentityHashMap<Object, Object> seen)
+        throws NotSerializableException {
+
+        if (value == null || value instanceof String
+                || value instanceof Number || value instanceof Boolean
+                || value instanceof Character) {
+            return true;
+        }
+        Class<?> clazz = value.getClass();
+        if (clazz != ArrayList.class && clazz != HashSet.class
+                && clazz != HashMap.class && clazz != Date.class
+                && !(value instanceof byte[])
+                && !(value instanceof Externalizable
+                        && registeredIds.containsKey(clazz.getName()))) {
+            // Written with Java serialization, which keeps the references
+            if (!(value instanceof Serializable)) {
+                throw new NotSerializableException(clazz.getName());
+            }
+            return true;
+        }
+        if (seen.put(value, value) != null) {
+            return false;
+        }
+        boolean unshared = true;
+        if (clazz == ArrayList.class || clazz == HashSet.class) {
+            Iterator<?> iter = ((Collection<?>) value).iterator();
+            while (iter.hasNext()) {
+                if (!checkValue(iter.next(), seen)) {
+                    unshared = false;
+                }
+            }
+        } else if (clazz == HashMap.class) {
+            Iterator<? extends Map.Entry<?, ?>> iter =
+                ((Map<?, ?>) value).entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<?, ?> entry = iter.next();
+                if (!checkValue(entry.getKey(), seen)) {
+                    unshared = false;
+                }
+                if (!checkValue(entry.getValue(), seen)) {
+                    unshared = false;
+                }
+            }
+        }
+        return unshared;
+
+    }
+
+
+    /**
+     * Write a value which has been checked by
+     * {@link #checkValue(Object, IdentityHashMap)}.
+     */
+    protected void write(Object value, ObjectOutput out)
+        throws IOException {
+
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            String s = (String) value;
+            if (s.length() <= MAX_UTF_LENGTH) {
+                out.writeByte(TAG_STRING);
+                out.writeUTF(s);
+            } else {
+                out.writeByte(TAG_LONG_STRING);
+                out.writeInt(s.length());
+                out.writeChars(s);
+            }
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            out.writeInt(((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong(((Long) value).longValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat(((Float) value).floatValue());
+        } else if (value instanceof Short) {
+            out.writeByte(TAG_SHORT);
+            out.writeShort(((Short) value).shortValue());
+        } else if (value instanceof Byte) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte(((Byte) value).byteValue());
+        } else if (value instanceof Character) {
+            out.writeByte(TAG_CHAR);
+            out.writeChar(((Character) value).charValue());
+        } else if (value instanceof byte[]) {
+            byte[] b = (byte[]) value;
+            out.writeByte(TAG_BYTES);
+            out.writeInt(b.length);
+            out.write(b);
+        } else {
+            Class<?> clazz = value.getClass();
+            if (clazz == Date.class) {
+                out.writeByte(TAG_DATE);
+                out.writeLong(((Date) value).getTime());
+            } else if (clazz == ArrayList.class) {
+                ArrayList<?> list = (ArrayList<?>) value;
+                int n = list.size();
+                out.writeByte(TAG_LIST);
+                out.writeInt(n);
+                for (int i = 0; i < n; i++) {
+                    write(list.get(i), out);
+                }
+            } else if (clazz == HashMap.class) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                out.writeByte(TAG_MAP);
+                out.writeInt(map.size());
+                Iterator<? extends Map.Entry<?, ?>> iter =
+                    map.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Map.Entry<?, ?> entry = iter.next();
+                    write(entry.getKey(), out);
+                    write(entry.getValue(), out);
+                }
+            } else if (clazz == HashSet.class) {
+                HashSet<?> set = (HashSet<?>) value;
+                out.writeByte(TAG_SET);
+                out.writeInt(set.size());
+                Iterator<?> iter = set.iterator();
+                while (iter.hasNext()) {
+                    write(iter.next(), out);
+                }
+            } else {
+                Integer id = registeredIds.get(clazz.getName());
+                if (id != null && value instanceof Externalizable) {
+                    out.writeByte(TAG_REGISTERED);
+                    out.writeShort(id.intValue());
+                    ((Externalizable) value).writeExternal(out);
+                } else if (value instanceof Serializable) {
+                    out.writeByte(TAG_OBJECT);
+                    out.writeObject(value);
+                } else {
+                    throw new NotSerializableException(clazz.getName());
+                }
+            }
+        }
+
+    }
+
+
+    /**
+     * Read a length, which can't be negative.
+     */
+    protected int readLength(ObjectInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            throw new StreamCorruptedException
+                (sm.getString("binarySessionSerializer.badLength",
+                              new Integer(n)));
+        }
+        return n;
+    }
+
+
+    /**
+     * Create an instance of the registered class with the specified index.
+     */
+    protected Externalizable newRegisteredInstance(int id)
+        throws IOException, ClassNotFoundException {
+
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        ResolvedClasses resolved = this.resolved;
+        if (resolved == null || resolved.loader != loader) {
+            resolved = new ResolvedClasses(loader, registeredNames.length);
+            this.resolved = resolved;
+        }
+        if (id >= resolved.classes.length) {
+            throw new StreamCorruptedException
+                (sm.getString("binarySessionSerializer.unknownClass",
+                              new Integer(id)));
+        }
+        Class<?> clazz = resolved.classes[id];
+        if (clazz == null) {
+            String name = registeredNames[id];
+            if (loader != null) {
+                clazz = Class.forName(name, false, loader);
+            } else {
+                clazz = Class.forName(name);
+            }
+            resolved.classes[id] = clazz;
+        }
+        try {
+            return (Externalizable) clazz.newInstance();
+        } catch (Exception e) {
+            IOException ioe = new IOException
+                (sm.getString("binarySessionSerializer.newInstance",
+                              clazz.getName()));
+            ioe.initCause(e);
+            throw ioe;
+        }
+
+    }
+
+
+    // ---------------------------------------- ResolvedClasses Inner Class
+
+
+    /**
+     * Registered classes loaded by a class loader, so that a reloaded web
+     * application doesn't get the classes of the previous one.
+     */
+    protected static final class ResolvedClasses {
+
+        final ClassLoader loader;
+        final Class<?>[] classes;
+
+        ResolvedClasses(ClassLoader loader, int count) {
+            this.loader = loader;
+            this.classes = new Class<?>[count];
+        }
+    }
+
+
+}
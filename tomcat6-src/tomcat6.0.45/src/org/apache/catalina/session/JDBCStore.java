@@ -822,6 +822,106 @@ public class JDBCStore extends StoreBase {
     }
 
 
+    /**
+     * Save several sessions to the Store, with a single batch of deletes and
+     * a single batch of inserts run in one transaction. The sessions are
+     * serialized before the connection is locked.
+     *
+     * @param sessions the sessions to be stored
+     * @exception IOException if an input/output error occurs
+     */
+    public void save(Session[] sessions) throws IOException {
+        byte[][] data = new byte[sessions.length][];
+        boolean[] valid = new boolean[sessions.length];
+        for (int i = 0; i < sessions.length; i++) {
+            valid[i] = sessions[i].isValid();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos =
+                new ObjectOutputStream(new BufferedOutputStream(bos));
+            try {
+                ((StandardSession) sessions[i]).writeObjectData(oos);
+            } finally {
+                oos.close();
+            }
+            data[i] = bos.toByteArray();
+        }
+
+        synchronized (this) {
+            int numberOfTries = 2;
+            while (numberOfTries > 0) {
+                Connection _conn = getConnection();
+                if (_conn == null) {
+                    return;
+                }
+
+                try {
+                    if (preparedRemoveSql == null) {
+                        String removeSql = "DELETE FROM " + sessionTable
+                                + " WHERE " + sessionIdCol + " = ?  AND "
+                                + sessionAppCol + " = ?";
+                        preparedRemoveSql = _conn.prepareStatement(removeSql);
+                    }
+                    if (preparedSaveSql == null) {
+                        String saveSql = "INSERT INTO " + sessionTable + " ("
+                           + sessionIdCol + ", " + sessionAppCol + ", "
+                           + sessionDataCol + ", " + sessionValidCol
+                           + ", " + sessionMaxInactiveCol + ", "
+                           + sessionLastAccessedCol
+                           + ") VALUES (?, ?, ?, ?, ?, ?)";
+                        preparedSaveSql = _conn.prepareStatement(saveSql);
+                    }
+
+                    _conn.setAutoCommit(false);
+                    try {
+                        for (int i = 0; i < sessions.length; i++) {
+                            preparedRemoveSql.setString(1, sessions[i].getIdInternal());
+                            preparedRemoveSql.setString(2, getName());
+                            preparedRemoveSql.addBatch();
+                        }
+                        preparedRemoveSql.executeBatch();
+                        for (int i = 0; i < sessions.length; i++) {
+                            preparedSaveSql.setString(1, sessions[i].getIdInternal());
+                            preparedSaveSql.setString(2, getName());
+                            preparedSaveSql.setBinaryStream(3,
+                                    new ByteArrayInputStream(data[i]), data[i].length);
+                            preparedSaveSql.setString(4, valid[i] ? "1" : "0");
+                            preparedSaveSql.setInt(5, sessions[i].getMaxInactiveInterval());
+                            preparedSaveSql.setLong(6, sessions[i].getLastAccessedTime());
+                            preparedSaveSql.addBatch();
+                        }
+                        preparedSaveSql.executeBatch();
+                        _conn.commit();
+                    } catch (SQLException e) {
+                        _conn.rollback();
+                        throw e;
+                    } finally {
+                        _conn.setAutoCommit(true);
+                    }
+                    // Break out after the finally block
+                    numberOfTries = 0;
+                } catch (SQLException e) {
+                    manager.getContainer().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+                    if (dbConnection != null)
+                        close(dbConnection);
+                    if (numberOfTries == 1) {
+                        IOException ioe = new IOException(e.getMessage());
+                        ioe.initCause(e);
+                        throw ioe;
+                    }
+                } finally {
+                    release(_conn);
+                }
+                numberOfTries--;
+            }
+        }
+
+        if (manager.getContainer().getLogger().isDebugEnabled()) {
+            manager.getContainer().getLogger().debug(sm.getString(getStoreName() + ".savingBatch",
+                    new Integer(sessions.length), sessionTable));
+        }
+    }
+
+
     // --------------------------------------------------------- Protected Methods
 
     /**
@@ -181,6 +181,26 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     protected String randomClass = "java.security.SecureRandom";
 
 
+    /**
+     * The serializer used to write and read the session attribute values.
+     */
+    protected SessionSerializer sessionSerializer = null;
+
+
+    /**
+     * The Java class name of the session serializer.
+     */
+    protected String sessionSerializerClassName =
+        JavaSessionSerializer.class.getName();
+
+
+    /**
+     * The comma separated names of the classes registered with the session
+     * serializer, if it is a {@link BinarySessionSerializer}.
+     */
+    protected String sessionSerializerRegisteredClasses = null;
+
+
     /**
      * The longest time (in seconds) that an expired session had been alive.
      */
@@ -231,12 +251,48 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
      */
     protected long processingTime = 0;
 
+    /**
+     * Duration in ms, number of sessions checked and number of sessions
+     * expired of the last expiration run.
+     */
+    protected long lastExpiresDuration = 0;
+    protected int lastExpiresChecked = 0;
+    protected int lastExpiredSessions = 0;
+
     /**
      * Iteration count for background processing.
      */
     private int count = 0;
 
 
+    /**
+     * Width in ms of the buckets of the expiration index.
+     */
+    protected static final long EXPIRATION_BUCKET_WIDTH = 1000;
+
+
+    /**
+     * Index the sessions by the time they are due to expire, so that the
+     * expiration only checks the sessions which may have expired.
+     */
+    protected boolean useExpirationIndex = false;
+
+
+    /**
+     * Sessions of the expiration index, by bucket, a bucket holding the
+     * sessions due to expire during the same {@link #EXPIRATION_BUCKET_WIDTH}
+     * ms. The bucket sets are maps to Boolean.TRUE.
+     */
+    protected ConcurrentHashMap<Long, ConcurrentHashMap<Session, Boolean>> expirationBuckets =
+        new ConcurrentHashMap<Long, ConcurrentHashMap<Session, Boolean>>();
+
+
+    /**
+     * Last bucket of the expiration index which has been processed.
+     */
+    protected volatile long processedBucket = -1;
+
+
     /**
      * Frequency of the session expiration, and related manager operations.
      * Manager operations will be done once for the specified amount of
@@ -772,6 +828,89 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     }
 
 
+    /**
+     * Return the serializer used to write and read the session attribute
+     * values, creating it from the configured class name if needed.
+     */
+    public SessionSerializer getSessionSerializer() {
+        if (this.sessionSerializer == null) {
+            SessionSerializer serializer = null;
+            try {
+                Class<?> clazz = Class.forName(sessionSerializerClassName);
+                serializer = (SessionSerializer) clazz.newInstance();
+            } catch (Exception e) {
+                log.error(sm.getString("managerBase.sessionSerializer",
+                        sessionSerializerClassName), e);
+                serializer = new JavaSessionSerializer();
+            }
+            if (serializer instanceof BinarySessionSerializer) {
+                ((BinarySessionSerializer) serializer).setRegisteredClasses(
+                        sessionSerializerRegisteredClasses);
+            }
+            this.sessionSerializer = serializer;
+        }
+        return this.sessionSerializer;
+    }
+
+
+    /**
+     * Set the serializer used to write and read the session attribute
+     * values. Sessions persisted with another serializer can't be read
+     * back.
+     *
+     * @param sessionSerializer The new serializer
+     */
+    public void setSessionSerializer(SessionSerializer sessionSerializer) {
+        this.sessionSerializer = sessionSerializer;
+    }
+
+
+    /**
+     * Return the session serializer class name.
+     */
+    public String getSessionSerializerClassName() {
+        return this.sessionSerializerClassName;
+    }
+
+
+    /**
+     * Set the session serializer class name.
+     *
+     * @param sessionSerializerClassName The new session serializer class name
+     */
+    public void setSessionSerializerClassName(String sessionSerializerClassName) {
+        String oldSessionSerializerClassName = this.sessionSerializerClassName;
+        this.sessionSerializerClassName = sessionSerializerClassName;
+        this.sessionSerializer = null;
+        support.firePropertyChange("sessionSerializerClassName",
+                oldSessionSerializerClassName, this.sessionSerializerClassName);
+    }
+
+
+    /**
+     * Return the comma separated names of the classes registered with the
+     * session serializer.
+     */
+    public String getSessionSerializerRegisteredClasses() {
+        return this.sessionSerializerRegisteredClasses;
+    }
+
+
+    /**
+     * Set the comma separated names of the <code>Externalizable</code>
+     * classes registered with the session serializer, if it is a
+     * {@link BinarySessionSerializer}.
+     *
+     * @param sessionSerializerRegisteredClasses The class names
+     */
+    public void setSessionSerializerRegisteredClasses(
+            String sessionSerializerRegisteredClasses) {
+        this.sessionSerializerRegisteredClasses =
+            sessionSerializerRegisteredClasses;
+        this.sessionSerializer = null;
+    }
+
+
     /**
      * Gets the number of sessions that have expired.
      *
@@ -799,6 +938,71 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     public void setProcessingTime(long processingTime) {
         this.processingTime = processingTime;
     }
+
+
+    /**
+     * Return the duration in ms of the last expiration run.
+     */
+    public long getLastExpiresDuration() {
+        return lastExpiresDuration;
+    }
+
+
+    /**
+     * Return the number of sessions checked by the last expiration run.
+     */
+    public int getLastExpiresChecked() {
+        return lastExpiresChecked;
+    }
+
+
+    /**
+     * Return the number of sessions expired by the last expiration run.
+     */
+    public int getLastExpiredSessions() {
+        return lastExpiredSessions;
+    }
+
+
+    /**
+     * Return <code>true</code> if the sessions are indexed by expiration
+     * time.
+     */
+    public boolean getUseExpirationIndex() {
+        return useExpirationIndex;
+    }
+
+
+    /**
+     * Set whether the sessions are indexed by the time they are due to
+     * expire, so that the background expiration only checks the sessions
+     * which may have expired instead of all of them.
+     *
+     * @param useExpirationIndex the new flag value
+     */
+    public void setUseExpirationIndex(boolean useExpirationIndex) {
+        if (useExpirationIndex == this.useExpirationIndex) {
+            return;
+        }
+        expirationBuckets.clear();
+        processedBucket =
+            System.currentTimeMillis() / EXPIRATION_BUCKET_WIDTH - 1;
+        this.useExpirationIndex = useExpirationIndex;
+        if (useExpirationIndex) {
+            Iterator<Session> iter = sessions.values().iterator();
+            while (iter.hasNext()) {
+                scheduleExpiration(iter.next());
+            }
+        } else {
+            Iterator<Session> iter = sessions.values().iterator();
+            while (iter.hasNext()) {
+                Session session = iter.next();
+                if (session instanceof StandardSession) {
+                    ((StandardSession) session).expirationBucket = -1;
+                }
+            }
+        }
+    }
     
     /**
      * @return The frequency of manager checks.
@@ -843,23 +1047,149 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
         
         if(log.isDebugEnabled())
-            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (sessions[i]!=null && !sessions[i].isValid()) {
-                expireHere++;
-            }
-        }
+            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.size());
+        int expireHere = expireSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
         processingTime += ( timeEnd - timeNow );
+        lastExpiresDuration = timeEnd - timeNow;
+
+    }
+
+
+    /**
+     * Check the sessions which may have expired, all of them unless the
+     * expiration index is used.
+     *
+     * @param timeNow The current time
+     * @return the number of sessions which expired
+     */
+    protected int expireSessions(long timeNow) {
+
+        int expireHere = 0;
+        int checked = 0;
+        if (!useExpirationIndex) {
+            Session sessions[] = findSessions();
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i]!=null && !sessions[i].isValid()) {
+                    expireHere++;
+                }
+            }
+            checked = sessions.length;
+        } else {
+            long due = timeNow / EXPIRATION_BUCKET_WIDTH;
+            for (long b = processedBucket + 1; b <= due; b++) {
+                // Sessions scheduled from now on go to a later bucket
+                processedBucket = b;
+                ConcurrentHashMap<Session, Boolean> bucket =
+                    expirationBuckets.remove(Long.valueOf(b));
+                if (bucket == null) {
+                    continue;
+                }
+                Iterator<Session> iter = bucket.keySet().iterator();
+                while (iter.hasNext()) {
+                    Session session = iter.next();
+                    if (sessions.get(session.getIdInternal()) != session) {
+                        // Removed in the meantime
+                        continue;
+                    }
+                    checked++;
+                    if (!session.isValid()) {
+                        expireHere++;
+                    } else {
+                        // Accessed since it was scheduled
+                        scheduleExpiration(session);
+                    }
+                }
+            }
+        }
+        lastExpiresChecked = checked;
+        lastExpiredSessions = expireHere;
+        return expireHere;
 
     }
 
+
+    /**
+     * Add a session to the expiration index, or move it to the bucket of
+     * the time it is now due to expire. Sessions are only moved when their
+     * timeout changes, or when their bucket is processed and they have been
+     * accessed since they were scheduled, so that accessing a session
+     * doesn't update the index.
+     *
+     * @param session The session
+     */
+    public void scheduleExpiration(Session session) {
+
+        if (!useExpirationIndex) {
+            return;
+        }
+        unscheduleExpiration(session);
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval < 0) {
+            // Never expires
+            return;
+        }
+        long accessed;
+        if (session instanceof StandardSession) {
+            accessed = ((StandardSession) session).thisAccessedTime;
+        } else {
+            accessed = session.getLastAccessedTimeInternal();
+        }
+        long deadline =
+            (accessed + maxInactiveInterval * 1000L) / EXPIRATION_BUCKET_WIDTH;
+        while (true) {
+            long b = Math.max(deadline, processedBucket + 1);
+            Long key = Long.valueOf(b);
+            ConcurrentHashMap<Session, Boolean> bucket = expirationBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ConcurrentHashMap<Session, Boolean>();
+                ConcurrentHashMap<Session, Boolean> current =
+                    expirationBuckets.putIfAbsent(key, bucket);
+                if (current != null) {
+                    bucket = current;
+                }
+            }
+            bucket.put(session, Boolean.TRUE);
+            if (expirationBuckets.get(key) == bucket) {
+                if (session instanceof StandardSession) {
+                    ((StandardSession) session).expirationBucket = b;
+                }
+                return;
+            }
+            // The bucket has been processed meanwhile, which may or may not
+            // have seen the session: use the next one
+            bucket.remove(session);
+        }
+
+    }
+
+
+    /**
+     * Remove a session from the expiration index.
+     *
+     * @param session The session
+     */
+    protected void unscheduleExpiration(Session session) {
+        if (session instanceof StandardSession) {
+            StandardSession standardSession = (StandardSession) session;
+            long b = standardSession.expirationBucket;
+            if (b >= 0) {
+                ConcurrentHashMap<Session, Boolean> bucket =
+                    expirationBuckets.get(Long.valueOf(b));
+                if (bucket != null) {
+                    bucket.remove(session);
+                }
+                standardSession.expirationBucket = -1;
+            }
+        }
+        // Other sessions are dropped from the index when their bucket is
+        // processed
+    }
+
     public void destroy() {
         if( oname != null )
             Registry.getRegistry(null, null).unregisterComponent(oname);
@@ -929,6 +1259,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     public void add(Session session) {
 
         sessions.put(session.getIdInternal(), session);
+        scheduleExpiration(session);
         int size = sessions.size();
         if( size > maxActive ) {
             synchronized(maxActiveUpdateLock) {
@@ -1080,6 +1411,9 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
      */
     public void remove(Session session) {
         sessions.remove(session.getIdInternal());
+        if (useExpirationIndex) {
+            unscheduleExpiration(session);
+        }
     }
 
 
@@ -24,7 +24,10 @@ import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.catalina.Container;
@@ -117,6 +120,21 @@ public abstract class PersistentManagerBase
         }                       
     }   
      
+    private class PrivilegedStoreSaveBatch
+        implements PrivilegedExceptionAction {
+
+        private Session[] sessions;
+
+        PrivilegedStoreSaveBatch(Session[] sessions) {
+            this.sessions = sessions;
+        }
+
+        public Object run() throws Exception{
+           ((StoreBase) store).save(sessions);
+           return null;
+        }
+    }
+
     private class PrivilegedStoreKeys
         implements PrivilegedExceptionAction {
 
@@ -215,6 +233,70 @@ public abstract class PersistentManagerBase
     	new HashMap<String,Object>();
 
 
+    /**
+     * Write sessions which are swapped out or backed up to the Store from
+     * dedicated threads, instead of the background thread.
+     */
+    protected boolean writeBehind = false;
+
+
+    /**
+     * Number of threads writing the queued sessions.
+     */
+    protected int writeBehindThreads = 1;
+
+
+    /**
+     * Max number of queued sessions. When the queue is full, sessions are
+     * written by the background thread as if write behind was disabled.
+     */
+    protected int writeBehindQueueSize = 10000;
+
+
+    /**
+     * Max number of sessions written to the Store at once.
+     */
+    protected int writeBehindBatchSize = 100;
+
+
+    /**
+     * Sessions waiting to be written, by id, in queuing order. Also guards
+     * {@link #inFlightWrites} and the write behind statistics.
+     */
+    protected final LinkedHashMap<String, PendingWrite> pendingWrites =
+        new LinkedHashMap<String, PendingWrite>();
+
+
+    /**
+     * Sessions being written, by id, associated with the thread writing
+     * them.
+     */
+    protected final HashMap<String, Thread> inFlightWrites =
+        new HashMap<String, Thread>();
+
+
+    /**
+     * The write behind threads, while started.
+     */
+    protected Thread[] writeBehindWorkers = null;
+
+
+    /**
+     * Are sessions queued for the write behind threads?
+     */
+    protected volatile boolean writeBehindRunning = false;
+
+
+    /**
+     * Write behind statistics.
+     */
+    protected long writeBehindWritten = 0;
+    protected long writeBehindBatches = 0;
+    protected long writeBehindCoalesced = 0;
+    protected long writeBehindQueueFull = 0;
+    protected int writeBehindMaxPending = 0;
+
+
     // ------------------------------------------------------------- Properties
 
     
@@ -351,6 +433,150 @@ public abstract class PersistentManagerBase
     }
 
 
+    /**
+     * Return <code>true</code> if sessions are written to the Store by
+     * dedicated threads.
+     */
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+
+
+    /**
+     * Set whether sessions which are swapped out or backed up are queued
+     * and written to the Store by dedicated threads, in batches, instead
+     * of one at a time by the background thread. Repeated writes of a
+     * queued session are coalesced. Takes effect when the manager is
+     * started.
+     *
+     * @param writeBehind The new flag value
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        boolean oldWriteBehind = this.writeBehind;
+        this.writeBehind = writeBehind;
+        support.firePropertyChange("writeBehind",
+                                   new Boolean(oldWriteBehind),
+                                   new Boolean(this.writeBehind));
+    }
+
+
+    /**
+     * Return the number of threads writing the queued sessions.
+     */
+    public int getWriteBehindThreads() {
+        return writeBehindThreads;
+    }
+
+
+    /**
+     * Set the number of threads writing the queued sessions. Takes effect
+     * when the manager is started.
+     */
+    public void setWriteBehindThreads(int writeBehindThreads) {
+        if (writeBehindThreads > 0) {
+            this.writeBehindThreads = writeBehindThreads;
+        }
+    }
+
+
+    /**
+     * Return the max number of queued sessions.
+     */
+    public int getWriteBehindQueueSize() {
+        return writeBehindQueueSize;
+    }
+
+
+    /**
+     * Set the max number of queued sessions. Sessions which don't fit in the
+     * queue are written by the background thread.
+     */
+    public void setWriteBehindQueueSize(int writeBehindQueueSize) {
+        this.writeBehindQueueSize = writeBehindQueueSize;
+    }
+
+
+    /**
+     * Return the max number of sessions written to the Store at once.
+     */
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+
+    /**
+     * Set the max number of sessions written to the Store at once.
+     */
+    public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+        if (writeBehindBatchSize > 0) {
+            this.writeBehindBatchSize = writeBehindBatchSize;
+        }
+    }
+
+
+    /**
+     * Return the number of sessions waiting to be written.
+     */
+    public int getWriteBehindPending() {
+        synchronized (pendingWrites) {
+            return pendingWrites.size();
+        }
+    }
+
+
+    /**
+     * Return the highest number of sessions which have been waiting to be
+     * written.
+     */
+    public int getWriteBehindMaxPending() {
+        synchronized (pendingWrites) {
+            return writeBehindMaxPending;
+        }
+    }
+
+
+    /**
+     * Return the number of sessions written by the write behind threads.
+     */
+    public long getWriteBehindWritten() {
+        synchronized (pendingWrites) {
+            return writeBehindWritten;
+        }
+    }
+
+
+    /**
+     * Return the number of batches written by the write behind threads.
+     */
+    public long getWriteBehindBatches() {
+        synchronized (pendingWrites) {
+            return writeBehindBatches;
+        }
+    }
+
+
+    /**
+     * Return the number of writes saved because the session was already
+     * queued.
+     */
+    public long getWriteBehindCoalesced() {
+        synchronized (pendingWrites) {
+            return writeBehindCoalesced;
+        }
+    }
+
+
+    /**
+     * Return the number of sessions written by the background thread
+     * because the queue was full.
+     */
+    public long getWriteBehindQueueFull() {
+        synchronized (pendingWrites) {
+            return writeBehindQueueFull;
+        }
+    }
+
+
     /**
      * Return descriptive information about this Manager implementation and
      * the corresponding version number, in the format
@@ -547,16 +773,10 @@ public abstract class PersistentManagerBase
 	public void processExpires() {
 		
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
         if(log.isDebugEnabled())
-             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (!sessions[i].isValid()) {
-                expiredSessions++;
-                expireHere++;
-            }
-        }
+             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.size());
+        int expireHere = expireSessions(timeNow);
+        expiredSessions += expireHere;
         processPersistenceChecks();
         if ((getStore() != null) && (getStore() instanceof StoreBase)) {
             ((StoreBase) getStore()).processExpires();
@@ -566,6 +786,7 @@ public abstract class PersistentManagerBase
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
         processingTime += (timeEnd - timeNow);
+        lastExpiresDuration = timeEnd - timeNow;
  		
 	}
 
@@ -649,6 +870,7 @@ public abstract class PersistentManagerBase
 
         // Initialize our internal data structures
         sessions.clear();
+        expirationBuckets.clear();
 
         if (store == null)
             return;
@@ -713,6 +935,7 @@ public abstract class PersistentManagerBase
      * @param id Session's id to be removed
      */    
     protected void removeSession(String id){
+        cancelWrite(id);
         try {
             if (SecurityUtil.isPackageProtectionEnabled()){
                 try{
@@ -804,33 +1027,44 @@ public abstract class PersistentManagerBase
             session = sessions.get(id);
 
             if (session == null) {
-                try {
-                    if (SecurityUtil.isPackageProtectionEnabled()){
-                        try {
-                            session = (Session) AccessController.doPrivileged(
-                                    new PrivilegedStoreLoad(id));
-                        } catch (PrivilegedActionException ex) {
-                            Exception e = ex.getException();
-                            log.error(sm.getString(
-                                    "persistentManager.swapInException", id),
-                                    e);
-                            if (e instanceof IOException){
-                                throw (IOException)e;
-                            } else if (e instanceof ClassNotFoundException) {
-                                throw (ClassNotFoundException)e;
+                // A session swapped out but not written yet is taken back
+                // from the write behind queue
+                boolean active = false;
+                session = reclaimWrite(id);
+                if (session == null) {
+                    // Made active again if its write failed
+                    session = sessions.get(id);
+                    active = (session != null);
+                }
+                if (session == null) {
+                    try {
+                        if (SecurityUtil.isPackageProtectionEnabled()){
+                            try {
+                                session = (Session) AccessController.doPrivileged(
+                                        new PrivilegedStoreLoad(id));
+                            } catch (PrivilegedActionException ex) {
+                                Exception e = ex.getException();
+                                log.error(sm.getString(
+                                        "persistentManager.swapInException", id),
+                                        e);
+                                if (e instanceof IOException){
+                                    throw (IOException)e;
+                                } else if (e instanceof ClassNotFoundException) {
+                                    throw (ClassNotFoundException)e;
+                                }
                             }
+                        } else {
+                             session = store.load(id);
                         }
-                    } else {
-                         session = store.load(id);
+                    } catch (ClassNotFoundException e) {
+                        String msg = sm.getString(
+                                "persistentManager.deserializeError", id);
+                        log.error(msg, e);
+                        throw new IllegalStateException(msg, e);
                     }
-                } catch (ClassNotFoundException e) {
-                    String msg = sm.getString(
-                            "persistentManager.deserializeError", id);
-                    log.error(msg, e);
-                    throw new IllegalStateException(msg, e);
                 }
 
-                if (session != null && !session.isValid()) {
+                if (!active && session != null && !session.isValid()) {
                     log.error(sm.getString(
                             "persistentManager.swapInInvalid", id));
                     session.expire();
@@ -838,7 +1072,7 @@ public abstract class PersistentManagerBase
                     session = null;
                 }
 
-                if (session != null) {
+                if (!active && session != null) {
                     if(log.isDebugEnabled())
                         log.debug(sm.getString("persistentManager.swapIn", id));
 
@@ -881,6 +1115,9 @@ public abstract class PersistentManagerBase
         }
 
         ((StandardSession)session).passivate();
+        if (queueWrite(session, true)) {
+            return;
+        }
         writeSession(session);
         super.remove(session);
         session.recycle();
@@ -923,6 +1160,250 @@ public abstract class PersistentManagerBase
     }
 
 
+    /**
+     * Queue the provided session to be written to the Store by the write
+     * behind threads. A session which is already queued is written once.
+     *
+     * @param session The session to write
+     * @param swap <code>true</code> if the session is swapped out, in which
+     *  case it is removed from the active sessions now, and recycled once
+     *  written
+     * @return <code>false</code> if the session must be written by the
+     *  caller, because write behind is disabled or the queue is full
+     */
+    protected boolean queueWrite(Session session, boolean swap) {
+
+        if (!writeBehindRunning) {
+            return false;
+        }
+        String id = session.getIdInternal();
+        synchronized (pendingWrites) {
+            PendingWrite pending = pendingWrites.get(id);
+            if (pending != null) {
+                pending.swap |= swap;
+                writeBehindCoalesced++;
+            } else if (pendingWrites.size() >= writeBehindQueueSize) {
+                writeBehindQueueFull++;
+                return false;
+            } else {
+                pendingWrites.put(id, new PendingWrite(session, swap));
+                if (pendingWrites.size() > writeBehindMaxPending) {
+                    writeBehindMaxPending = pendingWrites.size();
+                }
+            }
+            // Removed while holding the lock, so that swapIn finds the
+            // session either active or queued
+            if (swap) {
+                super.remove(session);
+            }
+            pendingWrites.notifyAll();
+        }
+        return true;
+
+    }
+
+
+    /**
+     * Take back a session swapped out and still queued, after waiting for
+     * a write of the session in progress to complete.
+     *
+     * @param id The session id
+     * @return the session, or <code>null</code> if it is not queued
+     */
+    protected Session reclaimWrite(String id) {
+
+        synchronized (pendingWrites) {
+            waitForWrite(id);
+            PendingWrite pending = pendingWrites.get(id);
+            if (pending == null || !pending.swap) {
+                return null;
+            }
+            pendingWrites.remove(id);
+            return pending.session;
+        }
+
+    }
+
+
+    /**
+     * Cancel the queued write of a session which is removed, after waiting
+     * for a write of the session in progress to complete.
+     *
+     * @param id The session id
+     */
+    protected void cancelWrite(String id) {
+
+        synchronized (pendingWrites) {
+            pendingWrites.remove(id);
+            waitForWrite(id);
+        }
+
+    }
+
+
+    /**
+     * Wait for a write of the session in progress by another thread to
+     * complete. The lock of the queue must be held.
+     */
+    private void waitForWrite(String id) {
+        Thread writer;
+        while ((writer = inFlightWrites.get(id)) != null
+                && writer != Thread.currentThread()) {
+            try {
+                pendingWrites.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Start the write behind threads.
+     */
+    protected void startWriteBehind() {
+
+        writeBehindRunning = true;
+        writeBehindWorkers = new Thread[writeBehindThreads];
+        for (int i = 0; i < writeBehindThreads; i++) {
+            writeBehindWorkers[i] = new Thread(new WriteBehindWorker(),
+                    "PersistentManager-WriteBehind[" + container.getName()
+                    + "]-" + i);
+            writeBehindWorkers[i].setDaemon(true);
+            writeBehindWorkers[i].start();
+        }
+
+    }
+
+
+    /**
+     * Stop the write behind threads, once they have written all the queued
+     * sessions.
+     */
+    protected void stopWriteBehind() {
+
+        if (writeBehindWorkers == null) {
+            return;
+        }
+        synchronized (pendingWrites) {
+            writeBehindRunning = false;
+            pendingWrites.notifyAll();
+        }
+        for (int i = 0; i < writeBehindWorkers.length; i++) {
+            try {
+                writeBehindWorkers[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        writeBehindWorkers = null;
+
+    }
+
+
+    /**
+     * Take the next sessions to write from the queue, skipping sessions
+     * which another thread is writing. The lock of the queue must be held.
+     *
+     * @return the sessions, or <code>null</code> if there are none
+     */
+    private PendingWrite[] takeWrites() {
+        ArrayList<PendingWrite> batch = null;
+        Iterator<PendingWrite> iter = pendingWrites.values().iterator();
+        while (iter.hasNext()) {
+            PendingWrite pending = iter.next();
+            String id = pending.session.getIdInternal();
+            if (inFlightWrites.containsKey(id)) {
+                continue;
+            }
+            iter.remove();
+            inFlightWrites.put(id, Thread.currentThread());
+            if (batch == null) {
+                batch = new ArrayList<PendingWrite>();
+            }
+            batch.add(pending);
+            if (batch.size() >= writeBehindBatchSize) {
+                break;
+            }
+        }
+        return batch == null ? null : batch.toArray(new PendingWrite[batch.size()]);
+    }
+
+
+    /**
+     * Write sessions taken from the queue to the Store, in a single batch if
+     * the Store supports it, then one by one if the batch fails. Swapped
+     * out sessions which could not be written are made active again, so
+     * that they aren't lost.
+     */
+    protected void writeQueued(PendingWrite[] writes) {
+
+        Session[] sessions = new Session[writes.length];
+        for (int i = 0; i < writes.length; i++) {
+            sessions[i] = writes[i].session;
+        }
+        boolean[] written = new boolean[writes.length];
+        boolean batched = false;
+        if (sessions.length > 1 && store instanceof StoreBase) {
+            try {
+                if (SecurityUtil.isPackageProtectionEnabled()) {
+                    try {
+                        AccessController.doPrivileged(
+                                new PrivilegedStoreSaveBatch(sessions));
+                    } catch (PrivilegedActionException ex) {
+                        throw ex.getException();
+                    }
+                } else {
+                    ((StoreBase) store).save(sessions);
+                }
+                batched = true;
+                for (int i = 0; i < written.length; i++) {
+                    written[i] = true;
+                }
+            } catch (Exception e) {
+                log.error(sm.getString("persistentManager.writeBehindBatchError",
+                        new Integer(sessions.length)), e);
+            }
+        }
+        if (!batched) {
+            for (int i = 0; i < sessions.length; i++) {
+                try {
+                    writeSession(sessions[i]);
+                    written[i] = true;
+                } catch (IOException e) {
+                    ;   // This is logged in writeSession()
+                }
+            }
+        }
+
+        for (int i = 0; i < writes.length; i++) {
+            if (!writes[i].swap) {
+                continue;
+            }
+            if (written[i]) {
+                sessions[i].recycle();
+            } else if (sessions[i].isValid()) {
+                ((StandardSession) sessions[i]).activate();
+                add(sessions[i]);
+            }
+        }
+
+        synchronized (pendingWrites) {
+            for (int i = 0; i < written.length; i++) {
+                if (written[i]) {
+                    writeBehindWritten++;
+                }
+            }
+            if (batched) {
+                writeBehindBatches++;
+            }
+        }
+
+    }
+
+
     // ------------------------------------------------------ Lifecycle Methods
 
 
@@ -994,6 +1475,10 @@ public abstract class PersistentManagerBase
         else if (store instanceof Lifecycle)
             ((Lifecycle)store).start();
 
+        if (store != null && writeBehind) {
+            startWriteBehind();
+        }
+
     }
 
 
@@ -1032,6 +1517,8 @@ public abstract class PersistentManagerBase
             }
         }
 
+        stopWriteBehind();
+
         if (getStore() != null && getStore() instanceof Lifecycle)
             ((Lifecycle)getStore()).stop();
 
@@ -1044,6 +1531,74 @@ public abstract class PersistentManagerBase
     }
 
 
+    // ------------------------------------------------ PendingWrite Inner Class
+
+
+    /**
+     * A session queued to be written to the Store.
+     */
+    protected static final class PendingWrite {
+
+        final Session session;
+
+        /**
+         * Is the session swapped out, rather than backed up?
+         */
+        boolean swap;
+
+        PendingWrite(Session session, boolean swap) {
+            this.session = session;
+            this.swap = swap;
+        }
+    }
+
+
+    // ------------------------------------------ WriteBehindWorker Inner Class
+
+
+    /**
+     * Thread writing the queued sessions, until write behind is stopped and
+     * the queue is empty.
+     */
+    protected class WriteBehindWorker implements Runnable {
+
+        public void run() {
+            while (true) {
+                PendingWrite[] writes;
+                String[] ids;
+                synchronized (pendingWrites) {
+                    while ((writes = takeWrites()) == null) {
+                        if (!writeBehindRunning && pendingWrites.isEmpty()) {
+                            return;
+                        }
+                        try {
+                            pendingWrites.wait();
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                    }
+                    ids = new String[writes.length];
+                    for (int i = 0; i < writes.length; i++) {
+                        ids[i] = writes[i].session.getIdInternal();
+                    }
+                }
+                try {
+                    writeQueued(writes);
+                } catch (Throwable t) {
+                    log.error(sm.getString("persistentManager.writeBehindError"), t);
+                } finally {
+                    synchronized (pendingWrites) {
+                        for (int i = 0; i < ids.length; i++) {
+                            inFlightWrites.remove(ids[i]);
+                        }
+                        pendingWrites.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+
     // ----------------------------------------- PropertyChangeListener Methods
 
 
@@ -1196,7 +1751,9 @@ public abstract class PersistentManagerBase
                                 session.getIdInternal(), new Integer(timeIdle)));
     
                         try {
-                            writeSession(session);
+                            if (!queueWrite(session, false)) {
+                                writeSession(session);
+                            }
                         } catch (IOException e) {
                             ;   // This is logged in writeSession()
                         }
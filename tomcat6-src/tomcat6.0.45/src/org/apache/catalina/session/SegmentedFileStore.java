@@ -0,0 +1,911 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Loader;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+
+/**
+ * Implementation of the <b>Store</b> interface which appends the saved
+ * Sessions to a few large segment files, instead of writing a file per
+ * Session.
+ * <p>
+ * Segments are preallocated and memory mapped, so that saving a Session
+ * copies it to the page cache and loading it reads it from there. The
+ * Sessions are found through an in memory index, from their id to their
+ * location, which also holds their last access time and timeout, so that
+ * <code>keys()</code> and expiration don't need to read the segments. The
+ * index is rebuilt on start by scanning the segments in order, a later
+ * record of a Session replacing an earlier one.
+ * <p>
+ * Replaced and removed Sessions leave dead records behind. During the
+ * expiration check, segments which are less than
+ * <code>compactionThreshold</code> percent live are compacted: their live
+ * records are appended to the current segment, and the segment is deleted.
+ * The removal records are only moved along while other segments still hold
+ * records of the removed Sessions.
+ *
+ * @see FileStore
+ */
+public final class SegmentedFileStore extends StoreBase {
+
+    // ----------------------------------------------------- Constants
+
+    /**
+     * The prefix and extension of the segment file names, the sequence
+     * number of the segment being in between.
+     */
+    private static final String SEGMENT_PREFIX = "sessions-";
+    private static final String SEGMENT_EXT = ".seg";
+
+
+    /**
+     * A record is the length of its body, the CRC32 of its body, then the
+     * body: type, id length, id, last access time, timeout and data. A zero
+     * length marks the end of the records of a segment.
+     */
+    private static final int RECORD_HEADER = 8;
+    private static final int BODY_HEADER = 1 + 2 + 8 + 4;
+    private static final byte TYPE_SAVE = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * The pathname of the directory in which the segments are stored.
+     * This may be an absolute pathname, or a relative path that is
+     * resolved against the temporary work directory for this application.
+     */
+    private String directory = ".";
+
+
+    /**
+     * A File representing the directory in which the segments are stored.
+     */
+    private File directoryFile = null;
+
+
+    /**
+     * Size of the segment files.
+     */
+    private int segmentSize = 16 * 1024 * 1024;
+
+
+    /**
+     * Percentage of live records below which a segment is compacted.
+     */
+    private int compactionThreshold = 50;
+
+
+    /**
+     * Location of the saved Sessions, by id.
+     */
+    private final ConcurrentHashMap<String, Location> index =
+        new ConcurrentHashMap<String, Location>();
+
+
+    /**
+     * Number of save records in the segments, live or dead, by Session id.
+     * Guarded by this store.
+     */
+    private final HashMap<String, Integer> saveRecords =
+        new HashMap<String, Integer>();
+
+
+    /**
+     * The segments, by sequence number. Guarded by this store.
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+
+
+    /**
+     * The segment records are appended to. Guarded by this store.
+     */
+    private Segment current = null;
+
+
+    /**
+     * Have the segments been read?
+     */
+    private volatile boolean opened = false;
+
+
+    /**
+     * Number of segments compacted.
+     */
+    private long compactionCount = 0;
+
+
+    /**
+     * The descriptive information about this implementation.
+     */
+    private static final String info = "SegmentedFileStore/1.0";
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    private static final String storeName = "segmentedFileStore";
+
+    /**
+     * Name to register for the background thread.
+     */
+    private static final String threadName = "SegmentedFileStore";
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The directory path for this Store.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Set the directory path for this Store.
+     *
+     * @param path The new directory path
+     */
+    public void setDirectory(String path) {
+        String oldDirectory = this.directory;
+        this.directory = path;
+        this.directoryFile = null;
+        support.firePropertyChange("directory", oldDirectory, this.directory);
+    }
+
+
+    /**
+     * @return The size in bytes of the segment files.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    /**
+     * Set the size in bytes of the segment files. A Session larger than a
+     * segment is written to a segment of its own.
+     *
+     * @param segmentSize The new segment size
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+
+    /**
+     * @return The percentage of live records below which a segment is
+     *  compacted.
+     */
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * Set the percentage of live records below which a segment is
+     * compacted.
+     *
+     * @param compactionThreshold The new threshold
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+
+    /**
+     * @return The number of segment files.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+
+    /**
+     * @return The number of segments compacted since the Store was started.
+     */
+    public synchronized long getCompactionCount() {
+        return compactionCount;
+    }
+
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+
+    /**
+     * @return The thread name for this Store.
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public int getSize() throws IOException {
+        open();
+        return index.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Remove all of the Sessions in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public synchronized void clear() throws IOException {
+        open();
+        index.clear();
+        saveRecords.clear();
+        Iterator<Segment> iter = segments.values().iterator();
+        while (iter.hasNext()) {
+            delete(iter.next());
+        }
+        segments.clear();
+        current = null;
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.  If there are no such Sessions, a
+     * zero-length array is returned.
+     *
+     * @exception IOException if an input/output error occurred
+     */
+    public String[] keys() throws IOException {
+        open();
+        return index.keySet().toArray(new String[0]);
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        open();
+        Location location = index.get(id);
+        if (location == null) {
+            return null;
+        }
+
+        Context context = (Context) getManager().getContainer();
+        Log containerLog = context.getLogger();
+
+        if (containerLog.isDebugEnabled()) {
+            containerLog.debug(sm.getString(getStoreName()+".loading", id,
+                    location.segment.file.getAbsolutePath()));
+        }
+
+        ObjectInputStream ois = null;
+        Loader loader = null;
+        ClassLoader classLoader = null;
+        ClassLoader oldThreadContextCL = Thread.currentThread().getContextClassLoader();
+        try {
+            loader = context.getLoader();
+            if (loader != null) {
+                classLoader = loader.getClassLoader();
+            }
+            if (classLoader != null) {
+                Thread.currentThread().setContextClassLoader(classLoader);
+            }
+            ois = getObjectInputStream(new ByteArrayInputStream(location.getData()));
+
+            StandardSession session = (StandardSession) manager.createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        } finally {
+            if (ois != null) {
+                // Close the input stream
+                try {
+                    ois.close();
+                } catch (IOException f) {
+                    // Ignore
+                }
+            }
+            Thread.currentThread().setContextClassLoader(oldThreadContextCL);
+        }
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public synchronized void remove(String id) throws IOException {
+        open();
+        Location old = index.remove(id);
+        if (old == null) {
+            return;
+        }
+        if (manager.getContainer().getLogger().isDebugEnabled()) {
+            manager.getContainer().getLogger().debug(sm.getString(getStoreName()+".removing",
+                             id, old.segment.file.getAbsolutePath()));
+        }
+        old.segment.liveBytes -= old.length;
+        append(TYPE_REMOVE, id, 0, 0, new byte[0]);
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public void save(Session session) throws IOException {
+        save(new Session[] {session});
+    }
+
+
+    /**
+     * Save several Sessions into this Store. The Sessions are serialized
+     * before the Store is locked to append them.
+     *
+     * @param sessions Sessions to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public void save(Session[] sessions) throws IOException {
+        byte[][] data = new byte[sessions.length][];
+        for (int i = 0; i < sessions.length; i++) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos =
+                new ObjectOutputStream(new BufferedOutputStream(bos));
+            try {
+                ((StandardSession) sessions[i]).writeObjectData(oos);
+            } finally {
+                oos.close();
+            }
+            data[i] = bos.toByteArray();
+        }
+
+        synchronized (this) {
+            open();
+            for (int i = 0; i < sessions.length; i++) {
+                StandardSession session = (StandardSession) sessions[i];
+                String id = session.getIdInternal();
+                Location location = append(TYPE_SAVE, id,
+                        session.thisAccessedTime,
+                        session.getMaxInactiveInterval(), data[i]);
+                countSaveRecord(id, 1);
+                if (manager.getContainer().getLogger().isDebugEnabled()) {
+                    manager.getContainer().getLogger().debug(sm.getString(getStoreName()+".saving",
+                                     id, location.segment.file.getAbsolutePath()));
+                }
+                put(id, location);
+            }
+        }
+    }
+
+
+    /**
+     * Expire the Sessions which the index shows have been idle for too
+     * long, without reading the others, then compact the segments which
+     * have too many dead records.
+     */
+    @Override
+    public void processExpires() {
+        if (!started) {
+            return;
+        }
+        long timeNow = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Location>> iter = index.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Location> entry = iter.next();
+            Location location = entry.getValue();
+            if (location.maxInactiveInterval < 0) {
+                continue;
+            }
+            int timeIdle = (int) ((timeNow - location.thisAccessedTime) / 1000L);
+            if (timeIdle >= location.maxInactiveInterval) {
+                processExpires(entry.getKey(), timeNow);
+            }
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            manager.getContainer().getLogger().error(sm.getString(getStoreName()+".compactError"), e);
+        }
+    }
+
+
+    /**
+     * Compact the segments, other than the current one, which are less
+     * than <code>compactionThreshold</code> percent live.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public synchronized void compact() throws IOException {
+        open();
+        Segment[] candidates = segments.values().toArray(new Segment[0]);
+        for (int i = 0; i < candidates.length; i++) {
+            Segment segment = candidates[i];
+            if (segment != current &&
+                    (long) segment.liveBytes * 100 < (long) segment.end * compactionThreshold) {
+                compact(segment);
+            }
+        }
+    }
+
+
+    /**
+     * Read the segments when the Store is started.
+     */
+    @Override
+    public void start() throws LifecycleException {
+        super.start();
+        try {
+            open();
+        } catch (IOException e) {
+            throw new LifecycleException(e);
+        }
+    }
+
+
+    /**
+     * Write the segments to disk when the Store is stopped.
+     */
+    @Override
+    public void stop() throws LifecycleException {
+        super.stop();
+        synchronized (this) {
+            Iterator<Segment> iter = segments.values().iterator();
+            while (iter.hasNext()) {
+                iter.next().buffer.force();
+            }
+            segments.clear();
+            index.clear();
+            saveRecords.clear();
+            current = null;
+            opened = false;
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * Rebuild the index from the segments, if not done yet.
+     */
+    private void open() throws IOException {
+        if (opened) {
+            return;
+        }
+        synchronized (this) {
+            if (opened) {
+                return;
+            }
+            File dir = directory();
+            if (dir == null) {
+                throw new IOException(sm.getString(getStoreName()+".noDirectory"));
+            }
+            String[] names = dir.list();
+            TreeMap<Long, File> files = new TreeMap<Long, File>();
+            for (int i = 0; names != null && i < names.length; i++) {
+                if (names[i].startsWith(SEGMENT_PREFIX) && names[i].endsWith(SEGMENT_EXT)) {
+                    try {
+                        long sequence = Long.parseLong(names[i].substring(
+                                SEGMENT_PREFIX.length(), names[i].length() - SEGMENT_EXT.length()));
+                        files.put(new Long(sequence), new File(dir, names[i]));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+            Iterator<Map.Entry<Long, File>> iter = files.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<Long, File> entry = iter.next();
+                Segment segment = map(entry.getKey().longValue(), entry.getValue(), -1);
+                segments.put(entry.getKey(), segment);
+                scan(segment);
+                current = segment;
+            }
+            if (manager != null && manager.getContainer().getLogger().isDebugEnabled()) {
+                manager.getContainer().getLogger().debug(sm.getString(getStoreName()+".opened",
+                        new Integer(index.size()), new Integer(segments.size())));
+            }
+            opened = true;
+        }
+    }
+
+
+    /**
+     * Add the records of a segment to the index.
+     */
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER + BODY_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < BODY_HEADER || length > buffer.capacity() - position - RECORD_HEADER) {
+                logCorrupt(segment, position);
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.position(position + RECORD_HEADER);
+            buffer.get(body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                logCorrupt(segment, position);
+                break;
+            }
+            ByteBuffer b = ByteBuffer.wrap(body);
+            byte type = b.get();
+            int idLength = b.getShort() & 0xffff;
+            String id = decodeId(body, 3, idLength);
+            b.position(3 + idLength);
+            long thisAccessedTime = b.getLong();
+            int maxInactiveInterval = b.getInt();
+            int recordLength = RECORD_HEADER + length;
+            if (type == TYPE_SAVE) {
+                put(id, new Location(segment, position, recordLength, idLength,
+                        thisAccessedTime, maxInactiveInterval));
+                countSaveRecord(id, 1);
+            } else {
+                Location old = index.remove(id);
+                if (old != null) {
+                    old.segment.liveBytes -= old.length;
+                }
+            }
+            position += recordLength;
+        }
+        segment.end = position;
+    }
+
+
+    /**
+     * Append a record to the current segment, rolling to a new segment if
+     * it is full.
+     */
+    private Location append(byte type, String id, long thisAccessedTime,
+            int maxInactiveInterval, byte[] data) throws IOException {
+        byte[] idBytes = id.getBytes("UTF-8");
+        int length = BODY_HEADER + idBytes.length + data.length;
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.put(type);
+        body.putShort((short) idBytes.length);
+        body.put(idBytes);
+        body.putLong(thisAccessedTime);
+        body.putInt(maxInactiveInterval);
+        body.put(data);
+        return append(body.array(), idBytes.length, thisAccessedTime,
+                maxInactiveInterval);
+    }
+
+
+    /**
+     * Append a record body to the current segment.
+     */
+    private Location append(byte[] body, int idLength, long thisAccessedTime,
+            int maxInactiveInterval) throws IOException {
+        int recordLength = RECORD_HEADER + body.length;
+        if (current == null || current.buffer.capacity() - current.end < recordLength) {
+            roll(recordLength);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        MappedByteBuffer buffer = current.buffer;
+        int position = current.end;
+        buffer.position(position + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(body);
+        // The length is written last, so that a partial record is never
+        // read back as a complete one
+        buffer.putInt(position, body.length);
+        current.end = position + recordLength;
+        return new Location(current, position, recordLength, idLength,
+                thisAccessedTime, maxInactiveInterval);
+    }
+
+
+    /**
+     * Make the specified location the one of a Session.
+     */
+    private void put(String id, Location location) {
+        Location old = index.put(id, location);
+        if (old != null) {
+            old.segment.liveBytes -= old.length;
+        }
+        location.segment.liveBytes += location.length;
+    }
+
+
+    /**
+     * Create a new current segment, with room for at least the specified
+     * number of bytes.
+     */
+    private void roll(int minSize) throws IOException {
+        long sequence = segments.isEmpty() ? 1 : segments.lastKey().longValue() + 1;
+        String name = SEGMENT_PREFIX + String.valueOf(1000000000L + sequence).substring(1) + SEGMENT_EXT;
+        Segment segment = map(sequence, new File(directory(), name),
+                Math.max(segmentSize, minSize));
+        segments.put(new Long(sequence), segment);
+        current = segment;
+    }
+
+
+    /**
+     * Map a segment file, setting its size first if positive.
+     */
+    private Segment map(long sequence, File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (size > 0) {
+                raf.setLength(size);
+            }
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            return new Segment(sequence, file, buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+
+    /**
+     * Move the live records of a segment to the current segment, and delete
+     * it. Removal records are kept as long as other segments hold records
+     * of the removed Sessions.
+     */
+    private void compact(Segment segment) throws IOException {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        ArrayList<byte[]> removals = new ArrayList<byte[]>();
+        int position = 0;
+        while (position < segment.end) {
+            int length = buffer.getInt(position);
+            int recordLength = RECORD_HEADER + length;
+            byte type = buffer.get(position + RECORD_HEADER);
+            int idLength = buffer.getShort(position + RECORD_HEADER + 1) & 0xffff;
+            byte[] body = new byte[length];
+            buffer.position(position + RECORD_HEADER);
+            buffer.get(body);
+            String id = decodeId(body, 3, idLength);
+            if (type == TYPE_SAVE) {
+                countSaveRecord(id, -1);
+                Location location = index.get(id);
+                if (location != null && location.segment == segment
+                        && location.offset == position) {
+                    put(id, append(body, idLength, location.thisAccessedTime,
+                            location.maxInactiveInterval));
+                    countSaveRecord(id, 1);
+                }
+            } else {
+                removals.add(body);
+            }
+            position += recordLength;
+        }
+        // Once the save records of the segment are uncounted, the removals
+        // only matter for the Sessions with records in other segments
+        for (int i = 0; i < removals.size(); i++) {
+            byte[] body = removals.get(i);
+            int idLength = ((body[1] & 0xff) << 8) | (body[2] & 0xff);
+            String id = decodeId(body, 3, idLength);
+            if (!index.containsKey(id) && saveRecords.containsKey(id)) {
+                append(body, idLength, 0, 0);
+            }
+        }
+        segments.remove(new Long(segment.sequence));
+        delete(segment);
+        compactionCount++;
+    }
+
+
+    /**
+     * Update the number of save records of a Session in the segments.
+     */
+    private void countSaveRecord(String id, int delta) {
+        Integer count = saveRecords.get(id);
+        int n = ((count == null) ? 0 : count.intValue()) + delta;
+        if (n > 0) {
+            saveRecords.put(id, new Integer(n));
+        } else {
+            saveRecords.remove(id);
+        }
+    }
+
+
+    /**
+     * Delete a segment file. The mapping itself is released when it is
+     * garbage collected, after the readers still using it are done.
+     */
+    private void delete(Segment segment) {
+        if (!segment.file.delete() && segment.file.exists()) {
+            // Some platforms don't delete mapped files
+            manager.getContainer().getLogger().warn(sm.getString(getStoreName()+".deleteFailed",
+                    segment.file.getAbsolutePath()));
+            segment.file.deleteOnExit();
+        }
+    }
+
+
+    private void logCorrupt(Segment segment, int position) {
+        if (manager != null) {
+            manager.getContainer().getLogger().warn(sm.getString(getStoreName()+".corrupt",
+                    segment.file.getAbsolutePath(), new Integer(position)));
+        }
+    }
+
+
+    private static String decodeId(byte[] body, int offset, int length) {
+        try {
+            return new String(body, offset, length, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            // Can't happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Return a File object representing the pathname to our
+     * session persistence directory, if any.  The directory will be
+     * created if it does not already exist.
+     */
+    private File directory() {
+        if (this.directory == null) {
+            return null;
+        }
+        if (this.directoryFile != null) {
+            // NOTE:  Race condition is harmless, so do not synchronize
+            return this.directoryFile;
+        }
+        File file = new File(this.directory);
+        if (!file.isAbsolute()) {
+            Context context = (Context) manager.getContainer();
+            ServletContext servletContext = context.getServletContext();
+            File work = (File) servletContext.getAttribute(Globals.WORK_DIR_ATTR);
+            file = new File(work, this.directory);
+        }
+        if (!file.exists() || !file.isDirectory()) {
+            file.delete();
+            file.mkdirs();
+        }
+        this.directoryFile = file;
+        return file;
+    }
+
+
+    // -------------------------------------------------------- Inner Classes
+
+    /**
+     * A mapped segment file.
+     */
+    private static final class Segment {
+
+        final long sequence;
+        final File file;
+        final MappedByteBuffer buffer;
+
+        /**
+         * End of the records.
+         */
+        int end = 0;
+
+        /**
+         * Size of the records which are the latest of their Session.
+         */
+        int liveBytes = 0;
+
+        Segment(long sequence, File file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+
+    /**
+     * The location of the latest record of a Session.
+     */
+    private static final class Location {
+
+        final Segment segment;
+        final int offset;
+        final int length;
+        final int idLength;
+        final long thisAccessedTime;
+        final int maxInactiveInterval;
+
+        Location(Segment segment, int offset, int length, int idLength,
+                long thisAccessedTime, int maxInactiveInterval) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.idLength = idLength;
+            this.thisAccessedTime = thisAccessedTime;
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+
+        /**
+         * Copy the serialized Session out of the segment.
+         */
+        byte[] getData() {
+            int dataOffset = offset + RECORD_HEADER + BODY_HEADER + idLength;
+            byte[] data = new byte[offset + length - dataOffset];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(dataOffset);
+            buffer.get(data);
+            return data;
+        }
+    }
+}
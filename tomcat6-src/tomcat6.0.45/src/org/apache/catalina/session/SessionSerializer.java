@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.session;
+
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+
+/**
+ * Codec used to write and read the values of the session attributes when
+ * sessions are persisted or replicated. The serializer of a manager is used
+ * by {@link StandardSession} for the attribute values only, the rest of the
+ * session being written as before.
+ * <p>
+ * Implementations must be thread safe, and must read back exactly what they
+ * wrote, as values are written one after the other on the same stream.
+ * A value which can't be written should cause a
+ * <code>NotSerializableException</code> to be thrown before anything is
+ * written to the stream.
+ *
+ * @see ManagerBase#setSessionSerializerClassName(String)
+ */
+public interface SessionSerializer {
+
+
+    /**
+     * Write the specified value, which may be <code>null</code>.
+     *
+     * @param value The value to write
+     * @param out The stream to write to
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public void writeValue(Object value, ObjectOutput out)
+        throws IOException;
+
+
+    /**
+     * Read a value written by {@link #writeValue(Object, ObjectOutput)}.
+     *
+     * @param in The stream to read from
+     *
+     * @exception ClassNotFoundException if the class of the value can't be
+     *  found
+     * @exception IOException if an input/output error occurs
+     */
+    public Object readValue(ObjectInput in)
+        throws IOException, ClassNotFoundException;
+
+
+}
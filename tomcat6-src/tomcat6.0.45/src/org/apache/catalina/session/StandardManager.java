@@ -335,6 +335,7 @@ public class StandardManager
 
         // Initialize our internal data structures
         sessions.clear();
+        expirationBuckets.clear();
 
         // Open an input stream to the specified pathname, if any
         File file = file();
@@ -399,6 +400,7 @@ public class StandardManager
                     session.readObjectData(ois);
                     session.setManager(this);
                     sessions.put(session.getIdInternal(), session);
+                    scheduleExpiration(session);
                     session.activate();
                     if (!session.isValidInternal()) {
                         // If session is already invalid,
@@ -130,6 +130,14 @@ public class StandardSession
         "___NOT_SERIALIZABLE_EXCEPTION___";
 
 
+    /**
+     * The serializer of the attribute values when the manager doesn't
+     * provide one.
+     */
+    protected static final SessionSerializer DEFAULT_SERIALIZER =
+        new JavaSessionSerializer();
+
+
     /**
      * The collection of user data attributes associated with this Session.
      */
@@ -270,6 +278,13 @@ public class StandardSession
     protected volatile long thisAccessedTime = creationTime;
 
 
+    /**
+     * Bucket of the expiration index of the manager holding this session,
+     * <code>-1</code> if none.
+     */
+    protected transient volatile long expirationBucket = -1;
+
+
     /**
      * The access count for this session.
      */
@@ -492,6 +507,8 @@ public class StandardSession
         this.maxInactiveInterval = interval;
         if (isValid && interval == 0) {
             expire();
+        } else if (isValid && id != null && manager instanceof ManagerBase) {
+            ((ManagerBase) manager).scheduleExpiration(this);
         }
 
     }
@@ -1500,9 +1517,10 @@ public class StandardSession
         int n = ((Integer) stream.readObject()).intValue();
         boolean isValidSave = isValid;
         isValid = true;
+        SessionSerializer serializer = getSessionSerializer();
         for (int i = 0; i < n; i++) {
             String name = (String) stream.readObject();
-            Object value = (Object) stream.readObject();
+            Object value = serializer.readValue(stream);
             if ((value instanceof String) && (value.equals(NOT_SERIALIZED)))
                 continue;
             if (manager.getContainer().getLogger().isDebugEnabled())
@@ -1579,10 +1597,11 @@ public class StandardSession
         // Serialize the attribute count and the Serializable attributes
         int n = saveNames.size();
         stream.writeObject(new Integer(n));
+        SessionSerializer serializer = getSessionSerializer();
         for (int i = 0; i < n; i++) {
             stream.writeObject((String) saveNames.get(i));
             try {
-                stream.writeObject(saveValues.get(i));
+                serializer.writeValue(saveValues.get(i), stream);
                 if (manager.getContainer().getLogger().isDebugEnabled())
                     manager.getContainer().getLogger().debug
                         ("  storing attribute '" + saveNames.get(i) +
@@ -1591,7 +1610,7 @@ public class StandardSession
                 manager.getContainer().getLogger().warn
                     (sm.getString("standardSession.notSerializable",
                      saveNames.get(i), id), e);
-                stream.writeObject(NOT_SERIALIZED);
+                serializer.writeValue(NOT_SERIALIZED, stream);
                 if (manager.getContainer().getLogger().isDebugEnabled())
                     manager.getContainer().getLogger().debug
                        ("  storing attribute '" + saveNames.get(i) +
@@ -1651,6 +1670,18 @@ public class StandardSession
     }
 
 
+    /**
+     * Return the serializer of the attribute values, which is the one of the
+     * manager, or Java serialization if the manager doesn't have one.
+     */
+    protected SessionSerializer getSessionSerializer() {
+        if (manager instanceof ManagerBase) {
+            return ((ManagerBase) manager).getSessionSerializer();
+        }
+        return DEFAULT_SERIALIZER;
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
@@ -28,6 +28,7 @@ import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
 import org.apache.catalina.Store;
 import org.apache.catalina.util.CustomObjectInputStream;
 import org.apache.catalina.util.LifecycleSupport;
@@ -168,6 +169,20 @@ public abstract class StoreBase
         support.removePropertyChangeListener(listener);
     }
 
+    /**
+     * Save several sessions to the Store. The default implementation saves
+     * them one at a time; stores which can write several sessions at once
+     * should override it.
+     *
+     * @param sessions the sessions to be stored
+     * @exception IOException if an input/output error occurs
+     */
+    public void save(Session[] sessions) throws IOException {
+        for (int i = 0; i < sessions.length; i++) {
+            save(sessions[i]);
+        }
+    }
+
     // --------------------------------------------------------- Protected Methods
 
     /**
@@ -195,33 +210,45 @@ public abstract class StoreBase
         }
 
         for (int i = 0; i < keys.length; i++) {
+            processExpires(keys[i], timeNow);
+        }
+    }
+
+
+    /**
+     * Expire the stored session with the specified id, and remove it from
+     * the Store, if it has been idle for too long.
+     *
+     * @param id The session id
+     * @param timeNow The current time
+     */
+    protected void processExpires(String id, long timeNow) {
+        try {
+            StandardSession session = (StandardSession) load(id);
+            if (session == null) {
+                return;
+            }
+            int timeIdle = (int) ((timeNow - session.thisAccessedTime) / 1000L);
+            if (timeIdle < session.getMaxInactiveInterval()) {
+                return;
+            }
+            if (manager.getContainer().getLogger().isDebugEnabled()) {
+                manager.getContainer().getLogger().debug(getStoreName()+ ": processExpires expire store session " + id );
+            }
+            if ( ( (PersistentManagerBase) manager).isLoaded( id )) {
+                // recycle old backup session
+                session.recycle();
+            } else {
+                // expire swapped out session
+                session.expire();
+            }
+            remove(id);
+        } catch (Exception e) {
+            manager.getContainer().getLogger().error("Session: "+id+"; ", e);
             try {
-                StandardSession session = (StandardSession) load(keys[i]);
-                if (session == null) {
-                    continue;
-                }
-                int timeIdle = (int) ((timeNow - session.thisAccessedTime) / 1000L);
-                if (timeIdle < session.getMaxInactiveInterval()) {
-                    continue;
-                }
-                if (manager.getContainer().getLogger().isDebugEnabled()) {
-                    manager.getContainer().getLogger().debug(getStoreName()+ ": processExpires expire store session " + keys[i] );
-                }
-                if ( ( (PersistentManagerBase) manager).isLoaded( keys[i] )) {
-                    // recycle old backup session
-                    session.recycle();
-                } else {
-                    // expire swapped out session
-                    session.expire();
-                }
-                remove(keys[i]);
-            } catch (Exception e) {
-                manager.getContainer().getLogger().error("Session: "+keys[i]+"; ", e);
-                try {
-                    remove(keys[i]);
-                } catch (IOException e2) {
-                    manager.getContainer().getLogger().error("Error removing key", e2);
-                }
+                remove(id);
+            } catch (IOException e2) {
+                manager.getContainer().getLogger().error("Error removing key", e2);
             }
         }
     }
@@ -30,6 +30,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -43,6 +44,7 @@ import javax.naming.directory.DirContext;
 import javax.servlet.ServletException;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleEvent;
 import org.apache.catalina.LifecycleListener;
@@ -52,6 +54,7 @@ import org.apache.catalina.util.StringManager;
 import org.apache.tomcat.util.descriptor.DigesterFactory;
 import org.apache.tomcat.util.descriptor.XmlErrorHandler;
 import org.apache.tomcat.util.digester.Digester;
+import org.apache.tomcat.util.scan.JarScanCache;
 import org.xml.sax.InputSource;
 
 /**
@@ -185,6 +188,11 @@ public final class TldConfig  implements LifecycleListener {
 
     private ArrayList<String> listeners = new ArrayList<String>();
 
+    /**
+     * Cache of the listeners found in each JAR, kept in the work directory.
+     */
+    private JarScanCache listenerCache = null;
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -303,6 +311,12 @@ public final class TldConfig  implements LifecycleListener {
          */
         Set resourcePaths = tldScanResourcePaths();
         Map jarPaths = getJarPaths();
+        File workDir = (File) context.getServletContext().getAttribute(
+                Globals.WORK_DIR_ATTR);
+        if (workDir != null) {
+            listenerCache =
+                new JarScanCache(new File(workDir, "tld-listeners.cache"));
+        }
 
         // Scan each accumulated resource path for TLDs to be processed
         Iterator paths = resourcePaths.iterator();
@@ -320,6 +334,10 @@ public final class TldConfig  implements LifecycleListener {
                 tldScanJar((File) paths.next());
             }
         }
+        if (listenerCache != null) {
+            listenerCache.save();
+            listenerCache = null;
+        }
 
         String list[] = getTldListeners();
 
@@ -389,6 +407,19 @@ public final class TldConfig  implements LifecycleListener {
 
         String jarPath = file.getAbsolutePath();
 
+        String[] cached = null;
+        if (listenerCache != null) {
+            cached = listenerCache.get(file);
+        }
+        if (cached != null) {
+            for (int i = 0; i < cached.length; i++) {
+                addApplicationListener(cached[i]);
+            }
+            return;
+        }
+        int first = listeners.size();
+        boolean valid = true;
+
         try {
             jarFile = new JarFile(file);
             Enumeration entries = jarFile.entries();
@@ -409,12 +440,23 @@ public final class TldConfig  implements LifecycleListener {
                             new InputSource(jarFile.getInputStream(entry)));
                     handler.logFindings(log, "[" + name + "] in [" +
                             file.getAbsolutePath() + "]");
+                    if (!handler.getErrors().isEmpty()
+                            || !handler.getWarnings().isEmpty()) {
+                        valid = false;
+                    }
                 } catch (Exception e) {
                     log.error(sm.getString("contextConfig.tldEntryException",
                                            name, jarPath, context.getPath()),
                               e);
+                    valid = false;
                 }
             }
+            // Don't cache JARs with invalid TLDs, so that errors are
+            // reported on each start
+            if (valid && (listenerCache != null)) {
+                List<String> found = listeners.subList(first, listeners.size());
+                listenerCache.put(file, found.toArray(new String[found.size()]));
+            }
         } catch (Exception e) {
             log.error(sm.getString("contextConfig.tldJarException",
                                    jarPath, context.getPath()),
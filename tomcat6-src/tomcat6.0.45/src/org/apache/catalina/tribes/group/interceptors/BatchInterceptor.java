@@ -0,0 +1,484 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+
+/**
+ * Coalesces the small messages sent to the same members into one message,
+ * which is split up again by the receiving interceptor.<br>
+ * A batch is sent <code>maxDelay</code> milliseconds after its first message,
+ * or as soon as it holds <code>maxSize</code> bytes. Messages larger than that,
+ * and the messages without the option flag of this interceptor, are sent on
+ * their own, after the pending batch for the same members to keep them in
+ * order. The messages to the same members are sent in the order they were
+ * given to this interceptor, while the messages to other members are sent
+ * independently.<br>
+ * A batch only holds messages with the same options, and is sent with these
+ * options. A message with other options starts a new batch, once the pending
+ * one has been sent.<br>
+ * Threads sending a message with <code>Channel.SEND_OPTIONS_USE_ACK</code> or
+ * <code>Channel.SEND_OPTIONS_SYNCHRONIZED_ACK</code>, without
+ * <code>Channel.SEND_OPTIONS_ASYNCHRONOUS</code>, wait until their batch has
+ * been sent, and get its errors. The other messages return right away, and
+ * their errors go to their error handler.<br>
+ * This interceptor has to be configured on all the members.
+ *
+ * <br><b>Configuration Options</b><br>
+ * BatchInterceptor.maxDelay=&lt;milliseconds&gt; - how long a batch waits for more messages <b>default=1</b><br>
+ * BatchInterceptor.maxSize=&lt;bytes&gt; - size at which a batch is sent right away <b>default=65536</b><br>
+ * @version 1.0
+ */
+public class BatchInterceptor extends ChannelInterceptorBase {
+    private static org.apache.juli.logging.Log log = org.apache.juli.logging.LogFactory.getLog( BatchInterceptor.class );
+
+    protected static AtomicInteger cnt = new AtomicInteger(0);
+
+    private long maxDelay = 1;
+    private int maxSize = 64*1024;
+
+    /**
+     * Batches waiting to be sent, by destination. Also guards
+     * <code>lanes</code>.
+     */
+    protected HashMap<MemberKey,Batch> batches = new HashMap<MemberKey,Batch>();
+
+    /**
+     * Send order of the destinations with sends in progress.
+     */
+    protected HashMap<MemberKey,Lane> lanes = new HashMap<MemberKey,Lane>();
+
+    protected ScheduledThreadPoolExecutor timer = null;
+
+    protected AtomicLong msgTxCnt = new AtomicLong(0);
+    protected AtomicLong batchTxCnt = new AtomicLong(0);
+
+    public synchronized void start(int svc) throws ChannelException {
+        if ( timer == null && (svc & Channel.SND_TX_SEQ) == Channel.SND_TX_SEQ ) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BatchInterceptor.Timer-"+cnt.addAndGet(1));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        super.start(svc);
+    }
+
+    public synchronized void stop(int svc) throws ChannelException {
+        if ( timer != null && (svc & Channel.SND_TX_SEQ) == Channel.SND_TX_SEQ ) {
+            flushAll();
+            timer.shutdownNow();
+            timer = null;
+        }
+        super.stop(svc);
+    }
+
+    public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) throws ChannelException {
+        XByteBuffer buffer = msg.getMessage();
+        MemberKey key = new MemberKey(destination);
+        if ( !okToProcess(msg.getOptions()) || buffer.getLength() >= maxSize || timer == null ) {
+            buffer.append(false);
+            Batch pending = null;
+            long ticket;
+            synchronized (batches) {
+                pending = batches.remove(key);
+                ticket = reserve(key);
+            }
+            Lane lane = awaitTurn(key, ticket);
+            try {
+                if ( pending != null ) send(pending);
+                super.sendMessage(destination, msg, payload);
+            } finally {
+                release(key, lane);
+            }
+            return;
+        }
+        boolean wait = ((msg.getOptions() & Channel.SEND_OPTIONS_ASYNCHRONOUS) == 0) &&
+            ((msg.getOptions() & (Channel.SEND_OPTIONS_USE_ACK|Channel.SEND_OPTIONS_SYNCHRONIZED_ACK)) != 0);
+        Batch batch = null;
+        Batch previous = null;
+        long previousTicket = 0;
+        boolean created = false;
+        long ticket = -1;
+        synchronized (batches) {
+            batch = batches.get(key);
+            if ( batch != null && batch.options != msg.getOptions() ) {
+                //other options, the pending batch goes first
+                previous = batches.remove(key);
+                previousTicket = reserve(key);
+                batch = null;
+            }
+            if ( batch == null ) {
+                batch = new Batch(key, msg.getOptions());
+                batches.put(key, batch);
+                created = true;
+            }
+            batch.add(msg, wait ? null : payload);
+            if ( batch.data.getLength() >= maxSize ) {
+                batches.remove(key);
+                ticket = reserve(key);
+            }
+        }
+        msgTxCnt.incrementAndGet();
+        if ( previous != null ) flush(previous, previousTicket);
+        if ( ticket >= 0 ) {
+            flush(batch, ticket);
+        } else if ( created ) {
+            try {
+                timer.schedule(new Flush(batch), maxDelay, TimeUnit.MILLISECONDS);
+            } catch ( Exception x ) {
+                //stopped in the meantime
+                synchronized (batches) {
+                    if ( batches.get(key) != batch ) ticket = -1;
+                    else {
+                        batches.remove(key);
+                        ticket = reserve(key);
+                    }
+                }
+                if ( ticket >= 0 ) flush(batch, ticket);
+            }
+        }
+        if ( wait ) batch.await();
+    }
+
+    public void messageReceived(ChannelMessage msg) {
+        XByteBuffer buffer = msg.getMessage();
+        boolean isBatch = XByteBuffer.toBoolean(buffer.getBytesDirect(), buffer.getLength()-1);
+        buffer.trim(1);
+        if ( !isBatch ) {
+            super.messageReceived(msg);
+            return;
+        }
+        ChannelData[] messages = null;
+        try {
+            messages = split(msg);
+        } catch ( RuntimeException x ) {
+            log.error("Unable to split batch of messages, the batch is dropped.", x);
+            return;
+        }
+        for ( int i=0; i<messages.length; i++ ) super.messageReceived(messages[i]);
+    }
+
+    public void heartbeat() {
+        //batches are sent by the timer, this is only a safety net
+        if ( timer == null ) flushAll();
+        super.heartbeat();
+    }
+
+    /**
+     * Sends all the pending batches.
+     */
+    public void flushAll() {
+        Batch[] pending = null;
+        long[] tickets = null;
+        synchronized (batches) {
+            pending = batches.values().toArray(new Batch[batches.size()]);
+            batches.clear();
+            tickets = new long[pending.length];
+            for ( int i=0; i<pending.length; i++ ) tickets[i] = reserve(pending[i].key);
+        }
+        for ( int i=0; i<pending.length; i++ ) flush(pending[i], tickets[i]);
+    }
+
+    /**
+     * Sends a batch removed from the pending ones, in its turn. Errors are
+     * reported to the threads waiting for the batch, and to the error handlers
+     * of the other messages.
+     * @param batch Batch
+     * @param ticket long - turn reserved for the batch
+     */
+    protected void flush(Batch batch, long ticket) {
+        Lane lane = awaitTurn(batch.key, ticket);
+        try {
+            send(batch);
+        } finally {
+            release(batch.key, lane);
+        }
+    }
+
+    /**
+     * Reserves the next turn to send to the given members. Called holding
+     * the lock on <code>batches</code>, so that the turns follow the order in
+     * which the messages were handled.
+     * @param key MemberKey
+     * @return long - the turn
+     */
+    protected long reserve(MemberKey key) {
+        Lane lane = lanes.get(key);
+        if ( lane == null ) {
+            lane = new Lane();
+            lanes.put(key, lane);
+        }
+        return lane.issued++;
+    }
+
+    /**
+     * Waits until the sends to the same members with an earlier turn are done.
+     * @param key MemberKey
+     * @param ticket long - the turn
+     * @return Lane - to release once sent
+     */
+    protected Lane awaitTurn(MemberKey key, long ticket) {
+        Lane lane = null;
+        synchronized (batches) {
+            lane = lanes.get(key);
+        }
+        boolean interrupted = false;
+        synchronized (lane) {
+            while ( lane.served != ticket ) {
+                try {
+                    lane.wait();
+                } catch ( InterruptedException x ) {
+                    //keep the turn, the following sends depend on it
+                    interrupted = true;
+                }
+            }
+        }
+        if ( interrupted ) Thread.currentThread().interrupt();
+        return lane;
+    }
+
+    /**
+     * Ends a turn, and forgets the destination once it has no more sends.
+     * @param key MemberKey
+     * @param lane Lane
+     */
+    protected void release(MemberKey key, Lane lane) {
+        synchronized (batches) {
+            synchronized (lane) {
+                lane.served++;
+                lane.notifyAll();
+                if ( lane.served == lane.issued ) lanes.remove(key);
+            }
+        }
+    }
+
+    protected void send(Batch batch) {
+        ChannelException error = null;
+        try {
+            ChannelData data = new ChannelData(true);
+            data.setOptions(batch.options);
+            data.setTimestamp(System.currentTimeMillis());
+            data.setAddress(batch.address);
+            batch.data.append(batch.count);
+            batch.data.append(true);
+            data.setMessage(batch.data);
+            batchTxCnt.incrementAndGet();
+            super.sendMessage(batch.key.members, data, null);
+        } catch ( ChannelException x ) {
+            error = x;
+        } catch ( RuntimeException x ) {
+            error = new ChannelException(x);
+        }
+        batch.done(error);
+    }
+
+    /**
+     * Splits up a batch into its messages, which are sent by the sender of the
+     * batch.
+     * @param msg ChannelMessage - the batch, without the batch flag
+     * @return ChannelData[]
+     */
+    protected static ChannelData[] split(ChannelMessage msg) {
+        byte[] data = msg.getMessage().getBytesDirect();
+        int length = msg.getMessage().getLength();
+        int count = XByteBuffer.toInt(data, length-4);
+        ChannelData[] result = new ChannelData[count];
+        int offset = 0;
+        for ( int i=0; i<count; i++ ) {
+            int options = XByteBuffer.toInt(data, offset);
+            offset += 4;
+            long timestamp = XByteBuffer.toLong(data, offset);
+            offset += 8;
+            int idLength = XByteBuffer.toInt(data, offset);
+            offset += 4;
+            byte[] uniqueId = new byte[idLength];
+            System.arraycopy(data, offset, uniqueId, 0, idLength);
+            offset += idLength;
+            int msgLength = XByteBuffer.toInt(data, offset);
+            offset += 4;
+            if ( offset + msgLength > length-4 ) throw new ArrayIndexOutOfBoundsException("Message "+i+" exceeds the batch.");
+            XByteBuffer buffer = new XByteBuffer(msgLength, false);
+            buffer.append(data, offset, msgLength);
+            offset += msgLength;
+            ChannelData cdata = new ChannelData(uniqueId, buffer, timestamp);
+            cdata.setOptions(options);
+            cdata.setAddress(msg.getAddress());
+            result[i] = cdata;
+        }
+        return result;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the number of messages sent in batches
+     */
+    public long getMsgTxCnt() {
+        return msgTxCnt.get();
+    }
+
+    /**
+     * @return the number of batches sent
+     */
+    public long getBatchTxCnt() {
+        return batchTxCnt.get();
+    }
+
+    protected class Flush implements Runnable {
+        private Batch batch;
+        public Flush(Batch batch) {
+            this.batch = batch;
+        }
+
+        public void run() {
+            long ticket;
+            synchronized (batches) {
+                //already sent when it got full, or before another message
+                if ( batches.get(batch.key) != batch ) return;
+                batches.remove(batch.key);
+                ticket = reserve(batch.key);
+            }
+            flush(batch, ticket);
+        }
+    }
+
+    /**
+     * Turns of the sends to the same members. <code>issued</code> is guarded
+     * by the lock on <code>batches</code>, <code>served</code> by the lane.
+     */
+    protected static class Lane {
+        protected long issued = 0;
+        protected long served = 0;
+    }
+
+    /**
+     * Messages waiting to be sent to the same members.
+     */
+    public static class Batch {
+        protected MemberKey key;
+        protected Member address = null;
+        protected XByteBuffer data = new XByteBuffer(1024, false);
+        protected int count = 0;
+        protected int options;
+        protected ArrayList<Object[]> handlers = null;
+        protected CountDownLatch sent = new CountDownLatch(1);
+        protected ChannelException error = null;
+
+        public Batch(MemberKey key, int options) {
+            this.key = key;
+            this.options = options;
+        }
+
+        public void add(ChannelMessage msg, InterceptorPayload payload) {
+            int msgOptions = msg.getOptions();
+            if ( address == null ) address = msg.getAddress();
+            data.append(msgOptions);
+            data.append(msg.getTimestamp());
+            data.append(msg.getUniqueId().length);
+            data.append(msg.getUniqueId(), 0, msg.getUniqueId().length);
+            data.append(msg.getMessage().getLength());
+            data.append(msg.getMessage().getBytesDirect(), 0, msg.getMessage().getLength());
+            count++;
+            if ( payload != null && payload.getErrorHandler() != null ) {
+                if ( handlers == null ) handlers = new ArrayList<Object[]>();
+                handlers.add(new Object[] {payload, new UniqueId(msg.getUniqueId())});
+            }
+        }
+
+        public void done(ChannelException error) {
+            this.error = error;
+            sent.countDown();
+            if ( handlers == null ) return;
+            for ( int i=0; i<handlers.size(); i++ ) {
+                Object[] handler = handlers.get(i);
+                InterceptorPayload payload = (InterceptorPayload)handler[0];
+                try {
+                    if ( error == null ) payload.getErrorHandler().handleCompletion((UniqueId)handler[1]);
+                    else payload.getErrorHandler().handleError(error, (UniqueId)handler[1]);
+                } catch ( Exception x ) {
+                    log.error("Error handler failed for batched message.", x);
+                }
+            }
+        }
+
+        public void await() throws ChannelException {
+            try {
+                sent.await();
+            } catch ( InterruptedException x ) {
+                Thread.currentThread().interrupt();
+                throw new ChannelException("Interrupted while waiting for the batch to be sent.", x);
+            }
+            if ( error != null ) throw error;
+        }
+    }
+
+    /**
+     * Destination of a batch.
+     */
+    public static class MemberKey {
+        protected Member[] members;
+        public MemberKey(Member[] members) {
+            this.members = members;
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(members);
+        }
+
+        public boolean equals(Object o) {
+            if ( o instanceof MemberKey ) {
+                return Arrays.equals(members, ((MemberKey)o).members);
+            } else return false;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.util.LZFCodec;
+
+
+
+/**
+ * Compresses the messages larger than <code>minSize</code>, with deflate or
+ * with the faster LZF codec.<br>
+ * Unlike the <code>GzipInterceptor</code>, the messages are compressed in
+ * place, with a <code>Deflater</code> and <code>Inflater</code> kept by each
+ * thread, and the messages which don't get smaller are sent as they are. A
+ * trailer tells the receiver how a message was compressed, so the members of
+ * a channel may use different settings, but must all use this interceptor.
+ * <br>
+ * Compression ratio and times are logged every <code>interval</code>
+ * messages, as the <code>ThroughputInterceptor</code> does.
+ *
+ * @version 1.0
+ */
+public class DeflateInterceptor extends ChannelInterceptorBase {
+    protected static org.apache.juli.logging.Log log = org.apache.juli.logging.LogFactory.getLog(DeflateInterceptor.class);
+
+    /**
+     * Codecs, in the last byte of the messages.
+     */
+    public static final byte CODEC_NONE = 0;
+    public static final byte CODEC_DEFLATE = 1;
+    public static final byte CODEC_LZF = 2;
+
+    /**
+     * Length of the trailer of compressed messages: the uncompressed length,
+     * and the codec.
+     */
+    protected static final int TRAILER_LENGTH = 4 + 1;
+
+    /**
+     * Highest ratio of uncompressed to compressed length of each codec: 1032
+     * for deflate, and 88 for LZF, where a back reference of up to 264 bytes
+     * takes 3 bytes.
+     */
+    protected static final int MAX_DEFLATE_RATIO = 1032;
+    protected static final int MAX_LZF_RATIO = 88;
+
+    protected int minSize = 1024;
+    protected int maxSize = 64*1024*1024;
+    protected int compressionLevel = Deflater.BEST_SPEED;
+    protected byte codec = CODEC_DEFLATE;
+    protected int interval = 10000;
+
+    AtomicLong msgTxCnt = new AtomicLong(0);
+    AtomicLong msgTxCompressed = new AtomicLong(0);
+    AtomicLong bytesTxRaw = new AtomicLong(0);
+    AtomicLong bytesTxCompressed = new AtomicLong(0);
+    AtomicLong timeTxCompress = new AtomicLong(0);
+    AtomicLong msgRxCnt = new AtomicLong(0);
+    AtomicLong timeRxDecompress = new AtomicLong(0);
+    DecimalFormat df = new DecimalFormat("#0.00");
+
+    /**
+     * Compression state of the current thread.
+     */
+    private ThreadLocal<Codecs> codecs = new ThreadLocal<Codecs>();
+
+    public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) throws ChannelException {
+        XByteBuffer buffer = msg.getMessage();
+        int length = buffer.getLength();
+        if ( length >= minSize && length <= maxSize ) {
+            long start = System.nanoTime();
+            Codecs state = getCodecs();
+            byte[] out = state.getOutput(LZFCodec.getMaxCompressedLength(length) + TRAILER_LENGTH);
+            int clen;
+            if ( codec == CODEC_LZF ) {
+                clen = state.lzf.compress(buffer.getBytesDirect(), 0, length, out, 0);
+            } else {
+                Deflater deflater = state.getDeflater(compressionLevel);
+                deflater.setInput(buffer.getBytesDirect(), 0, length);
+                deflater.finish();
+                // stop once the output is as long as the data, in which
+                // case the message isn't compressed
+                clen = 0;
+                while ( !deflater.finished() && clen < length ) {
+                    clen += deflater.deflate(out, clen, length - clen);
+                }
+                if ( !deflater.finished() ) clen = length;
+                deflater.reset();
+            }
+            if ( (clen + TRAILER_LENGTH) < length ) {
+                XByteBuffer.toBytes(length, out, clen);
+                out[clen + 4] = codec;
+                buffer.reset();
+                buffer.append(out, 0, clen + TRAILER_LENGTH);
+                msgTxCompressed.incrementAndGet();
+            } else {
+                buffer.append(CODEC_NONE);
+            }
+            timeTxCompress.addAndGet(System.nanoTime() - start);
+        } else {
+            buffer.append(CODEC_NONE);
+        }
+        bytesTxRaw.addAndGet(length);
+        bytesTxCompressed.addAndGet(buffer.getLength());
+        if ( msgTxCnt.incrementAndGet() % interval == 0 ) report();
+        super.sendMessage(destination, msg, payload);
+    }
+
+    public void messageReceived(ChannelMessage msg) {
+        try {
+            decompress(msg.getMessage());
+        } catch ( IOException x ) {
+            log.error("Unable to decompress byte contents",x);
+            return;
+        }
+        if ( msgRxCnt.incrementAndGet() % interval == 0 ) report();
+        super.messageReceived(msg);
+    }
+
+    /**
+     * Decompresses a message in place, according to its trailer.
+     * @param buffer XByteBuffer
+     * @throws IOException
+     */
+    protected void decompress(XByteBuffer buffer) throws IOException {
+        int length = buffer.getLength();
+        if ( length == 0 ) throw new IOException("Message without compression trailer");
+        byte[] data = buffer.getBytesDirect();
+        byte type = data[length - 1];
+        if ( type == CODEC_NONE ) {
+            buffer.trim(1);
+            return;
+        }
+        if ( length < TRAILER_LENGTH ) throw new IOException("Message with invalid compression trailer");
+        long start = System.nanoTime();
+        int clen = length - TRAILER_LENGTH;
+        int rawLength = XByteBuffer.toInt(data, clen);
+        // check the length from the trailer before allocating the buffer
+        int maxRatio = (type == CODEC_LZF) ? MAX_LZF_RATIO : MAX_DEFLATE_RATIO;
+        if ( rawLength < 0 || rawLength > maxSize || rawLength > (long)clen * maxRatio )
+            throw new IOException("Invalid uncompressed length:"+rawLength+" for "+clen+" compressed bytes");
+        // keep the compressed bytes, and decompress into the message buffer
+        Codecs state = getCodecs();
+        byte[] in = state.getInput(clen);
+        System.arraycopy(data, 0, in, 0, clen);
+        buffer.reset();
+        if ( buffer.getCapacity() < rawLength ) buffer.expand(rawLength);
+        data = buffer.getBytesDirect();
+        if ( type == CODEC_LZF ) {
+            LZFCodec.decompress(in, 0, clen, data, 0, rawLength);
+        } else if ( type == CODEC_DEFLATE ) {
+            state.inflater.setInput(in, 0, clen);
+            try {
+                int n = 0;
+                while ( n < rawLength && !state.inflater.finished() ) {
+                    int r = state.inflater.inflate(data, n, rawLength - n);
+                    if ( r == 0 && (state.inflater.needsInput() || state.inflater.needsDictionary()) ) break;
+                    n += r;
+                }
+                if ( n != rawLength ) throw new IOException("Deflated data decompressed to "+n+" bytes instead of "+rawLength);
+            } catch ( DataFormatException x ) {
+                IOException iox = new IOException(x.getMessage());
+                iox.initCause(x);
+                throw iox;
+            } finally {
+                state.inflater.reset();
+            }
+        } else {
+            throw new IOException("Unknown compression codec:"+type);
+        }
+        buffer.setLength(rawLength);
+        timeRxDecompress.addAndGet(System.nanoTime() - start);
+    }
+
+    protected Codecs getCodecs() {
+        Codecs state = codecs.get();
+        if ( state == null ) {
+            state = new Codecs();
+            codecs.set(state);
+        }
+        return state;
+    }
+
+    public void report() {
+        StringBuffer buf = new StringBuffer("DeflateInterceptor Report[\n\tTx Msg:");
+        buf.append(msgTxCnt).append(" messages\n\tCompressed:");
+        buf.append(msgTxCompressed).append(" messages\n\tSent:");
+        buf.append(df.format(((double)bytesTxCompressed.get())/(1024d*1024d)));
+        buf.append(" MB (compressed)\n\tSent:");
+        buf.append(df.format(((double)bytesTxRaw.get())/(1024d*1024d)));
+        buf.append(" MB (application)\n\tRatio:");
+        buf.append(df.format(getCompressionRatio()));
+        buf.append("\n\tCompression time:");
+        buf.append(df.format(((double)timeTxCompress.get())/1000000000d));
+        buf.append(" seconds\n\tRx Msg:");
+        buf.append(msgRxCnt).append(" messages\n\tDecompression time:");
+        buf.append(df.format(((double)timeRxDecompress.get())/1000000000d));
+        buf.append(" seconds]\n");
+        if ( log.isInfoEnabled() ) log.info(buf);
+    }
+
+    /**
+     * @return the size of the sent messages over their size before
+     * compression
+     */
+    public double getCompressionRatio() {
+        long raw = bytesTxRaw.get();
+        return raw == 0 ? 1d : ((double)bytesTxCompressed.get()) / ((double)raw);
+    }
+
+    public long getMsgTxCnt() {
+        return msgTxCnt.get();
+    }
+
+    public long getMsgTxCompressed() {
+        return msgTxCompressed.get();
+    }
+
+    public long getMsgRxCnt() {
+        return msgRxCnt.get();
+    }
+
+    /**
+     * @return the time spent compressing, in nanoseconds
+     */
+    public long getTimeTxCompress() {
+        return timeTxCompress.get();
+    }
+
+    /**
+     * @return the time spent decompressing, in nanoseconds
+     */
+    public long getTimeRxDecompress() {
+        return timeRxDecompress.get();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the size in bytes above which messages are not compressed, and
+     * compressed messages are rejected.
+     * @param maxSize int
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        if ( compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION )
+            throw new IllegalArgumentException("Invalid compression level:"+compressionLevel);
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return <code>deflate</code> or <code>lzf</code>
+     */
+    public String getCodec() {
+        return codec == CODEC_LZF ? "lzf" : "deflate";
+    }
+
+    public void setCodec(String codec) {
+        if ( "lzf".equalsIgnoreCase(codec) ) this.codec = CODEC_LZF;
+        else if ( "deflate".equalsIgnoreCase(codec) ) this.codec = CODEC_DEFLATE;
+        else throw new IllegalArgumentException("Unknown compression codec:"+codec);
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * The codecs and buffers of a thread.
+     */
+    protected static class Codecs {
+        Deflater deflater = null;
+        int level;
+        final Inflater inflater = new Inflater(false);
+        final LZFCodec lzf = new LZFCodec();
+        byte[] output = new byte[0];
+        byte[] input = new byte[0];
+
+        /**
+         * Changing the level of a deflater only applies to the data
+         * deflated after that, so a new deflater is used instead.
+         */
+        Deflater getDeflater(int level) {
+            if ( deflater == null || this.level != level ) {
+                if ( deflater != null ) deflater.end();
+                deflater = new Deflater(level, false);
+                this.level = level;
+            }
+            return deflater;
+        }
+
+        byte[] getOutput(int size) {
+            if ( output.length < size ) output = new byte[size];
+            return output;
+        }
+
+        byte[] getInput(int size) {
+            if ( input.length < size ) input = new byte[size];
+            return input;
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.catalina.tribes.io;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.apache.catalina.tribes.ChannelMessage;
@@ -243,6 +244,30 @@ public class ChannelData implements ChannelMessage {
 
     }
 
+    /**
+     * Creates a message from the package data at the position of a buffer,
+     * such as the read buffer of a receiver. Only the message itself is
+     * copied, to a pooled <code>XByteBuffer</code>; the position of the
+     * buffer is moved past the package data.
+     * @param b ByteBuffer
+     * @return ChannelData
+     */
+    public static ChannelData getDataFromPackage(ByteBuffer b)  {
+        ChannelData data = new ChannelData(false);
+        data.setOptions(b.getInt());
+        data.setTimestamp(b.getLong());
+        data.uniqueId = new byte[b.getInt()];
+        b.get(data.uniqueId);
+        byte[] addr = new byte[b.getInt()];
+        b.get(addr);
+        data.setAddress(MemberImpl.getMember(addr));
+        int xsize = b.getInt();
+        data.message = BufferPool.getBufferPool().getBuffer(xsize,false);
+        b.get(data.message.getBytesDirect(),0,xsize);
+        data.message.setLength(xsize);
+        return data;
+    }
+
     public static ChannelData getDataFromPackage(byte[] b)  {
         ChannelData data = new ChannelData(false);
         int offset = 0;
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.tribes.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Pool of direct <code>ByteBuffer</code>s, used by the NIO senders and
+ * receivers for their socket buffers.<br>
+ * Buffers are handed out in power of two size classes, from 4KB to 1MB. The
+ * buffers of a class are slices of larger slabs, so that a few direct
+ * allocations serve many buffers, and buffers returned to the pool are reused
+ * by the next request of the same class. Larger buffers, and buffers requested
+ * once the slabs have reached the max size of the pool, are allocated
+ * directly and not pooled. The slabs of the buffers which are never returned
+ * are left to the garbage collector, but still count against the max size.
+ * The free buffers of a class never outnumber the buffers cut from its slabs,
+ * buffers given back beyond that (allocated elsewhere, or returned twice) are
+ * left to the garbage collector as well.
+ *
+ * @version 1.0
+ */
+public class DirectBufferPool {
+    protected static Log log = LogFactory.getLog(DirectBufferPool.class);
+
+    public static int DEFAULT_POOL_SIZE = 32*1024*1024; //32MB
+
+    protected static final int MIN_CLASS_SHIFT = 12; //4KB
+    protected static final int MAX_CLASS_SHIFT = 20; //1MB
+    protected static final int SLAB_SIZE = 256*1024;
+
+    protected static volatile DirectBufferPool instance = null;
+
+    /**
+     * Free buffers, by size class.
+     */
+    protected ConcurrentLinkedQueue<ByteBuffer>[] free = newQueues(MAX_CLASS_SHIFT-MIN_CLASS_SHIFT+1);
+
+    /**
+     * Number of free buffers, by size class.
+     */
+    protected AtomicInteger[] freeCount = new AtomicInteger[free.length];
+
+    /**
+     * Number of buffers cut from the slabs, by size class. Bounds the free
+     * buffers of the class.
+     */
+    protected AtomicInteger[] sliced = new AtomicInteger[free.length];
+
+    /**
+     * Direct memory allocated to the slabs.
+     */
+    protected AtomicInteger size = new AtomicInteger(0);
+
+    protected int maxSize;
+
+    public DirectBufferPool(int maxSize) {
+        this.maxSize = maxSize;
+        for (int i=0; i<free.length; i++) {
+            free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            freeCount[i] = new AtomicInteger(0);
+            sliced[i] = new AtomicInteger(0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentLinkedQueue<ByteBuffer>[] newQueues(int count) {
+        return new ConcurrentLinkedQueue[count];
+    }
+
+    /**
+     * Returns a cleared direct buffer with a capacity of at least
+     * <code>minSize</code> bytes.
+     * @param minSize int
+     * @return ByteBuffer
+     */
+    public ByteBuffer getBuffer(int minSize) {
+        int index = getSizeClass(minSize);
+        if ( index < 0 ) return ByteBuffer.allocateDirect(minSize);
+        ByteBuffer buffer = free[index].poll();
+        if ( buffer != null ) freeCount[index].decrementAndGet();
+        else buffer = allocateSlab(index);
+        if ( buffer == null ) return ByteBuffer.allocateDirect(minSize);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool. Buffers which don't have the size of
+     * one of the classes of the pool, or which would make the free buffers of
+     * their class outnumber the buffers cut for it, are left to the garbage
+     * collector.
+     * @param buffer ByteBuffer
+     */
+    public void returnBuffer(ByteBuffer buffer) {
+        if ( buffer == null || !buffer.isDirect() ) return;
+        int index = getSizeClass(buffer.capacity());
+        if ( index < 0 || getClassSize(index) != buffer.capacity() ) return;
+        if ( freeCount[index].incrementAndGet() > sliced[index].get() ) {
+            freeCount[index].decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        free[index].offer(buffer);
+    }
+
+    /**
+     * Forgets the free buffers. Their memory is released once the slabs they
+     * belong to are no longer in use.
+     */
+    public void clear() {
+        for (int i=0; i<free.length; i++) {
+            free[i].clear();
+            freeCount[i].set(0);
+            sliced[i].set(0);
+        }
+        size.set(0);
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int bytes) {
+        this.maxSize = bytes;
+    }
+
+    /**
+     * Allocates a slab for a size class, and splits it in buffers. One of the
+     * buffers is returned, the others are added to the free buffers.
+     * @param index int
+     * @return ByteBuffer, or <code>null</code> if the pool is full
+     */
+    protected ByteBuffer allocateSlab(int index) {
+        int classSize = getClassSize(index);
+        int slabSize = Math.max(SLAB_SIZE, classSize);
+        if ( size.addAndGet(slabSize) > maxSize ) {
+            size.addAndGet(-slabSize);
+            return null;
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+        ByteBuffer result = null;
+        sliced[index].addAndGet(slabSize/classSize);
+        for (int pos=0; pos<slabSize; pos+=classSize) {
+            slab.limit(pos+classSize);
+            slab.position(pos);
+            ByteBuffer buffer = slab.slice();
+            if ( result == null ) {
+                result = buffer;
+            } else {
+                freeCount[index].incrementAndGet();
+                free[index].offer(buffer);
+            }
+        }
+        if ( log.isDebugEnabled() )
+            log.debug("Allocated a slab of "+slabSize+" bytes for buffers of "+classSize+" bytes, pool size:"+size.get());
+        return result;
+    }
+
+    /**
+     * @param minSize int
+     * @return the index of the smallest size class holding
+     * <code>minSize</code> bytes, or -1 if larger than the largest class
+     */
+    protected static int getSizeClass(int minSize) {
+        for (int i=MIN_CLASS_SHIFT; i<=MAX_CLASS_SHIFT; i++) {
+            if ( minSize <= (1<<i) ) return i-MIN_CLASS_SHIFT;
+        }
+        return -1;
+    }
+
+    protected static int getClassSize(int index) {
+        return 1<<(index+MIN_CLASS_SHIFT);
+    }
+
+    public static DirectBufferPool getDirectBufferPool() {
+        if ( instance == null ) {
+            synchronized (DirectBufferPool.class) {
+                if ( instance == null ) {
+                    instance = new DirectBufferPool(DEFAULT_POOL_SIZE);
+                    log.info("Created a direct buffer pool with max size:"+DEFAULT_POOL_SIZE+" bytes");
+                }
+            }
+        }
+        return instance;
+    }
+}
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 
 import org.apache.catalina.tribes.ChannelMessage;
 
@@ -38,6 +39,11 @@ public class ObjectReader {
     protected static org.apache.juli.logging.Log log = org.apache.juli.logging.LogFactory.getLog(ObjectReader.class);
 
     private XByteBuffer buffer;
+
+    /**
+     * Messages extracted from read buffers, not executed yet.
+     */
+    private ArrayList<ChannelMessage> extracted = new ArrayList<ChannelMessage>();
     
     protected long lastAccess = System.currentTimeMillis();
     
@@ -102,6 +108,80 @@ public class ObjectReader {
         return pkgCnt;
     }
 
+    /**
+     * Extracts the complete packages of a read buffer, and appends the bytes
+     * of the last, incomplete, package to the reader buffer.<br>
+     * Unlike {@link #append(ByteBuffer, int, boolean)}, the packages held
+     * entirely in the read buffer are not copied to the reader buffer first:
+     * only their message is copied, to a pooled <code>XByteBuffer</code>.
+     * @param data the read buffer, from its position to its limit
+     * @return number of messages ready to be sent to the callback
+     * @throws java.io.IOException
+     */
+    public int extractPackages(ByteBuffer data) throws java.io.IOException {
+        // packages appended before come first
+        while ( buffer.getLength() > 0 && buffer.doesPackageExist() ) {
+            extracted.add(buffer.extractPackage(true));
+        }
+        if ( buffer.getLength() > 0 && !completePackage(data) ) {
+            return extracted.size();
+        }
+        while ( data.hasRemaining() ) {
+            int length = XByteBuffer.getPackageLength(data);
+            if ( length <= 0 ) {
+                // incomplete, or invalid, package
+                buffer.append(data,data.remaining());
+                break;
+            }
+            int end = data.position() + length;
+            int limit = data.limit();
+            data.position(data.position() + XByteBuffer.START_DATA.length + 4);
+            data.limit(end - XByteBuffer.END_DATA.length);
+            try {
+                extracted.add(ChannelData.getDataFromPackage(data));
+            } finally {
+                data.limit(limit);
+            }
+            data.position(end);
+        }
+        return extracted.size();
+    }
+
+    /**
+     * Appends the bytes completing the package started in the reader buffer.
+     * @return true if the package could be extracted, and the rest of the
+     * read buffer is to be extracted
+     */
+    private boolean completePackage(ByteBuffer data) throws java.io.IOException {
+        int header = XByteBuffer.START_DATA.length + 4;
+        if ( buffer.getLength() < header ) {
+            buffer.append(data,Math.min(header - buffer.getLength(), data.remaining()));
+            if ( buffer.getLength() < header ) {
+                // not enough data yet, or discarded as invalid
+                if ( data.hasRemaining() ) buffer.append(data,data.remaining());
+                return false;
+            }
+        }
+        byte[] buf = buffer.getBytesDirect();
+        boolean valid = true;
+        for (int i=0; i<XByteBuffer.START_DATA.length; i++) {
+            valid = valid && buf[i] == XByteBuffer.START_DATA[i];
+        }
+        int size = XByteBuffer.toInt(buf,XByteBuffer.START_DATA.length);
+        if ( valid && size >= 0 && size <= (Integer.MAX_VALUE - header - XByteBuffer.END_DATA.length) ) {
+            int needed = XByteBuffer.getDataPackageLength(size) - buffer.getLength();
+            buffer.append(data,Math.min(needed, data.remaining()));
+            if ( buffer.doesPackageExist() ) {
+                extracted.add(buffer.extractPackage(true));
+                return true;
+            }
+            if ( !data.hasRemaining() ) return false;
+        }
+        // invalid package, left to the reader buffer
+        buffer.append(data,data.remaining());
+        return false;
+    }
+
     /**
      * Send buffer to cluster listener (callback).
      * Is message complete receiver send message to callback?
@@ -115,10 +195,15 @@ public class ObjectReader {
      */
     public ChannelMessage[] execute() throws java.io.IOException {
         int pkgCnt = buffer.countPackages();
-        ChannelMessage[] result = new ChannelMessage[pkgCnt];
+        int extractedCnt = extracted.size();
+        ChannelMessage[] result = new ChannelMessage[extractedCnt + pkgCnt];
+        for (int i=0; i<extractedCnt; i++) {
+            result[i] = extracted.get(i);
+        }
+        extracted.clear();
         for (int i=0; i<pkgCnt; i++)  {
             ChannelMessage data = buffer.extractPackage(true);
-            result[i] = data;
+            result[extractedCnt + i] = data;
         }
         return result;
     }
@@ -129,18 +214,19 @@ public class ObjectReader {
     
 
     public boolean hasPackage() {
-        return buffer.countPackages(true)>0;
+        return extracted.size()>0 || buffer.countPackages(true)>0;
     }
     /**
      * Returns the number of packages that the reader has read
      * @return int
      */
     public int count() {
-        return buffer.countPackages();
+        return extracted.size() + buffer.countPackages();
     }
     
     public void close() {
         this.buffer = null;
+        this.extracted.clear();
     }
 
     public long getLastAccess() {
@@ -383,6 +383,31 @@ public class XByteBuffer
 
     }
     
+    /**
+     * Returns the length of the package starting at the position of a buffer,
+     * framing included, without reading the buffer.
+     * @param b ByteBuffer
+     * @return the length of the package, 0 if the buffer doesn't hold all of
+     * the package yet, or -1 if the buffer doesn't start with a valid package
+     */
+    public static int getPackageLength(ByteBuffer b) {
+        int pos = b.position();
+        int available = b.remaining();
+        for (int i=0; i<START_DATA.length && i<available; i++) {
+            if ( b.get(pos+i) != START_DATA[i] ) return -1;
+        }
+        if ( available < (START_DATA.length + 4) ) return 0;
+        int size = b.getInt(pos+START_DATA.length);
+        if ( size < 0 || size > (Integer.MAX_VALUE - START_DATA.length - 4 - END_DATA.length) ) return -1;
+        int length = getDataPackageLength(size);
+        if ( available < length ) return 0;
+        int end = pos + START_DATA.length + 4 + size;
+        for (int i=0; i<END_DATA.length; i++) {
+            if ( b.get(end+i) != END_DATA[i] ) return -1;
+        }
+        return length;
+    }
+
     public static byte[] createDataPackage(byte[] data) {
         int length = getDataPackageLength(data.length);
         byte[] result = new byte[length];
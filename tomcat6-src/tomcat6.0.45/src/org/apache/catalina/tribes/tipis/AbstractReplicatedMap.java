@@ -769,7 +769,11 @@ public abstract class AbstractReplicatedMap<K,V>
             Map.Entry<K,MapEntry<K,V>> e = i.next();
             MapEntry<K,V> entry = innerMap.get(e.getKey());
             if (entry==null) continue;
-            if (entry.isPrimary() && inSet(member,entry.getBackupNodes())) {
+            if (entry.isPrimary() && inSet(member,entry.getBackupNodes()) && isRelocationDeferred()) {
+                //the subclass chooses the new backups later, a few entries at a time
+                if (log.isDebugEnabled()) log.debug("[1] Primary dropping the backup");
+                entry.setBackupNodes(excludeFromSet(new Member[] {member}, entry.getBackupNodes()));
+            } else if (entry.isPrimary() && inSet(member,entry.getBackupNodes())) {
                 if (log.isDebugEnabled()) log.debug("[1] Primary choosing a new backup");
                 try {
                     Member[] backup = publishEntryInfo(entry.getKey(), entry.getValue());
@@ -786,16 +790,17 @@ public abstract class AbstractReplicatedMap<K,V>
             if ( entry.isProxy() &&
                  entry.getPrimary() == null &&
                  entry.getBackupNodes()!=null &&
-                 entry.getBackupNodes().length == 1 &&
-                 entry.getBackupNodes()[0].equals(member) ) {
+                 getFirstLiveBackup(entry) == null ) {
                 //remove proxies that have no backup nor primaries
                 if (log.isDebugEnabled()) log.debug("[3] Removing orphaned proxy");
                 i.remove();
             } else if ( entry.getPrimary() == null &&
                         entry.isBackup() &&
                         entry.getBackupNodes()!=null &&
-                        entry.getBackupNodes().length == 1 &&
-                        entry.getBackupNodes()[0].equals(channel.getLocalMember(false)) ) {
+                        channel.getLocalMember(false).equals(getFirstLiveBackup(entry)) ) {
+                //with several backups, the first one still alive takes over.
+                //this is never deferred, the other members only find the
+                //entry again once the new primary has published it
                 try {
                     if (log.isDebugEnabled()) log.debug("[4] Backup becoming primary");
                     entry.setPrimary(channel.getLocalMember(false));
@@ -815,6 +820,36 @@ public abstract class AbstractReplicatedMap<K,V>
         if (log.isInfoEnabled()) log.info("Relocation of map entries was complete in " + complete + " ms.");
     }
 
+    /**
+     * Whether the primary entries which lost a backup when a member left
+     * get new backups later, rather than all at once in
+     * {@link #memberDisappeared(Member)}. The subclass is then responsible
+     * for choosing them.
+     * @return boolean - <code>false</code>
+     */
+    protected boolean isRelocationDeferred() {
+        return false;
+    }
+
+    /**
+     * Returns the first backup node of an entry which is this node or a
+     * member of the map.
+     * @param entry MapEntry
+     * @return Member - <code>null</code> if all the backup nodes are gone
+     */
+    protected Member getFirstLiveBackup(MapEntry<K,V> entry) {
+        Member[] backups = entry.getBackupNodes();
+        if ( backups == null ) return null;
+        Member local = channel.getLocalMember(false);
+        for ( int i=0; i<backups.length; i++ ) {
+            if ( backups[i].equals(local) ) return backups[i];
+            synchronized (mapMembers) {
+                if ( mapMembers.containsKey(backups[i]) ) return backups[i];
+            }
+        }
+        return null;
+    }
+
     public int getNextBackupIndex() {
         int size = mapMembers.size();
         if (mapMembers.size() == 0)return -1;
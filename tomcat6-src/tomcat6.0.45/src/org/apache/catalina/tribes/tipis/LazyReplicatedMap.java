@@ -17,6 +17,10 @@
 package org.apache.catalina.tribes.tipis;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.catalina.tribes.Channel;
 import org.apache.catalina.tribes.ChannelException;
@@ -26,8 +30,9 @@ import org.apache.catalina.tribes.UniqueId;
 
 /**
  * A smart implementation of a stateful replicated map. uses primary/secondary backup strategy.
- * One node is always the primary and one node is always the backup.
- * This map is synchronized across a cluster, and only has one backup member.<br/>
+ * One node is always the primary and <code>backupCount</code> nodes, one by default, are the backups.
+ * The backup nodes of each key are selected by rendezvous hashing, so that membership changes
+ * only move the backups of the keys held by the members which left or joined.<br/>
  * A perfect usage for this map would be a session map for a session manager in a clustered environment.<br/>
  * The only way to modify this list is to use the <code>put, putAll, remove</code> methods.
  * entrySet, entrySetFull, keySet, keySetFull, returns all non modifiable sets.<br><br>
@@ -67,6 +72,21 @@ public class LazyReplicatedMap<K,V> extends AbstractReplicatedMap<K,V> {
     private static final long serialVersionUID = 1L;
     protected static org.apache.juli.logging.Log log = org.apache.juli.logging.LogFactory.getLog(LazyReplicatedMap.class);
 
+    /**
+     * Number of backups of each entry
+     */
+    protected transient int backupCount = 1;
+
+    /**
+     * Max number of entries which backups are moved at each heartbeat
+     */
+    protected transient int rebalanceBatchSize = 100;
+
+    /**
+     * Set when a member has joined or left, until the backups have been moved
+     */
+    protected transient volatile boolean rebalance = false;
+
 
 
 //------------------------------------------------------------------------------
@@ -127,7 +147,10 @@ public class LazyReplicatedMap<K,V> extends AbstractReplicatedMap<K,V> {
     }
 
     /**
-     * publish info about a map pair (key/value) to other nodes in the cluster
+     * publish info about a map pair (key/value) to other nodes in the cluster.
+     * The backup nodes are the first <code>backupCount</code> map members of
+     * {@link #rankMembers(Object, Member[])} which accept the backup, members
+     * which already hold a backup of the entry only get the new backup set.
      * @param key Object
      * @param value Object
      * @return Member - the backup node
@@ -136,64 +159,220 @@ public class LazyReplicatedMap<K,V> extends AbstractReplicatedMap<K,V> {
     @Override
     protected Member[] publishEntryInfo(Object key, Object value) throws ChannelException {
         if  (! (key instanceof Serializable && value instanceof Serializable)  ) return new Member[0];
-        Member[] members = getMapMembers();
-        int firstIdx = getNextBackupIndex();
-        int nextIdx = firstIdx;
-        Member[] backup = new Member[0];
-
+        Member[] members = rankMembers(key, getMapMembers());
         //there are no backups
-        if ( members.length == 0 || firstIdx == -1 ) return backup;
-
-        boolean success = false;
-        do {
-            //select a backup node
-            Member next = members[nextIdx];
-
-            //increment for the next round of back up selection
-            nextIdx = nextIdx + 1;
-            if ( nextIdx >= members.length ) nextIdx = 0;
+        if ( members.length == 0 || backupCount <= 0 ) return new Member[0];
 
-            if (next == null) {
-                continue;
-            }
-            MapMessage msg = null;
+        MapEntry<K,V> current = getInternal(key);
+        Member[] previous = (current != null && current.isPrimary()) ? current.getBackupNodes() : null;
+        ArrayList<Member> chosen = new ArrayList<Member>();
+        boolean failed = false;
+        int nextIdx = 0;
+        while ( chosen.size() < backupCount && nextIdx < members.length ) {
+            Member next = members[nextIdx++];
+            //the backup set, if all the remaining members accept the backup
+            ArrayList<Member> intended = new ArrayList<Member>(chosen);
+            intended.add(next);
+            for ( int i=nextIdx; i<members.length && intended.size()<backupCount; i++ ) intended.add(members[i]);
+            Member[] backup = intended.toArray(new Member[intended.size()]);
             try {
-                backup = wrap(next);
-                //publish the backup data to one node
-                msg = new MapMessage(getMapContextName(), MapMessage.MSG_BACKUP, false,
-                                     (Serializable) key, (Serializable) value, null, channel.getLocalMember(false), backup);
+                MapMessage msg = null;
+                if ( inSet(next, previous) ) {
+                    //the member holds the current value already
+                    msg = new MapMessage(getMapContextName(), MapMessage.MSG_ACCESS, false,
+                                         (Serializable) key, null, null, channel.getLocalMember(false), backup);
+                } else {
+                    msg = new MapMessage(getMapContextName(), MapMessage.MSG_BACKUP, false,
+                                         (Serializable) key, (Serializable) value, null, channel.getLocalMember(false), backup);
+                }
                 if ( log.isTraceEnabled() )
                     log.trace("Publishing backup data:"+msg+" to: "+next.getName());
-                UniqueId id = getChannel().send(backup, msg, getChannelSendOptions());
+                UniqueId id = getChannel().send(wrap(next), msg, getChannelSendOptions());
                 if ( log.isTraceEnabled() )
                     log.trace("Data published:"+msg+" msg Id:"+id);
-                //we published out to a backup, mark the test success
-                success = true;
+                chosen.add(next);
             }catch ( ChannelException x ) {
                 log.error("Unable to replicate backup key:"+key+" to backup:"+next+". Reason:"+x.getMessage(),x);
+                failed = true;
             }
-            try {
-                //publish the data out to all nodes
-                Member[] proxies = excludeFromSet(backup, getMapMembers());
-                if (success && proxies.length > 0 ) {
-                    msg = new MapMessage(getMapContextName(), MapMessage.MSG_PROXY, false,
-                                         (Serializable) key, null, null, channel.getLocalMember(false),backup);
-                    if ( log.isTraceEnabled() )
-                    log.trace("Publishing proxy data:"+msg+" to: "+Arrays.toNameString(proxies));
-                    getChannel().send(proxies, msg, getChannelSendOptions());
-                }
-            }catch  ( ChannelException x ) {
-                //log the error, but proceed, this should only happen if a node went down,
-                //and if the node went down, then it can't receive the message, the others
-                //should still get it.
-                log.error("Unable to replicate proxy key:"+key+" to backup:"+next+". Reason:"+x.getMessage(),x);
+        }
+        Member[] backup = chosen.toArray(new Member[chosen.size()]);
+        if ( backup.length == 0 ) return backup;
+        try {
+            if ( failed && backup.length > 1 ) {
+                //the first backups were told about a different backup set
+                MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_ACCESS, false,
+                                                (Serializable) key, null, null, channel.getLocalMember(false), backup);
+                getChannel().send(backup, msg, getChannelSendOptions());
+            }
+        }catch ( ChannelException x ) {
+            log.error("Unable to update the backup nodes of key:"+key+". Reason:"+x.getMessage(),x);
+        }
+        try {
+            //publish the data out to all nodes
+            Member[] proxies = excludeFromSet(backup, getMapMembers());
+            if ( proxies.length > 0 ) {
+                MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_PROXY, false,
+                                                (Serializable) key, null, null, channel.getLocalMember(false),backup);
+                if ( log.isTraceEnabled() )
+                log.trace("Publishing proxy data:"+msg+" to: "+Arrays.toNameString(proxies));
+                getChannel().send(proxies, msg, getChannelSendOptions());
             }
-        } while ( !success && (firstIdx!=nextIdx));
+        }catch  ( ChannelException x ) {
+            //log the error, but proceed, this should only happen if a node went down,
+            //and if the node went down, then it can't receive the message, the others
+            //should still get it.
+            log.error("Unable to replicate proxy key:"+key+" to backup:"+Arrays.toNameString(backup)+". Reason:"+x.getMessage(),x);
+        }
         return backup;
     }
 
+    /**
+     * Orders the members by preference for holding the backups of a key,
+     * using rendezvous hashing: each member gets a weight from the hash of
+     * the key and of its address, and the heaviest members hold the backups.
+     * When a member leaves, only the keys it was backing up move, and when it
+     * joins, it takes back the same keys.
+     * @param key Object
+     * @param members Member[]
+     * @return Member[] - the members, preferred first
+     */
+    public static Member[] rankMembers(Object key, Member[] members) {
+        final long[] weights = new long[members.length];
+        Integer[] order = new Integer[members.length];
+        long keyHash = mix(key.hashCode());
+        for ( int i=0; i<members.length; i++ ) {
+            weights[i] = mix(keyHash ^ memberHash(members[i]));
+            order[i] = Integer.valueOf(i);
+        }
+        java.util.Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                long w1 = weights[i1.intValue()];
+                long w2 = weights[i2.intValue()];
+                return (w1 < w2) ? 1 : ((w1 == w2) ? 0 : -1);
+            }
+        });
+        Member[] result = new Member[members.length];
+        for ( int i=0; i<order.length; i++ ) result[i] = members[order[i].intValue()];
+        return result;
+    }
+
+    /**
+     * The hash of a member only depends on its address, so that a restarted
+     * node backs up the same keys as before.
+     */
+    protected static long memberHash(Member member) {
+        return ((long)java.util.Arrays.hashCode(member.getHost()) << 32) ^ member.getPort();
+    }
+
+    protected static long mix(long h) {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    @Override
+    public void mapMemberAdded(Member member) {
+        super.mapMemberAdded(member);
+        //the new member takes over the backups of its keys
+        if ( rebalanceBatchSize > 0 && !member.equals(getChannel().getLocalMember(false)) ) rebalance = true;
+    }
 
+    @Override
+    public void memberDisappeared(Member member) {
+        super.memberDisappeared(member);
+        //the entries which lost a backup get a new one
+        if ( isRelocationDeferred() ) rebalance = true;
+    }
 
+    /**
+     * The backups lost when a member leaves are replaced by the heartbeat,
+     * like the ones moved when a member joins, so that a node restart doesn't
+     * replicate all its entries at once.
+     */
+    @Override
+    protected boolean isRelocationDeferred() {
+        return rebalanceBatchSize > 0;
+    }
+
+    @Override
+    public void heartbeat() {
+        super.heartbeat();
+        if ( rebalance ) rebalance(rebalanceBatchSize);
+    }
 
+    /**
+     * Moves the backups of the primary entries which are not held by their
+     * preferred members, at most <code>max</code> entries at a time. The
+     * entries left without a backup are moved first.
+     * @param max int
+     * @return int - the number of entries moved
+     */
+    public int rebalance(int max) {
+        int moved = 0;
+        boolean complete = true;
+        synchronized (stateMutex) {
+            Member[] members = getMapMembers();
+            for ( int pass=0; pass<2 && complete; pass++ ) {
+                boolean orphansOnly = (pass == 0);
+                Iterator<Map.Entry<K,MapEntry<K,V>>> i = entrySetFull().iterator();
+                while ( i.hasNext() ) {
+                    MapEntry<K,V> entry = i.next().getValue();
+                    if ( entry == null || !entry.isPrimary() || !entry.isSerializable() ) continue;
+                    Member[] current = entry.getBackupNodes();
+                    boolean orphan = current == null || current.length == 0;
+                    if ( orphan != orphansOnly ) continue;
+                    Member[] ranked = rankMembers(entry.getKey(), members);
+                    int count = Math.min(backupCount, ranked.length);
+                    boolean balanced = current != null && current.length == count;
+                    for ( int j=0; j<count && balanced; j++ ) balanced = inSet(ranked[j], current);
+                    if ( balanced ) continue;
+                    if ( moved >= max ) {
+                        complete = false;
+                        break;
+                    }
+                    try {
+                        entry.setBackupNodes(publishEntryInfo(entry.getKey(), entry.getValue()));
+                    } catch ( ChannelException x ) {
+                        log.error("Unable to move the backup of key:"+entry.getKey(), x);
+                    }
+                    moved++;
+                }
+            }
+        }
+        if ( complete ) rebalance = false;
+        if ( moved > 0 && log.isDebugEnabled() )
+            log.debug("Moved the backups of "+moved+" entries, rebalance "+(complete?"complete.":"in progress."));
+        return moved;
+    }
+
+    public int getBackupCount() {
+        return backupCount;
+    }
+
+    /**
+     * Sets the number of members holding a backup of each entry.
+     * @param backupCount int
+     */
+    public void setBackupCount(int backupCount) {
+        this.backupCount = backupCount;
+    }
+
+    public int getRebalanceBatchSize() {
+        return rebalanceBatchSize;
+    }
+
+    /**
+     * Sets how many entries get their backups moved at each heartbeat, after a
+     * member has joined the map; <code>0</code> leaves the backups where
+     * they are.
+     * @param rebalanceBatchSize int
+     */
+    public void setRebalanceBatchSize(int rebalanceBatchSize) {
+        this.rebalanceBatchSize = rebalanceBatchSize;
+    }
 
 }
\ No newline at end of file
@@ -28,6 +28,7 @@ import org.apache.catalina.tribes.ChannelMessage;
 import org.apache.catalina.tribes.io.ListenCallback;
 import org.apache.catalina.tribes.io.ChannelData;
 import org.apache.catalina.tribes.io.BufferPool;
+import org.apache.catalina.tribes.io.DirectBufferPool;
 import java.nio.channels.CancelledKeyException;
 import org.apache.catalina.tribes.UniqueId;
 import org.apache.catalina.tribes.RemoteProcessException;
@@ -65,7 +66,7 @@ public class NioReplicationTask extends AbstractRxTask {
     public synchronized void run() { 
         if ( buffer == null ) {
             if ( (getOptions() & OPTION_DIRECT_BUFFER) == OPTION_DIRECT_BUFFER) {
-                buffer = ByteBuffer.allocateDirect(getRxBufSize());
+                buffer = DirectBufferPool.getDirectBufferPool().getBuffer(getRxBufSize());
             } else {
                 buffer = ByteBuffer.allocate(getRxBufSize());
             }
@@ -150,10 +151,8 @@ public class NioReplicationTask extends AbstractRxTask {
         // loop while data available, channel is non-blocking
         while ((count = channel.read (buffer)) > 0) {
             buffer.flip();		// make buffer readable
-            if ( buffer.hasArray() ) 
-                reader.append(buffer.array(),0,count,false);
-            else 
-                reader.append(buffer,count,false);
+            // parse the packages straight from the read buffer
+            reader.extractPackages(buffer);
             buffer.clear();		// make buffer empty
             //do we have at least one package?
             if ( reader.hasPackage() ) break;
@@ -292,6 +291,26 @@ public class NioReplicationTask extends AbstractRxTask {
         }
     }
 
+    public synchronized void close() {
+        super.close();
+        releaseBuffer();
+    }
+
+    /**
+     * Gives the read buffer back to the pool once the task is retired.
+     */
+    public synchronized void setDoRun(boolean doRun) {
+        super.setDoRun(doRun);
+        if ( !doRun ) releaseBuffer();
+    }
+
+    private void releaseBuffer() {
+        if ( buffer != null && buffer.isDirect() ) {
+            DirectBufferPool.getDirectBufferPool().returnBuffer(buffer);
+        }
+        buffer = null;
+    }
+
     public void setRxBufSize(int rxBufSize) {
         this.rxBufSize = rxBufSize;
     }
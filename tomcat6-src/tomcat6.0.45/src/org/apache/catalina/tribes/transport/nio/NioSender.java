@@ -25,6 +25,7 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 
+import org.apache.catalina.tribes.io.DirectBufferPool;
 import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.catalina.tribes.transport.AbstractSender;
 import org.apache.catalina.tribes.transport.DataSender;
@@ -226,7 +227,7 @@ public class NioSender extends AbstractSender implements DataSender{
     }
     
 
-    public void disconnect() {
+    public synchronized void disconnect() {
         try {
             connecting = false;
             setConnected(false);
@@ -246,6 +247,11 @@ public class NioSender extends AbstractSender implements DataSender{
             log.error("Unable to disconnect NioSender. msg="+x.getMessage());
             if ( log.isDebugEnabled() ) log.debug("Unable to disconnect NioSender. msg="+x.getMessage(),x);
         } finally {
+            //give the buffers back to the pool, connect gets new ones
+            returnBuffer(readbuf);
+            readbuf = null;
+            returnBuffer(writebuf);
+            writebuf = null;
         }
 
     }
@@ -274,7 +280,11 @@ public class NioSender extends AbstractSender implements DataSender{
     }
 
     private ByteBuffer getBuffer(int size) {
-        return (getDirectBuffer()?ByteBuffer.allocateDirect(size):ByteBuffer.allocate(size));
+        return (getDirectBuffer()?DirectBufferPool.getDirectBufferPool().getBuffer(size):ByteBuffer.allocate(size));
+    }
+
+    private void returnBuffer(ByteBuffer buffer) {
+        if ( buffer != null && buffer.isDirect() ) DirectBufferPool.getDirectBufferPool().returnBuffer(buffer);
     }
     
 
@@ -289,7 +299,10 @@ public class NioSender extends AbstractSender implements DataSender{
            ackbuf.clear();
            if ( writebuf != null ) writebuf.clear();
            else writebuf = getBuffer(length);
-           if ( writebuf.capacity() < length ) writebuf = getBuffer(length);
+           if ( writebuf.capacity() < length ) {
+               returnBuffer(writebuf);
+               writebuf = getBuffer(length);
+           }
            writebuf.put(data,offset,length);
            //writebuf.rewind();
            //set the limit so that we don't write non wanted data
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.tribes.util;
+
+import java.io.IOException;
+
+/**
+ * A fast LZ77 codec, using the block format of LZF: a block is a sequence
+ * of literal runs and back references.<br>
+ * A control byte below 32 starts a run of <code>ctrl+1</code> literal bytes.
+ * Otherwise, its 3 high bits are the length of a back reference, minus 2,
+ * 7 meaning that the next byte is to be added to the length, and its 5 low
+ * bits are the high bits of the offset of the reference, minus 1, whose low
+ * bits are in the following byte.<br>
+ * Matches are found through a hash table of 3 byte sequences, without
+ * searching any further, which trades some ratio for speed.
+ *
+ * @version 1.0
+ */
+public class LZFCodec {
+
+    protected static final int HASH_BITS = 14;
+    protected static final int MAX_LITERAL = 1 << 5;
+    protected static final int MAX_OFFSET = 1 << 13;
+    protected static final int MAX_REFERENCE = (1 << 8) + (1 << 3);
+
+    /**
+     * Positions of the last 3 byte sequences, by hash.
+     */
+    private final int[] table = new int[1 << HASH_BITS];
+
+    /**
+     * Returns the size of the buffer which can hold the compressed form of
+     * <code>length</code> bytes whatever they are.
+     * @param length int
+     * @return int
+     */
+    public static int getMaxCompressedLength(int length) {
+        return length + (length / MAX_LITERAL) + 1;
+    }
+
+    /**
+     * Compresses bytes. This method is not thread safe, as it uses the hash
+     * table of the codec.
+     * @param in byte[] - the bytes to compress
+     * @param inOff int
+     * @param inLen int
+     * @param out byte[] - the buffer, holding at least
+     * {@link #getMaxCompressedLength(int)} bytes from <code>outOff</code>
+     * @param outOff int
+     * @return the length of the compressed bytes
+     */
+    public int compress(byte[] in, int inOff, int inLen, byte[] out, int outOff) {
+        int ip = inOff;
+        int end = inOff + inLen;
+        int op = outOff + 1; //control byte of the first literal run
+        int lit = 0;
+        while ( ip < end ) {
+            if ( ip < (end - 2) ) {
+                int h = hash(in, ip);
+                int ref = table[h];
+                table[h] = ip;
+                // the table may hold positions of a former input
+                if ( ref >= inOff && ref < ip && (ip - ref) <= MAX_OFFSET &&
+                     in[ref] == in[ip] && in[ref+1] == in[ip+1] && in[ref+2] == in[ip+2] ) {
+                    int maxLen = Math.min(end - ip, MAX_REFERENCE);
+                    int len = 3;
+                    while ( len < maxLen && in[ref+len] == in[ip+len] ) len++;
+                    // close the literal run
+                    if ( lit > 0 ) out[op-lit-1] = (byte)(lit-1);
+                    else op--;
+                    int off = ip - ref - 1;
+                    int encoded = len - 2;
+                    if ( encoded < 7 ) {
+                        out[op++] = (byte)((off >> 8) + (encoded << 5));
+                    } else {
+                        out[op++] = (byte)((off >> 8) + (7 << 5));
+                        out[op++] = (byte)(encoded - 7);
+                    }
+                    out[op++] = (byte)off;
+                    lit = 0;
+                    op++; //control byte of the next literal run
+                    ip += len;
+                    continue;
+                }
+            }
+            out[op++] = in[ip++];
+            if ( ++lit == MAX_LITERAL ) {
+                out[op-lit-1] = (byte)(lit-1);
+                lit = 0;
+                op++;
+            }
+        }
+        if ( lit > 0 ) out[op-lit-1] = (byte)(lit-1);
+        else op--;
+        return op - outOff;
+    }
+
+    /**
+     * Decompresses bytes.
+     * @param in byte[] - the compressed bytes
+     * @param inOff int
+     * @param inLen int
+     * @param out byte[] - the buffer for the decompressed bytes
+     * @param outOff int
+     * @param outLen int - the length of the decompressed bytes
+     * @throws IOException if the compressed bytes are invalid
+     */
+    public static void decompress(byte[] in, int inOff, int inLen, byte[] out, int outOff, int outLen) throws IOException {
+        int ip = inOff;
+        int end = inOff + inLen;
+        int op = outOff;
+        int outEnd = outOff + outLen;
+        while ( ip < end ) {
+            int ctrl = in[ip++] & 0xff;
+            if ( ctrl < MAX_LITERAL ) {
+                int len = ctrl + 1;
+                if ( (ip + len) > end || (op + len) > outEnd ) throw new IOException("Invalid LZF literal run at:"+(ip-1-inOff));
+                System.arraycopy(in, ip, out, op, len);
+                ip += len;
+                op += len;
+            } else {
+                int len = ctrl >> 5;
+                if ( len == 7 ) {
+                    if ( ip >= end ) throw new IOException("Truncated LZF reference at:"+(ip-1-inOff));
+                    len += in[ip++] & 0xff;
+                }
+                if ( ip >= end ) throw new IOException("Truncated LZF reference at:"+(ip-1-inOff));
+                int ref = op - ((ctrl & 0x1f) << 8) - (in[ip++] & 0xff) - 1;
+                len += 2;
+                if ( ref < outOff || (op + len) > outEnd ) throw new IOException("Invalid LZF reference at:"+(ip-inOff));
+                // the reference may overlap the bytes being written
+                for (int i=0; i<len; i++) out[op++] = out[ref++];
+            }
+        }
+        if ( op != outEnd ) throw new IOException("LZF data decompressed to "+(op-outOff)+" bytes instead of "+outLen);
+    }
+
+    private static int hash(byte[] b, int pos) {
+        int v = ((b[pos] & 0xff) << 16) | ((b[pos+1] & 0xff) << 8) | (b[pos+2] & 0xff);
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
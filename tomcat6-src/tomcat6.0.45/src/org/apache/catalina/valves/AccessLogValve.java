@@ -27,13 +27,21 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -51,6 +59,7 @@ import org.apache.coyote.RequestInfo;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.collections.ConcurrentRingBuffer;
 
 
 /**
@@ -129,6 +138,14 @@ import org.apache.tomcat.util.buf.B2CConverter;
  * </p>
  *
  * <p>
+ * With <code>asyncWrite</code>, request threads hand the formatted lines
+ * over to a bounded lock free queue, and a single writer thread writes them
+ * to the file, so that request threads never wait for the file or for each
+ * other. When the queue is full, the <code>overflowPolicy</code> decides
+ * whether request threads wait or drop their line.
+ * </p>
+ *
+ * <p>
  * Conditional logging is also supported. This can be done with the
  * <code>condition</code> property.
  * If the value returned from ServletRequest.getAttribute(condition)
@@ -245,6 +262,19 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
     protected PrintWriter writer = null;
 
 
+    /**
+     * The channel of the current log file, written by the asynchronous
+     * writer.
+     */
+    protected FileChannel fileChannel = null;
+
+
+    /**
+     * The character set of the current log file.
+     */
+    protected Charset charset = null;
+
+
     /**
      * A date formatter to format a Date into a date in the format
      * "yyyy-MM-dd".
@@ -344,6 +374,49 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
      */
     protected AccessLogElement[] logElements = null;
 
+
+    /**
+     * Are the lines written by a background thread.
+     */
+    protected boolean asyncWrite = false;
+
+
+    /**
+     * Max number of lines waiting for the background thread.
+     */
+    protected int asyncQueueSize = 8192;
+
+
+    /**
+     * What to do with lines when the queue is full: <code>block</code> or
+     * <code>drop</code>.
+     */
+    protected String overflowPolicy = "block";
+
+
+    /**
+     * The writer thread, if <code>asyncWrite</code> is set.
+     */
+    protected AsyncWriter asyncWriter = null;
+
+
+    /**
+     * Number of lines dropped because the queue was full, or because they
+     * were logged once the log file was closed.
+     */
+    protected AtomicLong droppedLines = new AtomicLong();
+
+
+    /**
+     * Buffer to format the lines, reused by each request thread.
+     */
+    private static final ThreadLocal<StringBuffer> lineBuffer =
+            new ThreadLocal<StringBuffer>() {
+        protected StringBuffer initialValue() {
+            return new StringBuffer(256);
+        }
+    };
+
     // ------------------------------------------------------------- Properties
 
     /**
@@ -582,6 +655,72 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
         }
     }
 
+    /**
+     * Are the lines written by a background thread.
+     */
+    public boolean isAsyncWrite() {
+        return asyncWrite;
+    }
+
+    /**
+     * Write the lines from a background thread, so that request threads
+     * don't wait for the file. Takes effect when the valve is started.
+     */
+    public void setAsyncWrite(boolean asyncWrite) {
+        this.asyncWrite = asyncWrite;
+    }
+
+    /**
+     * Return the max number of lines waiting to be written.
+     */
+    public int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+    /**
+     * Set the max number of lines waiting to be written, rounded up to a
+     * power of two.
+     */
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+    /**
+     * Return what is done with lines when the queue is full.
+     */
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Set what is done with lines when the queue is full: <code>block</code>
+     * makes the request thread wait for room, <code>drop</code> drops the
+     * line. Dropped lines are counted.
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        if (!"block".equals(overflowPolicy) && !"drop".equals(overflowPolicy)) {
+            throw new IllegalArgumentException(sm.getString(
+                    "accessLogValve.invalidOverflowPolicy", overflowPolicy));
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Return the number of lines waiting to be written.
+     */
+    public int getQueueDepth() {
+        AsyncWriter w = asyncWriter;
+        return (w == null) ? 0 : w.queue.size();
+    }
+
+    /**
+     * Return the number of lines dropped because the queue was full, or
+     * because they were logged while the valve was stopping.
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -630,7 +769,13 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
         }
 
         Date date = getDate();
-        StringBuffer result = new StringBuffer(128);
+        StringBuffer result = lineBuffer.get();
+        if (result.capacity() > 8192) {
+            // Don't keep the buffer of an unusually long line
+            result = new StringBuffer(256);
+            lineBuffer.set(result);
+        }
+        result.setLength(0);
 
         for (int i = 0; i < logElements.length; i++) {
             logElements[i].addElement(result, date, request, response, time);
@@ -685,6 +830,7 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
         writer.flush();
         writer.close();
         writer = null;
+        fileChannel = null;
         dateStamp = "";
         currentLogFile = null;
     }
@@ -697,6 +843,34 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
      * @param message Message to be logged
      */
     public void log(String message) {
+        AsyncWriter w = asyncWriter;
+        if (w != null && w.offer(message)) {
+            return;
+        }
+
+        checkRotation();
+
+        // Log this message
+        synchronized(this) {
+            if (writer != null) {
+                writer.println(message);
+                if (!buffered) {
+                    writer.flush();
+                }
+            } else if (asyncWrite) {
+                droppedLines.incrementAndGet();
+            }
+        }
+
+    }
+
+
+    /**
+     * Switch log files if the date has changed since the previous check, or
+     * if the current file has been removed and <code>checkExists</code> is
+     * set.
+     */
+    private void checkRotation() {
         if (rotatable) {
             // Only do a logfile switch check once a second, max.
             long systime = System.currentTimeMillis();
@@ -738,17 +912,6 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
                 }
             }
         }
-
-        // Log this message
-        synchronized(this) {
-            if (writer != null) {
-                writer.println(message);
-                if (!buffered) {
-                    writer.flush();
-                }
-            }
-        }
-
     }
 
 
@@ -813,13 +976,17 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
         }
 
         try {
+            FileOutputStream fos = new FileOutputStream(pathname, true);
             writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(pathname, true), charset), 128000),
+                    fos, charset), 128000),
                     false);
+            fileChannel = fos.getChannel();
+            this.charset = charset;
 
             currentLogFile = pathname;
         } catch (IOException e) {
             writer = null;
+            fileChannel = null;
             currentLogFile = null;
             log.error(sm.getString("accessLogValve.openFail", pathname), e);
         }
@@ -940,6 +1107,16 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
         fileDateFormatter.setTimeZone(timezone);
         dateStamp = fileDateFormatter.format(currentDateStruct.get().currentDate);
         open();
+
+        if (asyncWrite) {
+            asyncWriter = new AsyncWriter(asyncQueueSize,
+                    "block".equals(overflowPolicy));
+            Thread thread = new Thread(asyncWriter, "AccessLogValve-Writer["
+                    + ((container == null) ? "" : container.getName()) + "]");
+            thread.setDaemon(true);
+            asyncWriter.thread = thread;
+            thread.start();
+        }
     }
 
 
@@ -959,9 +1136,172 @@ public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
                     .getString("accessLogValve.notStarted"));
         lifecycle.fireLifecycleEvent(STOP_EVENT, null);
         started = false;
-        
+
+        // Lines logged from now on are written directly, until the file is
+        // closed
+        AsyncWriter w = asyncWriter;
+        asyncWriter = null;
+        if (w != null) {
+            w.stop();
+        }
         close();
     }
+
+
+    /**
+     * Writes the lines queued by the request threads to the log file. The
+     * lines are encoded in a buffer which is written when it is full, or
+     * when there are no more lines to write.
+     */
+    protected class AsyncWriter implements Runnable {
+
+        protected final ConcurrentRingBuffer<String> queue;
+        protected final boolean block;
+        protected final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        protected final String lineSeparator =
+            System.getProperty("line.separator");
+        protected CharsetEncoder encoder = null;
+        protected Thread thread = null;
+        protected volatile boolean running = true;
+        protected volatile boolean waiting = false;
+
+        public AsyncWriter(int size, boolean block) {
+            this.queue = new ConcurrentRingBuffer<String>(size);
+            this.block = block;
+        }
+
+        /**
+         * Called by the request threads. Returns <code>false</code> if the
+         * writer is stopping, in which case the caller writes the line.
+         */
+        public boolean offer(String line) {
+            if (!running) {
+                return false;
+            }
+            while (!queue.offer(line)) {
+                if (!running) {
+                    return false;
+                }
+                if (!block) {
+                    droppedLines.incrementAndGet();
+                    return true;
+                }
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(100000);
+            }
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+            if (!running && !thread.isAlive()) {
+                // The writer may have done its last drain before the line
+                // was queued
+                drain();
+            }
+            return true;
+        }
+
+        public void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!thread.isAlive()) {
+                // Lines queued while the writer was exiting
+                drain();
+            }
+        }
+
+        /**
+         * Write the lines left in the queue once the writer thread is gone.
+         */
+        protected void drain() {
+            synchronized (AccessLogValve.this) {
+                String line;
+                while ((line = queue.poll()) != null) {
+                    if (fileChannel == null) {
+                        droppedLines.incrementAndGet();
+                    } else {
+                        write(line);
+                        write(lineSeparator);
+                    }
+                }
+                flush();
+            }
+        }
+
+        public void run() {
+            while (true) {
+                String line = queue.poll();
+                if (line == null) {
+                    flush();
+                    if (!running && queue.isEmpty()) {
+                        break;
+                    }
+                    waiting = true;
+                    if (queue.isEmpty()) {
+                        LockSupport.parkNanos(100000000);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                if (rotatable && (System.currentTimeMillis() - rotationLastChecked) > 1000) {
+                    // Lines of the previous day go to the previous file
+                    flush();
+                }
+                checkRotation();
+                write(line);
+                write(lineSeparator);
+            }
+        }
+
+        protected void write(String s) {
+            Charset cs = charset;
+            if (cs == null) {
+                return;
+            }
+            if (encoder == null || !encoder.charset().equals(cs)) {
+                encoder = cs.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            CharBuffer chars = CharBuffer.wrap(s);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow()) {
+                    flush();
+                } else {
+                    break;
+                }
+            }
+            encoder.reset();
+        }
+
+        protected void flush() {
+            if (buffer.position() == 0) {
+                return;
+            }
+            buffer.flip();
+            synchronized (AccessLogValve.this) {
+                try {
+                    if (writer != null) {
+                        // Anything written by a subclass goes first
+                        writer.flush();
+                    }
+                    if (fileChannel != null) {
+                        while (buffer.hasRemaining()) {
+                            fileChannel.write(buffer);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.error(sm.getString("accessLogValve.writeFail"), e);
+                }
+            }
+            buffer.clear();
+        }
+    }
     
     /**
      * AccessLogElement writes the partial message into the buffer.
@@ -45,6 +45,7 @@ import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.KnownHeaders;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
@@ -275,6 +276,14 @@ public class Http11NioProcessor implements ActionHook {
     protected boolean disableUploadTimeout = false;
 
 
+    /**
+     * Flag to keep the response of a request in the socket write buffer
+     * when the next pipelined request has already been read, so that the
+     * responses are written to the client together.
+     */
+    protected boolean coalescePipelinedResponses = false;
+
+
     /**
      * Allowed compression level.
      */
@@ -680,6 +689,36 @@ public class Http11NioProcessor implements ActionHook {
         return disableUploadTimeout;
     }
 
+    /**
+     * Set the flag to coalesce the responses of pipelined requests.
+     */
+    public void setCoalescePipelinedResponses(boolean coalesce) {
+        coalescePipelinedResponses = coalesce;
+    }
+
+    /**
+     * Get the flag that controls coalescing of pipelined responses.
+     */
+    public boolean getCoalescePipelinedResponses() {
+        return coalescePipelinedResponses;
+    }
+
+    /**
+     * Set the flag to tokenize the well known header names, so that they
+     * are looked up without comparing the names of all the header fields.
+     */
+    public void setTokenizeHeaders(boolean tokenize) {
+        request.getMimeHeaders().setTokenized(tokenize);
+        response.getMimeHeaders().setTokenized(tokenize);
+    }
+
+    /**
+     * Get the flag that controls tokenization of the header names.
+     */
+    public boolean getTokenizeHeaders() {
+        return request.getMimeHeaders().isTokenized();
+    }
+
     /**
      * Set the socket buffer flag.
      */
@@ -960,6 +999,16 @@ public class Http11NioProcessor implements ActionHook {
 
         }
 
+        // Write any coalesced responses before releasing the thread
+        if (outputBuffer.isFlushPending()) {
+            try {
+                outputBuffer.flushBuffer();
+            } catch (IOException e) {
+                error = true;
+                openSocket = false;
+            }
+        }
+
         rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
 
         if (comet) {
@@ -993,6 +1042,12 @@ public class Http11NioProcessor implements ActionHook {
             response.setStatus(500);
             error = true;
         }
+        // Don't write the response yet if the next pipelined request is
+        // already buffered, it will go out with the following response
+        if (coalescePipelinedResponses && !error && keepAlive
+                && sendfileData == null && inputBuffer.hasPipelinedData()) {
+            outputBuffer.deferFlush();
+        }
         try {
             outputBuffer.endRequest();
         } catch (IOException e) {
@@ -1337,7 +1392,7 @@ public class Http11NioProcessor implements ActionHook {
         MimeHeaders headers = request.getMimeHeaders();
 
         // Check connection header
-        MessageBytes connectionValueMB = headers.getValue("connection");
+        MessageBytes connectionValueMB = headers.getValueByToken(KnownHeaders.CONNECTION);
         if (connectionValueMB != null) {
             ByteChunk connectionValueBC = connectionValueMB.getByteChunk();
             if (findBytes(connectionValueBC, Constants.CLOSE_BYTES) != -1) {
@@ -1350,7 +1405,7 @@ public class Http11NioProcessor implements ActionHook {
 
         MessageBytes expectMB = null;
         if (http11)
-            expectMB = headers.getValue("expect");
+            expectMB = headers.getValueByToken(KnownHeaders.EXPECT);
         if ((expectMB != null)
             && (expectMB.indexOfIgnoreCase("100-continue", 0) != -1)) {
             inputBuffer.setSwallowInput(false);
@@ -1359,7 +1414,7 @@ public class Http11NioProcessor implements ActionHook {
 
         // Check user-agent header
         if ((restrictedUserAgents != null) && ((http11) || (keepAlive))) {
-            MessageBytes userAgentValueMB = headers.getValue("user-agent");
+            MessageBytes userAgentValueMB = headers.getValueByToken(KnownHeaders.USER_AGENT);
             // Check in the restricted list, and adjust the http11
             // and keepAlive flags accordingly
             if(userAgentValueMB != null) {
@@ -1407,7 +1462,7 @@ public class Http11NioProcessor implements ActionHook {
         // Parse transfer-encoding header
         MessageBytes transferEncodingValueMB = null;
         if (http11)
-            transferEncodingValueMB = headers.getValue("transfer-encoding");
+            transferEncodingValueMB = headers.getValueByToken(KnownHeaders.TRANSFER_ENCODING);
         if (transferEncodingValueMB != null) {
             String transferEncodingValue = transferEncodingValueMB.toString();
             // Parse the comma separated list. "identity" codings are ignored
@@ -1454,7 +1509,7 @@ public class Http11NioProcessor implements ActionHook {
             }
         }
 
-        MessageBytes valueMB = headers.getValue("host");
+        MessageBytes valueMB = headers.getValueByToken(KnownHeaders.HOST);
 
         // Check host header
         if (http11 && (valueMB == null)) {
@@ -1599,7 +1654,7 @@ public class Http11NioProcessor implements ActionHook {
 
         // Check if browser support gzip encoding
         MessageBytes acceptEncodingMB =
-            request.getMimeHeaders().getValue("accept-encoding");
+            request.getMimeHeaders().getValueByToken(KnownHeaders.ACCEPT_ENCODING);
 
         if ((acceptEncodingMB == null)
             || (acceptEncodingMB.indexOf("gzip") == -1))
@@ -1612,7 +1667,7 @@ public class Http11NioProcessor implements ActionHook {
         // Check for incompatible Browser
         if (noCompressionUserAgents != null) {
             MessageBytes userAgentValueMB =
-                request.getMimeHeaders().getValue("user-agent");
+                request.getMimeHeaders().getValueByToken(KnownHeaders.USER_AGENT);
             if(userAgentValueMB != null) {
                 String userAgentValue = userAgentValueMB.toString();
 
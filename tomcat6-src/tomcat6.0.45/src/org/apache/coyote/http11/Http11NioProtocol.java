@@ -224,6 +224,8 @@ public class Http11NioProtocol extends AbstractProtocol implements MBeanRegistra
     protected int processorCache = 200; //max number of Http11NioProcessor objects cached
     private int socketCloseDelay=-1;
     private boolean disableUploadTimeout = true;
+    private boolean coalescePipelinedResponses = false;
+    private boolean tokenizeHeaders = false;
     private int socketBuffer = 9000;
 
     private Adapter adapter;
@@ -250,6 +252,22 @@ public class Http11NioProtocol extends AbstractProtocol implements MBeanRegistra
         return ep.getPollerThreadCount();
     }
 
+    public void setAcceptorThreadCount(int count) {
+        ep.setAcceptorThreadCount(count);
+    }
+
+    public int getAcceptorThreadCount() {
+        return ep.getAcceptorThreadCount();
+    }
+
+    public void setReusePort(boolean reusePort) {
+        ep.setReusePort(reusePort);
+    }
+
+    public boolean getReusePort() {
+        return ep.getReusePort();
+    }
+
     public void setSelectorTimeout(long timeout) {
         ep.setSelectorTimeout(timeout);
     }
@@ -366,6 +384,24 @@ public class Http11NioProtocol extends AbstractProtocol implements MBeanRegistra
         disableUploadTimeout = isDisabled;
     }
 
+    public boolean getCoalescePipelinedResponses() {
+        return coalescePipelinedResponses;
+    }
+
+    public void setCoalescePipelinedResponses(boolean coalesce) {
+        coalescePipelinedResponses = coalesce;
+        setAttribute("coalescePipelinedResponses", "" + coalesce);
+    }
+
+    public boolean getTokenizeHeaders() {
+        return tokenizeHeaders;
+    }
+
+    public void setTokenizeHeaders(boolean tokenize) {
+        tokenizeHeaders = tokenize;
+        setAttribute("tokenizeHeaders", "" + tokenize);
+    }
+
     public int getSocketBuffer() {
         return socketBuffer;
     }
@@ -802,6 +838,8 @@ public class Http11NioProtocol extends AbstractProtocol implements MBeanRegistra
             processor.setMaxKeepAliveRequests(proto.maxKeepAliveRequests);
             processor.setTimeout(proto.timeout);
             processor.setDisableUploadTimeout(proto.disableUploadTimeout);
+            processor.setCoalescePipelinedResponses(proto.coalescePipelinedResponses);
+            processor.setTokenizeHeaders(proto.tokenizeHeaders);
             processor.setCompressionMinSize(proto.compressionMinSize);
             processor.setCompression(proto.compression);
             processor.setNoCompressionUserAgents(proto.noCompressionUserAgents);
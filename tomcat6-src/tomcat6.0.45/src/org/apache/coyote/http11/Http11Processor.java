@@ -309,6 +309,12 @@ public class Http11Processor implements ActionHook {
     protected JIoEndpoint endpoint;
 
 
+    /**
+     * Sendfile data.
+     */
+    protected JIoEndpoint.SendfileData sendfileData = null;
+
+
     /**
      * Allow a customized the server header for the tin-foil hat folks.
      */
@@ -915,6 +921,20 @@ public class Http11Processor implements ActionHook {
                 error = true;
             }
 
+            // Do sendfile as needed: the headers have been flushed by
+            // endRequest, write the file body straight to the socket
+            if (sendfileData != null && !error) {
+                try {
+                    endpoint.processSendfile(socket, sendfileData);
+                } catch (IOException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("http11processor.sendfile.error"), e);
+                    }
+                    error = true;
+                }
+            }
+            sendfileData = null;
+
             // If there was an error, make sure the request is counted as
             // and error, and update the statistics counter
             if (error) {
@@ -937,6 +957,7 @@ public class Http11Processor implements ActionHook {
         // Recycle
         inputBuffer.recycle();
         outputBuffer.recycle();
+        sendfileData = null;
         this.socket = null;
         // Recycle ssl info
         sslSupport = null;
@@ -1366,6 +1387,11 @@ public class Http11Processor implements ActionHook {
             contentDelimitation = true;
         }
 
+        // Advertise sendfile support through a request attribute
+        if (endpoint.getUseSendfile()) {
+            request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        }
+
         if (error) {
             adapter.log(request, response, 0);
         }
@@ -1551,10 +1577,25 @@ public class Http11Processor implements ActionHook {
             contentDelimitation = true;
         }
 
+        // Sendfile support
+        if (endpoint.getUseSendfile()) {
+            String fileName = (String) request.getAttribute("org.apache.tomcat.sendfile.filename");
+            if (fileName != null) {
+                // No entity body sent here
+                outputBuffer.addActiveFilter
+                    (outputFilters[Constants.VOID_FILTER]);
+                contentDelimitation = true;
+                sendfileData = new JIoEndpoint.SendfileData();
+                sendfileData.fileName = fileName;
+                sendfileData.pos = ((Long) request.getAttribute("org.apache.tomcat.sendfile.start")).longValue();
+                sendfileData.length = ((Long) request.getAttribute("org.apache.tomcat.sendfile.end")).longValue() - sendfileData.pos;
+            }
+        }
+
         // Check for compression
         boolean isCompressable = false;
         boolean useCompression = false;
-        if (entityBody && (compressionLevel > 0)) {
+        if (entityBody && (compressionLevel > 0) && (sendfileData == null)) {
             isCompressable = isCompressable();
             if (isCompressable) {
                 useCompression = useCompression();
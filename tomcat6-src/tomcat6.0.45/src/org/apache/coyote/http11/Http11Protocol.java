@@ -424,6 +424,9 @@ public class Http11Protocol extends AbstractProtocol
     public int getSoTimeout() { return endpoint.getSoTimeout(); }
     public void setSoTimeout(int soTimeout) { endpoint.setSoTimeout(soTimeout); }
 
+    public boolean getUseSendfile() { return endpoint.getUseSendfile(); }
+    public void setUseSendfile(boolean useSendfile) { endpoint.setUseSendfile(useSendfile); }
+
     public int getUnlockTimeout() { return endpoint.getUnlockTimeout(); }
     public void setUnlockTimeout(int unlockTimeout) {
         endpoint.setUnlockTimeout(unlockTimeout);
@@ -451,6 +451,16 @@ public class InternalNioInputBuffer extends AbstractInputBuffer {
     }
 
 
+    /**
+     * Check whether bytes following the current request, i.e. the start of
+     * a pipelined request, have already been read from the socket. Only
+     * meaningful once {@link #endRequest()} has been called.
+     */
+    public boolean hasPipelinedData() {
+        return lastValid > pos;
+    }
+
+
     /**
      * Read the request line. This function is meant to be used during the 
      * HTTP request header parsing. Do NOT attempt to read the request body 
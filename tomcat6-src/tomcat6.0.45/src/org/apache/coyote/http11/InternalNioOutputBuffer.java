@@ -137,6 +137,12 @@ public class InternalNioOutputBuffer
     protected boolean finished;
 
 
+    /**
+     * Skip the socket write at the end of the current request.
+     */
+    protected boolean deferFlush;
+
+
     /**
      * Pointer to the current write buffer.
      */
@@ -356,6 +362,7 @@ public class InternalNioOutputBuffer
         lastActiveFilter = -1;
         committed = false;
         finished = false;
+        deferFlush = false;
         lastWrite.set(1);
 
     }
@@ -409,12 +416,35 @@ public class InternalNioOutputBuffer
         if (lastActiveFilter != -1)
             activeFilters[lastActiveFilter].end();
 
-        flushBuffer();
+        if (deferFlush) {
+            // The bytes stay in the socket write buffer and are written
+            // together with the next response, or by the processor
+            deferFlush = false;
+        } else {
+            flushBuffer();
+        }
 
         finished = true;
 
     }
 
+    /**
+     * Leave the response in the socket write buffer when the current request
+     * ends, instead of writing it. Used when the next pipelined request is
+     * already available, to coalesce the responses in a single write.
+     */
+    public void deferFlush() {
+        deferFlush = true;
+    }
+
+    /**
+     * Check whether response bytes are waiting in the socket write buffer.
+     */
+    public boolean isFlushPending() {
+        return socket != null
+            && socket.getBufHandler().getWriteBuffer().position() > 0;
+    }
+
     public boolean isWritable() {
         return lastWrite.get()>0;
     }
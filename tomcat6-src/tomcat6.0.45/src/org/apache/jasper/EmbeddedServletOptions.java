@@ -172,6 +172,11 @@ public final class EmbeddedServletOptions implements Options {
      */
     private boolean recompileOnFail = false;
 
+    /**
+     * Are the JSP pages watched for changes?
+     */
+    private boolean watchSources = false;
+
     /**
      * Is generation of X-Powered-By response header enabled/disabled?
      */
@@ -256,6 +261,13 @@ public final class EmbeddedServletOptions implements Options {
         return recompileOnFail;
     }
 
+    /**
+     * Watch the JSP pages for changes.
+     */
+    public boolean getWatchSources() {
+        return watchSources;
+    }
+
     /**
      * Is Jasper being used in development mode?
      */
@@ -504,6 +516,19 @@ public final class EmbeddedServletOptions implements Options {
                 }
             }
         }
+
+        String watchSources = config.getInitParameter("watchSources");
+        if (watchSources != null) {
+            if (watchSources.equalsIgnoreCase("true")) {
+                this.watchSources = true;
+            } else if (watchSources.equalsIgnoreCase("false")) {
+                this.watchSources = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.watchSources"));
+                }
+            }
+        }
         String development = config.getInitParameter("development");
         if (development != null) {
             if (development.equalsIgnoreCase("true")) {
@@ -560,6 +560,15 @@ public class JspC extends Task implements Options {
     public boolean getRecompileOnFail() {
         return false;
     }
+
+
+    /**
+     * In JspC this always returns <code>false</code>.
+     * {@inheritDoc}
+     */
+    public boolean getWatchSources() {
+        return false;
+    }
     
     
     /**
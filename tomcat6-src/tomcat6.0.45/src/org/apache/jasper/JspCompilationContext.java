@@ -611,6 +611,25 @@ public class JspCompilationContext {
         }
     }
 
+    /**
+     * Prepare a compilation of the page which is driven from outside of
+     * {@link #compile()}, as by the background compilation of the pages of
+     * the web application: when the page is out of date, the files and
+     * class loader of its previous version are discarded.
+     *
+     * @return the compiler to use, or <code>null</code> if the page is up
+     *  to date
+     */
+    public Compiler prepareCompile() throws JasperException {
+        createCompiler();
+        if (!jspCompiler.isOutDated()) {
+            return null;
+        }
+        jspCompiler.removeGeneratedFiles();
+        jspLoader = null;
+        return jspCompiler;
+    }
+
     // ==================== Manipulating the class ====================
 
     public Class load() 
@@ -207,6 +207,12 @@ public interface Options {
      * Re-compile on failure.
      */
     public boolean getRecompileOnFail();
+
+    /**
+     * Are the JSP pages and their dependencies watched for changes, rather
+     * than checked for modification on access?
+     */
+    public boolean getWatchSources();
     
     /**
      * Is caching enabled (used for precompilation).
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.jasper.compiler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import org.apache.jasper.JasperException;
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.Options;
+import org.apache.jasper.servlet.JspServletWrapper;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Compiles the JSP pages of a web application in the background once the
+ * JSP servlet has started, so that the first requests do not pay for it.
+ *
+ * The pages are split into batches which are compiled in parallel by a
+ * bounded pool of threads. The Java sources of the pages of a batch are
+ * generated one at a time, and then given to the JDT compiler as a single
+ * set of compilation units. Tag files are compiled as dependencies of the
+ * pages which use them, as they are on the first request.
+ *
+ * A page which fails to compile is left alone, and the error is reported
+ * by the first request to the page as usual.
+ */
+public class BackgroundCompiler {
+
+    // Logger
+    private Log log = LogFactory.getLog(BackgroundCompiler.class);
+
+    /**
+     * Default number of pages compiled together.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 20;
+
+    /**
+     * Time in milliseconds stop waits for the batches being compiled.
+     */
+    public static final long STOP_TIMEOUT = 10000;
+
+    private ServletConfig config;
+    private ServletContext context;
+    private Options options;
+    private JspRuntimeContext rctxt;
+
+    /*
+     * Lock guarding the creation of the wrappers, the same as the one used
+     * by the JSP servlet.
+     */
+    private Object lock;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private ExecutorService executor;
+    private volatile boolean stopped = false;
+
+    private AtomicInteger total = new AtomicInteger();
+    private AtomicInteger completed = new AtomicInteger();
+    private AtomicInteger failed = new AtomicInteger();
+    private AtomicInteger pendingBatches = new AtomicInteger();
+
+
+    public BackgroundCompiler(ServletConfig config, Options options,
+            JspRuntimeContext rctxt, Object lock) {
+        this.config = config;
+        this.context = config.getServletContext();
+        this.options = options;
+        this.rctxt = rctxt;
+        this.lock = lock;
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads > 0) {
+            this.threads = threads;
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize > 0) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    /**
+     * @return the number of pages found by the background compilation
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return the number of pages processed so far, which were either
+     *  compiled, up to date or failed to compile
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of pages which failed to compile
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return <code>true</code> while the background compilation is running
+     */
+    public boolean isRunning() {
+        return pendingBatches.get() > 0 && !stopped;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Find the pages of the web application and start compiling them.
+     */
+    public void start() throws JasperException {
+
+        List<String> pages = new ArrayList<String>();
+        findPages("/", pages);
+
+        List<JspServletWrapper> wrappers = new ArrayList<JspServletWrapper>();
+        synchronized (lock) {
+            for (int i = 0; i < pages.size(); i++) {
+                String jspUri = pages.get(i);
+                JspServletWrapper wrapper = rctxt.getWrapper(jspUri);
+                if (wrapper == null) {
+                    wrapper = new JspServletWrapper(config, options, jspUri,
+                                                    false, rctxt);
+                    rctxt.addWrapper(jspUri, wrapper);
+                }
+                wrappers.add(wrapper);
+            }
+        }
+        total.set(wrappers.size());
+        if (wrappers.isEmpty()) {
+            return;
+        }
+
+        if (log.isInfoEnabled()) {
+            log.info(Localizer.getMessage("jsp.message.backgroundCompile.start",
+                    String.valueOf(wrappers.size()), String.valueOf(threads)));
+        }
+
+        final ClassLoader loader =
+            Thread.currentThread().getContextClassLoader();
+        final String name = "JspBackgroundCompile" + context.getContextPath();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-"
+                        + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setContextClassLoader(loader);
+                return t;
+            }
+        });
+        for (int i = 0; i < wrappers.size(); i += batchSize) {
+            List<JspServletWrapper> batch = wrappers.subList(i,
+                    Math.min(i + batchSize, wrappers.size()));
+            pendingBatches.incrementAndGet();
+            executor.execute(new Batch(batch.toArray(
+                    new JspServletWrapper[batch.size()])));
+        }
+        executor.shutdown();
+    }
+
+
+    /**
+     * Stop the compilation, the batches which are not compiling yet are
+     * skipped. Wait at most {@link #STOP_TIMEOUT} for the batches being
+     * compiled to complete, so that they don't use the runtime context
+     * after it is destroyed.
+     */
+    public void stop() {
+        stopped = true;
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT,
+                    TimeUnit.MILLISECONDS)) {
+                log.warn(Localizer.getMessage(
+                        "jsp.warning.backgroundCompileStop",
+                        String.valueOf(STOP_TIMEOUT)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    /*
+     * Find the JSP pages below the given directory, in the same way as JspC.
+     */
+    private void findPages(String path, List<String> pages)
+        throws JasperException {
+
+        Set paths = context.getResourcePaths(path);
+        if (paths == null) {
+            return;
+        }
+        JspConfig jspConfig = options.getJspConfig();
+        Iterator iter = paths.iterator();
+        while (iter.hasNext()) {
+            String uri = (String) iter.next();
+            if (uri.endsWith("/")) {
+                if (!uri.equals("/WEB-INF/lib/")
+                        && !uri.equals("/WEB-INF/classes/")) {
+                    findPages(uri, pages);
+                }
+            } else if (uri.endsWith(".jsp") || uri.endsWith(".jspx")
+                    || jspConfig.isJspPage(uri)) {
+                pages.add(uri);
+            }
+        }
+    }
+
+
+    /*
+     * Compile the pages of a batch, holding the locks of all their wrappers
+     * so that a request for one of them waits for the batch to complete.
+     */
+    private void compile(JspServletWrapper[] wrappers, int i) {
+        if (i < wrappers.length) {
+            synchronized (wrappers[i]) {
+                compile(wrappers, i + 1);
+            }
+        } else {
+            compile(wrappers);
+        }
+    }
+
+
+    private void compile(JspServletWrapper[] wrappers) {
+
+        List<JDTCompiler> compilers = new ArrayList<JDTCompiler>();
+        List<String[]> smaps = new ArrayList<String[]>();
+        List<JspServletWrapper> generated = new ArrayList<JspServletWrapper>();
+
+        for (int i = 0; i < wrappers.length && !stopped; i++) {
+            JspServletWrapper wrapper = wrappers[i];
+            JspCompilationContext ctxt = wrapper.getJspEngineContext();
+            try {
+                Compiler compiler = ctxt.prepareCompile();
+                if (compiler == null) {
+                    completed.incrementAndGet();
+                } else if (compiler instanceof JDTCompiler) {
+                    compiler.errDispatcher = new ErrorDispatcher(false);
+                    try {
+                        smaps.add(compiler.generateJava());
+                    } catch (Exception e) {
+                        compiler.cleanUp();
+                        throw e;
+                    }
+                    compilers.add((JDTCompiler) compiler);
+                    generated.add(wrapper);
+                } else {
+                    compiler.compile();
+                    compiled(wrapper);
+                }
+            } catch (Exception e) {
+                failed(wrapper, e);
+            }
+        }
+        if (compilers.isEmpty()) {
+            return;
+        }
+
+        Exception[] errors = JDTCompiler.generateClasses(
+                compilers.toArray(new JDTCompiler[compilers.size()]),
+                smaps.toArray(new String[smaps.size()][]));
+        for (int i = 0; i < errors.length; i++) {
+            JDTCompiler compiler = compilers.get(i);
+            JspServletWrapper wrapper = generated.get(i);
+            if (errors[i] == null) {
+                compiler.classGenerated();
+            }
+            try {
+                compiler.cleanUp();
+            } catch (Exception e) {
+                log.warn(e.getMessage(), e);
+            }
+            if (errors[i] == null) {
+                compiled(wrapper);
+            } else {
+                failed(wrapper, errors[i]);
+            }
+        }
+    }
+
+
+    private void compiled(JspServletWrapper wrapper) {
+        wrapper.setReload(true);
+        completed.incrementAndGet();
+    }
+
+
+    private void failed(JspServletWrapper wrapper, Exception e) {
+        // Make sure the first request checks the page again
+        wrapper.setLastModificationTest(-1);
+        failed.incrementAndGet();
+        completed.incrementAndGet();
+        log.warn(Localizer.getMessage("jsp.warning.backgroundCompile",
+                wrapper.getJspEngineContext().getJspFile(), e.getMessage()));
+        if (log.isDebugEnabled()) {
+            log.debug(e.getMessage(), e);
+        }
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+    private class Batch implements Runnable {
+
+        private JspServletWrapper[] wrappers;
+
+        public Batch(JspServletWrapper[] wrappers) {
+            this.wrappers = wrappers;
+        }
+
+        public void run() {
+            try {
+                if (!stopped) {
+                    compile(wrappers, 0);
+                }
+            } finally {
+                if (pendingBatches.decrementAndGet() == 0 && !stopped
+                        && log.isInfoEnabled()) {
+                    log.info(Localizer.getMessage(
+                            "jsp.message.backgroundCompile.done",
+                            String.valueOf(completed.get()),
+                            String.valueOf(failed.get())));
+                }
+            }
+        }
+    }
+}
@@ -20,12 +20,14 @@ package org.apache.jasper.compiler;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.JarURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -354,43 +356,59 @@ public abstract class Compiler {
             String[] smap = generateJava();
             if (compileClass) {
                 generateClass(smap);
-                // Fix for bugzilla 41606
-                // Set JspServletWrapper.servletClassLastModifiedTime after successful compile
-                String targetFileName = ctxt.getClassFileName();
-                if (targetFileName != null) {
-                    File targetFile = new File(targetFileName);
-                    if (targetFile.exists() && jsw != null) {
-                        jsw.setServletClassLastModifiedTime(targetFile.lastModified());
-                    }
-                }
+                classGenerated();
             }
         } finally {
-            if (tfp != null && ctxt.isPrototypeMode()) {
-                tfp.removeProtoTypeFiles(null);
-            }
-            // Make sure these object which are only used during the
-            // generation and compilation of the JSP page get
-            // dereferenced so that they can be GC'd and reduce the
-            // memory footprint.
-            tfp = null;
-            errDispatcher = null;
-            pageInfo = null;
-
-            // Only get rid of the pageNodes if in production.
-            // In development mode, they are used for detailed
-            // error messages.
-            // http://bz.apache.org/bugzilla/show_bug.cgi?id=37062
-            if (!this.options.getDevelopment()) {
-                pageNodes = null;
-            }
+            cleanUp();
+        }
+    }
 
-            if (ctxt.getWriter() != null) {
-                ctxt.getWriter().close();
-                ctxt.setWriter(null);
+    /**
+     * Record the modification time of the class file after a successful
+     * compile.
+     */
+    protected void classGenerated() {
+        // Fix for bugzilla 41606
+        // Set JspServletWrapper.servletClassLastModifiedTime after successful compile
+        String targetFileName = ctxt.getClassFileName();
+        if (targetFileName != null) {
+            File targetFile = new File(targetFileName);
+            if (targetFile.exists() && jsw != null) {
+                jsw.setServletClassLastModifiedTime(targetFile.lastModified());
             }
         }
     }
 
+    /**
+     * Dereference the objects only used during the generation and
+     * compilation of the page.
+     */
+    protected void cleanUp() throws IOException {
+        if (tfp != null && ctxt.isPrototypeMode()) {
+            tfp.removeProtoTypeFiles(null);
+        }
+        // Make sure these object which are only used during the
+        // generation and compilation of the JSP page get
+        // dereferenced so that they can be GC'd and reduce the
+        // memory footprint.
+        tfp = null;
+        errDispatcher = null;
+        pageInfo = null;
+
+        // Only get rid of the pageNodes if in production.
+        // In development mode, they are used for detailed
+        // error messages.
+        // http://bz.apache.org/bugzilla/show_bug.cgi?id=37062
+        if (!this.options.getDevelopment()) {
+            pageNodes = null;
+        }
+
+        if (ctxt.getWriter() != null) {
+            ctxt.getWriter().close();
+            ctxt.setWriter(null);
+        }
+    }
+
     /**
      * This is a protected method intended to be overridden by subclasses of
      * Compiler. This is used by the compile method to do all the compilation.
@@ -413,6 +431,15 @@ public abstract class Compiler {
 
         String jsp = ctxt.getJspFile();
 
+        JspSourceWatcher watcher = null;
+        if (jsw != null && ctxt.getRuntimeContext() != null) {
+            watcher = ctxt.getRuntimeContext().getSourceWatcher();
+            // None of the files of the page changed since it was checked
+            if (watcher != null && watcher.isUpToDate(jsw)) {
+                return false;
+            }
+        }
+
         if (jsw != null
                 && (ctxt.getOptions().getModificationTestInterval() > 0)) {
 
@@ -478,6 +505,18 @@ public abstract class Compiler {
         }
 
         List depends = jsw.getDependants();
+        if (watcher != null) {
+            // Watch the files of the page before checking them all, so that
+            // a change made while they are checked is not missed
+            List<String> sources = new ArrayList<String>();
+            sources.add(jsp);
+            if (depends != null) {
+                sources.addAll(depends);
+            }
+            if (watcher.watch(jsw, sources)) {
+                depends = sources;
+            }
+        }
         if (depends == null) {
             return false;
         }
@@ -512,6 +551,9 @@ public abstract class Compiler {
             }
         }
 
+        if (watcher != null) {
+            watcher.checked(jsw);
+        }
         return false;
 
     }
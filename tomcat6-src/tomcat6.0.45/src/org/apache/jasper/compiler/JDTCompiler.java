@@ -35,6 +35,8 @@ import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.jasper.JasperException;
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.Options;
 import org.eclipse.jdt.core.compiler.IProblem;
 import org.eclipse.jdt.internal.compiler.ClassFile;
 import org.eclipse.jdt.internal.compiler.CompilationResult;
@@ -67,22 +69,58 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
     protected void generateClass(String[] smap)
         throws FileNotFoundException, JasperException, Exception {
 
-        long t1 = 0;
+        Exception[] errors = generateClasses(new JDTCompiler[] {this},
+                new String[][] {smap});
+        if (errors[0] != null) {
+            throw errors[0];
+        }
+    }
+
+
+    /**
+     * Compile the servlets of several pages from .java files to .class
+     * files, as one set of compilation units.
+     *
+     * @param compilers Compilers which generated the .java files of the
+     *  pages, all using the same options
+     * @param smaps SMAPs of the pages
+     * @return the compilation error of each page, <code>null</code> for the
+     *  pages which compiled
+     */
+    public static Exception[] generateClasses(final JDTCompiler[] compilers,
+            String[][] smaps) {
+
+        final org.apache.juli.logging.Log log = compilers[0].log;
+        // Compilation time of each page: the units are compiled one after
+        // the other, each ending with its result, after a common parsing
+        final long[] times = new long[compilers.length];
+        final long[] lastResult = new long[1];
         if (log.isDebugEnabled()) {
-            t1 = System.currentTimeMillis();
+            lastResult[0] = System.currentTimeMillis();
         }
-        
-        final String sourceFile = ctxt.getServletJavaFileName();
-        final String outputDir = ctxt.getOptions().getScratchDir().getAbsolutePath();
-        String packageName = ctxt.getServletPackageName();
-        final String targetClassName = 
-            ((packageName.length() != 0) ? (packageName + ".") : "") 
-                    + ctxt.getServletClassName();
-        final ClassLoader classLoader = ctxt.getJspLoader();
-        String[] fileNames = new String[] {sourceFile};
-        String[] classNames = new String[] {targetClassName};
-        final ArrayList problemList = new ArrayList();
-        
+
+        final Options options = compilers[0].options;
+        final String outputDir = options.getScratchDir().getAbsolutePath();
+        final ClassLoader classLoader = compilers[0].ctxt.getJspLoader();
+        final String[] fileNames = new String[compilers.length];
+        String[] classNames = new String[compilers.length];
+        // Index of the page of each source file and class
+        final Map<String, Integer> sourceFiles = new HashMap<String, Integer>();
+        final Map<String, Integer> targetClasses = new HashMap<String, Integer>();
+        final ArrayList[] problemLists = new ArrayList[compilers.length];
+        for (int i = 0; i < compilers.length; i++) {
+            JspCompilationContext ctxt = compilers[i].ctxt;
+            fileNames[i] = ctxt.getServletJavaFileName();
+            String packageName = ctxt.getServletPackageName();
+            classNames[i] =
+                ((packageName.length() != 0) ? (packageName + ".") : "")
+                        + ctxt.getServletClassName();
+            sourceFiles.put(fileNames[i], Integer.valueOf(i));
+            targetClasses.put(classNames[i], Integer.valueOf(i));
+            problemLists[i] = new ArrayList();
+        }
+        Exception[] errors = new Exception[compilers.length];
+
         class CompilationUnit implements ICompilationUnit {
 
             String className;
@@ -103,7 +141,7 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                 try {
                     is = new FileInputStream(sourceFile);
                     Reader reader = 
-                        new BufferedReader(new InputStreamReader(is, ctxt.getOptions().getJavaEncoding()));
+                        new BufferedReader(new InputStreamReader(is, options.getJavaEncoding()));
                     if (reader != null) {
                         char[] chars = new char[8192];
                         StringBuffer buf = new StringBuffer();
@@ -186,9 +224,10 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
 
                     InputStream is = null;
                     try {
-                        if (className.equals(targetClassName)) {
-                            ICompilationUnit compilationUnit = 
-                                new CompilationUnit(sourceFile, className);
+                        Integer target = targetClasses.get(className);
+                        if (target != null) {
+                            ICompilationUnit compilationUnit = new CompilationUnit(
+                                    fileNames[target.intValue()], className);
                             return 
                                 new NameEnvironmentAnswer(compilationUnit, null);
                         }
@@ -230,7 +269,7 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                 }
 
                 private boolean isPackage(String result) {
-                    if (result.equals(targetClassName)) {
+                    if (targetClasses.containsKey(result)) {
                         return false;
                     }
                     String resourceName = result.replace('.', '/') + ".class";
@@ -286,18 +325,18 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                      CompilerOptions.GENERATE);
         settings.put(CompilerOptions.OPTION_ReportDeprecation,
                      CompilerOptions.IGNORE);
-        if (ctxt.getOptions().getJavaEncoding() != null) {
+        if (options.getJavaEncoding() != null) {
             settings.put(CompilerOptions.OPTION_Encoding,
-                    ctxt.getOptions().getJavaEncoding());
+                    options.getJavaEncoding());
         }
-        if (ctxt.getOptions().getClassDebugInfo()) {
+        if (options.getClassDebugInfo()) {
             settings.put(CompilerOptions.OPTION_LocalVariableAttribute,
                          CompilerOptions.GENERATE);
         }
 
         // Source JVM
-        if(ctxt.getOptions().getCompilerSourceVM() != null) {
-            String opt = ctxt.getOptions().getCompilerSourceVM();
+        if(options.getCompilerSourceVM() != null) {
+            String opt = options.getCompilerSourceVM();
             if(opt.equals("1.1")) {
                 settings.put(CompilerOptions.OPTION_Source,
                              CompilerOptions.VERSION_1_1);
@@ -334,8 +373,8 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
         }
         
         // Target JVM
-        if(ctxt.getOptions().getCompilerTargetVM() != null) {
-            String opt = ctxt.getOptions().getCompilerTargetVM();
+        if(options.getCompilerTargetVM() != null) {
+            String opt = options.getCompilerTargetVM();
             if(opt.equals("1.1")) {
                 settings.put(CompilerOptions.OPTION_TargetPlatform,
                              CompilerOptions.VERSION_1_1);
@@ -386,6 +425,15 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
         
         final ICompilerRequestor requestor = new ICompilerRequestor() {
                 public void acceptResult(CompilationResult result) {
+                    int page = sourceFiles.get(
+                            new String(result.getFileName())).intValue();
+                    JDTCompiler compiler = compilers[page];
+                    ArrayList problemList = problemLists[page];
+                    if (log.isDebugEnabled()) {
+                        long now = System.currentTimeMillis();
+                        times[page] = now - lastResult[0];
+                        lastResult[0] = now;
+                    }
                     try {
                         if (result.hasProblems()) {
                             IProblem[] problems = result.getProblems();
@@ -396,8 +444,8 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                                         new String(problems[i].getOriginatingFileName());
                                     try {
                                         problemList.add(ErrorDispatcher.createJavacError
-                                                (name, pageNodes, new StringBuffer(problem.getMessage()), 
-                                                        problem.getSourceLineNumber(), ctxt));
+                                                (name, compiler.pageNodes, new StringBuffer(problem.getMessage()), 
+                                                        problem.getSourceLineNumber(), compiler.ctxt));
                                     } catch (JasperException e) {
                                         log.error("Error visiting node", e);
                                     }
@@ -449,32 +497,39 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                                          true);
         compiler.compile(compilationUnits);
 
-        if (!ctxt.keepGenerated()) {
-            File javaFile = new File(ctxt.getServletJavaFileName());
-            javaFile.delete();
-        }
-    
-        if (!problemList.isEmpty()) {
-            JavacErrorDetail[] jeds = 
-                (JavacErrorDetail[]) problemList.toArray(new JavacErrorDetail[0]);
-            errDispatcher.javacError(jeds);
-        }
-        
-        if( log.isDebugEnabled() ) {
-            long t2=System.currentTimeMillis();
-            log.debug("Compiled " + ctxt.getServletJavaFileName() + " "
-                      + (t2-t1) + "ms");
-        }
+        for (int i = 0; i < compilers.length; i++) {
+            JspCompilationContext ctxt = compilers[i].ctxt;
+            if (!ctxt.keepGenerated()) {
+                File javaFile = new File(ctxt.getServletJavaFileName());
+                javaFile.delete();
+            }
 
-        if (ctxt.isPrototypeMode()) {
-            return;
-        }
+            try {
+                if (!problemLists[i].isEmpty()) {
+                    JavacErrorDetail[] jeds = (JavacErrorDetail[])
+                        problemLists[i].toArray(new JavacErrorDetail[0]);
+                    compilers[i].errDispatcher.javacError(jeds);
+                }
+
+                if( log.isDebugEnabled() ) {
+                    log.debug("Compiled " + ctxt.getServletJavaFileName() + " "
+                              + times[i] + "ms");
+                }
+
+                if (ctxt.isPrototypeMode()) {
+                    continue;
+                }
 
-        // JSR45 Support
-        if (! options.isSmapSuppressed()) {
-            SmapUtil.installSmap(smap);
+                // JSR45 Support
+                if (! options.isSmapSuppressed()) {
+                    SmapUtil.installSmap(smaps[i]);
+                }
+            } catch (Exception e) {
+                errors[i] = e;
+            }
         }
-        
+
+        return errors;
     }
     
     
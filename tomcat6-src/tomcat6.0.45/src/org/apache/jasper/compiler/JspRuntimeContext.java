@@ -145,6 +145,22 @@ public final class JspRuntimeContext {
                 && options.getCheckInterval() > 0) {
             lastCheck = System.currentTimeMillis();
         }                                            
+
+        // Watch the pages for changes, which needs them to be files
+        if (options.getWatchSources() && appBase != null) {
+            if (JspSourceWatcher.isAvailable()) {
+                try {
+                    sourceWatcher = new JspSourceWatcher(
+                            "JspSourceWatcher[" + appBase + "]");
+                } catch (Exception e) {
+                    log.warn(Localizer.getMessage(
+                            "jsp.warning.watchSources.unavailable"), e);
+                }
+            } else {
+                log.warn(Localizer.getMessage(
+                        "jsp.warning.watchSources.unavailable"));
+            }
+        }
     }
 
     // ----------------------------------------------------- Instance Variables
@@ -159,6 +175,7 @@ public final class JspRuntimeContext {
     private CodeSource codeSource;                    
     private String classpath;
     private long lastCheck = -1L;
+    private JspSourceWatcher sourceWatcher;
 
     /**
      * Maps JSP pages to their JspServletWrapper's
@@ -194,7 +211,20 @@ public final class JspRuntimeContext {
      * @param jspUri JSP URI of JspServletWrapper to remove
      */
     public void removeWrapper(String jspUri) {
-        jsps.remove(jspUri);
+        JspServletWrapper jsw = jsps.remove(jspUri);
+        if (jsw != null && sourceWatcher != null) {
+            sourceWatcher.unwatch(jsw);
+        }
+    }
+
+    /**
+     * Get the watcher of the files of the JSP pages.
+     *
+     * @return the watcher, or <code>null</code> if the pages are checked
+     *  for modification on access
+     */
+    public JspSourceWatcher getSourceWatcher() {
+        return sourceWatcher;
     }
 
     /**
@@ -244,6 +274,9 @@ public final class JspRuntimeContext {
         while (servlets.hasNext()) {
             ((JspServletWrapper) servlets.next()).destroy();
         }
+        if (sourceWatcher != null) {
+            sourceWatcher.stop();
+        }
     }
 
     /**
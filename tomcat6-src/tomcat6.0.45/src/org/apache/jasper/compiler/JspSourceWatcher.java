@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.servlet.JspServletWrapper;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Watches the JSP pages and the files they depend upon for changes, so that
+ * a page is checked for modification only once one of its files changed,
+ * rather than on every access or background check.
+ *
+ * A page is watched once it has been found up to date, when all its files
+ * are on the file system. The other pages are checked as usual.
+ *
+ * The watch service of the platform, available from Java 7, is used through
+ * reflection.
+ */
+public class JspSourceWatcher {
+
+    // Logger
+    private Log log = LogFactory.getLog(JspSourceWatcher.class);
+
+    /*
+     * States of the watch of a page.
+     */
+    private static final int PENDING = 0;
+    private static final int UP_TO_DATE = 1;
+    private static final int STALE = 2;
+
+    private static final Method getDefault;
+    private static final Method newWatchService;
+    private static final Method toPath;
+    private static final Method register;
+    private static final Method take;
+    private static final Method close;
+    private static final Method pollEvents;
+    private static final Method reset;
+    private static final Method kind;
+    private static final Method context;
+    private static final Object kinds;
+    private static final Object overflow;
+
+    static {
+        Method[] methods = null;
+        Object[] fields = null;
+        try {
+            Class<?> fileSystems = Class.forName("java.nio.file.FileSystems");
+            Class<?> fileSystem = Class.forName("java.nio.file.FileSystem");
+            Class<?> path = Class.forName("java.nio.file.Path");
+            Class<?> watchService = Class.forName("java.nio.file.WatchService");
+            Class<?> watchKey = Class.forName("java.nio.file.WatchKey");
+            Class<?> watchEvent = Class.forName("java.nio.file.WatchEvent");
+            Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+            Class<?> standardKinds =
+                Class.forName("java.nio.file.StandardWatchEventKinds");
+            Object kinds = Array.newInstance(kindClass, 3);
+            Array.set(kinds, 0, standardKinds.getField("ENTRY_CREATE").get(null));
+            Array.set(kinds, 1, standardKinds.getField("ENTRY_DELETE").get(null));
+            Array.set(kinds, 2, standardKinds.getField("ENTRY_MODIFY").get(null));
+            methods = new Method[] {
+                fileSystems.getMethod("getDefault"),
+                fileSystem.getMethod("newWatchService"),
+                File.class.getMethod("toPath"),
+                path.getMethod("register", watchService, kinds.getClass()),
+                watchService.getMethod("take"),
+                watchService.getMethod("close"),
+                watchKey.getMethod("pollEvents"),
+                watchKey.getMethod("reset"),
+                watchEvent.getMethod("kind"),
+                watchEvent.getMethod("context")
+            };
+            fields = new Object[] {
+                kinds,
+                standardKinds.getField("OVERFLOW").get(null)
+            };
+        } catch (Exception e) {
+            // Java 6 or earlier
+            methods = new Method[10];
+            fields = new Object[2];
+        }
+        getDefault = methods[0];
+        newWatchService = methods[1];
+        toPath = methods[2];
+        register = methods[3];
+        take = methods[4];
+        close = methods[5];
+        pollEvents = methods[6];
+        reset = methods[7];
+        kind = methods[8];
+        context = methods[9];
+        kinds = fields[0];
+        overflow = fields[1];
+    }
+
+
+    /**
+     * Is the watch service available on this platform?
+     */
+    public static boolean isAvailable() {
+        return getDefault != null;
+    }
+
+
+    private Object watchService;
+    private Thread thread;
+
+    /*
+     * Watch of each page.
+     */
+    private Map<JspServletWrapper, Watch> watches =
+        new ConcurrentHashMap<JspServletWrapper, Watch>();
+
+    /*
+     * Watches of each file, and watched directories. Guarded by this.
+     */
+    private Map<String, Set<Watch>> fileWatches =
+        new HashMap<String, Set<Watch>>();
+    private Map<Object, String> directories = new HashMap<Object, String>();
+    private Set<String> directoryNames = new HashSet<String>();
+
+
+    /**
+     * Create the watch service and start the thread which processes its
+     * events.
+     *
+     * @param name Name of the thread
+     */
+    public JspSourceWatcher(String name) throws Exception {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException();
+        }
+        watchService = newWatchService.invoke(getDefault.invoke(null));
+        thread = new Thread(new Runnable() {
+            public void run() {
+                processEvents();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Is the page known to be up to date, none of its files having changed
+     * since it was last checked?
+     */
+    public boolean isUpToDate(JspServletWrapper jsw) {
+        Watch watch = watches.get(jsw);
+        return watch != null && watch.state.get() == UP_TO_DATE;
+    }
+
+
+    /**
+     * Start watching the files of a page, which is about to be checked. The
+     * page is up to date once {@link #checked(JspServletWrapper)} is called,
+     * unless one of the files changes in the meantime.
+     *
+     * @param jsw The page
+     * @param sources URIs of the page and of the files it depends upon
+     * @return <code>false</code> if some of the files can not be watched
+     */
+    public boolean watch(JspServletWrapper jsw, List<String> sources) {
+        JspCompilationContext ctxt = jsw.getJspEngineContext();
+        String[] files = new String[sources.size()];
+        for (int i = 0; i < files.length; i++) {
+            File file = getFile(ctxt, sources.get(i));
+            if (file == null) {
+                unwatch(jsw);
+                return false;
+            }
+            files[i] = file.getAbsolutePath();
+        }
+
+        Watch watch = new Watch(files);
+        synchronized (this) {
+            unwatch(jsw);
+            for (int i = 0; i < files.length; i++) {
+                String directory = new File(files[i]).getParent();
+                if (!directoryNames.contains(directory)) {
+                    try {
+                        Object key = register.invoke(
+                                toPath.invoke(new File(directory)),
+                                watchService, kinds);
+                        directories.put(key, directory);
+                        directoryNames.add(directory);
+                    } catch (Exception e) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Cannot watch " + directory, e);
+                        }
+                        return false;
+                    }
+                }
+            }
+            for (int i = 0; i < files.length; i++) {
+                Set<Watch> set = fileWatches.get(files[i]);
+                if (set == null) {
+                    set = new HashSet<Watch>();
+                    fileWatches.put(files[i], set);
+                }
+                set.add(watch);
+            }
+            watches.put(jsw, watch);
+        }
+        return true;
+    }
+
+
+    /**
+     * The page being watched was found up to date.
+     */
+    public void checked(JspServletWrapper jsw) {
+        Watch watch = watches.get(jsw);
+        if (watch != null) {
+            watch.state.compareAndSet(PENDING, UP_TO_DATE);
+        }
+    }
+
+
+    /**
+     * Stop watching the files of a page.
+     */
+    public synchronized void unwatch(JspServletWrapper jsw) {
+        Watch watch = watches.remove(jsw);
+        if (watch == null) {
+            return;
+        }
+        for (int i = 0; i < watch.files.length; i++) {
+            Set<Watch> set = fileWatches.get(watch.files[i]);
+            if (set != null) {
+                set.remove(watch);
+                if (set.isEmpty()) {
+                    fileWatches.remove(watch.files[i]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Stop the watch service.
+     */
+    public void stop() {
+        try {
+            close.invoke(watchService);
+        } catch (Exception e) {
+            log.warn(e.getMessage(), e);
+        }
+        thread.interrupt();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    /*
+     * Get the file of a page or dependency, which is either a path in the
+     * web application or the URL of a file or of an entry in a JAR file.
+     */
+    private File getFile(JspCompilationContext ctxt, String uri) {
+        if (uri.startsWith("/")) {
+            String path = ctxt.getRealPath(uri);
+            return (path == null) ? null : new File(path);
+        }
+        try {
+            URL url = new URL(uri);
+            if ("jar".equals(url.getProtocol())) {
+                String file = url.getFile();
+                int pos = file.indexOf("!/");
+                if (pos < 0) {
+                    return null;
+                }
+                url = new URL(file.substring(0, pos));
+            }
+            if (!"file".equals(url.getProtocol())) {
+                return null;
+            }
+            try {
+                return new File(url.toURI());
+            } catch (URISyntaxException e) {
+                // Probably an unencoded char
+                return new File(url.getFile());
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    private void processEvents() {
+        while (true) {
+            Object key;
+            try {
+                key = take.invoke(watchService);
+            } catch (InvocationTargetException e) {
+                // Closed or interrupted
+                return;
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                return;
+            }
+            try {
+                synchronized (this) {
+                    String directory = directories.get(key);
+                    List events = (List) pollEvents.invoke(key);
+                    for (int i = 0; i < events.size(); i++) {
+                        Object event = events.get(i);
+                        if (kind.invoke(event) == overflow) {
+                            // Events were lost
+                            staleAll(null);
+                        } else if (directory != null) {
+                            stale(new File(directory,
+                                    context.invoke(event).toString())
+                                    .getAbsolutePath());
+                        }
+                    }
+                    if (!((Boolean) reset.invoke(key)).booleanValue()) {
+                        // The directory is no longer accessible
+                        directories.remove(key);
+                        if (directory != null) {
+                            directoryNames.remove(directory);
+                            staleAll(directory);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+
+    private void stale(String file) {
+        Set<Watch> set = fileWatches.get(file);
+        if (set != null) {
+            Iterator<Watch> iter = set.iterator();
+            while (iter.hasNext()) {
+                iter.next().state.set(STALE);
+            }
+        }
+    }
+
+
+    /*
+     * Mark stale all the pages with files in a directory, or all the pages.
+     */
+    private void staleAll(String directory) {
+        Iterator<String> iter = fileWatches.keySet().iterator();
+        while (iter.hasNext()) {
+            String file = iter.next();
+            if (directory == null
+                    || directory.equals(new File(file).getParent())) {
+                stale(file);
+            }
+        }
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+    private static class Watch {
+
+        private String[] files;
+        private AtomicInteger state = new AtomicInteger(PENDING);
+
+        public Watch(String[] files) {
+            this.files = files;
+        }
+    }
+}
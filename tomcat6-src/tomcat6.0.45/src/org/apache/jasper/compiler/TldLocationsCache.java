@@ -17,13 +17,16 @@
 
 package org.apache.jasper.compiler;
 
+import java.io.File;
 import java.io.InputStream;
 import java.net.JarURLConnection;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
 import java.util.Enumeration;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -41,6 +44,7 @@ import org.apache.jasper.xmlparser.ParserUtils;
 import org.apache.jasper.xmlparser.TreeNode;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.scan.JarScanCache;
 
 /**
  * A container for all tag libraries that are defined "globally"
@@ -107,6 +111,12 @@ public class TldLocationsCache {
     private ServletContext ctxt;
     private boolean redeployMode;
 
+    /**
+     * Cache of the TLD locations found in each JAR, kept in the work
+     * directory of the web application.
+     */
+    private JarScanCache locationCache;
+
     //*********************************************************************
     // Constructor and Initilizations
 
@@ -248,7 +258,16 @@ public class TldLocationsCache {
         if (initialized) return;
         try {
             processWebDotXml();
+            Object tempDir = ctxt.getAttribute(Constants.TMP_DIR);
+            if (tempDir instanceof File) {
+                locationCache = new JarScanCache(
+                        new File((File) tempDir, "tld-locations.cache"));
+            }
             scanJars();
+            if (locationCache != null) {
+                locationCache.save();
+                locationCache = null;
+            }
             processTldsInFileSystem("/WEB-INF/");
             initialized = true;
         } catch (Exception ex) {
@@ -372,6 +391,26 @@ public class TldLocationsCache {
 
         JarFile jarFile = null;
         String resourcePath = conn.getJarFileURL().toString();
+
+        // The TLD name and URI pairs found in the JAR
+        File file = null;
+        if (locationCache != null) {
+            file = getFile(conn.getJarFileURL());
+        }
+        if (file != null) {
+            String[] cached = locationCache.get(file);
+            if (cached != null) {
+                for (int i = 0; i < cached.length; i += 2) {
+                    if (mappings.get(cached[i + 1]) == null) {
+                        mappings.put(cached[i + 1],
+                                new String[] { resourcePath, cached[i] });
+                    }
+                }
+                return;
+            }
+        }
+        ArrayList<String> found = new ArrayList<String>();
+
         try {
             if (redeployMode) {
                 conn.setUseCaches(false);
@@ -386,6 +425,10 @@ public class TldLocationsCache {
                 InputStream stream = jarFile.getInputStream(entry);
                 try {
                     String uri = getUriFromTld(resourcePath, stream);
+                    if (uri != null) {
+                        found.add(name);
+                        found.add(uri);
+                    }
                     // Add implicit map entry only if its uri is not already
                     // present in the map
                     if (uri != null && mappings.get(uri) == null) {
@@ -401,6 +444,10 @@ public class TldLocationsCache {
                     }
                 }
             }
+            if (file != null) {
+                locationCache.put(file,
+                        found.toArray(new String[found.size()]));
+            }
         } catch (Exception ex) {
             if (!redeployMode) {
                 // if not in redeploy mode, close the jar in case of an error
@@ -429,6 +476,23 @@ public class TldLocationsCache {
         }
     }
 
+    /*
+     * Returns the file a file URL points to, or null for other URLs.
+     */
+    private File getFile(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            // Probably an unencoded char
+            return new File(url.getFile());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     /*
      * Searches the filesystem under /WEB-INF for any TLD files, and adds
      * an implicit map entry to the taglib map for any TLD that has a <uri>
@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+
+import org.apache.AnnotationProcessor;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Pool of tag handlers kept in a lock free stack, so that concurrent
+ * requests don't contend on the pool.
+ * <p>
+ * The capacity of the pool follows the highest number of handlers
+ * borrowed at the same time over the current and the previous window of
+ * {@link #WINDOW} milliseconds, up to <code>tagpoolMaxSize</code>, so that
+ * the pool keeps enough handlers for the observed concurrency instead of
+ * creating and discarding handlers past a fixed size. Generated servlets
+ * don't return the handlers of the tags which throw an exception, so the
+ * handlers borrowed during a whole window are considered lost when the
+ * window ends. The usage of the
+ * pools is counted per tag handler class in the
+ * {@link TagHandlerPoolStatistics} of the web application.
+ * <p>
+ * This pool is used when the <code>tagpoolClassName</code> servlet or
+ * context init parameter is set to its class name.
+ */
+public class ConcurrentTagHandlerPool extends TagHandlerPool {
+
+    /**
+     * Default max capacity, used when <code>tagpoolMaxSize</code> is not
+     * set.
+     */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    /**
+     * Length in milliseconds of the windows over which the concurrency is
+     * measured.
+     */
+    public static final long WINDOW = 60000;
+
+    private static Log log = LogFactory.getLog(ConcurrentTagHandlerPool.class);
+
+    /**
+     * Top of the stack of available handlers. Each node holds the size of
+     * the stack below and including it, so that the size changes together
+     * with the stack.
+     */
+    private final AtomicReference<Node> top = new AtomicReference<Node>();
+
+    /**
+     * Number of handlers borrowed and not returned yet, and its highest and
+     * lowest values in the current window.
+     */
+    private final AtomicInteger borrowed = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicInteger low = new AtomicInteger();
+
+    /**
+     * Highest number of handlers borrowed in the previous window.
+     */
+    private volatile int previousPeak = 0;
+
+    private final AtomicLong windowEnd =
+        new AtomicLong(System.currentTimeMillis() + WINDOW);
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private TagHandlerPoolStatistics statistics =
+        new TagHandlerPoolStatistics();
+
+    /**
+     * Counters of the handler class of the pool, which generated servlets
+     * always use with the same class.
+     */
+    private volatile TagHandlerPoolStatistics.Counters counters;
+
+
+    protected void init(ServletConfig config) {
+        String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
+        if (maxSizeS != null) {
+            try {
+                maxSize = Integer.parseInt(maxSizeS);
+            } catch (NumberFormatException e) {
+                maxSize = -1;
+            }
+            if (maxSize < 0) {
+                maxSize = DEFAULT_MAX_SIZE;
+            }
+        }
+        if (config != null && config.getServletContext() != null) {
+            this.annotationProcessor = (AnnotationProcessor) config
+                .getServletContext().getAttribute(
+                        AnnotationProcessor.class.getName());
+            statistics = TagHandlerPoolStatistics.getStatistics(
+                    config.getServletContext());
+        }
+    }
+
+
+    /**
+     * Gets the next available tag handler from this tag handler pool,
+     * instantiating one if this tag handler pool is empty.
+     *
+     * @param handlerClass Tag handler class
+     *
+     * @return Reused or newly instantiated tag handler
+     *
+     * @throws JspException if a tag handler cannot be instantiated
+     */
+    public Tag get(Class handlerClass) throws JspException {
+        TagHandlerPoolStatistics.Counters c = getCounters(handlerClass);
+        c.borrowed.incrementAndGet();
+
+        long now = System.currentTimeMillis();
+        long end = windowEnd.get();
+        if (now >= end && windowEnd.compareAndSet(end, now + WINDOW)) {
+            roll();
+        }
+        int inUse = borrowed.incrementAndGet();
+        int current = peak.get();
+        while (inUse > current && !peak.compareAndSet(current, inUse)) {
+            current = peak.get();
+        }
+
+        Node node = pop();
+        if (node != null) {
+            return node.handler;
+        }
+
+        c.created.incrementAndGet();
+        try {
+            Tag instance = (Tag) handlerClass.newInstance();
+            AnnotationHelper.postConstruct(annotationProcessor, instance);
+            return instance;
+        } catch (Exception e) {
+            returned();
+            throw new JspException(e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Adds the given tag handler to this tag handler pool, unless this tag
+     * handler pool has already reached its capacity, in which case the tag
+     * handler's release() method is called.
+     *
+     * @param handler Tag handler to add to this tag handler pool
+     */
+    public void reuse(Tag handler) {
+        returned();
+        if (push(new Node(handler))) {
+            return;
+        }
+        getCounters(handler.getClass()).discarded.incrementAndGet();
+        destroy(handler);
+    }
+
+
+    /**
+     * Calls the release() method of all available tag handlers in this tag
+     * handler pool.
+     */
+    public void release() {
+        Node node;
+        while ((node = pop()) != null) {
+            destroy(node.handler);
+        }
+    }
+
+
+    /**
+     * Return the number of handlers available in the pool.
+     */
+    public int getSize() {
+        Node node = top.get();
+        return (node == null) ? 0 : node.size;
+    }
+
+
+    /**
+     * Return the current capacity of the pool.
+     */
+    public int getCapacity() {
+        return Math.min(maxSize, Math.max(previousPeak, peak.get()));
+    }
+
+
+    /*
+     * Start a new window. The handlers borrowed during the whole window
+     * which ends are no longer counted, as they were most likely not
+     * returned because their tag threw an exception.
+     */
+    void roll() {
+        int lost = low.get();
+        if (lost > 0) {
+            borrowed.addAndGet(-lost);
+        }
+        int inUse = Math.max(borrowed.get(), 0);
+        low.set(inUse);
+        previousPeak = peak.getAndSet(inUse);
+    }
+
+
+    private void returned() {
+        int inUse = borrowed.decrementAndGet();
+        if (inUse < 0) {
+            // A handler counted as lost was returned after all
+            borrowed.incrementAndGet();
+            inUse = 0;
+        }
+        int current = low.get();
+        while (inUse < current && !low.compareAndSet(current, inUse)) {
+            current = low.get();
+        }
+    }
+
+
+    private TagHandlerPoolStatistics.Counters getCounters(Class handlerClass) {
+        TagHandlerPoolStatistics.Counters result = counters;
+        if (result == null
+                || !result.getClassName().equals(handlerClass.getName())) {
+            result = statistics.getCounters(handlerClass);
+            counters = result;
+        }
+        return result;
+    }
+
+
+    private Node pop() {
+        while (true) {
+            Node node = top.get();
+            if (node == null) {
+                return null;
+            }
+            if (top.compareAndSet(node, node.next)) {
+                return node;
+            }
+        }
+    }
+
+
+    /*
+     * Push the node, unless the stack already holds as many handlers as the
+     * capacity of the pool.
+     */
+    private boolean push(Node node) {
+        while (true) {
+            Node current = top.get();
+            int size = (current == null) ? 0 : current.size;
+            if (size >= getCapacity()) {
+                return false;
+            }
+            node.next = current;
+            node.size = size + 1;
+            if (top.compareAndSet(current, node)) {
+                return true;
+            }
+        }
+    }
+
+
+    private void destroy(Tag handler) {
+        handler.release();
+        if (annotationProcessor != null) {
+            try {
+                AnnotationHelper.preDestroy(annotationProcessor, handler);
+            } catch (Exception e) {
+                log.warn("Error processing preDestroy on tag instance of "
+                        + handler.getClass().getName(), e);
+            }
+        }
+    }
+
+
+    private static final class Node {
+        final Tag handler;
+        Node next;
+        int size;
+
+        Node(Tag handler) {
+            this.handler = handler;
+        }
+    }
+
+}
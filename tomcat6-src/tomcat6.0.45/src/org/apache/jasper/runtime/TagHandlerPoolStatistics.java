@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.jasper.runtime;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Usage counts of the tag handler pools of a web application, per tag
+ * handler class. The counts are exposed through the JspMonitor MBean.
+ */
+public class TagHandlerPoolStatistics {
+
+    /**
+     * Name of the servlet context attribute holding the statistics.
+     */
+    public static final String ATTRIBUTE_NAME =
+        TagHandlerPoolStatistics.class.getName();
+
+    private final ConcurrentHashMap<String, Counters> counters =
+        new ConcurrentHashMap<String, Counters>();
+
+    /**
+     * Return the statistics of the given web application, creating them if
+     * needed.
+     */
+    public static TagHandlerPoolStatistics getStatistics(
+            ServletContext context) {
+        synchronized (context) {
+            TagHandlerPoolStatistics statistics = (TagHandlerPoolStatistics)
+                context.getAttribute(ATTRIBUTE_NAME);
+            if (statistics == null) {
+                statistics = new TagHandlerPoolStatistics();
+                context.setAttribute(ATTRIBUTE_NAME, statistics);
+            }
+            return statistics;
+        }
+    }
+
+    /**
+     * Return the counters of the given tag handler class.
+     */
+    public Counters getCounters(Class handlerClass) {
+        String name = handlerClass.getName();
+        Counters result = counters.get(name);
+        if (result == null) {
+            result = new Counters(name);
+            Counters existing = counters.putIfAbsent(name, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return one line per tag handler class, sorted by class name, with the
+     * number of handlers borrowed from the pools, created, and discarded
+     * because the pools were full.
+     */
+    public String[] getSummary() {
+        TreeMap<String, Counters> sorted =
+            new TreeMap<String, Counters>(counters);
+        String[] result = new String[sorted.size()];
+        Iterator<Map.Entry<String, Counters>> entries =
+            sorted.entrySet().iterator();
+        for (int i = 0; i < result.length; i++) {
+            Map.Entry<String, Counters> entry = entries.next();
+            Counters c = entry.getValue();
+            result[i] = entry.getKey() + ": borrowed=" + c.getBorrowed()
+                + ", created=" + c.getCreated()
+                + ", discarded=" + c.getDiscarded();
+        }
+        return result;
+    }
+
+    /**
+     * Clear the counters.
+     */
+    public void reset() {
+        Iterator<Counters> values = counters.values().iterator();
+        while (values.hasNext()) {
+            Counters c = values.next();
+            c.borrowed.set(0);
+            c.created.set(0);
+            c.discarded.set(0);
+        }
+    }
+
+
+    /**
+     * Counters of a tag handler class.
+     */
+    public static class Counters {
+
+        private final String className;
+        final AtomicLong borrowed = new AtomicLong();
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong discarded = new AtomicLong();
+
+        Counters(String className) {
+            this.className = className;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getBorrowed() {
+            return borrowed.get();
+        }
+
+        public long getCreated() {
+            return created.get();
+        }
+
+        public long getDiscarded() {
+            return discarded.get();
+        }
+    }
+}
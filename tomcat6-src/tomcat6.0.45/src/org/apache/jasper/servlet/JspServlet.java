@@ -32,9 +32,12 @@ import org.apache.PeriodicEventListener;
 
 import org.apache.jasper.Constants;
 import org.apache.jasper.EmbeddedServletOptions;
+import org.apache.jasper.JasperException;
 import org.apache.jasper.Options;
+import org.apache.jasper.compiler.BackgroundCompiler;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.Localizer;
+import org.apache.jasper.runtime.TagHandlerPoolStatistics;
 import org.apache.jasper.security.SecurityUtil;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -64,6 +67,7 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
     private ServletConfig config;
     private Options options;
     private JspRuntimeContext rctxt;
+    private BackgroundCompiler backgroundCompiler;
 
 
     /*
@@ -106,6 +110,22 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
                     options.getScratchDir().toString()));
             log.debug(Localizer.getMessage("jsp.message.dont.modify.servlets"));
         }
+
+        if ("true".equals(getOption("backgroundCompile"))) {
+            backgroundCompiler =
+                new BackgroundCompiler(config, options, rctxt, this);
+            backgroundCompiler.setThreads(
+                    getIntOption("backgroundCompileThreads",
+                            backgroundCompiler.getThreads()));
+            backgroundCompiler.setBatchSize(
+                    getIntOption("backgroundCompileBatchSize",
+                            backgroundCompiler.getBatchSize()));
+            try {
+                backgroundCompiler.start();
+            } catch (JasperException e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
     }
 
 
@@ -147,6 +167,74 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
     }
 
 
+    /**
+     * Gets the usage counts of the tag handler pools of the webapp, per tag
+     * handler class, as collected by
+     * {@link org.apache.jasper.runtime.ConcurrentTagHandlerPool}.
+     *
+     * <p>This info may be used for monitoring purposes.
+     *
+     * @return One line per tag handler class
+     */
+    public String[] getTagHandlerPoolStatistics() {
+        return TagHandlerPoolStatistics.getStatistics(context).getSummary();
+    }
+
+
+    /**
+     * Resets the usage counts of the tag handler pools.
+     */
+    public void resetTagHandlerPoolStatistics() {
+        TagHandlerPoolStatistics.getStatistics(context).reset();
+    }
+
+
+    /**
+     * Gets the number of JSPs found by the background compilation.
+     *
+     * <p>This info may be used for monitoring purposes.
+     *
+     * @return The number of JSPs to compile in the background, 0 if the
+     * background compilation is not enabled
+     */
+    public int getBackgroundCompileTotal() {
+        return (backgroundCompiler == null) ? 0 : backgroundCompiler.getTotal();
+    }
+
+
+    /**
+     * Gets the number of JSPs processed so far by the background
+     * compilation, including the ones which failed to compile.
+     *
+     * @return The number of JSPs processed by the background compilation
+     */
+    public int getBackgroundCompileCompleted() {
+        return (backgroundCompiler == null) ? 0
+                : backgroundCompiler.getCompleted();
+    }
+
+
+    /**
+     * Gets the number of JSPs which failed to compile in the background.
+     *
+     * @return The number of JSPs which failed to compile
+     */
+    public int getBackgroundCompileFailed() {
+        return (backgroundCompiler == null) ? 0
+                : backgroundCompiler.getFailed();
+    }
+
+
+    /**
+     * Returns whether the background compilation is still running.
+     *
+     * @return <code>true</code> if JSPs are being compiled in the background
+     */
+    public boolean isBackgroundCompileRunning() {
+        return (backgroundCompiler != null) && backgroundCompiler.isRunning();
+    }
+
+
     /**
      * <p>Look for a <em>precompilation request</em> as described in
      * Section 8.4.2 of the JSP 1.2 Specification.  <strong>WARNING</strong> -
@@ -275,6 +363,9 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
             log.debug("JspServlet.destroy()");
         }
 
+        if (backgroundCompiler != null) {
+            backgroundCompiler.stop();
+        }
         rctxt.destroy();
     }
 
@@ -285,6 +376,32 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
 
     // -------------------------------------------------------- Private Methods
 
+    /*
+     * Get an option of the servlet, which may also be set for all the
+     * servlets of the context as a context initialization parameter.
+     */
+    private String getOption(String name) {
+        String value = config.getInitParameter(name);
+        if (value == null) {
+            value = context.getInitParameter(name);
+        }
+        return value;
+    }
+
+    private int getIntOption(String name, int defaultValue) {
+        String value = getOption(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn(Localizer.getMessage(
+                    "jsp.warning.backgroundCompileOption", name));
+            return defaultValue;
+        }
+    }
+
     private void serviceJspFile(HttpServletRequest request,
                                 HttpServletResponse response, String jspUri,
                                 Throwable exception, boolean precompile)
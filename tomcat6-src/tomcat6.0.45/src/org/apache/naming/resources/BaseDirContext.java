@@ -116,6 +116,12 @@ public abstract class BaseDirContext implements DirContext {
     protected int cacheObjectMaxSize = 512; // 512 K
 
 
+    /**
+     * Class name of the cache, <code>null</code> for the default.
+     */
+    protected String cacheClassName = null;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -214,6 +220,22 @@ public abstract class BaseDirContext implements DirContext {
     }
 
 
+    /**
+     * Return the class name of the cache, <code>null</code> for the default.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the class name of the cache, a subclass of {@link ResourceCache}.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
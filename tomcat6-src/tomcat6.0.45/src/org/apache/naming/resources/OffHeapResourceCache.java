@@ -0,0 +1,462 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.naming.resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.tomcat.util.collections.ConcurrentRingBuffer;
+
+
+/**
+ * Resource cache keeping the content of the cached resources in direct
+ * buffers, outside of the Java heap, so that large caches don't weigh on
+ * the garbage collector.
+ * <p>
+ * Entries are found through a concurrent hash index, without locking, and
+ * evicted with a segmented LRU policy: new entries go to a probation
+ * segment, and entries hit while on probation move to a protected segment,
+ * limited to <code>protectedRatio</code> percent of the cache, whose least
+ * recently used entries fall back to probation. Entries are evicted from the
+ * tail of the probation segment, so resources read once don't push out the
+ * ones read often.
+ * <p>
+ * Hits are recorded in a bounded lock free buffer and applied to the
+ * segments when the cache is modified, or by the reader which finds the
+ * buffer full; hits are dropped rather than waited for when another thread
+ * holds the lock.
+ * <p>
+ * The direct memory of evicted entries is released by the garbage
+ * collector, once no request is still reading it; the JVM direct memory
+ * limit (<code>-XX:MaxDirectMemorySize</code>) must leave room for it.
+ */
+public class OffHeapResourceCache extends ResourceCache {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public OffHeapResourceCache() {
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Index of the entries.
+     */
+    protected ConcurrentHashMap<String, Node> index =
+        new ConcurrentHashMap<String, Node>();
+
+
+    /**
+     * Recently hit entries, not applied to the segments yet.
+     */
+    protected ConcurrentRingBuffer<Node> hits =
+        new ConcurrentRingBuffer<Node>(1024);
+
+
+    /**
+     * Lock guarding the segments.
+     */
+    protected ReentrantLock lock = new ReentrantLock();
+
+
+    /**
+     * Heads of the segments, the most recently used entry following the
+     * head.
+     */
+    protected Node probation = new Node(null);
+    protected Node protectedSegment = new Node(null);
+
+
+    /**
+     * Size of the protected segment in KB.
+     */
+    protected int protectedSize = 0;
+
+
+    /**
+     * Max share of the cache, in percent, which is used by the protected
+     * segment.
+     */
+    protected int protectedRatio = 80;
+
+
+    /**
+     * Statistics.
+     */
+    protected AtomicLong accesses = new AtomicLong();
+    protected AtomicLong hitCount = new AtomicLong();
+    protected AtomicLong loadCount = new AtomicLong();
+    protected AtomicLong evictionCount = new AtomicLong();
+    protected AtomicLong offHeapSize = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public long getAccessCount() {
+        return accesses.get();
+    }
+
+
+    public long getHitsCount() {
+        return hitCount.get();
+    }
+
+
+    /**
+     * Return the number of lookups which found no entry.
+     */
+    public long getMissCount() {
+        return accesses.get() - hitCount.get();
+    }
+
+
+    /**
+     * Return the number of entries added to the cache.
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+
+    /**
+     * Return the number of entries evicted to make space.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+
+    /**
+     * Return the number of entries in the cache.
+     */
+    public int getEntryCount() {
+        return index.size();
+    }
+
+
+    /**
+     * Return the size in bytes of the content stored in direct buffers.
+     */
+    public long getOffHeapSize() {
+        return offHeapSize.get();
+    }
+
+
+    /**
+     * Return the size of the protected segment in KB.
+     */
+    public int getProtectedSize() {
+        return protectedSize;
+    }
+
+
+    /**
+     * Return the max share of the cache, in percent, used by the protected
+     * segment.
+     */
+    public int getProtectedRatio() {
+        return protectedRatio;
+    }
+
+
+    /**
+     * Set the max share of the cache, in percent, used by the protected
+     * segment.
+     */
+    public void setProtectedRatio(int protectedRatio) {
+        this.protectedRatio = protectedRatio;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    public boolean allocate(int space) {
+
+        if (space > cacheMaxSize) {
+            return false;
+        }
+        lock.lock();
+        try {
+            drainHits();
+            int toFree = space - (cacheMaxSize - cacheSize);
+            if (toFree <= 0) {
+                return true;
+            }
+            // Free a bit more, so that allocate won't have to run right
+            // away again
+            toFree += (cacheMaxSize / 20);
+            while (toFree > 0) {
+                Node victim = probation.prev;
+                if (victim == probation) {
+                    victim = protectedSegment.prev;
+                    if (victim == protectedSegment) {
+                        break;
+                    }
+                }
+                toFree -= victim.entry.size;
+                remove(victim);
+                evictionCount.incrementAndGet();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+
+    public CacheEntry lookup(String name) {
+
+        accesses.incrementAndGet();
+        Node node = index.get(name);
+        if (node == null) {
+            return null;
+        }
+        hitCount.incrementAndGet();
+        if (!hits.offer(node) && lock.tryLock()) {
+            try {
+                drainHits();
+                hits.offer(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.entry;
+
+    }
+
+
+    public void load(CacheEntry entry) {
+        lock.lock();
+        try {
+            if (index.containsKey(entry.name)) {
+                return;
+            }
+            if (entry.exists && entry.resource != null) {
+                byte[] content = entry.resource.getContent();
+                if (content != null) {
+                    try {
+                        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+                        buffer.put(content);
+                        buffer.flip();
+                        entry.resource = new OffHeapResource(buffer);
+                        offHeapSize.addAndGet(content.length);
+                    } catch (OutOfMemoryError e) {
+                        // Direct memory exhausted, keep the content on heap
+                    }
+                }
+            }
+            Node node = new Node(entry);
+            index.put(entry.name, node);
+            link(node, probation);
+            cacheSize += entry.size;
+            loadCount.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    public boolean unload(String name) {
+        lock.lock();
+        try {
+            Node node = index.get(name);
+            if (node == null) {
+                return false;
+            }
+            remove(node);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Clear the statistics.
+     */
+    public void resetStatistics() {
+        accesses.set(0);
+        hitCount.set(0);
+        loadCount.set(0);
+        evictionCount.set(0);
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Apply the recorded hits to the segments. The lock must be held.
+     */
+    protected void drainHits() {
+        int protectedMaxSize = (int) ((long) cacheMaxSize * protectedRatio / 100);
+        Node node;
+        while ((node = hits.poll()) != null) {
+            if (node.segment == null) {
+                // Removed since it was hit
+                continue;
+            }
+            unlink(node);
+            if (node.segment == probation) {
+                protectedSize += node.entry.size;
+            }
+            link(node, protectedSegment);
+            while (protectedSize > protectedMaxSize
+                    && protectedSegment.prev != node) {
+                Node demoted = protectedSegment.prev;
+                unlink(demoted);
+                protectedSize -= demoted.entry.size;
+                link(demoted, probation);
+            }
+        }
+    }
+
+
+    /**
+     * Remove a node from the index and its segment. The lock must be held.
+     */
+    protected void remove(Node node) {
+        index.remove(node.entry.name);
+        if (node.segment == protectedSegment) {
+            protectedSize -= node.entry.size;
+        }
+        unlink(node);
+        node.segment = null;
+        cacheSize -= node.entry.size;
+        if (node.entry.resource instanceof OffHeapResource) {
+            offHeapSize.addAndGet(-((OffHeapResource) node.entry.resource).getContentLength());
+        }
+    }
+
+
+    private static void link(Node node, Node head) {
+        node.segment = head;
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+    }
+
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node;
+        node.next = node;
+    }
+
+
+    // --------------------------------------------------- Node Inner Class
+
+
+    /**
+     * Entry of one of the segments, which are circular doubly linked lists.
+     */
+    protected static final class Node {
+
+        final CacheEntry entry;
+        Node prev = this;
+        Node next = this;
+
+        /**
+         * Head of the segment of the node, <code>null</code> once removed.
+         */
+        Node segment = null;
+
+        Node(CacheEntry entry) {
+            this.entry = entry;
+        }
+    }
+
+
+    // ----------------------------------------- OffHeapResource Inner Class
+
+
+    /**
+     * Resource which content is held in a direct buffer. The content is only
+     * available as a stream, as {@link #getContent()} would have to copy it
+     * to the heap.
+     */
+    public static class OffHeapResource extends Resource {
+
+        protected final ByteBuffer buffer;
+
+        public OffHeapResource(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public InputStream streamContent() throws IOException {
+            return new BufferInputStream(buffer.duplicate());
+        }
+
+        public int getContentLength() {
+            return buffer.limit();
+        }
+    }
+
+
+    /**
+     * Stream reading a buffer, from its position to its limit.
+     */
+    protected static class BufferInputStream extends InputStream {
+
+        protected final ByteBuffer buffer;
+
+        public BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int n = Math.min(len, buffer.remaining());
+            if (n == 0) {
+                return -1;
+            }
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        public long skip(long n) {
+            int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
@@ -67,6 +67,9 @@ public class ProxyDirContext implements DirContext {
             // the caching policy.
             BaseDirContext baseDirContext = (BaseDirContext) dirContext;
             if (baseDirContext.isCached()) {
+                if (baseDirContext.getCacheClassName() != null) {
+                    cacheClassName = baseDirContext.getCacheClassName();
+                }
                 try {
                     cache = (ResourceCache) 
                         Class.forName(cacheClassName).newInstance();
@@ -1475,7 +1478,9 @@ public class ProxyDirContext implements DirContext {
         if (((!entry.exists)
              || (entry.context != null)
              || ((entry.resource != null) 
-                 && (entry.resource.getContent() != null)))
+                 && ((entry.resource.getContent() != null)
+                     || (entry.resource instanceof
+                             OffHeapResourceCache.OffHeapResource))))
             && (System.currentTimeMillis() < entry.timestamp)) {
             return true;
         }
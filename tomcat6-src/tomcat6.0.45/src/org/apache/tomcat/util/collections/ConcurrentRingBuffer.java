@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, array backed, lock free queue. Any number of threads may offer
+ * and poll concurrently. Unlike <code>ConcurrentLinkedQueue</code> no
+ * objects are allocated when elements are added, which makes it suitable
+ * for high rate hand-off queues and object caches.
+ * <p>
+ * Each slot carries a sequence number telling producers and consumers
+ * whether the slot is free for the current lap around the ring, so a
+ * successful CAS on the head or tail index gives a thread exclusive
+ * ownership of its slot.
+ * <p>
+ * The capacity is rounded up to the next power of two.
+ */
+public final class ConcurrentRingBuffer<E> {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> elements;
+
+    private final AtomicLongArray sequences;
+
+    /**
+     * Position of the next element to poll.
+     */
+    private final AtomicLong head = new AtomicLong(0);
+
+    /**
+     * Position of the next element to offer.
+     */
+    private final AtomicLong tail = new AtomicLong(0);
+
+    public ConcurrentRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element at the tail of the queue.
+     *
+     * @return <code>false</code> if the queue is full
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.set(index, e);
+                    // Publish the slot to the consumers
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                // The slot still holds the element of the previous lap
+                return false;
+            }
+            pos = tail.get();
+        }
+    }
+
+    /**
+     * Remove the element at the head of the queue.
+     *
+     * @return the element, or <code>null</code> if the queue is empty
+     */
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = elements.get(index);
+                    elements.set(index, null);
+                    // Hand the slot back to the producers for the next lap
+                    sequences.set(index, pos + mask + 1);
+                    return e;
+                }
+            } else if (dif < 0) {
+                // Nothing published in the slot yet
+                return null;
+            }
+            pos = head.get();
+        }
+    }
+
+    /**
+     * Remove all the elements currently in the queue.
+     */
+    public void clear() {
+        while (poll() != null) {
+            // Drain
+        }
+    }
+
+    /**
+     * Approximate number of elements in the queue; exact when there are no
+     * concurrent modifications.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import org.apache.tomcat.util.buf.Ascii;
+
+/**
+ * Integer tokens for the header names HTTP requests and responses use most.
+ * {@link MimeHeaders} uses them, when tokenized, to find these headers
+ * without comparing the names of all the fields.
+ * <p>
+ * Names are matched ignoring case, against the raw bytes of the request when
+ * the headers are parsed.
+ */
+public final class KnownHeaders {
+
+    public static final int ACCEPT = 0;
+    public static final int ACCEPT_ENCODING = 1;
+    public static final int ACCEPT_LANGUAGE = 2;
+    public static final int AUTHORIZATION = 3;
+    public static final int CACHE_CONTROL = 4;
+    public static final int CONNECTION = 5;
+    public static final int CONTENT_ENCODING = 6;
+    public static final int CONTENT_LANGUAGE = 7;
+    public static final int CONTENT_LENGTH = 8;
+    public static final int CONTENT_TYPE = 9;
+    public static final int COOKIE = 10;
+    public static final int DATE = 11;
+    public static final int EXPECT = 12;
+    public static final int HOST = 13;
+    public static final int IF_MODIFIED_SINCE = 14;
+    public static final int IF_NONE_MATCH = 15;
+    public static final int PRAGMA = 16;
+    public static final int RANGE = 17;
+    public static final int REFERER = 18;
+    public static final int SERVER = 19;
+    public static final int TRANSFER_ENCODING = 20;
+    public static final int USER_AGENT = 21;
+    public static final int VARY = 22;
+    public static final int X_FORWARDED_FOR = 23;
+
+    /**
+     * Number of tokens.
+     */
+    public static final int COUNT = 24;
+
+    /**
+     * Lower case names, indexed by token.
+     */
+    private static final String[] NAMES = {
+        "accept", "accept-encoding", "accept-language", "authorization",
+        "cache-control", "connection", "content-encoding", "content-language",
+        "content-length", "content-type", "cookie", "date", "expect", "host",
+        "if-modified-since", "if-none-match", "pragma", "range", "referer",
+        "server", "transfer-encoding", "user-agent", "vary", "x-forwarded-for"
+    };
+
+    private static final byte[][] NAME_BYTES = new byte[COUNT][];
+
+    /**
+     * Tokens of the names, indexed by name length.
+     */
+    private static final int[][] BY_LENGTH;
+
+    static {
+        int max = 0;
+        for (int i = 0; i < COUNT; i++) {
+            NAME_BYTES[i] = NAMES[i].getBytes();
+            max = Math.max(max, NAMES[i].length());
+        }
+        int[] sizes = new int[max + 1];
+        for (int i = 0; i < COUNT; i++) {
+            sizes[NAMES[i].length()]++;
+        }
+        BY_LENGTH = new int[max + 1][];
+        for (int len = 0; len <= max; len++) {
+            BY_LENGTH[len] = new int[sizes[len]];
+        }
+        for (int i = 0; i < COUNT; i++) {
+            int len = NAMES[i].length();
+            BY_LENGTH[len][--sizes[len]] = i;
+        }
+    }
+
+
+    private KnownHeaders() {
+    }
+
+
+    /**
+     * Return the lower case name of a token.
+     */
+    public static String getName(int token) {
+        return NAMES[token];
+    }
+
+
+    /**
+     * Return the token of a header name given as bytes, or <code>-1</code>
+     * if it is not a known header.
+     */
+    public static int getToken(byte[] b, int start, int len) {
+        if (len >= BY_LENGTH.length) {
+            return -1;
+        }
+        int[] candidates = BY_LENGTH[len];
+        for (int i = 0; i < candidates.length; i++) {
+            byte[] name = NAME_BYTES[candidates[i]];
+            int j = 0;
+            while (j < len && Ascii.toLower(b[start + j]) == name[j]) {
+                j++;
+            }
+            if (j == len) {
+                return candidates[i];
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Return the token of a header name given as chars, or <code>-1</code>
+     * if it is not a known header.
+     */
+    public static int getToken(char[] c, int start, int len) {
+        if (len >= BY_LENGTH.length) {
+            return -1;
+        }
+        int[] candidates = BY_LENGTH[len];
+        for (int i = 0; i < candidates.length; i++) {
+            byte[] name = NAME_BYTES[candidates[i]];
+            int j = 0;
+            while (j < len && c[start + j] < 0x80
+                    && Ascii.toLower(c[start + j]) == name[j]) {
+                j++;
+            }
+            if (j == len) {
+                return candidates[i];
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Return the token of a header name, or <code>-1</code> if it is not a
+     * known header.
+     */
+    public static int getToken(String s) {
+        int len = s.length();
+        if (len >= BY_LENGTH.length) {
+            return -1;
+        }
+        int[] candidates = BY_LENGTH[len];
+        for (int i = 0; i < candidates.length; i++) {
+            byte[] name = NAME_BYTES[candidates[i]];
+            int j = 0;
+            while (j < len && s.charAt(j) < 0x80
+                    && Ascii.toLower(s.charAt(j)) == name[j]) {
+                j++;
+            }
+            if (j == len) {
+                return candidates[i];
+            }
+        }
+        return -1;
+    }
+}
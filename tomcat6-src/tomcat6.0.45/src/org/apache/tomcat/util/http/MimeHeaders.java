@@ -19,6 +19,7 @@ package org.apache.tomcat.util.http;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
 import org.apache.tomcat.util.buf.MessageBytes;
@@ -84,7 +85,6 @@ import org.apache.tomcat.util.res.StringManager;
  *  XXX one-buffer parsing - for http ( other protocols don't need that )
  *  XXX remove unused methods
  *  XXX External enumerations, with 0 GC.
- *  XXX use HeaderName ID
  *  
  * 
  * @author dac@eng.sun.com
@@ -117,6 +117,14 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * Index of the first and last fields of each known header, when the
+     * fields are tokenized, <code>-1</code> if there is none. The fields of
+     * a known header are chained through {@link MimeHeaderField#nextSame}.
+     */
+    private int[] firstField = null;
+    private int[] lastField = null;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -152,6 +160,34 @@ public class MimeHeaders {
             headers[i].recycle();
         }
         count = 0;
+        if (firstField != null) {
+            Arrays.fill(firstField, -1);
+            Arrays.fill(lastField, -1);
+        }
+    }
+
+    /**
+     * Tokenize the names of the well known headers, listed in
+     * {@link KnownHeaders}, as the fields are added, so that looking them up
+     * by name doesn't need to compare the names of all the fields.
+     */
+    public void setTokenized(boolean tokenized) {
+        if (tokenized && firstField == null) {
+            firstField = new int[KnownHeaders.COUNT];
+            lastField = new int[KnownHeaders.COUNT];
+            for (int i = 0; i < count; i++) {
+                headers[i].token =
+                    KnownHeaders.getToken(headers[i].getName().toString());
+            }
+            reindex();
+        } else if (!tokenized) {
+            firstField = null;
+            lastField = null;
+        }
+    }
+
+    public boolean isTokenized() {
+        return firstField != null;
     }
 
     /**
@@ -208,6 +244,16 @@ public class MimeHeaders {
         // Another problem is that we'll pay the overhead
         // of constructing the hashtable
 
+        // Well known headers are chained when tokenized
+        int token = (firstField != null) ? KnownHeaders.getToken(name) : -1;
+        if (token != -1) {
+            int i = firstField[token];
+            while (i != -1 && i < starting) {
+                i = headers[i].nextSame;
+            }
+            return i;
+        }
+
         // A custom search tree may be better
         for (int i = starting; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
@@ -269,6 +315,9 @@ public class MimeHeaders {
     public MessageBytes addValue( String name ) {
          MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        if (firstField != null) {
+            link(mh, KnownHeaders.getToken(name));
+        }
         return mh.getValue();
     }
 
@@ -280,6 +329,9 @@ public class MimeHeaders {
     {
         MimeHeaderField mhf=createHeader();
         mhf.getName().setBytes(b, startN, len);
+        if (firstField != null) {
+            link(mhf, KnownHeaders.getToken(b, startN, len));
+        }
         return mhf.getValue();
     }
 
@@ -289,6 +341,9 @@ public class MimeHeaders {
     {
         MimeHeaderField mhf=createHeader();
         mhf.getName().setChars(c, startN, len);
+        if (firstField != null) {
+            link(mhf, KnownHeaders.getToken(c, startN, len));
+        }
         return mhf.getValue();
     }
 
@@ -298,6 +353,25 @@ public class MimeHeaders {
         if this .
     */
     public MessageBytes setValue( String name ) {
+        int token = (firstField != null) ? KnownHeaders.getToken(name) : -1;
+        if (token != -1) {
+            int i = firstField[token];
+            if (i != -1) {
+                if (headers[i].nextSame != -1) {
+                    for ( int j=i+1; j < count; j++ ) {
+                        if(headers[j].token == token) {
+                            removeHeader(j--);
+                        }
+                    }
+                    reindex();
+                }
+                return headers[i].getValue();
+            }
+            MimeHeaderField mh = createHeader();
+            mh.getName().setString(name);
+            link(mh, token);
+            return mh.getValue();
+        }
         for ( int i = 0; i < count; i++ ) {
             if(headers[i].getName().equalsIgnoreCase(name)) {
                 for ( int j=i+1; j < count; j++ ) {
@@ -305,11 +379,17 @@ public class MimeHeaders {
                         removeHeader(j--);
                     }
                 }
+                if (firstField != null) {
+                    reindex();
+                }
                 return headers[i].getValue();
             }
         }
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        if (firstField != null) {
+            link(mh, -1);
+        }
         return mh.getValue();
     }
 
@@ -320,6 +400,11 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
+        int token = (firstField != null) ? KnownHeaders.getToken(name) : -1;
+        if (token != -1) {
+            int i = firstField[token];
+            return (i != -1) ? headers[i].getValue() : null;
+        }
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return headers[i].getValue();
@@ -328,12 +413,36 @@ public class MimeHeaders {
         return null;
     }
 
+    /**
+     * Finds and returns the first field of a well known header, given its
+     * {@link KnownHeaders} token. This doesn't compare any name when the
+     * headers are tokenized.
+     */
+    public MessageBytes getValueByToken(int token) {
+        if (firstField == null) {
+            return getValue(KnownHeaders.getName(token));
+        }
+        int i = firstField[token];
+        return (i != -1) ? headers[i].getValue() : null;
+    }
+
     /**
      * Finds and returns a unique header field with the given name. If no such
      * field exists, null is returned. If the specified header field is not
      * unique then an {@link IllegalArgumentException} is thrown. 
      */
     public MessageBytes getUniqueValue(String name) {
+        int token = (firstField != null) ? KnownHeaders.getToken(name) : -1;
+        if (token != -1) {
+            int i = firstField[token];
+            if (i == -1) {
+                return null;
+            }
+            if (headers[i].nextSame != -1) {
+                throw new IllegalArgumentException();
+            }
+            return headers[i].getValue();
+        }
         MessageBytes result = null;
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
@@ -364,11 +473,18 @@ public class MimeHeaders {
         // XXX
         // warning: rather sticky code; heavily tuned
 
+        int token = (firstField != null) ? KnownHeaders.getToken(name) : -1;
+        if (token != -1 && firstField[token] == -1) {
+            return;
+        }
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 removeHeader(i--);
             }
         }
+        if (firstField != null) {
+            reindex();
+        }
     }
 
     /**
@@ -384,6 +500,46 @@ public class MimeHeaders {
         count--;
     }
 
+    // -------------------- Tokens --------------------
+
+    /**
+     * Append a field that was just created to the chain of its token.
+     */
+    private void link(MimeHeaderField mh, int token) {
+        mh.token = token;
+        if (token == -1) {
+            return;
+        }
+        int idx = count - 1;
+        if (firstField[token] == -1) {
+            firstField[token] = idx;
+        } else {
+            headers[lastField[token]].nextSame = idx;
+        }
+        lastField[token] = idx;
+    }
+
+    /**
+     * Rebuild the chains once fields have been moved by a removal.
+     */
+    private void reindex() {
+        Arrays.fill(firstField, -1);
+        Arrays.fill(lastField, -1);
+        for (int i = 0; i < count; i++) {
+            MimeHeaderField mh = headers[i];
+            mh.nextSame = -1;
+            int token = mh.token;
+            if (token != -1) {
+                if (firstField[token] == -1) {
+                    firstField[token] = i;
+                } else {
+                    headers[lastField[token]].nextSame = i;
+                }
+                lastField[token] = i;
+            }
+        }
+    }
+
 }
 
 /** Enumerate the distinct header names.
@@ -458,12 +614,11 @@ class ValuesEnumerator implements Enumeration {
 
     private void findNext() {
         next=null;
-        for( ; pos< size; pos++ ) {
-            MessageBytes n1=headers.getName( pos );
-            if( n1.equalsIgnoreCase( name )) {
-                next=headers.getValue( pos );
-                break;
-            }
+        pos = headers.findHeader(name, pos);
+        if (pos == -1 || pos >= size) {
+            pos = size;
+        } else {
+            next = headers.getValue(pos);
         }
         pos++;
     }
@@ -485,6 +640,13 @@ class MimeHeaderField {
     // GC)
     MimeHeaderField next;
     MimeHeaderField prev; 
+
+    /**
+     * Token of the name, and index of the next field with the same token,
+     * when the headers are tokenized.
+     */
+    int token = -1;
+    int nextSame = -1;
     
     protected final MessageBytes nameB = MessageBytes.newInstance();
     protected final MessageBytes valueB = MessageBytes.newInstance();
@@ -499,6 +661,8 @@ class MimeHeaderField {
         nameB.recycle();
         valueB.recycle();
         next=null;
+        token = -1;
+        nextSame = -1;
     }
 
     public MessageBytes getName() {
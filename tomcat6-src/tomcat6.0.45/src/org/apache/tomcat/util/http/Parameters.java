@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 import org.apache.tomcat.util.buf.B2CConverter;
@@ -65,6 +66,30 @@ public final class Parameters {
     private int limit = -1;
     private int parameterCount = 0;
 
+    /**
+     * Index the parameters while parsing, and decode each one only when it
+     * is looked up.
+     */
+    private boolean lazy = false;
+
+    /**
+     * Parameters indexed by lazy parsing, in the order they were found. The
+     * first <code>lazyCount</code> elements are in use, the others are kept
+     * for the next requests.
+     */
+    private final ArrayList<LazyParameter> lazyParams =
+        new ArrayList<LazyParameter>();
+    private int lazyCount = 0;
+
+    /**
+     * Index of the indexed parameters by name, built on the first lookup so
+     * that each lookup does not scan all the parameters. Covers the first
+     * <code>lazyIndexCount</code> indexed parameters.
+     */
+    private final HashMap<String, ArrayList<LazyParameter>> lazyIndex =
+        new HashMap<String, ArrayList<LazyParameter>>();
+    private int lazyIndexCount = 0;
+
     /**
      * Set to the reason for the failure (the first failure if there is more
      * than one) if there were failures during parameter parsing.
@@ -83,6 +108,25 @@ public final class Parameters {
         this.limit = limit;
     }
 
+    /**
+     * Set whether the parameters parsed from now on are only indexed, their
+     * names and values being URL decoded and converted to Strings the first
+     * time they are looked up. The bytes given to
+     * {@link #processParameters(byte[], int, int)} must then be left
+     * unchanged until {@link #recycle()}.
+     * <p>
+     * With lazy parsing, a value that fails to decode is only detected, and
+     * reported by {@link #isParseFailed()}, once it is looked up, and its
+     * name is still returned by {@link #getParameterNames()}.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
     public String getEncoding() {
         return encoding;
     }
@@ -122,6 +166,12 @@ public final class Parameters {
         encoding=null;
         decodedQuery.recycle();
         parseFailedReason = null;
+        for (int i = 0; i < lazyCount; i++) {
+            lazyParams.get(i).recycle();
+        }
+        lazyCount = 0;
+        lazyIndex.clear();
+        lazyIndexCount = 0;
     }
 
     // -------------------- Data access --------------------
@@ -148,6 +198,9 @@ public final class Parameters {
         handleQueryParameters();
         // no "facade"
         ArrayList<String> values = paramHashValues.get(name);
+        if (lazyCount > 0) {
+            values = getLazyValues(name, values);
+        }
         if (values == null) {
             return null;
         }
@@ -156,6 +209,12 @@ public final class Parameters {
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        if (lazyCount > 0) {
+            HashSet<String> names =
+                new HashSet<String>(paramHashValues.keySet());
+            names.addAll(getLazyIndex().keySet());
+            return Collections.enumeration(names);
+        }
         return Collections.enumeration(paramHashValues.keySet());
     }
 
@@ -163,6 +222,12 @@ public final class Parameters {
     public String getParameter(String name ) {
         log.i("getParameter start with key:" + name);
         handleQueryParameters();
+        if (lazyCount > 0) {
+            String value = getLazyValue(name);
+            if (value != null) {
+                return value;
+            }
+        }
         ArrayList<String> values = paramHashValues.get(name);
         if (values != null) {
             if(values.size() == 0) {
@@ -383,6 +448,20 @@ public final class Parameters {
                 // invalid chunk - it's better to ignore
             }
 
+            if (lazy) {
+                // Decoded when looked up
+                LazyParameter param = nextLazyParameter();
+                param.bytes = bytes;
+                param.nameStart = nameStart;
+                param.nameEnd = nameEnd;
+                param.valueStart = valueStart;
+                param.valueEnd = valueEnd;
+                param.decodeName = decodeName;
+                param.decodeValue = decodeValue;
+                param.charset = charset;
+                continue;
+            }
+
             tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
             if (valueStart >= 0) {
                 tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
@@ -504,6 +583,173 @@ public final class Parameters {
                            bc.getLength(), getCharset(encoding));
     }
 
+    // -------------------- Lazy parsing --------------------
+
+    private LazyParameter nextLazyParameter() {
+        LazyParameter param;
+        if (lazyCount < lazyParams.size()) {
+            param = lazyParams.get(lazyCount);
+        } else {
+            param = new LazyParameter();
+            lazyParams.add(param);
+        }
+        lazyCount++;
+        return param;
+    }
+
+    /**
+     * Return the index of the parameters by name, adding the parameters
+     * found since it was last used. The names are decoded on the way.
+     */
+    private HashMap<String, ArrayList<LazyParameter>> getLazyIndex() {
+        for (; lazyIndexCount < lazyCount; lazyIndexCount++) {
+            LazyParameter param = lazyParams.get(lazyIndexCount);
+            String name = getLazyName(param);
+            if (name == null) {
+                continue;
+            }
+            ArrayList<LazyParameter> params = lazyIndex.get(name);
+            if (params == null) {
+                params = new ArrayList<LazyParameter>(1);
+                lazyIndex.put(name, params);
+            }
+            params.add(param);
+        }
+        return lazyIndex;
+    }
+
+    /**
+     * Return the value of the first indexed parameter with the given name,
+     * or <code>null</code>.
+     */
+    private String getLazyValue(String name) {
+        ArrayList<LazyParameter> params = getLazyIndex().get(name);
+        if (params == null) {
+            return null;
+        }
+        for (int i = 0; i < params.size(); i++) {
+            String value = getLazyValue(params.get(i));
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the values of the indexed parameters with the given name,
+     * followed by the given values added directly.
+     */
+    private ArrayList<String> getLazyValues(String name,
+            ArrayList<String> added) {
+        ArrayList<LazyParameter> params = getLazyIndex().get(name);
+        if (params == null) {
+            return added;
+        }
+        ArrayList<String> values = null;
+        for (int i = 0; i < params.size(); i++) {
+            String value = getLazyValue(params.get(i));
+            if (value != null) {
+                if (values == null) {
+                    values = new ArrayList<String>();
+                }
+                values.add(value);
+            }
+        }
+        if (values == null) {
+            return added;
+        }
+        if (added != null) {
+            values.addAll(added);
+        }
+        return values;
+    }
+
+    private String getLazyName(LazyParameter param) {
+        if (param.name == null && !param.failed) {
+            try {
+                param.name = convert(param.bytes, param.nameStart,
+                        param.nameEnd, param.decodeName, param.charset);
+            } catch (IOException e) {
+                lazyDecodeFailed(param, e);
+            }
+        }
+        return param.name;
+    }
+
+    private String getLazyValue(LazyParameter param) {
+        if (param.value == null && !param.failed) {
+            if (param.valueStart < 0) {
+                param.value = "";
+            } else {
+                try {
+                    param.value = convert(param.bytes, param.valueStart,
+                            param.valueEnd, param.decodeValue, param.charset);
+                } catch (IOException e) {
+                    lazyDecodeFailed(param, e);
+                }
+            }
+        }
+        return param.value;
+    }
+
+    /**
+     * URL decode, in place, and convert a range of bytes.
+     */
+    private String convert(byte[] bytes, int start, int end, boolean decode,
+            Charset charset) throws IOException {
+        tmpValue.setBytes(bytes, start, end - start);
+        try {
+            if (decode) {
+                urlDecode(tmpValue);
+            }
+            tmpValue.setCharset(charset);
+            return tmpValue.toString();
+        } finally {
+            tmpValue.recycle();
+        }
+    }
+
+    private void lazyDecodeFailed(LazyParameter param, IOException e) {
+        // As when parsing eagerly, the whole parameter is ignored
+        param.failed = true;
+        param.name = null;
+        param.value = null;
+        setParseFailedReason(FailReason.URL_DECODING);
+        String name = null;
+        String value = "";
+        try {
+            name = new String(param.bytes, param.nameStart,
+                    param.nameEnd - param.nameStart, DEFAULT_CHARSET.name());
+            if (param.valueStart >= 0) {
+                value = new String(param.bytes, param.valueStart,
+                        param.valueEnd - param.valueStart,
+                        DEFAULT_CHARSET.name());
+            }
+        } catch (UnsupportedEncodingException uee) {
+            // Not possible. All JVMs must support ISO-8859-1
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("parameters.decodeFail.info", name, value), e);
+        } else if (log.isInfoEnabled()) {
+            UserDataHelper.Mode logMode = userDataLog.getNextMode();
+            if (logMode != null) {
+                String message = sm.getString(
+                        "parameters.decodeFail.info", name, value);
+                switch (logMode) {
+                    case INFO_THEN_DEBUG:
+                        message += sm.getString("parameters.fallToDebug");
+                        //$FALL-THROUGH$
+                    case INFO:
+                        log.info(message);
+                        break;
+                    case DEBUG:
+                        log.debug(message);
+                }
+            }
+        }
+    }
+
     private Charset getCharset(String encoding) {
         if (encoding == null) {
             return DEFAULT_CHARSET;
@@ -528,10 +774,42 @@ public final class Parameters {
             }
             sb.append('\n');
         }
+        for (int i = 0; i < lazyCount; i++) {
+            LazyParameter param = lazyParams.get(i);
+            sb.append(getLazyName(param)).append('=');
+            sb.append(getLazyValue(param)).append(",\n");
+        }
         return sb.toString();
     }
 
 
+    /**
+     * A parameter indexed by lazy parsing: the ranges of its name and value
+     * in the parsed bytes, and their Strings once decoded.
+     */
+    private static final class LazyParameter {
+        byte[] bytes;
+        int nameStart;
+        int nameEnd;
+        int valueStart;
+        int valueEnd;
+        boolean decodeName;
+        boolean decodeValue;
+        Charset charset;
+        String name;
+        String value;
+        boolean failed;
+
+        void recycle() {
+            bytes = null;
+            charset = null;
+            name = null;
+            value = null;
+            failed = false;
+        }
+    }
+
+
     public enum FailReason {
         CLIENT_DISCONNECT,
         MULTIPART_CONFIG_INVALID,
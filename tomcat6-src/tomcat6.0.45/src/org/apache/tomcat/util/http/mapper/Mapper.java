@@ -25,6 +25,7 @@ import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.buf.Ascii;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Mapper, which implements the servlet API mapping rules (which are derived
@@ -57,6 +58,26 @@ public final class Mapper {
     protected Context context = new Context();
 
 
+    /**
+     * Use tries built from the hosts, contexts and wrappers to map requests,
+     * instead of searching the sorted arrays.
+     */
+    protected boolean compiled = false;
+
+
+    /**
+     * Trie over the host names, when compiled.
+     */
+    protected PathTrie hostTrie = null;
+
+
+    /**
+     * Number of tries built, and the time spent building them in nanoseconds.
+     */
+    protected AtomicLong rebuildCount = new AtomicLong();
+    protected AtomicLong rebuildTime = new AtomicLong();
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -79,6 +100,43 @@ public final class Mapper {
         this.defaultHostName = defaultHostName;
     }
 
+
+    /**
+     * Are requests mapped through the compiled tries.
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+
+    /**
+     * Map requests through tries over the host names, context paths and
+     * wrapper mappings, rebuilt each time a host, context or wrapper is added
+     * or removed. The mapping cost then depends on the length of the URI
+     * rather than on the number of contexts and wrappers.
+     *
+     * @param compiled <code>true</code> to use the tries
+     */
+    public synchronized void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+        Host[] hosts = this.hosts;
+        compileHosts();
+        for (int i = 0; i < hosts.length; i++) {
+            synchronized (hosts[i]) {
+                compile(hosts[i].contextList);
+                Context[] contexts = hosts[i].contextList.contexts;
+                for (int j = 0; j < contexts.length; j++) {
+                    synchronized (contexts[j]) {
+                        compile(contexts[j]);
+                    }
+                }
+            }
+        }
+        synchronized (context) {
+            compile(context);
+        }
+    }
+
     /**
      * Add a new host to the mapper.
      *
@@ -106,6 +164,7 @@ public final class Mapper {
                 hosts = newHosts;
             }
         }
+        compileHosts();
     }
 
 
@@ -134,6 +193,7 @@ public final class Mapper {
                 }
             }
         }
+        compileHosts();
     }
 
     /**
@@ -157,6 +217,7 @@ public final class Mapper {
         newHost.object = realHost.object;
         if (insertMap(hosts, newHosts, newHost)) {
             hosts = newHosts;
+            compileHosts();
         }
     }
 
@@ -173,6 +234,7 @@ public final class Mapper {
         Host[] newHosts = new Host[hosts.length - 1];
         if (removeMap(hosts, newHosts, alias)) {
             hosts = newHosts;
+            compileHosts();
         }
 
     }
@@ -257,11 +319,12 @@ public final class Mapper {
                 newContext.object = context;
                 newContext.welcomeResources = welcomeResources;
                 newContext.resources = resources;
+                newContext.mapperContextRootRedirectEnabled = mapperContextRootRedirectEnabled;
+                newContext.mapperDirectoryRedirectEnabled = mapperDirectoryRedirectEnabled;
                 if (insertMap(contexts, newContexts, newContext)) {
                     host.contextList.contexts = newContexts;
+                    compile(host.contextList);
                 }
-                newContext.mapperContextRootRedirectEnabled = mapperContextRootRedirectEnabled;
-                newContext.mapperDirectoryRedirectEnabled = mapperDirectoryRedirectEnabled;
             }
         }
     }
@@ -297,6 +360,7 @@ public final class Mapper {
                             host.contextList.nesting = slashCount;
                         }
                     }
+                    compile(host.contextList);
                 }
             }
         }
@@ -432,6 +496,7 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            compile(context);
         }
     }
 
@@ -515,6 +580,7 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            compile(context);
         }
     }
 
@@ -557,6 +623,95 @@ public final class Mapper {
 
 
 
+    // ------------------------------------------------------------- Statistics
+
+
+    /**
+     * Return the number of host names, aliases included.
+     */
+    public int getHostCount() {
+        return hosts.length;
+    }
+
+
+    /**
+     * Return the number of contexts of all hosts.
+     */
+    public int getContextCount() {
+        int count = 0;
+        Host[] hosts = this.hosts;
+        for (int i = 0; i < hosts.length; i++) {
+            if (!isAlias(hosts, i)) {
+                count += hosts[i].contextList.contexts.length;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Return the number of wrapper mappings of all contexts.
+     */
+    public int getWrapperCount() {
+        int count = 0;
+        Host[] hosts = this.hosts;
+        for (int i = 0; i < hosts.length; i++) {
+            if (!isAlias(hosts, i)) {
+                Context[] contexts = hosts[i].contextList.contexts;
+                for (int j = 0; j < contexts.length; j++) {
+                    count += wrapperCount(contexts[j]);
+                }
+            }
+        }
+        return count + wrapperCount(context);
+    }
+
+
+    /**
+     * Return the number of nodes of all the compiled tries.
+     */
+    public int getTrieNodeCount() {
+        int count = nodeCount(hostTrie);
+        Host[] hosts = this.hosts;
+        for (int i = 0; i < hosts.length; i++) {
+            if (!isAlias(hosts, i)) {
+                count += nodeCount(hosts[i].contextList.trie);
+                Context[] contexts = hosts[i].contextList.contexts;
+                for (int j = 0; j < contexts.length; j++) {
+                    count += nodeCount(contexts[j]);
+                }
+            }
+        }
+        return count + nodeCount(context);
+    }
+
+
+    /**
+     * Return the number of tries built since the statistics were reset.
+     */
+    public long getRebuildCount() {
+        return rebuildCount.get();
+    }
+
+
+    /**
+     * Return the time in milliseconds spent building tries since the
+     * statistics were reset.
+     */
+    public long getRebuildTime() {
+        return rebuildTime.get() / 1000000;
+    }
+
+
+    /**
+     * Reset the trie build counters.
+     */
+    public void resetStatistics() {
+        rebuildCount.set(0);
+        rebuildTime.set(0);
+    }
+
+
     /**
      * Map the specified host name and URI, mutating the given mapping data.
      *
@@ -619,67 +774,86 @@ public final class Mapper {
         uri.setLimit(-1);
 
         Context[] contexts;
+        ContextList contextList;
         Context context = null;
         int nesting = 0;
 
         // Virtual host mapping
         Host[] hosts = this.hosts;
-        int pos = findIgnoreCase(hosts, host);
-        if ((pos != -1) && (host.equalsIgnoreCase(hosts[pos].name))) {
-            mappingData.host = hosts[pos].object;
-            contexts = hosts[pos].contextList.contexts;
-            nesting = hosts[pos].contextList.nesting;
+        Host mappedHost = null;
+        PathTrie hostTrie = this.hostTrie;
+        int pos;
+        if (hostTrie != null) {
+            mappedHost = (Host) hostTrie.exact(host.getBuffer(),
+                    host.getStart(), host.getEnd());
         } else {
+            pos = findIgnoreCase(hosts, host);
+            if ((pos != -1) && (host.equalsIgnoreCase(hosts[pos].name))) {
+                mappedHost = hosts[pos];
+            }
+        }
+        if (mappedHost == null) {
             if (defaultHostName == null) {
                 return;
             }
             pos = find(hosts, defaultHostName);
             if ((pos != -1) && (defaultHostName.equals(hosts[pos].name))) {
-                mappingData.host = hosts[pos].object;
-                contexts = hosts[pos].contextList.contexts;
-                nesting = hosts[pos].contextList.nesting;
+                mappedHost = hosts[pos];
             } else {
                 return;
             }
         }
+        mappingData.host = mappedHost.object;
+        contextList = mappedHost.contextList;
+        contexts = contextList.contexts;
+        nesting = contextList.nesting;
 
         // Context mapping
-        pos = find(contexts, uri);
-        if (pos == -1) {
-            return;
-        }
+        PathTrie contextTrie = contextList.trie;
+        if (contextTrie != null) {
+            context = (Context) contextTrie.longestPrefix(uri.getBuffer(),
+                    uri.getStart(), uri.getEnd());
+            if (context == null) {
+                context = (Context) contextTrie.rootElement();
+            }
+        } else {
+            pos = find(contexts, uri);
+            if (pos == -1) {
+                return;
+            }
 
-        int lastSlash = -1;
-        int uriEnd = uri.getEnd();
-        int length = -1;
-        boolean found = false;
-        while (pos >= 0) {
-            if (uri.startsWith(contexts[pos].name)) {
-                length = contexts[pos].name.length();
-                if (uri.getLength() == length) {
-                    found = true;
-                    break;
-                } else if (uri.startsWithIgnoreCase("/", length)) {
-                    found = true;
-                    break;
+            int lastSlash = -1;
+            int uriEnd = uri.getEnd();
+            int length = -1;
+            boolean found = false;
+            while (pos >= 0) {
+                if (uri.startsWith(contexts[pos].name)) {
+                    length = contexts[pos].name.length();
+                    if (uri.getLength() == length) {
+                        found = true;
+                        break;
+                    } else if (uri.startsWithIgnoreCase("/", length)) {
+                        found = true;
+                        break;
+                    }
                 }
+                if (lastSlash == -1) {
+                    lastSlash = nthSlash(uri, nesting + 1);
+                } else {
+                    lastSlash = lastSlash(uri);
+                }
+                uri.setEnd(lastSlash);
+                pos = find(contexts, uri);
             }
-            if (lastSlash == -1) {
-                lastSlash = nthSlash(uri, nesting + 1);
-            } else {
-                lastSlash = lastSlash(uri);
-            }
-            uri.setEnd(lastSlash);
-            pos = find(contexts, uri);
-        }
-        uri.setEnd(uriEnd);
+            uri.setEnd(uriEnd);
 
-        if (!found) {
-            if (contexts[0].name.equals("")) {
-                context = contexts[0];
+            if (!found) {
+                if (contexts[0].name.equals("")) {
+                    context = contexts[0];
+                }
+            } else {
+                context = contexts[pos];
             }
-        } else {
-            context = contexts[pos];
         }
         if (context != null) {
             mappingData.context = context.object;
@@ -712,16 +886,21 @@ public final class Mapper {
         int servletPath = pathOffset + length;
         path.setOffset(servletPath);
 
+        // Tries are null unless the mapper is compiled
+        PathTrie exactTrie = context.exactTrie;
+        PathTrie wildcardTrie = context.wildcardTrie;
+        PathTrie extensionTrie = context.extensionTrie;
+
         // Rule 1 -- Exact Match
         Wrapper[] exactWrappers = context.exactWrappers;
-        internalMapExactWrapper(exactWrappers, path, mappingData);
+        internalMapExactWrapper(exactWrappers, exactTrie, path, mappingData);
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
         Wrapper[] wildcardWrappers = context.wildcardWrappers;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, context.nesting, 
-                                       path, mappingData);
+            internalMapWildcardWrapper(wildcardWrappers, wildcardTrie,
+                                       context.nesting, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -758,7 +937,8 @@ public final class Mapper {
         // Rule 3 -- Extension Match
         Wrapper[] extensionWrappers = context.extensionWrappers;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
-            internalMapExtensionWrapper(extensionWrappers, path, mappingData);
+            internalMapExtensionWrapper(extensionWrappers, extensionTrie,
+                                        path, mappingData);
         }
 
         // Rule 4 -- Welcome resources processing for servlets
@@ -778,12 +958,13 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
+                    internalMapExactWrapper(exactWrappers, exactTrie,
+                                            path, mappingData);
 
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
                         internalMapWildcardWrapper
-                            (wildcardWrappers, context.nesting, 
+                            (wildcardWrappers, wildcardTrie, context.nesting,
                              path, mappingData);
                     }
 
@@ -800,6 +981,7 @@ public final class Mapper {
                         }
                         if (file != null && !(file instanceof DirContext) ) {
                             internalMapExtensionWrapper(extensionWrappers,
+                                                        extensionTrie,
                                                         path, mappingData);
                             if (mappingData.wrapper == null
                                 && context.defaultWrapper != null) {
@@ -873,12 +1055,22 @@ public final class Mapper {
      * Exact mapping.
      */
     private final void internalMapExactWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        int pos = find(wrappers, path);
-        if ((pos != -1) && (path.equals(wrappers[pos].name))) {
-            mappingData.requestPath.setString(wrappers[pos].name);
-            mappingData.wrapperPath.setString(wrappers[pos].name);
-            mappingData.wrapper = wrappers[pos].object;
+        (Wrapper[] wrappers, PathTrie trie, CharChunk path,
+         MappingData mappingData) {
+        Wrapper wrapper = null;
+        if (trie != null) {
+            wrapper = (Wrapper) trie.exact(path.getBuffer(), path.getStart(),
+                                           path.getEnd());
+        } else {
+            int pos = find(wrappers, path);
+            if ((pos != -1) && (path.equals(wrappers[pos].name))) {
+                wrapper = wrappers[pos];
+            }
+        }
+        if (wrapper != null) {
+            mappingData.requestPath.setString(wrapper.name);
+            mappingData.wrapperPath.setString(wrapper.name);
+            mappingData.wrapper = wrapper.object;
         }
     }
 
@@ -887,12 +1079,32 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (Wrapper[] wrappers, int nesting, CharChunk path, 
+        (Wrapper[] wrappers, PathTrie trie, int nesting, CharChunk path,
          MappingData mappingData) {
 
         int pathEnd = path.getEnd();
         int pathOffset = path.getOffset();
 
+        if (trie != null) {
+            Wrapper wrapper = (Wrapper) trie.longestPrefix(path.getBuffer(),
+                    path.getStart(), pathEnd);
+            if (wrapper != null) {
+                int length = wrapper.name.length();
+                mappingData.wrapperPath.setString(wrapper.name);
+                if (path.getLength() > length) {
+                    mappingData.pathInfo.setChars
+                        (path.getBuffer(),
+                         path.getOffset() + length,
+                         path.getLength() - length);
+                }
+                mappingData.requestPath.setChars
+                    (path.getBuffer(), path.getOffset(), path.getLength());
+                mappingData.wrapper = wrapper.object;
+                mappingData.jspWildCard = wrapper.jspWildCard;
+            }
+            return;
+        }
+
         int lastSlash = -1;
         int length = -1;
         int pos = find(wrappers, path);
@@ -939,7 +1151,8 @@ public final class Mapper {
      * Extension mappings.
      */
     private final void internalMapExtensionWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
+        (Wrapper[] wrappers, PathTrie trie, CharChunk path,
+         MappingData mappingData) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
         int servletPath = path.getOffset();
@@ -961,14 +1174,22 @@ public final class Mapper {
             if (period >= 0) {
                 path.setOffset(period + 1);
                 path.setEnd(pathEnd);
-                int pos = find(wrappers, path);
-                if ((pos != -1)
-                    && (path.equals(wrappers[pos].name))) {
+                Wrapper wrapper = null;
+                if (trie != null) {
+                    wrapper = (Wrapper) trie.exact(buf, period + 1, pathEnd);
+                } else {
+                    int pos = find(wrappers, path);
+                    if ((pos != -1)
+                        && (path.equals(wrappers[pos].name))) {
+                        wrapper = wrappers[pos];
+                    }
+                }
+                if (wrapper != null) {
                     mappingData.wrapperPath.setChars
                         (buf, servletPath, pathEnd - servletPath);
                     mappingData.requestPath.setChars
                         (buf, servletPath, pathEnd - servletPath);
-                    mappingData.wrapper = wrappers[pos].object;
+                    mappingData.wrapper = wrapper.object;
                 }
                 path.setOffset(servletPath);
                 path.setEnd(pathEnd);
@@ -1252,6 +1473,90 @@ public final class Mapper {
     }
 
 
+    /**
+     * Rebuild the trie over the host names, or drop it if the mapper is not
+     * compiled. Must be called with the mapper locked.
+     */
+    private final void compileHosts() {
+        if (!compiled) {
+            hostTrie = null;
+            return;
+        }
+        long start = System.nanoTime();
+        hostTrie = new PathTrie(hosts, true);
+        rebuildCount.incrementAndGet();
+        rebuildTime.addAndGet(System.nanoTime() - start);
+    }
+
+
+    /**
+     * Rebuild the trie over the context paths of a host, or drop it if the
+     * mapper is not compiled. Must be called with the host locked.
+     */
+    private final void compile(ContextList contextList) {
+        if (!compiled) {
+            contextList.trie = null;
+            return;
+        }
+        long start = System.nanoTime();
+        contextList.trie = new PathTrie(contextList.contexts, false);
+        rebuildCount.incrementAndGet();
+        rebuildTime.addAndGet(System.nanoTime() - start);
+    }
+
+
+    /**
+     * Rebuild the tries over the wrapper mappings of a context, or drop them
+     * if the mapper is not compiled. Must be called with the context locked.
+     */
+    private final void compile(Context context) {
+        if (!compiled) {
+            context.exactTrie = null;
+            context.wildcardTrie = null;
+            context.extensionTrie = null;
+            return;
+        }
+        long start = System.nanoTime();
+        context.exactTrie = new PathTrie(context.exactWrappers, false);
+        context.wildcardTrie = new PathTrie(context.wildcardWrappers, false);
+        context.extensionTrie = new PathTrie(context.extensionWrappers, false);
+        rebuildCount.incrementAndGet();
+        rebuildTime.addAndGet(System.nanoTime() - start);
+    }
+
+
+    /**
+     * Is the host at the given position an alias of a host found before it,
+     * sharing its contexts.
+     */
+    private static final boolean isAlias(Host[] hosts, int pos) {
+        for (int i = 0; i < pos; i++) {
+            if (hosts[i].contextList == hosts[pos].contextList) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static final int wrapperCount(Context context) {
+        return context.exactWrappers.length + context.wildcardWrappers.length
+            + context.extensionWrappers.length
+            + ((context.defaultWrapper != null) ? 1 : 0);
+    }
+
+
+    private static final int nodeCount(PathTrie trie) {
+        return (trie != null) ? trie.getNodeCount() : 0;
+    }
+
+
+    private static final int nodeCount(Context context) {
+        return nodeCount(context.exactTrie) + nodeCount(context.wildcardTrie)
+            + nodeCount(context.extensionTrie);
+    }
+
+
     /**
      * Insert into the right place in a sorted MapElement array, and prevent
      * duplicates.
@@ -1315,6 +1620,7 @@ public final class Mapper {
 
         public Context[] contexts = new Context[0];
         public int nesting = 0;
+        PathTrie trie = null;
 
     }
 
@@ -1335,6 +1641,9 @@ public final class Mapper {
         public int nesting = 0;
         public boolean mapperContextRootRedirectEnabled = false;
         public boolean mapperDirectoryRedirectEnabled = false;
+        PathTrie exactTrie = null;
+        PathTrie wildcardTrie = null;
+        PathTrie extensionTrie = null;
     }
 
 
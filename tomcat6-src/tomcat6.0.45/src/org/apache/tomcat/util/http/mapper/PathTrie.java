@@ -0,0 +1,190 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http.mapper;
+
+import org.apache.tomcat.util.buf.Ascii;
+
+/**
+ * Immutable character trie over the names of a set of map elements, used by
+ * the {@link Mapper} in place of the binary searches over the sorted element
+ * arrays. A lookup walks the characters of the path once, whatever the number
+ * of elements, and never allocates.
+ * <p>
+ * The trie is never modified once built: the mapper builds a new one each
+ * time the element array it was built from changes.
+ */
+final class PathTrie {
+
+
+    /**
+     * Root node, matching the empty name.
+     */
+    private final Node root;
+
+
+    /**
+     * Compare the characters ignoring case.
+     */
+    private final boolean ignoreCase;
+
+
+    /**
+     * Number of nodes, for statistics.
+     */
+    private final int nodeCount;
+
+
+    /**
+     * Build the trie for the given elements.
+     *
+     * @param elements The elements, by name
+     * @param ignoreCase Whether the lookups should ignore case
+     */
+    PathTrie(Mapper.MapElement[] elements, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        int count = 1;
+        Node root = new Node();
+        for (int i = 0; i < elements.length; i++) {
+            String name = elements[i].name;
+            Node node = root;
+            for (int j = 0; j < name.length(); j++) {
+                char c = name.charAt(j);
+                if (ignoreCase) {
+                    c = (char) Ascii.toLower(c);
+                }
+                Node child = node.child(c);
+                if (child == null) {
+                    child = node.addChild(c);
+                    count++;
+                }
+                node = child;
+            }
+            node.element = elements[i];
+        }
+        this.root = root;
+        this.nodeCount = count;
+    }
+
+
+    /**
+     * Find the element which name is exactly the given characters.
+     *
+     * @return the element or <code>null</code>
+     */
+    Mapper.MapElement exact(char[] buf, int start, int end) {
+        Node node = root;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.child(ignoreCase ? (char) Ascii.toLower(buf[i]) : buf[i]);
+        }
+        return (node == null) ? null : node.element;
+    }
+
+
+    /**
+     * Find the element with the longest name which is a prefix of the given
+     * characters ending at a path segment boundary, that is followed either
+     * by the end of the characters or by a '/'.
+     *
+     * @return the element or <code>null</code>
+     */
+    Mapper.MapElement longestPrefix(char[] buf, int start, int end) {
+        Mapper.MapElement found = null;
+        Node node = root;
+        int i = start;
+        while (true) {
+            if (node.element != null && (i == end || buf[i] == '/')) {
+                found = node.element;
+            }
+            if (i == end) {
+                break;
+            }
+            node = node.child(ignoreCase ? (char) Ascii.toLower(buf[i]) : buf[i]);
+            if (node == null) {
+                break;
+            }
+            i++;
+        }
+        return found;
+    }
+
+
+    /**
+     * Return the element with an empty name, if any.
+     */
+    Mapper.MapElement rootElement() {
+        return root.element;
+    }
+
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+
+    // ------------------------------------------------------- Node Inner Class
+
+
+    private static final class Node {
+
+        private static final char[] NO_CHARS = new char[0];
+        private static final Node[] NO_NODES = new Node[0];
+
+        /**
+         * Sorted characters leading to the children.
+         */
+        char[] chars = NO_CHARS;
+        Node[] children = NO_NODES;
+        Mapper.MapElement element = null;
+
+        Node child(char c) {
+            char[] chars = this.chars;
+            int a = 0;
+            int b = chars.length - 1;
+            while (a <= b) {
+                int i = (a + b) >>> 1;
+                if (chars[i] < c) {
+                    a = i + 1;
+                } else if (chars[i] > c) {
+                    b = i - 1;
+                } else {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            int pos = 0;
+            while (pos < chars.length && chars[pos] < c) {
+                pos++;
+            }
+            char[] newChars = new char[chars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            Node child = new Node();
+            newChars[pos] = c;
+            newChildren[pos] = child;
+            System.arraycopy(chars, pos, newChars, pos + 1, chars.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+            chars = newChars;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -17,12 +17,17 @@
 
 package org.apache.tomcat.util.net;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.Executor;
 
 import org.apache.juli.logging.Log;
@@ -262,6 +267,17 @@ public class JIoEndpoint extends AbstractEndpoint {
     public ServerSocketFactory getServerSocketFactory() { return serverSocketFactory; }
 
 
+    /**
+     * Use sendfile. When enabled with the default (non SSL) server socket
+     * factory, the server socket is opened through a
+     * <code>ServerSocketChannel</code> so that accepted sockets have a
+     * channel <code>FileChannel.transferTo</code> can write to directly.
+     */
+    protected boolean useSendfile = false;
+    public void setUseSendfile(boolean useSendfile) { this.useSendfile = useSendfile; }
+    public boolean getUseSendfile() { return useSendfile; }
+
+
     /**
      * Unlock timeout.
      */
@@ -321,6 +337,47 @@ public class JIoEndpoint extends AbstractEndpoint {
     }
     
 
+    /**
+     * Write the file region described by the sendfile data to the socket,
+     * blocking until it has been sent. If the socket has a channel the data
+     * goes from the file to the socket without passing through the heap,
+     * otherwise (SSL, custom socket factories) it is streamed to the socket
+     * output stream, which still bypasses the HTTP output buffer.
+     *
+     * @param socket the socket to write to; any buffered response data must
+     *  have been flushed already
+     * @param data the file region to send
+     * @throws IOException if the file can't be read or the write fails
+     */
+    public void processSendfile(Socket socket, SendfileData data)
+        throws IOException {
+        FileChannel fchannel = new FileInputStream(data.fileName).getChannel();
+        try {
+            WritableByteChannel wc = socket.getChannel();
+            if (wc == null) {
+                wc = Channels.newChannel(socket.getOutputStream());
+            }
+            long pos = data.pos;
+            long length = data.length;
+            while (length > 0) {
+                long written = fchannel.transferTo(pos, length, wc);
+                if (written <= 0 && fchannel.size() <= pos) {
+                    throw new IOException("Sendfile configured to " +
+                            "send more data than was available");
+                }
+                pos += written;
+                length -= written;
+            }
+        } finally {
+            try {
+                fchannel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+
     // ------------------------------------------------ Handler Inner Interface
 
 
@@ -548,7 +605,12 @@ public class JIoEndpoint extends AbstractEndpoint {
         }
         if (serverSocket == null) {
             try {
-                if (address == null) {
+                if (useSendfile && serverSocketFactory instanceof DefaultServerSocketFactory) {
+                    ServerSocketChannel ssc = ServerSocketChannel.open();
+                    ssc.socket().bind((address == null) ? new InetSocketAddress(port)
+                            : new InetSocketAddress(address, port), backlog);
+                    serverSocket = ssc.socket();
+                } else if (address == null) {
                     serverSocket = serverSocketFactory.createSocket(port, backlog);
                 } else {
                     serverSocket = serverSocketFactory.createSocket(port, backlog, address);
@@ -893,4 +955,18 @@ public class JIoEndpoint extends AbstractEndpoint {
         }
     }
 
+
+    // ----------------------------------------------- SendfileData Inner Class
+
+
+    /**
+     * SendfileData class.
+     */
+    public static class SendfileData {
+        // File
+        public String fileName;
+        public long pos;
+        public long length;
+    }
+
 }
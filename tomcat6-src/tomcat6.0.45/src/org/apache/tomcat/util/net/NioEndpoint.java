@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.SocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
@@ -59,6 +60,7 @@ import javax.net.ssl.X509KeyManager;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.collections.ConcurrentRingBuffer;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.jsse.JSSESocketFactory;
 import org.apache.tomcat.util.net.jsse.NioX509KeyManager;
@@ -210,6 +212,8 @@ public class NioEndpoint extends AbstractEndpoint {
         protected AtomicInteger size = new AtomicInteger(0);
         public boolean offer(SocketProcessor sc) {
             sc.reset(null,null);
+            ConcurrentRingBuffer<SocketProcessor> ring = processorRing;
+            if ( ring != null ) return running && (!paused) && ring.offer(sc);
             boolean offer = socketProperties.getProcessorCache()==-1?true:size.get()<socketProperties.getProcessorCache();
             //avoid over growing our cache or add after we have stopped
             if ( running && (!paused) && (offer) ) {
@@ -223,6 +227,8 @@ public class NioEndpoint extends AbstractEndpoint {
         }
 
         public SocketProcessor poll() {
+            ConcurrentRingBuffer<SocketProcessor> ring = processorRing;
+            if ( ring != null ) return ring.poll();
             SocketProcessor result = super.poll();
             if ( result != null ) {
                 size.decrementAndGet();
@@ -233,6 +239,8 @@ public class NioEndpoint extends AbstractEndpoint {
         public void clear() {
             super.clear();
             size.set(0);
+            ConcurrentRingBuffer<SocketProcessor> ring = processorRing;
+            if ( ring != null ) ring.clear();
         }
     };
 
@@ -278,6 +286,8 @@ public class NioEndpoint extends AbstractEndpoint {
         protected AtomicInteger size = new AtomicInteger(0);
         public boolean offer(PollerEvent pe) {
             pe.reset();
+            ConcurrentRingBuffer<PollerEvent> ring = eventRing;
+            if ( ring != null ) return running && (!paused) && ring.offer(pe);
             boolean offer = socketProperties.getEventCache()==-1?true:size.get()<socketProperties.getEventCache();
             //avoid over growing our cache or add after we have stopped
             if ( running && (!paused) && (offer) ) {
@@ -291,6 +301,8 @@ public class NioEndpoint extends AbstractEndpoint {
         }
 
         public PollerEvent poll() {
+            ConcurrentRingBuffer<PollerEvent> ring = eventRing;
+            if ( ring != null ) return ring.poll();
             PollerEvent result = super.poll();
             if ( result != null ) {
                 size.decrementAndGet();
@@ -301,10 +313,20 @@ public class NioEndpoint extends AbstractEndpoint {
         public void clear() {
             super.clear();
             size.set(0);
+            ConcurrentRingBuffer<PollerEvent> ring = eventRing;
+            if ( ring != null ) ring.clear();
         }
     };
 
 
+    /**
+     * Array backed replacements for the event and processor caches, used
+     * when <code>eventQueueSize</code> is greater than 0.
+     */
+    protected volatile ConcurrentRingBuffer<PollerEvent> eventRing = null;
+    protected volatile ConcurrentRingBuffer<SocketProcessor> processorRing = null;
+
+
     /**
      * Bytebuffer cache, each channel holds a set of buffers (two, except for SSL holds four)
      */
@@ -503,6 +525,25 @@ public class NioEndpoint extends AbstractEndpoint {
     public int getAcceptorThreadCount() { return acceptorThreadCount; }
 
 
+    /**
+     * Give each poller its own listening channel, bound to the endpoint
+     * address with SO_REUSEPORT, and let the poller accept its own
+     * connections. Accept, register and read for a connection then all happen
+     * on the same poller thread and the acceptor threads are not started.
+     * Requires a JVM and OS that support SO_REUSEPORT; otherwise the endpoint
+     * falls back to the shared acceptor threads.
+     */
+    protected boolean reusePort = false;
+    public void setReusePort(boolean reusePort) { this.reusePort = reusePort; }
+    public boolean getReusePort() { return reusePort; }
+
+    /**
+     * Whether the pollers are accepting on their own listening channels,
+     * i.e. <code>reusePort</code> was requested and is supported.
+     */
+    protected boolean pollerAccept = false;
+    public boolean isPollerAccept() { return pollerAccept; }
+
 
     /**
      * Poller thread count.
@@ -511,6 +552,20 @@ public class NioEndpoint extends AbstractEndpoint {
     public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
     public int getPollerThreadCount() { return pollerThreadCount; }
 
+    /**
+     * Capacity of the lock free, array backed ring buffer used for each
+     * poller's event queue. When greater than 0 the PollerEvent and
+     * SocketProcessor caches are also backed by ring buffers (sized by
+     * <code>socket.eventCache</code> and <code>socket.processorCache</code>,
+     * or by this value when those are unlimited), so registering a socket
+     * or dispatching it to a worker allocates nothing. Events that don't fit
+     * in a full ring are queued in an unbounded overflow queue.
+     * The default of 0 uses unbounded linked queues only.
+     */
+    protected int eventQueueSize = 0;
+    public void setEventQueueSize(int eventQueueSize) { this.eventQueueSize = eventQueueSize; }
+    public int getEventQueueSize() { return eventQueueSize; }
+
     protected long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
@@ -527,6 +582,57 @@ public class NioEndpoint extends AbstractEndpoint {
         return pollers[idx];
     }
 
+    /**
+     * Total number of connections accepted by the pollers on their own
+     * listening channels.
+     */
+    public long getAcceptCount() {
+        long sum = 0;
+        Poller[] pollers = this.pollers;
+        for (int i=0; pollers!=null && i<pollers.length; i++) {
+            if (pollers[i]!=null) sum += pollers[i].getAcceptCount();
+        }
+        return sum;
+    }
+
+    /**
+     * Total number of connections registered with the pollers.
+     */
+    public long getRegisterCount() {
+        long sum = 0;
+        Poller[] pollers = this.pollers;
+        for (int i=0; pollers!=null && i<pollers.length; i++) {
+            if (pollers[i]!=null) sum += pollers[i].getRegisterCount();
+        }
+        return sum;
+    }
+
+    /**
+     * Per poller accept counts, in poller order, e.g. <code>[12, 9, 14]</code>.
+     */
+    public String getPollerAcceptCounts() {
+        StringBuilder buf = new StringBuilder("[");
+        Poller[] pollers = this.pollers;
+        for (int i=0; pollers!=null && i<pollers.length; i++) {
+            if (i>0) buf.append(", ");
+            buf.append(pollers[i]!=null?pollers[i].getAcceptCount():0);
+        }
+        return buf.append("]").toString();
+    }
+
+    /**
+     * Per poller register counts, in poller order, e.g. <code>[12, 9, 14]</code>.
+     */
+    public String getPollerRegisterCounts() {
+        StringBuilder buf = new StringBuilder("[");
+        Poller[] pollers = this.pollers;
+        for (int i=0; pollers!=null && i<pollers.length; i++) {
+            if (i>0) buf.append(", ");
+            buf.append(pollers[i]!=null?pollers[i].getRegisterCount():0);
+        }
+        return buf.append("]").toString();
+    }
+
     /**
      * Dummy maxSpareThreads property.
      */
@@ -751,6 +857,8 @@ public class NioEndpoint extends AbstractEndpoint {
             int sum = 0;
             for (int i=0; i<pollers.length; i++) {
                 sum += pollers[i].selector.keys().size();
+                //the poller's own listening channel is not a keepalive socket
+                if (pollers[i].acceptKey != null) sum--;
             }
             return sum;
         }
@@ -825,13 +933,20 @@ public class NioEndpoint extends AbstractEndpoint {
             return;
 
         serverSock = ServerSocketChannel.open();
-        serverSock.socket().setPerformancePreferences(socketProperties.getPerformanceConnectionTime(),
-                                                      socketProperties.getPerformanceLatency(),
-                                                      socketProperties.getPerformanceBandwidth());
+        pollerAccept = false;
+        if (reusePort) {
+            pollerAccept = setReusePort(serverSock);
+            if (!pollerAccept) log.warn(sm.getString("endpoint.nio.reusePortUnavailable"));
+        }
         InetSocketAddress addr = (address!=null?new InetSocketAddress(address,port):new InetSocketAddress(port));
-        serverSock.socket().bind(addr,backlog);
-        serverSock.configureBlocking(true); //mimic APR behavior
-        serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        bind(serverSock, addr);
+        if (pollerAccept) {
+            //accepted by the pollers through their selectors
+            serverSock.configureBlocking(false);
+        } else {
+            serverSock.configureBlocking(true); //mimic APR behavior
+            serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        }
 
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
@@ -898,6 +1013,59 @@ public class NioEndpoint extends AbstractEndpoint {
     }
 
 
+    /**
+     * Bind the given server socket channel to the given address.
+     */
+    protected void bind(ServerSocketChannel ssc, SocketAddress addr) throws IOException {
+        ssc.socket().setPerformancePreferences(socketProperties.getPerformanceConnectionTime(),
+                                               socketProperties.getPerformanceLatency(),
+                                               socketProperties.getPerformanceBandwidth());
+        ssc.socket().bind(addr,backlog);
+    }
+
+
+    /**
+     * Open an additional non blocking listening channel, bound with
+     * SO_REUSEPORT to the address the server socket is bound to (which
+     * matters if the configured port is 0), for a poller to accept on.
+     */
+    protected ServerSocketChannel openPollerServerSocket() throws IOException {
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        try {
+            if (!setReusePort(ssc)) {
+                throw new IOException("Unable to set SO_REUSEPORT on poller server socket");
+            }
+            bind(ssc, serverSock.socket().getLocalSocketAddress());
+            ssc.configureBlocking(false);
+        } catch (IOException x) {
+            try { ssc.close(); } catch (Exception ignore) {}
+            throw x;
+        }
+        return ssc;
+    }
+
+
+    /**
+     * Enable SO_REUSEPORT on an unbound server socket channel. The option
+     * only exists as of Java 9, so it is looked up reflectively.
+     *
+     * @return <code>true</code> if the option is supported and was set
+     */
+    protected static boolean setReusePort(ServerSocketChannel ssc) {
+        try {
+            Object option = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+            Set<?> supported = (Set<?>) ServerSocketChannel.class.getMethod("supportedOptions").invoke(ssc);
+            if (!supported.contains(option)) return false;
+            ServerSocketChannel.class.getMethod("setOption", Class.forName("java.net.SocketOption"), Object.class)
+                .invoke(ssc, option, Boolean.TRUE);
+            return true;
+        } catch (Exception x) {
+            if (log.isDebugEnabled()) log.debug("SO_REUSEPORT is not available", x);
+            return false;
+        }
+    }
+
+
     /**
      * Start the NIO endpoint, creating acceptor, poller threads.
      */
@@ -923,18 +1091,30 @@ public class NioEndpoint extends AbstractEndpoint {
                 workers = new WorkerStack(maxThreads);
             }
 
+            // Create the array backed caches
+            if (eventQueueSize > 0) {
+                eventRing = createCacheRing(socketProperties.getEventCache());
+                processorRing = createCacheRing(socketProperties.getProcessorCache());
+            } else {
+                eventRing = null;
+                processorRing = null;
+            }
+
             // Start poller threads
             pollers = new Poller[getPollerThreadCount()];
             for (int i=0; i<pollers.length; i++) {
                 pollers[i] = new Poller();
+                if (pollerAccept) {
+                    pollers[i].setServerChannel(i==0?serverSock:openPollerServerSocket());
+                }
                 Thread pollerThread = new Thread(pollers[i], getName() + "-ClientPoller-"+i);
                 pollerThread.setPriority(threadPriority);
                 pollerThread.setDaemon(true);
                 pollerThread.start();
             }
 
-            // Start acceptor threads
-            for (int i = 0; i < acceptorThreadCount; i++) {
+            // Start acceptor threads, unless the pollers accept themselves
+            for (int i = 0; !pollerAccept && i < acceptorThreadCount; i++) {
                 Thread acceptorThread = new Thread(new Acceptor(), getName() + "-Acceptor-" + i);
                 acceptorThread.setPriority(threadPriority);
                 acceptorThread.setDaemon(daemon);
@@ -944,6 +1124,18 @@ public class NioEndpoint extends AbstractEndpoint {
     }
 
 
+    /**
+     * Create a ring buffer for a cache of the given configured size, where
+     * -1 means unlimited and 0 means no cache.
+     *
+     * @return the ring, or null if caching is disabled
+     */
+    protected <T> ConcurrentRingBuffer<T> createCacheRing(int cacheSize) {
+        if (cacheSize == 0) return null;
+        return new ConcurrentRingBuffer<T>(cacheSize < 0 ? eventQueueSize : cacheSize);
+    }
+
+
     /**
      * Pause the endpoint, which will make it stop accepting new sockets.
      */
@@ -1065,6 +1257,10 @@ public class NioEndpoint extends AbstractEndpoint {
      * Unlock the server socket accept using a bogus connection.
      */
     protected void unlockAccept() {
+        if (pollerAccept) {
+            //the pollers never block in accept, closing the poller is enough
+            return;
+        }
         java.net.Socket s = null;
         InetSocketAddress saddr = null;
         try {
@@ -1105,6 +1301,15 @@ public class NioEndpoint extends AbstractEndpoint {
      * Process the specified connection.
      */
     protected boolean setSocketOptions(SocketChannel socket) {
+        return setSocketOptions(socket, null);
+    }
+
+
+    /**
+     * Process the specified connection, registering it with the given poller,
+     * or with the next poller in turn if <code>poller</code> is null.
+     */
+    protected boolean setSocketOptions(SocketChannel socket, Poller poller) {
         // Process the connection
         try {
             //disable blocking, APR style, we are gonna be polling it
@@ -1139,7 +1344,8 @@ public class NioEndpoint extends AbstractEndpoint {
                     channel.reset();
                 }
             }
-            getPoller0().register(channel);
+            if (poller == null) poller = getPoller0();
+            poller.register(channel);
         } catch (Throwable t) {
             try {
                 log.error("",t);
@@ -1458,6 +1664,12 @@ public class NioEndpoint extends AbstractEndpoint {
 
         protected Selector selector;
         protected ConcurrentLinkedQueue<Runnable> events = new ConcurrentLinkedQueue<Runnable>();
+        /**
+         * Events are added here first when <code>eventQueueSize</code> is set,
+         * <code>events</code> then only takes what doesn't fit.
+         */
+        protected ConcurrentRingBuffer<Runnable> eventRing =
+            eventQueueSize > 0 ? new ConcurrentRingBuffer<Runnable>(eventQueueSize) : null;
 
         protected volatile boolean close = false;
         protected long nextExpiration = 0;//optimize expiration handling
@@ -1466,6 +1678,15 @@ public class NioEndpoint extends AbstractEndpoint {
 
         protected CountDownLatch stopLatch = new CountDownLatch(1);
 
+        /**
+         * Listening channel this poller accepts on, when <code>reusePort</code>
+         * is in effect.
+         */
+        protected ServerSocketChannel serverChannel = null;
+        protected SelectionKey acceptKey = null;
+
+        protected AtomicLong acceptCount = new AtomicLong(0);
+        protected AtomicLong registerCount = new AtomicLong(0);
 
 
         public Poller() throws IOException {
@@ -1474,6 +1695,47 @@ public class NioEndpoint extends AbstractEndpoint {
 
         public Selector getSelector() { return selector;}
 
+        public long getAcceptCount() { return acceptCount.get(); }
+        public long getRegisterCount() { return registerCount.get(); }
+
+        /**
+         * Make this poller accept connections from the given non blocking
+         * listening channel. Must be called before the poller is started.
+         */
+        protected void setServerChannel(ServerSocketChannel ssc) throws IOException {
+            serverChannel = ssc;
+            acceptKey = ssc.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        /**
+         * Accept the pending connections on this poller's listening channel
+         * and register them with this poller. At most <code>backlog</code>
+         * connections are accepted per call so that a connection storm
+         * can't starve the sockets already registered here.
+         */
+        protected void accept() {
+            for (int i=0; i<backlog; i++) {
+                SocketChannel socket = null;
+                try {
+                    socket = serverChannel.accept();
+                } catch (IOException x) {
+                    if ( running ) log.error(sm.getString("endpoint.accept.fail"), x);
+                    return;
+                }
+                if ( socket == null ) return;
+                acceptCount.incrementAndGet();
+                if ( !running || paused || !setSocketOptions(socket,this) ) {
+                    try {
+                        socket.socket().close();
+                        socket.close();
+                    } catch (IOException ix) {
+                        if (log.isDebugEnabled())
+                            log.debug("", ix);
+                    }
+                }
+            }
+        }
+
         /**
          * Destroy the poller.
          */
@@ -1482,12 +1744,16 @@ public class NioEndpoint extends AbstractEndpoint {
             // exit, otherwise parallel closure of sockets which are still
             // in the poller can cause problems
             close = true;
+            if (eventRing != null) eventRing.clear();
             events.clear();
             selector.wakeup();
         }
 
         public void addEvent(Runnable event) {
-            events.offer(event);
+            // Once the ring is full, events go to the overflow queue until it
+            // is drained, so that the ring only holds events older than the
+            // overflowed ones and they run in the order they were added
+            if (eventRing == null || !events.isEmpty() || !eventRing.offer(event)) events.offer(event);
             if ( wakeupCounter.incrementAndGet() == 0 ) selector.wakeup();
         }
 
@@ -1533,7 +1799,7 @@ public class NioEndpoint extends AbstractEndpoint {
             boolean result = false;
 
             Runnable r = null;
-            while ( (r = (Runnable)events.poll()) != null ) {
+            while ( (r = pollEvent()) != null ) {
                 result = true;
                 try {
                     r.run();
@@ -1549,8 +1815,18 @@ public class NioEndpoint extends AbstractEndpoint {
             return result;
         }
 
+        /**
+         * Take the next event: the ring is drained first, as it holds the
+         * oldest events, then the overflow queue.
+         */
+        protected Runnable pollEvent() {
+            Runnable r = (eventRing != null) ? eventRing.poll() : null;
+            return (r != null) ? r : events.poll();
+        }
+
         public void register(final NioChannel socket)
         {
+            registerCount.incrementAndGet();
             socket.setPoller(this);
             KeyAttachment key = keyCache.poll();
             final KeyAttachment ka = key!=null?key:new KeyAttachment();
@@ -1670,6 +1946,11 @@ public class NioEndpoint extends AbstractEndpoint {
                     // any active event.
                     while (iterator != null && iterator.hasNext()) {
                         SelectionKey sk = (SelectionKey) iterator.next();
+                        if (sk == acceptKey) {
+                            iterator.remove();
+                            accept();
+                            continue;
+                        }
                         KeyAttachment attachment = (KeyAttachment)sk.attachment();
                         // Attachment may be null if another thread has called
                         // cancelledKey()
@@ -1698,6 +1979,14 @@ public class NioEndpoint extends AbstractEndpoint {
                     }
                 }
             }//while
+            if (serverChannel != null && serverChannel != serverSock) {
+                //the shared server socket is closed in destroy()
+                try {
+                    serverChannel.close();
+                } catch (IOException x) {
+                    if (log.isDebugEnabled()) log.debug(sm.getString("endpoint.debug.channelCloseFail"), x);
+                }
+            }
             synchronized (this) {
                 this.notifyAll();
             }
@@ -1878,6 +2167,7 @@ public class NioEndpoint extends AbstractEndpoint {
             int keycount = 0;
             for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext(); ) {
                 SelectionKey key = iter.next();
+                if (key == acceptKey) continue;
                 keycount++;
                 try {
                     KeyAttachment ka = (KeyAttachment) key.attachment();
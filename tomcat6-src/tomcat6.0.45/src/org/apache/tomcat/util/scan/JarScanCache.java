@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tomcat.util.scan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * On-disk cache of the results of scanning JAR files, kept in the work
+ * directory of a context so that the JARs which did not change since the
+ * previous start don't have to be scanned again.
+ * <p>
+ * Results are lists of strings, such as entry names or TLD URIs, recorded
+ * for a JAR identified by its path, size and last modification date. A
+ * result is only returned when the JAR still has the same size and date.
+ * The file is rewritten by {@link #save()} if results were added, and then
+ * only holds the JARs used since it was loaded, so that removed JARs are
+ * dropped.
+ */
+public class JarScanCache {
+
+    private static final Log log = LogFactory.getLog(JarScanCache.class);
+
+    private static final int MAGIC = 0x4a534331;
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * Create a cache stored in the given file, which is read on first use.
+     */
+    public JarScanCache(File file) {
+        this.file = file;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    protected final File file;
+
+
+    /**
+     * Entries read from the file, keyed by JAR path.
+     */
+    protected Map<String, Entry> loaded = null;
+
+
+    /**
+     * Entries used or added since the file was read.
+     */
+    protected Map<String, Entry> used = new HashMap<String, Entry>();
+
+
+    protected boolean modified = false;
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return the cached results for the given JAR, or <code>null</code> if
+     * there are none or the JAR changed since they were recorded.
+     */
+    public synchronized String[] get(File jar) {
+        if (loaded == null) {
+            loaded = load();
+        }
+        String path = jar.getAbsolutePath();
+        Entry entry = loaded.get(path);
+        if ((entry == null) || (entry.length != jar.length())
+                || (entry.lastModified != jar.lastModified())) {
+            return null;
+        }
+        used.put(path, entry);
+        return entry.values;
+    }
+
+
+    /**
+     * Record the results of scanning the given JAR.
+     */
+    public synchronized void put(File jar, String[] values) {
+        Entry entry = new Entry();
+        entry.length = jar.length();
+        entry.lastModified = jar.lastModified();
+        entry.values = values;
+        used.put(jar.getAbsolutePath(), entry);
+        modified = true;
+    }
+
+
+    /**
+     * Write the cache if results were added. Failures are logged, as the
+     * cache only saves time.
+     */
+    public synchronized void save() {
+        if (!modified && ((loaded == null) || (loaded.size() == used.size()))) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            file.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(used.size());
+            Iterator<Map.Entry<String, Entry>> entries =
+                used.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Entry> entry = entries.next();
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().length);
+                out.writeLong(entry.getValue().lastModified);
+                String[] values = entry.getValue().values;
+                out.writeInt(values.length);
+                for (int i = 0; i < values.length; i++) {
+                    out.writeUTF(values[i]);
+                }
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException(tmp.getPath());
+                }
+            }
+            modified = false;
+            loaded = new HashMap<String, Entry>(used);
+        } catch (IOException e) {
+            log.warn("Failed to write scan cache " + file, e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Read the file, returning no entries if it is missing or invalid.
+     */
+    protected Map<String, Entry> load() {
+        HashMap<String, Entry> result = new HashMap<String, Entry>();
+        if (!file.isFile()) {
+            return result;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                return result;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry();
+                entry.length = in.readLong();
+                entry.lastModified = in.readLong();
+                entry.values = new String[in.readInt()];
+                for (int j = 0; j < entry.values.length; j++) {
+                    entry.values[j] = in.readUTF();
+                }
+                result.put(path, entry);
+            }
+        } catch (Exception e) {
+            // IOException, or a runtime exception on a corrupted file
+            if (log.isDebugEnabled()) {
+                log.debug("Ignoring invalid scan cache " + file, e);
+            }
+            result.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        return result;
+    }
+
+
+    // -------------------------------------------------- Entry Inner Class
+
+
+    protected static class Entry {
+        long length;
+        long lastModified;
+        String[] values;
+    }
+
+}
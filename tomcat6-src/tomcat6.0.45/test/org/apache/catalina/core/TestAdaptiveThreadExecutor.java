@@ -0,0 +1,101 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAdaptiveThreadExecutor {
+
+    @Test
+    public void testGrowsWhenTasksQueue() throws Exception {
+        AdaptiveThreadExecutor executor = new AdaptiveThreadExecutor();
+        executor.setName("test");
+        executor.setMinSpareThreads(2);
+        executor.setMaxThreads(32);
+        executor.setTargetQueueTime(1);
+        executor.setAdjustInterval(20);
+        executor.start();
+        try {
+            Assert.assertEquals(2, executor.getThreadLimit());
+            int count = 400;
+            final CountDownLatch done = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+            Assert.assertTrue(executor.getThreadLimit() > 2);
+            Assert.assertTrue(executor.getThreadLimit() <= 32);
+            Assert.assertTrue(executor.getQueueTimeEwma() > 0);
+            Assert.assertTrue(executor.getServiceTimeHistogram().startsWith("1ms=0, 2ms=0, 4ms=0, 8ms="));
+        } finally {
+            executor.stop();
+        }
+    }
+
+    @Test
+    public void testGrowsWhenThreadsBlocked() throws Exception {
+        AdaptiveThreadExecutor executor = new AdaptiveThreadExecutor();
+        executor.setName("test");
+        executor.setMinSpareThreads(2);
+        executor.setMaxThreads(8);
+        executor.setTargetQueueTime(1);
+        executor.setAdjustInterval(20);
+        executor.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // No task completes while these block the pool
+            for (int i = 0; i < 2; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                    }
+                });
+            }
+            final CountDownLatch ran = new CountDownLatch(1);
+            for (int i = 0; i < 200 && ran.getCount() > 0; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        ran.countDown();
+                    }
+                });
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, ran.getCount());
+            Assert.assertTrue(executor.getThreadLimit() > 2);
+        } finally {
+            release.countDown();
+            executor.stop();
+        }
+    }
+}
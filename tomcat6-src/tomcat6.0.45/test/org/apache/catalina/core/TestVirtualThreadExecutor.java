@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestVirtualThreadExecutor {
+
+    @Test
+    public void testFallback() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor() {
+            protected ThreadFactory createVirtualThreadFactory(String prefix) {
+                return null;
+            }
+        };
+        executor.setName("test");
+        executor.setNamePrefix("test-");
+        executor.setMaxThreads(2);
+        executor.setMaxIdleTime(100);
+        executor.start();
+        try {
+            Assert.assertFalse(executor.isVirtual());
+            int count = 20;
+            final CountDownLatch done = new CountDownLatch(count);
+            final Set<String> names =
+                Collections.synchronizedSet(new HashSet<String>());
+            for (int i = 0; i < count; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        names.add(Thread.currentThread().getName());
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+            Assert.assertTrue(names.size() <= 2);
+            for (String name : names) {
+                Assert.assertTrue(name, name.startsWith("test-"));
+            }
+            Assert.assertEquals(2, executor.getLargestPoolSize());
+            // The idle platform threads time out
+            for (int i = 0; i < 100 && executor.getPoolSize() > 0; i++) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(0, executor.getPoolSize());
+            Assert.assertEquals(count, executor.getCompletedTaskCount());
+        } finally {
+            executor.stop();
+        }
+    }
+}
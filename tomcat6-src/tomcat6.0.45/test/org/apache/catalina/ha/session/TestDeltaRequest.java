@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.ha.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.catalina.core.StandardContext;
+import org.junit.Test;
+
+public class TestDeltaRequest {
+
+    @Test
+    public void testReplicationDelta() throws Exception {
+        DeltaSession primary = createSession();
+        DeltaSession backup = createSession();
+
+        Cart cart = new Cart();
+        for (int i = 0; i < 100; i++) {
+            cart.add("item-" + i);
+        }
+        primary.setAttribute("cart", cart);
+        int fullSize = replicate(primary, backup);
+        Cart copy = (Cart) backup.getAttribute("cart");
+        assertEquals(cart.items, copy.items);
+
+        cart.add("extra");
+        primary.setAttribute("cart", cart);
+        int deltaSize = replicate(primary, backup);
+        assertTrue(deltaSize < fullSize / 4);
+        assertSame(copy, backup.getAttribute("cart"));
+        assertEquals(cart.items, copy.items);
+
+        // Set again without a change
+        primary.setAttribute("cart", cart);
+        assertEquals(0, replicate(primary, backup));
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        DeltaSession primary = createSession();
+        DeltaSession backup = createSession();
+
+        primary.setAttribute("name", "first");
+        replicate(primary, backup);
+        primary.setAttribute("name", new String("first"));
+        assertEquals(0, replicate(primary, backup));
+
+        // Changed on the other node, then set back
+        backup.setAttribute("name", "second");
+        replicate(backup, primary);
+        assertEquals("second", primary.getAttribute("name"));
+        primary.setAttribute("name", "first");
+        assertTrue(replicate(primary, backup) > 0);
+        assertEquals("first", backup.getAttribute("name"));
+
+        primary.removeAttribute("name");
+        replicate(primary, backup);
+        primary.setAttribute("name", "first");
+        assertTrue(replicate(primary, backup) > 0);
+        assertEquals("first", backup.getAttribute("name"));
+    }
+
+    /**
+     * Replicate the changes of a session as DeltaManager does, returning the
+     * size of the message, or 0 if nothing had to be sent.
+     */
+    private static int replicate(DeltaSession from, DeltaSession to)
+            throws Exception {
+        DeltaRequest deltaRequest = from.getDeltaRequest();
+        byte[] data = deltaRequest.serialize();
+        int size = deltaRequest.getSize();
+        from.resetDeltaRequest();
+        if (size == 0) {
+            return 0;
+        }
+        DeltaManager manager = (DeltaManager) to.getManager();
+        manager.deserializeDeltaRequest(to, data).execute(to, false);
+        return data.length;
+    }
+
+    private static DeltaSession createSession() {
+        DeltaManager manager = new DeltaManager();
+        manager.setContainer(new StandardContext());
+        manager.setReplicateAttributeDeltas(true);
+        DeltaSession session = new DeltaSession(manager);
+        session.setValid(true);
+        session.setId("ABC");
+        return session;
+    }
+
+    /**
+     * A list which replicates the items added to it.
+     */
+    private static class Cart implements ReplicationDelta {
+
+        private static final long serialVersionUID = 1L;
+
+        final List<String> items = new ArrayList<String>();
+        transient List<String> added = new ArrayList<String>();
+
+        void add(String item) {
+            items.add(item);
+            added.add(item);
+        }
+
+        public byte[] getDelta() throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeInt(added.size());
+            for (int i = 0; i < added.size(); i++) {
+                dos.writeUTF(added.get(i));
+            }
+            dos.close();
+            return added.isEmpty() ? new byte[0] : bos.toByteArray();
+        }
+
+        public void applyDelta(byte[] delta, int offset, int length)
+                throws IOException {
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(delta, offset, length));
+            int n = dis.readInt();
+            for (int i = 0; i < n; i++) {
+                items.add(dis.readUTF());
+            }
+        }
+
+        public void resetDelta() {
+            added = new ArrayList<String>();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.loader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.naming.resources.FileDirContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestWebappClassLoader {
+
+    private File webapp;
+    private WebappClassLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        webapp = new File(System.getProperty("java.io.tmpdir"),
+                "TestWebappClassLoader" + System.nanoTime());
+        File classes = new File(webapp, "WEB-INF/classes");
+        new File(classes, "pkg").mkdirs();
+        write(new File(classes, "pkg/classes.txt"));
+        write(new File(classes, "dup.txt"));
+        File lib = new File(webapp, "WEB-INF/lib");
+        lib.mkdirs();
+
+        FileDirContext resources = new FileDirContext();
+        resources.setDocBase(webapp.getAbsolutePath());
+        loader = new WebappClassLoader(getClass().getClassLoader());
+        loader.setResources(resources);
+        loader.addRepository("/WEB-INF/classes/", classes);
+        for (int i = 0; i < 3; i++) {
+            File jar = new File(lib, "lib" + i + ".jar");
+            JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+            jos.putNextEntry(new JarEntry("META-INF/services/"));
+            jos.putNextEntry(new JarEntry("META-INF/services/test"));
+            jos.putNextEntry(new JarEntry("dup.txt"));
+            jos.putNextEntry(new JarEntry("jar" + i + ".txt"));
+            jos.close();
+            loader.addJar("/WEB-INF/lib/" + jar.getName(), new JarFile(jar), jar);
+        }
+        loader.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loader.closeJARs(true);
+        delete(webapp);
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        assertNotNull(loader.entryIndex);
+        assertEquals(1, loader.entryIndex.get("pkg/classes.txt").length);
+        assertEquals(4, loader.entryIndex.get("dup.txt").length);
+        assertNotNull(loader.entryIndex.get("META-INF/services"));
+
+        assertTrue(loader.getResource("pkg/classes.txt").toString()
+                .startsWith("file:"));
+        assertTrue(loader.getResource("dup.txt").toString()
+                .startsWith("file:"));
+        URL url = loader.getResource("jar2.txt");
+        assertTrue(url.toString().startsWith("jar:"));
+        assertTrue(url.toString().endsWith("lib2.jar!/jar2.txt"));
+        assertNotNull(loader.getResource("META-INF/services"));
+        assertNull(loader.getResource("missing.txt"));
+        assertNull(loader.getResource("jar3.txt"));
+        // Paths not in the form used by the index are normalized
+        assertNotNull(loader.getResource("pkg/../dup.txt"));
+    }
+
+    @Test
+    public void testResources() throws Exception {
+        List<URL> urls = Collections.list(loader.getResources("dup.txt"));
+        assertEquals(4, urls.size());
+        assertTrue(urls.get(0).toString().startsWith("file:"));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(urls.get(i + 1).toString().endsWith(
+                    "lib" + i + ".jar!/dup.txt"));
+        }
+        urls = Collections.list(loader.getResources("META-INF/services/test"));
+        assertEquals(3, urls.size());
+        assertEquals(new ArrayList<URL>(), Collections.list(
+                loader.findResources("missing.txt")));
+    }
+
+    @Test
+    public void testClassLoadingLock() throws Exception {
+        assertSame(loader.getClassLoadingLock("a.B"),
+                loader.getClassLoadingLock("a.B"));
+        assertTrue(loader.getClassLoadingLock("a.B")
+                != loader.getClassLoadingLock("a.C"));
+        assertNotNull(loader.loadClass("java.lang.String"));
+
+        // Not registered as parallel capable: the JVM locks on the loader
+        WebappClassLoader subclass =
+            new WebappClassLoader(getClass().getClassLoader()) {};
+        assertSame(subclass, subclass.getClassLoadingLock("a.B"));
+    }
+
+    private static void write(File file) throws IOException {
+        FileOutputStream os = new FileOutputStream(file);
+        os.write(file.getName().getBytes("ISO-8859-1"));
+        os.close();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                delete(files[i]);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.junit.Test;
+
+public class TestExpirationIndex {
+
+    @Test
+    public void testExpiration() throws Exception {
+        StandardManager manager = createManager();
+        long now = System.currentTimeMillis();
+
+        Session[] sessions = new Session[100];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = manager.createSession(null);
+            sessions[i].setMaxInactiveInterval(60);
+        }
+        // Half of the sessions were last accessed long ago
+        for (int i = 0; i < sessions.length; i += 2) {
+            ((StandardSession) sessions[i]).thisAccessedTime = now - 120000;
+            manager.scheduleExpiration(sessions[i]);
+        }
+
+        manager.processExpires();
+        assertEquals(50, manager.getLastExpiredSessions());
+        assertEquals(50, manager.getLastExpiresChecked());
+        assertEquals(50, manager.getActiveSessions());
+        for (int i = 0; i < sessions.length; i++) {
+            assertEquals(i % 2 == 1, sessions[i].isValid());
+        }
+
+        // Nothing due
+        manager.processExpires();
+        assertEquals(0, manager.getLastExpiresChecked());
+    }
+
+    @Test
+    public void testTimeoutChange() throws Exception {
+        StandardManager manager = createManager();
+        Session session = manager.createSession(null);
+        session.setMaxInactiveInterval(3600);
+        ((StandardSession) session).thisAccessedTime =
+            System.currentTimeMillis() - 120000;
+        manager.processExpires();
+        assertTrue(session.isValid());
+
+        // Shorter timeout, due in the next bucket
+        session.setMaxInactiveInterval(60);
+        Thread.sleep(1100);
+        manager.processExpires();
+        assertEquals(1, manager.getLastExpiredSessions());
+        assertNull(manager.findSession(session.getIdInternal()));
+    }
+
+    @Test
+    public void testAccessed() throws Exception {
+        StandardManager manager = createManager();
+        Session session = manager.createSession(null);
+        session.setMaxInactiveInterval(2);
+        Thread.sleep(2100);
+        // Accessed after being scheduled: moved to a later bucket
+        session.access();
+        session.endAccess();
+        manager.processExpires();
+        assertEquals(1, manager.getLastExpiresChecked());
+        assertEquals(0, manager.getLastExpiredSessions());
+        assertNotNull(manager.findSession(session.getIdInternal()));
+        assertFalse(manager.expirationBuckets.isEmpty());
+    }
+
+    @Test
+    public void testRemoved() throws Exception {
+        StandardManager manager = createManager();
+        Session session = manager.createSession(null);
+        session.setMaxInactiveInterval(1);
+        session.expire();
+        manager.processExpires();
+        assertEquals(0, manager.getLastExpiresChecked());
+    }
+
+    private static StandardManager createManager() {
+        StandardManager manager = new StandardManager();
+        manager.setContainer(new StandardContext());
+        manager.setUseExpirationIndex(true);
+        return manager;
+    }
+}
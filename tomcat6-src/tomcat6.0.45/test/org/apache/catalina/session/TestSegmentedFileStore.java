@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.session;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSegmentedFileStore {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("segments", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        PersistentManager manager = new PersistentManager();
+        SegmentedFileStore store = createStore(manager);
+
+        Session session = manager.createSession(null);
+        session.getSession().setAttribute("a", "1");
+        store.save(session);
+        session.getSession().setAttribute("a", "2");
+        store.save(session);
+        assertEquals(1, store.getSize());
+
+        Session loaded = store.load(session.getIdInternal());
+        assertNotNull(loaded);
+        assertEquals("2", loaded.getSession().getAttribute("a"));
+
+        store.remove(session.getIdInternal());
+        assertNull(store.load(session.getIdInternal()));
+        assertEquals(0, store.keys().length);
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        PersistentManager manager = new PersistentManager();
+        SegmentedFileStore store = createStore(manager);
+        Session[] sessions = new Session[10];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = manager.createSession(null);
+            sessions[i].getSession().setAttribute("i", Integer.valueOf(i));
+        }
+        store.save(sessions);
+        store.remove(sessions[0].getIdInternal());
+        store.stop();
+
+        store = createStore(manager);
+        assertEquals(9, store.getSize());
+        assertNull(store.load(sessions[0].getIdInternal()));
+        Session loaded = store.load(sessions[5].getIdInternal());
+        assertEquals(Integer.valueOf(5), loaded.getSession().getAttribute("i"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        PersistentManager manager = new PersistentManager();
+        SegmentedFileStore store = createStore(manager);
+        store.setSegmentSize(4096);
+
+        Session kept = manager.createSession(null);
+        kept.getSession().setAttribute("a", "kept");
+        store.save(kept);
+        Session session = manager.createSession(null);
+        for (int i = 0; i < 50; i++) {
+            session.getSession().setAttribute("a", new byte[200]);
+            store.save(session);
+        }
+        int segments = store.getSegmentCount();
+        assertEquals(true, segments > 2);
+
+        store.compact();
+        assertEquals(true, store.getSegmentCount() < segments);
+        assertEquals(true, store.getCompactionCount() > 0);
+        assertEquals(2, store.getSize());
+        assertEquals("kept",
+                store.load(kept.getIdInternal()).getSession().getAttribute("a"));
+
+        // The compacted segments are gone after a restart as well
+        store.stop();
+        store = createStore(manager);
+        assertEquals(2, store.getSize());
+        assertNotNull(store.load(session.getIdInternal()));
+        assertEquals("kept",
+                store.load(kept.getIdInternal()).getSession().getAttribute("a"));
+    }
+
+    @Test
+    public void testRemovalRecords() throws Exception {
+        PersistentManager manager = new PersistentManager();
+        SegmentedFileStore store = createStore(manager);
+        store.setSegmentSize(4096);
+
+        // A long lived Session keeps the oldest segment from being compacted
+        Session kept = manager.createSession(null);
+        kept.getSession().setAttribute("a", new byte[3000]);
+        Session early = manager.createSession(null);
+        store.save(new Session[] { kept, early });
+        store.remove(early.getIdInternal());
+
+        for (int i = 0; i < 40; i++) {
+            Session[] sessions = new Session[10];
+            for (int j = 0; j < sessions.length; j++) {
+                sessions[j] = manager.createSession(null);
+                sessions[j].getSession().setAttribute("a", new byte[200]);
+            }
+            store.save(sessions);
+            for (int j = 0; j < sessions.length; j++) {
+                store.remove(sessions[j].getIdInternal());
+            }
+            store.compact();
+        }
+        // Without pruning, the removal records would fill new segments
+        assertEquals(true, store.getSegmentCount() <= 3);
+        assertEquals(1, store.getSize());
+
+        // The removal record of the Session in the oldest segment was kept
+        store.stop();
+        store = createStore(manager);
+        assertEquals(1, store.getSize());
+        assertNull(store.load(early.getIdInternal()));
+        assertNotNull(store.load(kept.getIdInternal()));
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        PersistentManager manager = new PersistentManager();
+        SegmentedFileStore store = createStore(manager);
+
+        Session expired = manager.createSession(null);
+        expired.setMaxInactiveInterval(0);
+        Session eternal = manager.createSession(null);
+        eternal.setMaxInactiveInterval(-1);
+        store.save(new Session[] { expired, eternal });
+
+        store.processExpires();
+        assertNull(store.load(expired.getIdInternal()));
+        assertNotNull(store.load(eternal.getIdInternal()));
+    }
+
+    private SegmentedFileStore createStore(PersistentManager manager)
+            throws Exception {
+        if (manager.getContainer() == null) {
+            manager.setContainer(new StandardContext());
+        }
+        SegmentedFileStore store = new SegmentedFileStore();
+        store.setDirectory(dir.getAbsolutePath());
+        manager.setStore(store);
+        store.start();
+        return store;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.catalina.core.StandardContext;
+import org.junit.Test;
+
+public class TestSessionSerializer {
+
+    @Test
+    public void testValues() throws Exception {
+        BinarySessionSerializer serializer = new BinarySessionSerializer();
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            longString.append((char) ('à' + i % 10));
+        }
+        HashMap<Object, Object> map = new HashMap<Object, Object>();
+        map.put("a", new Integer(1));
+        map.put(new Long(2), null);
+        HashSet<Object> set = new HashSet<Object>();
+        set.add("x");
+        set.add(new Date(1000));
+        LinkedList<String> linkedList = new LinkedList<String>();
+        linkedList.add("y");
+        Object[] values = {
+            null, Boolean.TRUE, Boolean.FALSE, new Byte((byte) -1),
+            new Short((short) 300), new Integer(-5), new Long(1L << 40),
+            new Float(1.5f), new Double(-2.25), new Character('€'),
+            "", "café", longString.toString(), new Date(123456789L),
+            new ArrayList<Object>(Arrays.asList(new Object[] {"b", null, map})),
+            map, set, linkedList
+        };
+        Object[] read = roundTrip(serializer, values);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(String.valueOf(i), values[i], read[i]);
+        }
+        assertTrue(read[17] instanceof LinkedList<?>);
+
+        byte[] bytes = new byte[] {0, 1, -1};
+        assertArrayEquals(bytes,
+                (byte[]) roundTrip(serializer, new Object[] {bytes})[0]);
+    }
+
+    @Test
+    public void testNotSerializable() throws Exception {
+        BinarySessionSerializer serializer = new BinarySessionSerializer();
+        HashMap<Object, Object> map = new HashMap<Object, Object>();
+        map.put("a", new ArrayList<Object>(Arrays.asList(new Object[] {
+            "b", new HashSet<Object>(Arrays.asList(new Object[] {new Object()}))
+        })));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.flush();
+        int size = bos.size();
+        try {
+            serializer.writeValue(map, oos);
+            fail();
+        } catch (NotSerializableException e) {
+            // Expected
+        }
+        oos.flush();
+        // Nothing written
+        assertEquals(size, bos.size());
+    }
+
+    @Test
+    public void testCycle() throws Exception {
+        BinarySessionSerializer serializer = new BinarySessionSerializer();
+        ArrayList<Object> list = new ArrayList<Object>();
+        HashMap<Object, Object> map = new HashMap<Object, Object>();
+        list.add("a");
+        list.add(map);
+        map.put("list", list);
+        ArrayList<?> read =
+            (ArrayList<?>) roundTrip(serializer, new Object[] {list})[0];
+        assertEquals("a", read.get(0));
+        assertSame(read, ((HashMap<?, ?>) read.get(1)).get("list"));
+    }
+
+    @Test
+    public void testAliasing() throws Exception {
+        BinarySessionSerializer serializer = new BinarySessionSerializer();
+        ArrayList<Object> shared = new ArrayList<Object>();
+        shared.add("a");
+        byte[] bytes = new byte[] {1, 2};
+        HashMap<Object, Object> map = new HashMap<Object, Object>();
+        map.put("x", shared);
+        map.put("y", shared);
+        map.put("b1", bytes);
+        map.put("b2", bytes);
+        HashMap<?, ?> read =
+            (HashMap<?, ?>) roundTrip(serializer, new Object[] {map})[0];
+        assertEquals(shared, read.get("x"));
+        assertSame(read.get("x"), read.get("y"));
+        assertSame(read.get("b1"), read.get("b2"));
+
+        // Equal but distinct collections are still written by the codec
+        map.put("y", new ArrayList<Object>(shared));
+        map.remove("b2");
+        assertTrue(size(serializer, map) < size(new JavaSessionSerializer(), map));
+    }
+
+    @Test
+    public void testRegistered() throws Exception {
+        BinarySessionSerializer serializer = new BinarySessionSerializer();
+        serializer.setRegisteredClasses(Point.class.getName());
+        Object[] read = roundTrip(serializer, new Object[] {new Point(3, 4)});
+        assertEquals(new Point(3, 4), read[0]);
+
+        // Smaller than Java serialization
+        assertTrue(size(serializer, new Point(3, 4)) * 2 <
+                size(new JavaSessionSerializer(), new Point(3, 4)));
+    }
+
+    @Test
+    public void testSession() throws Exception {
+        StandardManager manager = new StandardManager();
+        manager.setContainer(new StandardContext());
+        manager.setSessionSerializerClassName(
+                BinarySessionSerializer.class.getName());
+        assertTrue(manager.getSessionSerializer() instanceof BinarySessionSerializer);
+
+        StandardSession session = (StandardSession) manager.createSession(null);
+        session.setAttribute("count", new Integer(7));
+        session.setAttribute("list", new ArrayList<String>(Arrays.asList(new String[] {"a", "b"})));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        session.writeObjectData(oos);
+        oos.close();
+
+        StandardSession copy = (StandardSession) manager.createEmptySession();
+        ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()));
+        copy.readObjectData(ois);
+        assertEquals(session.getIdInternal(), copy.getIdInternal());
+        assertEquals(new Integer(7), copy.getAttribute("count"));
+        assertEquals(session.getAttribute("list"), copy.getAttribute("list"));
+        assertNull(copy.getAttribute("missing"));
+    }
+
+    private static Object[] roundTrip(SessionSerializer serializer,
+            Object[] values) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        for (int i = 0; i < values.length; i++) {
+            serializer.writeValue(values[i], oos);
+        }
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()));
+        Object[] read = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            read[i] = serializer.readValue(ois);
+        }
+        assertEquals(-1, ois.read());
+        return read;
+    }
+
+    private static int size(SessionSerializer serializer, Object value)
+            throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        serializer.writeValue(value, oos);
+        oos.close();
+        return bos.size();
+    }
+
+    public static class Point implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+
+        private int x;
+        private int y;
+
+        public Point() {
+        }
+
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(x);
+            out.writeInt(y);
+        }
+
+        public void readExternal(ObjectInput in) throws IOException {
+            x = in.readInt();
+            y = in.readInt();
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+        }
+
+        public int hashCode() {
+            return 31 * x + y;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.junit.Test;
+
+public class TestWriteBehind {
+
+    @Test
+    public void testSwapOut() throws Exception {
+        GatedStore store = new GatedStore();
+        PersistentManager manager = createManager(store);
+        // Write the sessions one by one, so the second stays queued
+        manager.setWriteBehindBatchSize(1);
+
+        Session first = manager.createSession(null);
+        first.getSession().setAttribute("a", "1");
+        String firstId = first.getIdInternal();
+        manager.swapOut(first);
+        Session second = manager.createSession(null);
+        second.getSession().setAttribute("b", "2");
+        // The first session is being written when the second one is queued
+        store.writing.await();
+        manager.swapOut(second);
+        assertEquals(0, manager.getActiveSessions());
+        assertEquals(1, manager.getWriteBehindPending());
+        assertSame(second, manager.findSession(second.getIdInternal()));
+        assertEquals("2", second.getSession().getAttribute("b"));
+        assertEquals(0, manager.getWriteBehindPending());
+
+        store.gate.countDown();
+        manager.stopWriteBehind();
+        assertFalse(store.data.containsKey(second.getIdInternal()));
+        Session loaded = manager.findSession(firstId);
+        assertNotNull(loaded);
+        assertEquals("1", loaded.getSession().getAttribute("a"));
+        assertEquals(1, manager.getWriteBehindWritten());
+    }
+
+    @Test
+    public void testCoalesceAndQueueFull() throws Exception {
+        GatedStore store = new GatedStore();
+        PersistentManager manager = createManager(store);
+        manager.setWriteBehindQueueSize(2);
+
+        Session blocker = manager.createSession(null);
+        assertTrue(manager.queueWrite(blocker, false));
+        store.writing.await();
+
+        Session session = manager.createSession(null);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(manager.queueWrite(session, false));
+        }
+        assertEquals(4, manager.getWriteBehindCoalesced());
+        assertTrue(manager.queueWrite(manager.createSession(null), false));
+        assertFalse(manager.queueWrite(manager.createSession(null), false));
+        assertEquals(1, manager.getWriteBehindQueueFull());
+
+        store.gate.countDown();
+        manager.stopWriteBehind();
+        assertEquals(3, store.data.size());
+        assertEquals(3, manager.getWriteBehindWritten());
+        assertEquals(4, manager.getActiveSessions());
+    }
+
+    private static PersistentManager createManager(StoreBase store) {
+        PersistentManager manager = new PersistentManager();
+        manager.setContainer(new StandardContext());
+        manager.setStore(store);
+        manager.setWriteBehind(true);
+        manager.startWriteBehind();
+        return manager;
+    }
+
+    /**
+     * Store keeping the sessions in memory, which blocks the first write
+     * until the gate is opened.
+     */
+    private static class GatedStore extends StoreBase {
+
+        final Map<String, byte[]> data =
+            Collections.synchronizedMap(new HashMap<String, byte[]>());
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        public int getSize() {
+            return data.size();
+        }
+
+        public String[] keys() {
+            return data.keySet().toArray(new String[0]);
+        }
+
+        public Session load(String id) throws ClassNotFoundException, IOException {
+            byte[] bytes = data.get(id);
+            if (bytes == null) {
+                return null;
+            }
+            StandardSession session = (StandardSession) manager.createEmptySession();
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        }
+
+        public void remove(String id) {
+            data.remove(id);
+        }
+
+        public void clear() {
+            data.clear();
+        }
+
+        public void save(Session session) throws IOException {
+            writing.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException();
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            ((StandardSession) session).writeObjectData(oos);
+            oos.close();
+            data.put(session.getIdInternal(), bos.toByteArray());
+        }
+    }
+}
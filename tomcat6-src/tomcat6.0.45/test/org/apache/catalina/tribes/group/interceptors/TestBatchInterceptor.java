@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestBatchInterceptor {
+    private BatchInterceptor interceptor;
+    private Capture capture;
+    private Member[] destination;
+    private volatile Exception failure;
+
+    @Before
+    public void setUp() throws Exception {
+        interceptor = new BatchInterceptor();
+        interceptor.setMaxDelay(50);
+        interceptor.setMaxSize(1000);
+        capture = new Capture();
+        interceptor.setNext(capture);
+        interceptor.setPrevious(capture);
+        interceptor.start(Channel.DEFAULT);
+        destination = new Member[] {new MemberImpl("localhost", 4000, 0)};
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        interceptor.stop(Channel.DEFAULT);
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            interceptor.sendMessage(destination, message(i, 10, Channel.SEND_OPTIONS_ASYNCHRONOUS), null);
+        }
+        assertEquals(0, capture.sent.size());
+        // other options: the pending batch is sent, and a synchronized
+        // message waits for its own batch to be sent
+        int sync = Channel.SEND_OPTIONS_SYNCHRONIZED_ACK|Channel.SEND_OPTIONS_USE_ACK;
+        interceptor.sendMessage(destination, message(5, 10, sync), null);
+        assertEquals(2, capture.sent.size());
+        assertEquals(Channel.SEND_OPTIONS_ASYNCHRONOUS, capture.sent.get(0).getOptions());
+        assertEquals(sync, capture.sent.get(1).getOptions());
+
+        interceptor.messageReceived(capture.sent.get(0));
+        interceptor.messageReceived(capture.sent.get(1));
+        assertEquals(6, capture.received.size());
+        for (int i = 0; i < 6; i++) {
+            ChannelMessage msg = capture.received.get(i);
+            assertArrayEquals(message(i, 10, 0).getMessage().getBytes(), msg.getMessage().getBytes());
+        }
+        assertEquals(6, interceptor.getMsgTxCnt());
+        assertEquals(2, interceptor.getBatchTxCnt());
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        // options of other interceptors are kept
+        int options = Channel.SEND_OPTIONS_ASYNCHRONOUS | 0x1000;
+        interceptor.sendMessage(destination, message(0, 10, options), null);
+        interceptor.sendMessage(destination, message(1, 10, options), null);
+        interceptor.flushAll();
+        assertEquals(1, capture.sent.size());
+        assertEquals(options, capture.sent.get(0).getOptions());
+        interceptor.messageReceived(capture.sent.get(0));
+        assertEquals(options, capture.received.get(1).getOptions());
+    }
+
+    @Test
+    public void testDestinations() throws Exception {
+        final Member[] slow = new Member[] {new MemberImpl("localhost", 4002, 0)};
+        capture.blocked = slow[0];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    interceptor.sendMessage(slow, message(0, 2000, 0), null);
+                } catch (Exception x) {
+                    failure = x;
+                    capture.blocking.countDown();
+                }
+            }
+        };
+        t.start();
+        capture.blocking.await();
+        if (failure != null) throw failure;
+        // a slow member does not hold up the others
+        interceptor.sendMessage(destination, message(1, 2000, 0), null);
+        assertEquals(1, capture.sent.size());
+        capture.release.countDown();
+        t.join();
+        if (failure != null) throw failure;
+        assertEquals(2, capture.sent.size());
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            interceptor.sendMessage(destination, message(i, 400, 0), null);
+        }
+        // the batch is sent once it holds maxSize bytes
+        assertEquals(1, capture.sent.size());
+        // larger messages go on their own, after the pending batch
+        interceptor.sendMessage(destination, message(4, 2000, 0), null);
+        assertEquals(3, capture.sent.size());
+        for (int i = 0; i < 3; i++) {
+            interceptor.messageReceived(capture.sent.get(i));
+        }
+        assertEquals(5, capture.received.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, capture.received.get(i).getMessage().getBytesDirect()[0]);
+        }
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        // full batches race with the timer flushing the newer ones
+        interceptor.setMaxDelay(0);
+        for (int i = 0; i < 500; i++) {
+            interceptor.sendMessage(destination, message(i, 300, 0), null);
+        }
+        interceptor.flushAll();
+        // the timer may still be sending
+        for (int i = 0; i < 500 && !idle(); i++) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < capture.sent.size(); i++) {
+            interceptor.messageReceived(capture.sent.get(i));
+        }
+        assertEquals(500, capture.received.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals((byte) i, capture.received.get(i).getMessage().getBytesDirect()[0]);
+        }
+    }
+
+    @Test
+    public void testDelay() throws Exception {
+        interceptor.sendMessage(destination, message(0, 10, 0), null);
+        long start = System.currentTimeMillis();
+        while (capture.sent.size() == 0 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, capture.sent.size());
+        assertTrue(System.currentTimeMillis() - start >= 40);
+    }
+
+    private boolean idle() {
+        synchronized (interceptor.batches) {
+            return interceptor.lanes.isEmpty();
+        }
+    }
+
+    private static ChannelData message(int nr, int length, int options) throws Exception {
+        ChannelData msg = new ChannelData(true);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (nr + i);
+        msg.setMessage(new XByteBuffer(data, false));
+        msg.setOptions(options);
+        msg.setAddress(new MemberImpl("localhost", 4001, 0));
+        return msg;
+    }
+
+    private static class Capture extends ChannelInterceptorBase {
+        List<ChannelMessage> sent = new ArrayList<ChannelMessage>();
+        List<ChannelMessage> received = new ArrayList<ChannelMessage>();
+        Member blocked = null;
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) {
+            if (destination[0] == blocked) {
+                blocking.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException x) {
+                    throw new RuntimeException(x);
+                }
+            }
+            // as the receiver sees it
+            ChannelData copy = (ChannelData) ((ChannelData) msg).deepclone();
+            synchronized (this) {
+                sent.add(copy);
+            }
+        }
+
+        @Override
+        public void messageReceived(ChannelMessage msg) {
+            received.add(msg);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.util.LZFCodec;
+
+public class TestDeflateInterceptor {
+
+    @Test
+    public void testDeflate() throws Exception {
+        DeflateInterceptor interceptor = new DeflateInterceptor();
+        byte[] data = text(20000);
+        byte[] sent = send(interceptor, data);
+        assertTrue(sent.length < data.length / 4);
+        assertEquals(DeflateInterceptor.CODEC_DEFLATE, sent[sent.length - 1]);
+        assertArrayEquals(data, receive(interceptor, sent));
+        assertEquals(1, interceptor.getMsgTxCompressed());
+        assertTrue(interceptor.getCompressionRatio() < 0.25);
+    }
+
+    @Test
+    public void testLZF() throws Exception {
+        DeflateInterceptor interceptor = new DeflateInterceptor();
+        interceptor.setCodec("lzf");
+        byte[] data = text(20000);
+        byte[] sent = send(interceptor, data);
+        assertTrue(sent.length < data.length / 2);
+        assertEquals(DeflateInterceptor.CODEC_LZF, sent[sent.length - 1]);
+        assertArrayEquals(data, receive(interceptor, sent));
+        // the receiver decompresses whatever codec was used by the sender
+        interceptor.setCodec("deflate");
+        assertArrayEquals(data, receive(interceptor, sent));
+    }
+
+    @Test
+    public void testUncompressed() throws Exception {
+        DeflateInterceptor interceptor = new DeflateInterceptor();
+        byte[] small = text(100);
+        byte[] sent = send(interceptor, small);
+        assertEquals(small.length + 1, sent.length);
+        assertArrayEquals(small, receive(interceptor, sent));
+        // random data doesn't compress
+        byte[] random = new byte[5000];
+        new Random(1).nextBytes(random);
+        sent = send(interceptor, random);
+        assertEquals(random.length + 1, sent.length);
+        assertArrayEquals(random, receive(interceptor, sent));
+        assertEquals(0, interceptor.getMsgTxCompressed());
+    }
+
+    @Test
+    public void testInvalidLength() throws Exception {
+        DeflateInterceptor interceptor = new DeflateInterceptor();
+        byte[] data = text(20000);
+        byte[] sent = send(interceptor, data);
+        // more than deflate can produce from the compressed bytes
+        XByteBuffer.toBytes(sent.length * 2000, sent, sent.length - 5);
+        assertInvalid(interceptor, sent);
+        // more than the max size
+        interceptor.setMaxSize(10000);
+        assertInvalid(interceptor, send(new DeflateInterceptor(), data));
+        // larger messages are sent uncompressed
+        sent = send(interceptor, data);
+        assertEquals(data.length + 1, sent.length);
+        assertArrayEquals(data, receive(interceptor, sent));
+    }
+
+    @Test
+    public void testLZFCodec() throws Exception {
+        LZFCodec codec = new LZFCodec();
+        Random random = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            byte[] data = new byte[random.nextInt(70000)];
+            if ( i % 2 == 0 ) random.nextBytes(data);
+            else Arrays.fill(data, 0, data.length / 2, (byte)i);
+            byte[] out = new byte[LZFCodec.getMaxCompressedLength(data.length)];
+            int len = codec.compress(data, 0, data.length, out, 0);
+            assertTrue(len <= out.length);
+            byte[] result = new byte[data.length];
+            LZFCodec.decompress(out, 0, len, result, 0, result.length);
+            assertArrayEquals(data, result);
+        }
+    }
+
+    private static void assertInvalid(DeflateInterceptor interceptor, byte[] data) {
+        XByteBuffer buffer = new XByteBuffer(data.clone(), false);
+        int capacity = buffer.getCapacity();
+        try {
+            interceptor.decompress(buffer);
+            fail();
+        } catch (IOException x) {
+            // the buffer was not expanded for the claimed length
+            assertEquals(capacity, buffer.getCapacity());
+        }
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder buf = new StringBuilder();
+        int i = 0;
+        while ( buf.length() < length ) buf.append("attribute-").append(i++ % 100).append(';');
+        buf.setLength(length);
+        return buf.toString().getBytes();
+    }
+
+    private static byte[] send(DeflateInterceptor interceptor, byte[] data) throws Exception {
+        Capture capture = new Capture();
+        interceptor.setNext(capture);
+        ChannelData msg = new ChannelData(true);
+        msg.setMessage(new XByteBuffer(data.clone(), false));
+        interceptor.sendMessage(null, msg, null);
+        return capture.msg.getMessage().getBytes();
+    }
+
+    private static byte[] receive(DeflateInterceptor interceptor, byte[] data) throws Exception {
+        Capture capture = new Capture();
+        interceptor.setPrevious(capture);
+        ChannelData msg = new ChannelData(true);
+        msg.setMessage(new XByteBuffer(data.clone(), false));
+        interceptor.messageReceived(msg);
+        return capture.msg.getMessage().getBytes();
+    }
+
+    private static class Capture extends ChannelInterceptorBase {
+        ChannelMessage msg;
+
+        @Override
+        public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) {
+            this.msg = msg;
+        }
+
+        @Override
+        public void messageReceived(ChannelMessage msg) {
+            this.msg = msg;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class TestDirectBufferPool {
+
+    @Test
+    public void testReuse() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        ByteBuffer buffer = pool.getBuffer(4096);
+        assertEquals(4096, buffer.capacity());
+        // One slab of 256KB cut in buffers of 4KB
+        assertEquals(256 * 1024, pool.getSize());
+        assertEquals(63, pool.free[0].size());
+
+        pool.returnBuffer(buffer);
+        assertEquals(64, pool.free[0].size());
+        for (int i = 0; i < 64; i++) {
+            pool.getBuffer(4096);
+        }
+        assertEquals(0, pool.free[0].size());
+        assertEquals(256 * 1024, pool.getSize());
+    }
+
+    @Test
+    public void testForeignBuffers() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        ByteBuffer buffer = pool.getBuffer(4096);
+        for (int i = 0; i < 1000; i++) {
+            pool.returnBuffer(ByteBuffer.allocateDirect(4096));
+        }
+        // The free buffers never outnumber the buffers of the slab
+        assertEquals(64, pool.free[0].size());
+        pool.returnBuffer(buffer);
+        assertEquals(64, pool.free[0].size());
+
+        // No buffers for the class of 8KB have been cut
+        pool.returnBuffer(ByteBuffer.allocateDirect(8192));
+        assertEquals(0, pool.free[1].size());
+    }
+
+    @Test
+    public void testDoubleReturn() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        ByteBuffer[] buffers = new ByteBuffer[64];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.getBuffer(4096);
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            pool.returnBuffer(buffers[i]);
+        }
+        pool.returnBuffer(buffers[0]);
+        assertEquals(64, pool.free[0].size());
+
+        // Each buffer is handed out once
+        ByteBuffer[] again = new ByteBuffer[64];
+        for (int i = 0; i < again.length; i++) {
+            again[i] = pool.getBuffer(4096);
+            for (int j = 0; j < i; j++) {
+                assertNotSame(again[j], again[i]);
+            }
+        }
+        assertEquals(256 * 1024, pool.getSize());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.tribes.io;
+
+import java.io.ByteArrayOutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.membership.MemberImpl;
+import org.junit.Test;
+
+public class TestObjectReader {
+
+    @Test
+    public void testExtractPackages() throws Exception {
+        MemberImpl member = new MemberImpl("localhost", 4000, 1);
+        Random random = new Random(1);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<ChannelData> sent = new ArrayList<ChannelData>();
+        for (int i = 0; i < 200; i++) {
+            ChannelData data = new ChannelData(true);
+            data.setAddress(member);
+            data.setOptions(i);
+            byte[] message = new byte[random.nextInt(5000)];
+            random.nextBytes(message);
+            data.setMessage(new XByteBuffer(message, false));
+            sent.add(data);
+            stream.write(XByteBuffer.createDataPackage(data));
+        }
+        byte[] bytes = stream.toByteArray();
+
+        // Read in chunks of random sizes, as a socket would
+        ObjectReader reader = new ObjectReader(new Socket());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+        List<ChannelMessage> received = new ArrayList<ChannelMessage>();
+        int pos = 0;
+        while (pos < bytes.length) {
+            int len = Math.min(1 + random.nextInt(buffer.capacity()), bytes.length - pos);
+            buffer.clear();
+            buffer.put(bytes, pos, len);
+            buffer.flip();
+            pos += len;
+            if (random.nextInt(10) == 0) {
+                // The former path, appending to the reader buffer
+                reader.append(buffer, len, false);
+            } else {
+                reader.extractPackages(buffer);
+            }
+            assertFalse(buffer.hasRemaining());
+            if (reader.hasPackage()) {
+                ChannelMessage[] msgs = reader.execute();
+                for (int i = 0; i < msgs.length; i++) {
+                    received.add(msgs[i]);
+                }
+            }
+        }
+        assertEquals(0, reader.bufferSize());
+        assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); i++) {
+            ChannelData expected = sent.get(i);
+            ChannelMessage actual = received.get(i);
+            assertEquals(i, actual.getOptions());
+            assertArrayEquals(expected.getUniqueId(), actual.getUniqueId());
+            assertEquals(member, actual.getAddress());
+            assertArrayEquals(expected.getMessage().getBytes(), actual.getMessage().getBytes());
+        }
+    }
+
+    @Test
+    public void testPackageLength() throws Exception {
+        ChannelData data = new ChannelData(true);
+        data.setAddress(new MemberImpl("localhost", 4000, 1));
+        data.setMessage(new XByteBuffer(new byte[10], false));
+        byte[] pkg = XByteBuffer.createDataPackage(data);
+        assertEquals(pkg.length, XByteBuffer.getPackageLength(ByteBuffer.wrap(pkg)));
+        assertEquals(0, XByteBuffer.getPackageLength(ByteBuffer.wrap(pkg, 0, pkg.length - 1)));
+        assertEquals(0, XByteBuffer.getPackageLength(ByteBuffer.wrap(pkg, 0, 3)));
+        assertEquals(-1, XByteBuffer.getPackageLength(ByteBuffer.wrap(pkg, 1, pkg.length - 1)));
+        pkg[pkg.length - 1] = 0;
+        assertEquals(-1, XByteBuffer.getPackageLength(ByteBuffer.wrap(pkg)));
+    }
+
+    @Test
+    public void testDirectBufferPool() {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        ByteBuffer buffer = pool.getBuffer(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(8192, buffer.capacity());
+        assertEquals(256 * 1024, pool.getSize());
+        pool.returnBuffer(buffer);
+        // Same size class, from the same slab
+        for (int i = 0; i < 32; i++) {
+            assertEquals(8192, pool.getBuffer(8000).capacity());
+        }
+        assertEquals(256 * 1024, pool.getSize());
+        assertEquals(2 * 1024 * 1024, pool.getBuffer(2 * 1024 * 1024).capacity());
+        // Full pool
+        for (int i = 0; i < 3; i++) {
+            pool.getBuffer(200000);
+        }
+        assertEquals(1024 * 1024, pool.getSize());
+        assertEquals(200000, pool.getBuffer(200000).capacity());
+    }
+}
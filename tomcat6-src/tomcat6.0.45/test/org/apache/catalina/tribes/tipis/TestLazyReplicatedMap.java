@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestLazyReplicatedMap {
+
+    @Test
+    public void testRankMembers() throws Exception {
+        Member[] members = new Member[12];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new MemberImpl("10.0.0." + (i + 1), 4000, 0);
+        }
+        Member[] remaining = new Member[members.length - 1];
+        System.arraycopy(members, 1, remaining, 0, remaining.length);
+        int[] counts = new int[members.length];
+        int moved = 0;
+        for (int i = 0; i < 12000; i++) {
+            String key = "session-" + i;
+            Member[] ranked = LazyReplicatedMap.rankMembers(key, members);
+            assertEquals(members.length, ranked.length);
+            for (int j = 0; j < members.length; j++) {
+                if (ranked[0] == members[j]) counts[j]++;
+            }
+            // the order doesn't depend on the order of the members
+            Member[] reversed = new Member[members.length];
+            for (int j = 0; j < members.length; j++) {
+                reversed[j] = members[members.length - 1 - j];
+            }
+            assertEquals(ranked[0], LazyReplicatedMap.rankMembers(key, reversed)[0]);
+            // only the keys of the member which left move
+            Member first = LazyReplicatedMap.rankMembers(key, remaining)[0];
+            if (!first.equals(ranked[0])) {
+                moved++;
+                assertEquals(members[0], ranked[0]);
+                assertEquals(ranked[1], first);
+            }
+        }
+        assertEquals(counts[0], moved);
+        for (int j = 0; j < members.length; j++) {
+            assertTrue("Member " + j + ": " + counts[j], counts[j] > 800 && counts[j] < 1200);
+        }
+    }
+}
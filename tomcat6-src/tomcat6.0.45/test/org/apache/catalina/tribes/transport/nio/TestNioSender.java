@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.tribes.transport.nio;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.catalina.tribes.io.DirectBufferPool;
+import org.apache.catalina.tribes.membership.MemberImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNioSender {
+
+    private ServerSocketChannel server;
+    private Selector selector;
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        selector = Selector.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        selector.close();
+        server.close();
+    }
+
+    @Test
+    public void testConnectDisconnect() throws Exception {
+        NioSender sender = new NioSender();
+        sender.setDestination(new MemberImpl("127.0.0.1",
+                server.socket().getLocalPort(), 0));
+        sender.setDirectBuffer(true);
+        sender.setSelector(selector);
+        DirectBufferPool pool = DirectBufferPool.getDirectBufferPool();
+
+        cycle(sender);
+        int size = pool.getSize();
+        for (int i = 0; i < 50; i++) {
+            cycle(sender);
+        }
+        // The buffers are returned on disconnect and reused by connect
+        assertEquals(size, pool.getSize());
+    }
+
+    private void cycle(NioSender sender) throws Exception {
+        sender.connect();
+        assertNotNull(sender.readbuf);
+        assertNotNull(sender.writebuf);
+        // A message larger than the write buffer replaces it
+        sender.setMessage(new byte[sender.writebuf.capacity() + 1]);
+        sender.disconnect();
+        assertNull(sender.readbuf);
+        assertNull(sender.writebuf);
+        selector.selectNow();
+    }
+}
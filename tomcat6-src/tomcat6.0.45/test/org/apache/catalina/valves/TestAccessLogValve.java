@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestAccessLogValve {
+
+    @Test
+    public void testAsyncWrite() throws Exception {
+        File dir = createDirectory();
+        final AccessLogValve valve = createValve(dir);
+        valve.setEncoding("UTF-8");
+        valve.start();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int nr = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 5000; j++) {
+                        valve.log("thread" + nr + " line" + j + " é");
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        valve.stop();
+        assertEquals(0, valve.getDroppedLines());
+        List<String> lines = read(new File(dir, "access_log.txt"));
+        assertEquals(20000, lines.size());
+        // Lines of each thread are in order
+        int[] next = new int[threads.length];
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            assertTrue(line, line.endsWith(" é"));
+            int nr = line.charAt(6) - '0';
+            assertEquals("thread" + nr + " line" + next[nr] + " é", line);
+            next[nr]++;
+        }
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        File dir = createDirectory();
+        AccessLogValve valve = createValve(dir);
+        valve.setAsyncQueueSize(4);
+        valve.setOverflowPolicy("drop");
+        valve.start();
+        for (int i = 0; i < 10000; i++) {
+            valve.log("line" + i);
+        }
+        valve.stop();
+        List<String> lines = read(new File(dir, "access_log.txt"));
+        assertEquals(10000, lines.size() + valve.getDroppedLines());
+        assertEquals(0, valve.getQueueDepth());
+    }
+
+    @Test
+    public void testStopWhileLogging() throws Exception {
+        File dir = createDirectory();
+        final AccessLogValve valve = createValve(dir);
+        valve.start();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicLong logged = new AtomicLong();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    while (!stopped.get()) {
+                        valve.log("line");
+                        logged.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(50);
+        valve.stop();
+        stopped.set(true);
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        // Every line is either in the file or counted as dropped
+        List<String> lines = read(new File(dir, "access_log.txt"));
+        assertEquals(logged.get(), lines.size() + valve.getDroppedLines());
+    }
+
+    private static AccessLogValve createValve(File dir) {
+        AccessLogValve valve = new AccessLogValve();
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setRotatable(false);
+        valve.setSuffix("txt");
+        valve.setAsyncWrite(true);
+        return valve;
+    }
+
+    private static File createDirectory() throws Exception {
+        File dir = File.createTempFile("accesslog", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        new File(dir, "access_log.txt").deleteOnExit();
+        return dir;
+    }
+
+    private static List<String> read(File file) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Test cases for the coalescing of pipelined responses by the NIO HTTP
+ * connector.
+ */
+public class TestHttp11NioProcessorPipelining extends TomcatBaseTest {
+
+    @Override
+    protected String getProtocol() {
+        return "org.apache.coyote.http11.Http11NioProtocol";
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        start();
+        Socket socket = connect();
+        try {
+            write(socket, request("/1", false) + request("/2", false) +
+                    request("/3", false) + request("/4", false));
+            for (int i = 1; i <= 4; i++) {
+                assertEquals("/" + i, read(socket.getInputStream()).body);
+            }
+            // The last response was written without a following request
+            write(socket, request("/5", false));
+            assertEquals("/5", read(socket.getInputStream()).body);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedClose() throws Exception {
+        start();
+        Socket socket = connect();
+        try {
+            write(socket, request("/1", false) + request("/2", true) +
+                    request("/3", false));
+            assertEquals("/1", read(socket.getInputStream()).body);
+            Response response = read(socket.getInputStream());
+            assertEquals("/2", response.body);
+            assertEquals("close", response.headers.get("connection"));
+            // The request after the close is not processed
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedLargeBody() throws Exception {
+        start();
+        Socket socket = connect();
+        try {
+            // The first response does not fit in the socket write buffer
+            write(socket, request("/1?size=300000", false) +
+                    request("/2", false) + request("/3?size=20000", false));
+            Response response = read(socket.getInputStream());
+            assertEquals(300000, response.body.length());
+            assertEquals(body("/1", 300000), response.body);
+            assertEquals("/2", read(socket.getInputStream()).body);
+            assertEquals(body("/3", 20000),
+                    read(socket.getInputStream()).body);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void start() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("coalescePipelinedResponses",
+                "true");
+        Context ctx = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(ctx, "path", new PathServlet());
+        ctx.addServletMapping("/", "path");
+        tomcat.start();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", getPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private static String request(String uri, boolean close) {
+        return "GET " + uri + " HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            (close ? "Connection: close\r\n" : "") +
+            "\r\n";
+    }
+
+    /**
+     * Write all the requests to the socket at once.
+     */
+    private static void write(Socket socket, String requests)
+            throws IOException {
+        OutputStream os = socket.getOutputStream();
+        os.write(requests.getBytes("ISO-8859-1"));
+        os.flush();
+    }
+
+    private static String body(String path, int size) {
+        StringBuilder body = new StringBuilder(size);
+        body.append(path);
+        while (body.length() < size) {
+            body.append((char) ('a' + body.length() % 26));
+        }
+        return body.toString();
+    }
+
+    /**
+     * Read one response, which must have a content length.
+     */
+    private static Response read(InputStream is) throws IOException {
+        Response response = new Response();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = is.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b != '\n') {
+                if (b != '\r') {
+                    line.write(b);
+                }
+                continue;
+            }
+            String s = line.toString("ISO-8859-1");
+            line.reset();
+            if (s.length() == 0) {
+                break;
+            } else if (response.status == null) {
+                response.status = s;
+            } else {
+                int colon = s.indexOf(':');
+                response.headers.put(s.substring(0, colon).toLowerCase(),
+                        s.substring(colon + 1).trim());
+            }
+        }
+        int length = Integer.parseInt(response.headers.get("content-length"));
+        byte[] body = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int n = is.read(body, pos, length - pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+        response.body = new String(body, "ISO-8859-1");
+        return response;
+    }
+
+    private static final class Response {
+        private String status;
+        private final Map<String, String> headers =
+            new HashMap<String, String>();
+        private String body;
+    }
+
+    /**
+     * Responds with the request path, padded to the requested size.
+     */
+    private static final class PathServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            int size = 0;
+            if (req.getParameter("size") != null) {
+                size = Integer.parseInt(req.getParameter("size"));
+            }
+            byte[] body =
+                body(req.getRequestURI(), size).getBytes("ISO-8859-1");
+            resp.setContentType("text/plain");
+            resp.setContentLength(body.length);
+            resp.getOutputStream().write(body);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Test cases for sendfile with the blocking HTTP connector.
+ */
+public class TestHttp11ProcessorSendfile extends TomcatBaseTest {
+
+    private static final int FILE_SIZE = 100000;
+
+    @Test
+    public void testSendfile() throws Exception {
+        start(true);
+        Socket socket = connect();
+        try {
+            Response response = request(socket, "/", false);
+            assertEquals("HTTP/1.1 200 OK", response.status);
+            assertEquals("true", response.headers.get("x-sendfile"));
+            assertTrue(Arrays.equals(content(0, FILE_SIZE), response.body));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testSendfileRange() throws Exception {
+        start(true);
+        Socket socket = connect();
+        try {
+            Response response =
+                request(socket, "/?start=1000&end=51000", false);
+            assertEquals("true", response.headers.get("x-sendfile"));
+            assertTrue(Arrays.equals(content(1000, 51000), response.body));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testSendfileKeepAlive() throws Exception {
+        start(true);
+        Socket socket = connect();
+        try {
+            // Both requests are written before any response is read, so the
+            // second one is already buffered when the file is sent
+            OutputStream os = socket.getOutputStream();
+            os.write(("GET /?start=0&end=60000 HTTP/1.1\r\n" +
+                    "Host: localhost\r\n\r\n" +
+                    "GET /?start=500&end=700 HTTP/1.1\r\n" +
+                    "Host: localhost\r\n\r\n").getBytes("ISO-8859-1"));
+            os.flush();
+            Response first = read(socket.getInputStream());
+            assertEquals("true", first.headers.get("x-sendfile"));
+            assertTrue(Arrays.equals(content(0, 60000), first.body));
+            Response second = read(socket.getInputStream());
+            assertEquals("true", second.headers.get("x-sendfile"));
+            assertTrue(Arrays.equals(content(500, 700), second.body));
+
+            // The connection is still usable afterwards
+            Response third = request(socket, "/?start=7&end=70007", true);
+            assertTrue(Arrays.equals(content(7, 70007), third.body));
+            assertEquals("close", third.headers.get("connection"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testSendfileDisabled() throws Exception {
+        start(false);
+        Socket socket = connect();
+        try {
+            Response response = request(socket, "/", false);
+            assertEquals("false", response.headers.get("x-sendfile"));
+            assertTrue(Arrays.equals(content(0, FILE_SIZE), response.body));
+            response = request(socket, "/?start=1000&end=2000", true);
+            assertEquals("false", response.headers.get("x-sendfile"));
+            assertTrue(Arrays.equals(content(1000, 2000), response.body));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void start(boolean useSendfile) throws Exception {
+        File file = new File(getTemporaryDirectory(), "sendfile.bin");
+        addDeleteOnTearDown(file);
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content(0, FILE_SIZE));
+        } finally {
+            fos.close();
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("useSendfile",
+                String.valueOf(useSendfile));
+        Context ctx = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(ctx, "sendfile", new SendfileServlet(file));
+        ctx.addServletMapping("/", "sendfile");
+        tomcat.start();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", getPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private static byte[] content(int start, int end) {
+        byte[] result = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            result[i - start] = (byte) (i % 251);
+        }
+        return result;
+    }
+
+    private static Response request(Socket socket, String uri, boolean close)
+            throws IOException {
+        OutputStream os = socket.getOutputStream();
+        os.write(("GET " + uri + " HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                (close ? "Connection: close\r\n" : "") +
+                "\r\n").getBytes("ISO-8859-1"));
+        os.flush();
+        return read(socket.getInputStream());
+    }
+
+    /**
+     * Read one response, which must have a content length.
+     */
+    private static Response read(InputStream is) throws IOException {
+        Response response = new Response();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = is.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b != '\n') {
+                if (b != '\r') {
+                    line.write(b);
+                }
+                continue;
+            }
+            String s = line.toString("ISO-8859-1");
+            line.reset();
+            if (s.length() == 0) {
+                break;
+            } else if (response.status == null) {
+                response.status = s;
+            } else {
+                int colon = s.indexOf(':');
+                response.headers.put(s.substring(0, colon).toLowerCase(),
+                        s.substring(colon + 1).trim());
+            }
+        }
+        int length = Integer.parseInt(response.headers.get("content-length"));
+        response.body = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int n = is.read(response.body, pos, length - pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+        return response;
+    }
+
+    private static final class Response {
+        private String status;
+        private final Map<String, String> headers =
+            new HashMap<String, String>();
+        private byte[] body;
+    }
+
+    /**
+     * Serves a region of a file through the sendfile request attributes when
+     * the connector supports it, and writes it itself otherwise, the way the
+     * DefaultServlet does.
+     */
+    private static final class SendfileServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+
+        public SendfileServlet(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            long start = 0;
+            long end = file.length();
+            if (req.getParameter("start") != null) {
+                start = Long.parseLong(req.getParameter("start"));
+                end = Long.parseLong(req.getParameter("end"));
+            }
+            resp.setContentType("application/octet-stream");
+            resp.setContentLength((int) (end - start));
+            if (Boolean.TRUE.equals(req.getAttribute(
+                    "org.apache.tomcat.sendfile.support"))) {
+                resp.setHeader("X-Sendfile", "true");
+                req.setAttribute("org.apache.tomcat.sendfile.filename",
+                        file.getAbsolutePath());
+                req.setAttribute("org.apache.tomcat.sendfile.start",
+                        Long.valueOf(start));
+                req.setAttribute("org.apache.tomcat.sendfile.end",
+                        Long.valueOf(end));
+            } else {
+                resp.setHeader("X-Sendfile", "false");
+                resp.getOutputStream().write(
+                        content((int) start, (int) end));
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jasper.EmbeddedServletOptions;
+import org.apache.jasper.JasperException;
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.servlet.JspCServletContext;
+import org.apache.jasper.servlet.JspServletWrapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBackgroundCompiler {
+
+    private File webapp;
+    private File scratch;
+    private ServletConfig config;
+    private EmbeddedServletOptions options;
+    private JspRuntimeContext rctxt;
+    private ClassLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        webapp = new File(System.getProperty("java.io.tmpdir"),
+                "TestBackgroundCompiler" + System.nanoTime());
+        scratch = new File(webapp, "scratch");
+        new File(webapp, "WEB-INF").mkdirs();
+        scratch.mkdirs();
+        final ServletContext context = new JspCServletContext(
+                new PrintWriter(System.out), webapp.toURI().toURL());
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put("scratchdir", scratch.getAbsolutePath());
+        config = new ServletConfig() {
+            public String getServletName() {
+                return "jsp";
+            }
+            public ServletContext getServletContext() {
+                return context;
+            }
+            public String getInitParameter(String name) {
+                return params.get(name);
+            }
+            public Enumeration getInitParameterNames() {
+                return Collections.enumeration(params.keySet());
+            }
+        };
+        options = new EmbeddedServletOptions(config, context);
+
+        // The runtime context expects a URLClassLoader with the classpath
+        String[] paths = System.getProperty("java.class.path").split(
+                File.pathSeparator);
+        URL[] urls = new URL[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            urls[i] = new File(paths[i]).toURI().toURL();
+        }
+        loader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(
+                new URLClassLoader(urls, getClass().getClassLoader()));
+        rctxt = new JspRuntimeContext(context, options);
+    }
+
+    @After
+    public void tearDown() {
+        if (rctxt != null) {
+            rctxt.destroy();
+        }
+        Thread.currentThread().setContextClassLoader(loader);
+        delete(webapp);
+    }
+
+    @Test
+    public void testGenerateClasses() throws Exception {
+        write("good.jsp", "<%= 1 + 1 %>");
+        write("bad.jsp", "<% int i = \"i\"; %>");
+        JspServletWrapper good = wrapper("/good.jsp");
+        JspServletWrapper bad = wrapper("/bad.jsp");
+        JDTCompiler[] compilers = new JDTCompiler[] {
+            prepare(good), prepare(bad)
+        };
+        String[][] smaps = new String[][] {
+            compilers[0].generateJava(), compilers[1].generateJava()
+        };
+
+        Exception[] errors = JDTCompiler.generateClasses(compilers, smaps);
+        assertNull(errors[0]);
+        assertNotNull(errors[1]);
+        assertTrue(errors[1] instanceof JasperException);
+        assertTrue(errors[1].getMessage(),
+                errors[1].getMessage().indexOf("/bad.jsp") >= 0);
+
+        // The class of the good page is written, with its SMAP
+        File goodClass = classFile(good);
+        assertTrue(goodClass.isFile());
+        assertTrue(contains(goodClass, "SMAP"));
+        assertFalse(classFile(bad).exists());
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        write("good.jsp", "<%= 1 + 1 %>");
+        write("bad.jsp", "<% int i = \"i\"; %>");
+        write("dir/good.jsp", "<%= 2 + 2 %>");
+        write("WEB-INF/classes/skipped.jsp", "<%= 3 + 3 %>");
+        BackgroundCompiler compiler =
+            new BackgroundCompiler(config, options, rctxt, this);
+        compiler.setThreads(2);
+        compiler.setBatchSize(2);
+        compiler.start();
+        assertEquals(3, compiler.getTotal());
+        await(compiler);
+        assertEquals(3, compiler.getCompleted());
+        assertEquals(1, compiler.getFailed());
+
+        assertTrue(classFile(rctxt.getWrapper("/good.jsp")).isFile());
+        assertTrue(classFile(rctxt.getWrapper("/dir/good.jsp")).isFile());
+        JspServletWrapper bad = rctxt.getWrapper("/bad.jsp");
+        assertFalse(classFile(bad).exists());
+        assertEquals(-1, bad.getLastModificationTest());
+        compiler.stop();
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            write("page" + i + ".jsp", "<%= " + i + " %>");
+        }
+        BackgroundCompiler compiler =
+            new BackgroundCompiler(config, options, rctxt, this);
+        compiler.setThreads(1);
+        compiler.setBatchSize(1);
+        compiler.start();
+        assertTrue(compiler.isRunning());
+        compiler.stop();
+        assertFalse(compiler.isRunning());
+
+        // Nothing is compiled once stop returns
+        int completed = compiler.getCompleted();
+        assertTrue(completed < compiler.getTotal());
+        Thread.sleep(500);
+        assertEquals(completed, compiler.getCompleted());
+    }
+
+    private JspServletWrapper wrapper(String jspUri) throws Exception {
+        JspServletWrapper wrapper = new JspServletWrapper(config, options,
+                jspUri, false, rctxt);
+        rctxt.addWrapper(jspUri, wrapper);
+        return wrapper;
+    }
+
+    private static JDTCompiler prepare(JspServletWrapper wrapper)
+            throws Exception {
+        JDTCompiler compiler =
+            (JDTCompiler) wrapper.getJspEngineContext().prepareCompile();
+        compiler.errDispatcher = new ErrorDispatcher(false);
+        return compiler;
+    }
+
+    private static File classFile(JspServletWrapper wrapper) {
+        JspCompilationContext ctxt = wrapper.getJspEngineContext();
+        return new File(ctxt.getClassFileName());
+    }
+
+    private static void await(BackgroundCompiler compiler)
+            throws InterruptedException {
+        for (int i = 0; i < 300 && compiler.isRunning(); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(compiler.isRunning());
+    }
+
+    private static boolean contains(File file, String s) throws Exception {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < bytes.length) {
+                n += fis.read(bytes, n, bytes.length - n);
+            }
+        } finally {
+            fis.close();
+        }
+        return new String(bytes, "ISO-8859-1").indexOf(s) >= 0;
+    }
+
+    private void write(String path, String content) throws Exception {
+        File file = new File(webapp, path);
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                delete(files[i]);
+            }
+        }
+        file.delete();
+    }
+}
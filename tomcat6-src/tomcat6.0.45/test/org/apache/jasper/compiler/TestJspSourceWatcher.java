@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jasper.servlet.JspCServletContext;
+import org.apache.jasper.servlet.JspServletWrapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestJspSourceWatcher {
+
+    private File webapp;
+    private JspSourceWatcher watcher;
+    private JspServletWrapper jsw;
+
+    @Before
+    public void setUp() throws Exception {
+        webapp = new File(System.getProperty("java.io.tmpdir"),
+                "TestJspSourceWatcher" + System.nanoTime());
+        new File(webapp, "WEB-INF").mkdirs();
+        write(new File(webapp, "page.jsp"));
+        write(new File(webapp, "WEB-INF/include.jspf"));
+        JspCServletContext context = new JspCServletContext(
+                new PrintWriter(System.out), webapp.toURI().toURL());
+        jsw = new JspServletWrapper(context, null, "/page.jsp", null, null,
+                null);
+        watcher = new JspSourceWatcher("TestJspSourceWatcher");
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+        new File(webapp, "WEB-INF/include.jspf").delete();
+        new File(webapp, "WEB-INF").delete();
+        new File(webapp, "page.jsp").delete();
+        webapp.delete();
+    }
+
+    @Test
+    public void testChange() throws Exception {
+        assertTrue(watcher.watch(jsw, sources("/page.jsp",
+                "/WEB-INF/include.jspf")));
+        assertFalse(watcher.isUpToDate(jsw));
+        watcher.checked(jsw);
+        assertTrue(watcher.isUpToDate(jsw));
+
+        write(new File(webapp, "WEB-INF/include.jspf"));
+        assertTrue(waitForStale());
+
+        // Checked again
+        assertTrue(watcher.watch(jsw, sources("/page.jsp",
+                "/WEB-INF/include.jspf")));
+        watcher.checked(jsw);
+        assertTrue(watcher.isUpToDate(jsw));
+        new File(webapp, "page.jsp").delete();
+        assertTrue(waitForStale());
+    }
+
+    @Test
+    public void testChangeDuringCheck() throws Exception {
+        assertTrue(watcher.watch(jsw, sources("/page.jsp")));
+        write(new File(webapp, "page.jsp"));
+        // Let the event be processed before the check completes
+        Thread.sleep(1000);
+        watcher.checked(jsw);
+        assertFalse(watcher.isUpToDate(jsw));
+    }
+
+    @Test
+    public void testNotWatchable() throws Exception {
+        assertFalse(watcher.watch(jsw, sources("/page.jsp",
+                "/WEB-INF/missing.jspf")));
+        assertFalse(watcher.watch(jsw, sources("/page.jsp",
+                "jndi:/localhost/WEB-INF/lib/lib.jar")));
+        watcher.checked(jsw);
+        assertFalse(watcher.isUpToDate(jsw));
+    }
+
+    private boolean waitForStale() throws InterruptedException {
+        for (int i = 0; i < 100 && watcher.isUpToDate(jsw); i++) {
+            Thread.sleep(100);
+        }
+        return !watcher.isUpToDate(jsw);
+    }
+
+    private static List<String> sources(String... uris) {
+        List<String> sources = new ArrayList<String>();
+        for (int i = 0; i < uris.length; i++) {
+            sources.add(uris[i]);
+        }
+        return sources;
+    }
+
+    private static void write(File file) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write("<%-- " + System.nanoTime() + " --%>");
+        writer.close();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TestConcurrentTagHandlerPool {
+
+    @Test
+    public void testReuse() throws Exception {
+        ConcurrentTagHandlerPool pool = new ConcurrentTagHandlerPool();
+        pool.init(null);
+        Tag t1 = pool.get(TestTag.class);
+        Tag t2 = pool.get(TestTag.class);
+        assertNotSame(t1, t2);
+        assertEquals(2, pool.getCapacity());
+        pool.reuse(t1);
+        pool.reuse(t2);
+        assertEquals(2, pool.getSize());
+        assertSame(t2, pool.get(TestTag.class));
+        assertSame(t1, pool.get(TestTag.class));
+        // One more than the capacity, discarded when returned
+        Tag t3 = pool.get(TestTag.class);
+        assertEquals(3, pool.getCapacity());
+        pool.reuse(t1);
+        pool.reuse(t2);
+        pool.reuse(t3);
+        assertEquals(3, pool.getSize());
+        Tag t4 = new TestTag();
+        pool.reuse(t4);
+        assertEquals(1, ((TestTag) t4).released);
+        pool.release();
+        assertEquals(0, pool.getSize());
+        assertEquals(1, ((TestTag) t1).released);
+    }
+
+    @Test
+    public void testLostHandlers() throws Exception {
+        ConcurrentTagHandlerPool pool = new ConcurrentTagHandlerPool();
+        pool.init(null);
+        // Four handlers are never returned, as when their tags throw
+        Tag[] tags = new Tag[5];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = pool.get(TestTag.class);
+        }
+        pool.reuse(tags[0]);
+        assertEquals(5, pool.getCapacity());
+        pool.roll();
+        assertEquals(5, pool.getCapacity());
+        // Borrowed during the whole window, no longer counted
+        pool.reuse(pool.get(TestTag.class));
+        pool.roll();
+        assertEquals(5, pool.getCapacity());
+        pool.reuse(pool.get(TestTag.class));
+        pool.roll();
+        assertEquals(1, pool.getCapacity());
+        Tag t1 = pool.get(TestTag.class);
+        Tag t2 = pool.get(TestTag.class);
+        assertEquals(2, pool.getCapacity());
+        pool.reuse(t1);
+        pool.reuse(t2);
+        // A handler counted as lost which is returned
+        pool.reuse(tags[1]);
+        pool.roll();
+        pool.roll();
+        assertEquals(0, pool.getCapacity());
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        final ConcurrentTagHandlerPool pool = new ConcurrentTagHandlerPool();
+        pool.init(null);
+        final int threads = 8;
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        // All the threads hold a handler at the same time
+                        // once, so the capacity is the number of threads
+                        Tag first = pool.get(TestTag.class);
+                        ready.countDown();
+                        ready.await();
+                        pool.reuse(first);
+                        for (int j = 0; j < 10000; j++) {
+                            TestTag tag = (TestTag) pool.get(TestTag.class);
+                            if (tag.inUse.getAndSet(true)) {
+                                failures.incrementAndGet();
+                            }
+                            tag.inUse.set(false);
+                            pool.reuse(tag);
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals(0, failures.get());
+        assertEquals(threads, pool.getCapacity());
+        // Handlers are only discarded when the pool is full
+        assertEquals(threads, pool.getSize());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        TagHandlerPoolStatistics statistics = new TagHandlerPoolStatistics();
+        TagHandlerPoolStatistics.Counters counters =
+            statistics.getCounters(TestTag.class);
+        assertSame(counters, statistics.getCounters(TestTag.class));
+        counters.created.incrementAndGet();
+        assertEquals(TestTag.class.getName()
+                + ": borrowed=0, created=1, discarded=0",
+                statistics.getSummary()[0]);
+        statistics.reset();
+        assertEquals(0, counters.getCreated());
+    }
+
+    public static class TestTag extends TagSupport {
+        private static final long serialVersionUID = 1L;
+        final AtomicBoolean inUse = new AtomicBoolean();
+        int released = 0;
+
+        public void release() {
+            released++;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.naming.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestOffHeapResourceCache {
+
+    @Test
+    public void testContent() throws Exception {
+        OffHeapResourceCache cache = new OffHeapResourceCache();
+        byte[] content = new byte[3000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        load(cache, "/a", content);
+        CacheEntry entry = cache.lookup("/a");
+        assertNotNull(entry);
+        assertTrue(entry.resource instanceof OffHeapResourceCache.OffHeapResource);
+        assertNull(entry.resource.getContent());
+        assertEquals(3000, cache.getOffHeapSize());
+        assertEquals(3, cache.getCacheSize());
+
+        // Two readers at once
+        InputStream is1 = entry.resource.streamContent();
+        InputStream is2 = entry.resource.streamContent();
+        assertEquals(0, is1.read());
+        assertEquals(3000, read(is2).length);
+        byte[] rest = read(is1);
+        assertEquals(2999, rest.length);
+        assertEquals(content[2999], rest[2998]);
+
+        assertTrue(cache.unload("/a"));
+        assertFalse(cache.unload("/a"));
+        assertEquals(0, cache.getOffHeapSize());
+        assertEquals(0, cache.getCacheSize());
+        assertNull(cache.lookup("/a"));
+        assertEquals(3, cache.getAccessCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        OffHeapResourceCache cache = new OffHeapResourceCache();
+        cache.setCacheMaxSize(100);
+        // Hot entries, hit after being loaded
+        for (int i = 0; i < 5; i++) {
+            load(cache, "/hot" + i, new byte[9 * 1024]);
+            assertNotNull(cache.lookup("/hot" + i));
+        }
+        // A scan of entries read once
+        for (int i = 0; i < 100; i++) {
+            load(cache, "/cold" + i, new byte[9 * 1024]);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertNotNull("/hot" + i, cache.lookup("/hot" + i));
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        assertTrue(cache.getCacheSize() <= 100);
+        assertEquals(cache.getEntryCount() * 9 * 1024, cache.getOffHeapSize());
+        assertFalse(cache.allocate(101));
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        OffHeapResourceCache cache = new OffHeapResourceCache();
+        CacheEntry entry = new CacheEntry();
+        entry.name = "/missing";
+        entry.exists = false;
+        assertTrue(cache.allocate(entry.size));
+        cache.load(entry);
+        assertFalse(cache.lookup("/missing").exists);
+        assertEquals(1, cache.getCacheSize());
+    }
+
+    private static void load(ResourceCache cache, String name, byte[] content) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = name;
+        entry.resource = new Resource(content);
+        entry.size += content.length / 1024;
+        if (cache.lookup(name) == null && cache.allocate(entry.size)) {
+            cache.load(entry);
+        }
+    }
+
+    private static byte[] read(InputStream is) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] b = new byte[1000];
+        int n;
+        while ((n = is.read(b)) > 0) {
+            bos.write(b, 0, n);
+        }
+        return bos.toByteArray();
+    }
+}
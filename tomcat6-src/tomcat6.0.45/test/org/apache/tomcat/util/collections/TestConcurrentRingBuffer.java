@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestConcurrentRingBuffer {
+
+    @Test
+    public void testCapacityRoundedUp() {
+        ConcurrentRingBuffer<Integer> ring = new ConcurrentRingBuffer<Integer>(5);
+        Assert.assertEquals(8, ring.capacity());
+    }
+
+    @Test
+    public void testFifoAndFull() {
+        ConcurrentRingBuffer<Integer> ring = new ConcurrentRingBuffer<Integer>(4);
+        Assert.assertNull(ring.poll());
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                Assert.assertTrue(ring.offer(Integer.valueOf(i)));
+            }
+            Assert.assertFalse(ring.offer(Integer.valueOf(4)));
+            Assert.assertEquals(4, ring.size());
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(Integer.valueOf(i), ring.poll());
+            }
+            Assert.assertNull(ring.poll());
+            Assert.assertTrue(ring.isEmpty());
+        }
+    }
+
+    @Test
+    public void testClear() {
+        ConcurrentRingBuffer<Integer> ring = new ConcurrentRingBuffer<Integer>(4);
+        ring.offer(Integer.valueOf(1));
+        ring.offer(Integer.valueOf(2));
+        ring.clear();
+        Assert.assertEquals(0, ring.size());
+        Assert.assertTrue(ring.offer(Integer.valueOf(3)));
+        Assert.assertEquals(Integer.valueOf(3), ring.poll());
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final ConcurrentRingBuffer<Long> ring = new ConcurrentRingBuffer<Long>(64);
+        final int producers = 4;
+        final int perProducer = 50000;
+        final AtomicLong sum = new AtomicLong(0);
+        final AtomicLong count = new AtomicLong(0);
+
+        Thread[] threads = new Thread[producers * 2];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (long i = 1; i <= perProducer; i++) {
+                        Long value = Long.valueOf(i);
+                        while (!ring.offer(value)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[producers + p] = new Thread() {
+                @Override
+                public void run() {
+                    while (count.get() < (long) producers * perProducer) {
+                        Long value = ring.poll();
+                        if (value == null) {
+                            Thread.yield();
+                        } else {
+                            sum.addAndGet(value.longValue());
+                            count.incrementAndGet();
+                        }
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        Assert.assertEquals((long) producers * perProducer, count.get());
+        Assert.assertEquals((long) producers * perProducer * (perProducer + 1) / 2,
+                sum.get());
+        Assert.assertNull(ring.poll());
+    }
+}
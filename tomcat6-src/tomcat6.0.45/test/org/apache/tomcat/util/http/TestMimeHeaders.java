@@ -0,0 +1,114 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import java.util.Enumeration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestMimeHeaders {
+
+    @Test
+    public void testKnownHeaders() {
+        for (int i = 0; i < KnownHeaders.COUNT; i++) {
+            String name = KnownHeaders.getName(i);
+            byte[] b = ("x" + name.toUpperCase()).getBytes();
+            assertEquals(i, KnownHeaders.getToken(b, 1, name.length()));
+            assertEquals(i, KnownHeaders.getToken(name.toUpperCase()));
+        }
+        assertEquals(-1, KnownHeaders.getToken("x-custom"));
+        assertEquals(-1, KnownHeaders.getToken("hosı"));
+    }
+
+    @Test
+    public void testPlain() {
+        doTest(false);
+    }
+
+    @Test
+    public void testTokenized() {
+        doTest(true);
+    }
+
+    @Test
+    public void testTokenizeLater() {
+        MimeHeaders headers = new MimeHeaders();
+        add(headers, "Host", "localhost");
+        add(headers, "X-Custom", "a");
+        headers.setTokenized(true);
+        assertTrue(headers.isTokenized());
+        assertEquals("localhost",
+                headers.getValueByToken(KnownHeaders.HOST).toString());
+        assertEquals("a", headers.getHeader("x-custom"));
+    }
+
+    private void doTest(boolean tokenized) {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setTokenized(tokenized);
+        for (int round = 0; round < 2; round++) {
+            add(headers, "Host", "localhost");
+            add(headers, "Accept", "text/html");
+            add(headers, "X-Custom", "a");
+            add(headers, "ACCEPT", "text/plain");
+            add(headers, "Content-Length", "10");
+
+            assertEquals("localhost", headers.getHeader("host"));
+            assertEquals("localhost",
+                    headers.getValueByToken(KnownHeaders.HOST).toString());
+            assertNull(headers.getValueByToken(KnownHeaders.COOKIE));
+            assertEquals("a", headers.getHeader("x-custom"));
+            assertEquals(1, headers.findHeader("accept", 0));
+            assertEquals(3, headers.findHeader("accept", 2));
+            assertEquals(-1, headers.findHeader("accept", 4));
+
+            Enumeration<?> values = headers.values("Accept");
+            assertEquals("text/html", values.nextElement());
+            assertEquals("text/plain", values.nextElement());
+            assertTrue(!values.hasMoreElements());
+
+            try {
+                headers.getUniqueValue("accept");
+                assertTrue(false);
+            } catch (IllegalArgumentException expected) {
+                // Two Accept headers
+            }
+
+            headers.removeHeader("host");
+            assertNull(headers.getValueByToken(KnownHeaders.HOST));
+            assertEquals("10", headers.getHeader("content-length"));
+
+            headers.setValue("accept").setString("*/*");
+            assertEquals("*/*", headers.getUniqueValue("accept").toString());
+            assertEquals("10",
+                    headers.getValueByToken(KnownHeaders.CONTENT_LENGTH).toString());
+            assertEquals(3, headers.size());
+
+            headers.recycle();
+            assertEquals(0, headers.size());
+        }
+    }
+
+    private static void add(MimeHeaders headers, String name, String value) {
+        byte[] b = name.getBytes();
+        headers.addValue(b, 0, b.length).setString(value);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestParameters {
+
+    private static final String[] INPUTS = {
+        "a=1&b=2&a=3",
+        "foo=bar&&=baz&empty=&novalue",
+        "n%61me=v%20a+lue&plus+name=x",
+        "caf%C3%A9=cr%C3%A8me&euro=%E2%82%AC",
+        "x=%ZZ&y=2",
+        "x=1&%ZZ=2&y=3",
+    };
+
+    private static final String[] NAMES = {
+        "a", "b", "foo", "empty", "novalue", "name", "plus name",
+        "café", "euro", "x", "y", "%ZZ", "missing", ""
+    };
+
+    @Test
+    public void testLazyMatchesEager() throws Exception {
+        for (String input : INPUTS) {
+            for (String name : NAMES) {
+                Parameters eager = parse(input, false);
+                Parameters lazy = parse(input, true);
+                assertEquals(input + " " + name,
+                        eager.getParameter(name), lazy.getParameter(name));
+                assertArrayEquals(input + " " + name,
+                        eager.getParameterValues(name),
+                        lazy.getParameterValues(name));
+            }
+            Parameters eager = parse(input, false);
+            Parameters lazy = parse(input, true);
+            Set<String> lazyNames = names(lazy);
+            for (String name : names(eager)) {
+                assertTrue(input + " " + name, lazyNames.contains(name));
+            }
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        Parameters lazy = parse("a=1&b=2&c=3&d=4", true, 2);
+        assertTrue(lazy.isParseFailed());
+        assertEquals("2", lazy.getParameter("b"));
+        assertNull(lazy.getParameter("c"));
+    }
+
+    @Test
+    public void testDecodeOnLookup() throws Exception {
+        Parameters lazy = parse("a=1&b=%ZZ", true);
+        assertEquals("1", lazy.getParameter("a"));
+        assertFalse(lazy.isParseFailed());
+        assertNull(lazy.getParameter("b"));
+        assertTrue(lazy.isParseFailed());
+    }
+
+    @Test
+    public void testRecycle() throws Exception {
+        Parameters lazy = parse("a=1&b=2", true);
+        assertEquals("2", lazy.getParameter("b"));
+        lazy.recycle();
+        byte[] bytes = "b=3".getBytes("ISO-8859-1");
+        lazy.processParameters(bytes, 0, bytes.length);
+        assertEquals("3", lazy.getParameter("b"));
+        assertNull(lazy.getParameter("a"));
+        lazy.addParameterValues("b", new String[] {"4"});
+        assertArrayEquals(new String[] {"3", "4"}, lazy.getParameterValues("b"));
+    }
+
+    @Test
+    public void testLookupBetweenParses() throws Exception {
+        Parameters lazy = parse("a=1&b=2", true);
+        assertEquals("1", lazy.getParameter("a"));
+        assertNull(lazy.getParameter("c"));
+        // Parameters added after a lookup, such as a body after the query
+        byte[] bytes = "a=3&c=4".getBytes("ISO-8859-1");
+        lazy.processParameters(bytes, 0, bytes.length);
+        assertArrayEquals(new String[] {"1", "3"}, lazy.getParameterValues("a"));
+        assertEquals("4", lazy.getParameter("c"));
+        assertEquals(3, names(lazy).size());
+    }
+
+    private static Parameters parse(String input, boolean lazy)
+            throws Exception {
+        return parse(input, lazy, -1);
+    }
+
+    private static Parameters parse(String input, boolean lazy, int limit)
+            throws Exception {
+        Parameters parameters = new Parameters();
+        parameters.setLazy(lazy);
+        parameters.setLimit(limit);
+        parameters.setEncoding("UTF-8");
+        byte[] bytes = input.getBytes("ISO-8859-1");
+        parameters.processParameters(bytes, 0, bytes.length);
+        return parameters;
+    }
+
+    private static Set<String> names(Parameters parameters) {
+        Set<String> names = new HashSet<String>();
+        Enumeration<String> e = parameters.getParameterNames();
+        while (e.hasMoreElements()) {
+            names.add(e.nextElement());
+        }
+        return names;
+    }
+}
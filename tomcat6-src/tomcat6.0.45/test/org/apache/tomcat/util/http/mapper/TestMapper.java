@@ -0,0 +1,121 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http.mapper;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMapper {
+
+    private static final String[] URIS = {
+        "/", "/foo", "/foo/", "/foo/bar", "/foo/bar/", "/foo/bar/baz",
+        "/foo/bar/baz/index.jsp", "/foobar", "/foobar/x.jsp", "/foo/index.jsp",
+        "/foo/servlet", "/foo/servlet/", "/foo/servlet/more/info",
+        "/foo/servletx", "/foo/img/a.gif", "/foo/a.b/c", "/foo/.jsp",
+        "/foo/exact", "/foo/exact/", "/bar/exact", "/bar", "/bar/x.do",
+        "/a/b/c/d/e", "/a/b/c", "/a/b", "/a", "/a/b/c/d/servlet/x",
+        "/foo/bar/baz/servlet/x", "x", "/FOO/bar", "/a/b/c/x.jsp"
+    };
+
+    private static final String[] HOSTS = {
+        "localhost", "LOCALHOST", "alias", "www.example.org", "unknown", ""
+    };
+
+    private Mapper createMapper() {
+        Mapper mapper = new Mapper();
+        mapper.setDefaultHostName("localhost");
+        mapper.addHost("localhost", new String[] {"alias"}, "host0");
+        mapper.addHost("www.example.org", new String[0], "host1");
+        String[] contexts = {"", "/foo", "/foo/bar", "/bar", "/a/b/c"};
+        for (int i = 0; i < contexts.length; i++) {
+            String path = contexts[i];
+            mapper.addContext("localhost", path, "ctx" + path,
+                    new String[0], null, false, false);
+            mapper.addWrapper("localhost", path, "/", "default" + path);
+            mapper.addWrapper("localhost", path, "*.jsp", "jsp" + path);
+            mapper.addWrapper("localhost", path, "/servlet/*", "servlet" + path);
+            mapper.addWrapper("localhost", path, "/exact", "exact" + path);
+            mapper.addWrapper("localhost", path, "/d/*", "d" + path);
+        }
+        mapper.addWrapper("localhost", "/bar", "/*", "all/bar");
+        mapper.addWrapper("localhost", "/bar", "*.do", "do/bar");
+        mapper.addContext("www.example.org", "/foo", "ctx1/foo",
+                new String[0], null, false, false);
+        mapper.addWrapper("www.example.org", "/foo", "/servlet/*", "servlet1/foo");
+        return mapper;
+    }
+
+    @Test
+    public void testCompiledMatchesBinarySearch() throws Exception {
+        Mapper plain = createMapper();
+        Mapper compiled = createMapper();
+        compiled.setCompiled(true);
+        for (int i = 0; i < HOSTS.length; i++) {
+            for (int j = 0; j < URIS.length; j++) {
+                MappingData expected = map(plain, HOSTS[i], URIS[j]);
+                MappingData actual = map(compiled, HOSTS[i], URIS[j]);
+                String msg = HOSTS[i] + URIS[j];
+                Assert.assertEquals(msg, expected.host, actual.host);
+                Assert.assertEquals(msg, expected.context, actual.context);
+                Assert.assertEquals(msg, expected.wrapper, actual.wrapper);
+                Assert.assertEquals(msg, expected.contextPath.toString(),
+                        actual.contextPath.toString());
+                Assert.assertEquals(msg, expected.wrapperPath.toString(),
+                        actual.wrapperPath.toString());
+                Assert.assertEquals(msg, expected.pathInfo.toString(),
+                        actual.pathInfo.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testRebuildOnChange() throws Exception {
+        Mapper mapper = createMapper();
+        mapper.setCompiled(true);
+        long rebuilds = mapper.getRebuildCount();
+        Assert.assertTrue(rebuilds > 0);
+        Assert.assertTrue(mapper.getTrieNodeCount() > 0);
+
+        mapper.addContext("localhost", "/new", "ctx/new",
+                new String[0], null, false, false);
+        mapper.addWrapper("localhost", "/new", "/x/*", "x/new");
+        Assert.assertEquals("x/new", map(mapper, "localhost", "/new/x/y").wrapper);
+        Assert.assertEquals(rebuilds + 2, mapper.getRebuildCount());
+
+        mapper.removeWrapper("localhost", "/new", "/x/*");
+        Assert.assertNull(map(mapper, "localhost", "/new/x/y").wrapper);
+        mapper.removeContext("localhost", "/new");
+        Assert.assertEquals("ctx", map(mapper, "localhost", "/new/x/y").context);
+
+        mapper.setCompiled(false);
+        Assert.assertEquals(0, mapper.getTrieNodeCount());
+        Assert.assertEquals("servlet/foo",
+                map(mapper, "localhost", "/foo/servlet/a").wrapper);
+    }
+
+    private static MappingData map(Mapper mapper, String host, String uri)
+            throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes hostMB = MessageBytes.newInstance();
+        hostMB.setString(host);
+        MessageBytes uriMB = MessageBytes.newInstance();
+        uriMB.setString(uri);
+        mapper.map(hostMB, uriMB, mappingData);
+        return mappingData;
+    }
+}
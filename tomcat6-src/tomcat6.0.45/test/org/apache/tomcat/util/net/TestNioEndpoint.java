@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestNioEndpoint {
+
+    @Test
+    public void testEventOrder() throws Exception {
+        NioEndpoint endpoint = new NioEndpoint();
+        endpoint.setEventQueueSize(2);
+        NioEndpoint.Poller poller = endpoint.new Poller();
+        final List<Integer> order = new ArrayList<Integer>();
+        try {
+            int added = 0;
+            // Fill the ring, one event overflows
+            for (; added < 3; added++) {
+                poller.addEvent(new Event(order, added));
+            }
+            // The ring has room again, newer events still queue behind
+            // the overflowed one
+            poller.pollEvent().run();
+            for (; added < 6; added++) {
+                poller.addEvent(new Event(order, added));
+            }
+            Runnable r;
+            while ((r = poller.pollEvent()) != null) {
+                r.run();
+                if (order.size() == 4) {
+                    // Overflow drained, the ring is used again
+                    poller.addEvent(new Event(order, added++));
+                }
+            }
+            assertEquals(added, order.size());
+            for (int i = 0; i < order.size(); i++) {
+                assertEquals(Integer.valueOf(i), order.get(i));
+            }
+        } finally {
+            poller.selector.close();
+        }
+    }
+
+    private static class Event implements Runnable {
+        private List<Integer> order;
+        private int nr;
+
+        Event(List<Integer> order, int nr) {
+            this.order = order;
+            this.nr = nr;
+        }
+
+        public void run() {
+            order.add(Integer.valueOf(nr));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.scan;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestJarScanCache {
+
+    @Test
+    public void testCache() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestJarScanCache" + System.nanoTime());
+        dir.mkdirs();
+        File file = new File(dir, "test.cache");
+        File a = write(new File(dir, "a.jar"), 10);
+        File b = write(new File(dir, "b.jar"), 20);
+        try {
+            JarScanCache cache = new JarScanCache(file);
+            assertNull(cache.get(a));
+            cache.put(a, new String[] {"x", "y"});
+            cache.put(b, new String[0]);
+            cache.save();
+            assertTrue(file.isFile());
+
+            cache = new JarScanCache(file);
+            assertArrayEquals(new String[] {"x", "y"}, cache.get(a));
+            assertArrayEquals(new String[0], cache.get(b));
+
+            // A changed JAR is scanned again
+            write(b, 21);
+            cache = new JarScanCache(file);
+            assertNull(cache.get(b));
+            assertArrayEquals(new String[] {"x", "y"}, cache.get(a));
+            // Unused JARs are dropped when saving
+            cache.save();
+            cache = new JarScanCache(file);
+            assertNull(cache.get(b));
+            write(b, 20);
+            assertNull(cache.get(b));
+
+            // Invalid files are ignored
+            write(file, 100);
+            cache = new JarScanCache(file);
+            assertNull(cache.get(a));
+        } finally {
+            a.delete();
+            b.delete();
+            file.delete();
+            dir.delete();
+            assertFalse(dir.exists());
+        }
+    }
+
+    private static File write(File file, int length) throws Exception {
+        FileOutputStream os = new FileOutputStream(file);
+        os.write(new byte[length]);
+        os.close();
+        return file;
+    }
+}